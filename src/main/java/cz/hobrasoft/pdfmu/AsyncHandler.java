@@ -0,0 +1,151 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+/**
+ * A {@link Handler} that passes the records to another handler in a
+ * background thread
+ *
+ * <p>
+ * The thread that logs a message does not wait for the message to be
+ * formatted and written. The records are queued in order; if the queue is
+ * full, the logging thread waits for a free slot, so the memory taken by the
+ * queue is bounded and no record is lost. {@link #flush()} and
+ * {@link #close()} wait until the queued records have been written.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public class AsyncHandler extends Handler {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private final Handler target;
+    private final ExecutorService executor;
+
+    /**
+     * @param target the handler that writes the records
+     */
+    public AsyncHandler(Handler target) {
+        this(target, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param target the handler that writes the records
+     * @param capacity the maximum number of records waiting to be written
+     */
+    public AsyncHandler(Handler target, int capacity) {
+        this.target = target;
+        setLevel(target.getLevel());
+        setFilter(target.getFilter());
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(capacity),
+                new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "pdfmu-log");
+                thread.setDaemon(true);
+                return thread;
+            }
+        },
+                new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+                if (e.isShutdown()) {
+                    throw new RejectedExecutionException("The handler has been closed.");
+                }
+                // Wait for a free slot rather than dropping the record
+                try {
+                    e.getQueue().put(r);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException(ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the handler that writes the records
+     */
+    public Handler getTarget() {
+        return target;
+    }
+
+    @Override
+    public void publish(final LogRecord record) {
+        if (!isLoggable(record)) {
+            return;
+        }
+        // Infer the caller in the logging thread
+        record.getSourceClassName();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    target.publish(record);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            reportError(null, ex, ErrorManager.WRITE_FAILURE);
+        }
+    }
+
+    @Override
+    public void flush() {
+        try {
+            Future<?> future = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    target.flush();
+                }
+            });
+            future.get();
+        } catch (RejectedExecutionException | ExecutionException ex) {
+            reportError(null, ex, ErrorManager.FLUSH_FAILURE);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes the queued records, stops the background thread and closes the
+     * target handler
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        target.close();
+    }
+}
@@ -0,0 +1,49 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Signals that the deadline of the request has passed while reading or
+ * writing
+ *
+ * <p>
+ * Thrown from the I/O callbacks invoked by iText (see
+ * {@link RequestContext#checkDeadlineIO(String)}), where only
+ * {@link java.io.IOException} may be thrown.
+ * {@link RequestContext#translateTimeout(Throwable)} recognizes it in the
+ * causes of the exception that reaches the operation.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public class DeadlineExceededException extends InterruptedIOException {
+
+    private final String phase;
+
+    public DeadlineExceededException(String phase) {
+        super(String.format("The deadline has passed while %s.", phase));
+        this.phase = phase;
+    }
+
+    /**
+     * @return the activity that has been interrupted
+     */
+    public String getPhase() {
+        return phase;
+    }
+}
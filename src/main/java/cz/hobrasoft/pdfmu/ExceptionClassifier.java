@@ -0,0 +1,155 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu;
+
+import cz.hobrasoft.pdfmu.error.ErrorType;
+import cz.hobrasoft.pdfmu.operation.OperationException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Converts exceptions to {@link OperationException}s by their classes and
+ * messages
+ *
+ * <p>
+ * The table assigns exception classes to lists of
+ * {@link ExceptionMessagePattern}s. The patterns of a class are combined into
+ * one regular expression that is compiled when the class is added, so
+ * classifying an exception matches its message once. An exception is
+ * classified by the entry of its own class or of its nearest registered
+ * superclass.
+ *
+ * <p>
+ * Fill the table in a static initializer and share it. Classification is
+ * thread-safe once the table is filled.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public class ExceptionClassifier {
+
+    // Named groups in the patterns, but not lookbehinds `(?<=` and `(?<!`
+    private static final Pattern GROUP_NAME = Pattern.compile("(?<!\\\\)\\(\\?<([a-zA-Z][a-zA-Z0-9]*)>");
+
+    private static class Entry {
+
+        private final List<ExceptionMessagePattern> patterns;
+        private final Pattern combined;
+        private final ErrorType fallback;
+
+        // Names of the groups in `combined`
+        private final String[] markers;
+        private final String[][] groupNames;
+
+        private Entry(List<ExceptionMessagePattern> patterns, ErrorType fallback) {
+            this.patterns = patterns;
+            this.fallback = fallback;
+            markers = new String[patterns.size()];
+            groupNames = new String[patterns.size()][];
+
+            // `(?<p0>...)|(?<p1>...)|...`
+            // The group `name` of the pattern i is renamed to `pigname`
+            // because group names must be unique in the combined expression.
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < patterns.size(); ++i) {
+                if (i > 0) {
+                    sb.append('|');
+                }
+                String regex = GROUP_NAME.matcher(patterns.get(i).getRegex())
+                        .replaceAll(String.format("(?<p%dg$1>", i));
+                markers[i] = String.format("p%d", i);
+                sb.append(String.format("(?<%s>%s)", markers[i], regex));
+
+                List<String> names = patterns.get(i).getGroupNames();
+                groupNames[i] = new String[names.size()];
+                for (int j = 0; j < names.size(); ++j) {
+                    groupNames[i][j] = String.format("p%dg%s", i, names.get(j));
+                }
+            }
+            this.combined = Pattern.compile(sb.toString());
+        }
+
+        private OperationException classify(Exception e) {
+            String message = e.getMessage();
+            if (message != null) {
+                Matcher m = combined.matcher(message);
+                if (m.matches()) {
+                    for (int i = 0; i < patterns.size(); ++i) {
+                        if (m.group(markers[i]) != null) {
+                            ExceptionMessagePattern pattern = patterns.get(i);
+                            List<String> names = pattern.getGroupNames();
+                            Map<String, Object> arguments = new LinkedHashMap<>();
+                            for (int j = 0; j < names.size(); ++j) {
+                                arguments.put(names.get(j), m.group(groupNames[i][j]));
+                            }
+                            return new OperationException(pattern.getErrorType(), e, arguments);
+                        }
+                    }
+                    assert false; // One of the alternatives matched
+                }
+            }
+            if (fallback != null) {
+                return new OperationException(fallback, e);
+            }
+            return null;
+        }
+    }
+
+    private final Map<Class<?>, Entry> entries = new HashMap<>();
+
+    /**
+     * Adds the patterns of an exception class
+     *
+     * <p>
+     * The patterns are tried in the given order, so put the specific patterns
+     * before the general ones.
+     *
+     * @param type the exception class. The entry also applies to its
+     * subclasses that have no entry of their own.
+     * @param patterns the patterns of the messages
+     * @param fallback the error type of the exceptions whose messages match
+     * none of the patterns, or null to try the entry of the superclass
+     */
+    public void put(Class<? extends Exception> type, List<ExceptionMessagePattern> patterns, ErrorType fallback) {
+        entries.put(type, new Entry(new ArrayList<>(patterns), fallback));
+    }
+
+    /**
+     * Converts an exception to an {@link OperationException}
+     *
+     * @param e the exception to convert
+     * @return the {@link OperationException} of the first matching pattern or
+     * fallback, or null if no entry classifies {@code e}. The cause of the
+     * result is {@code e}.
+     */
+    public OperationException classify(Exception e) {
+        for (Class<?> c = e.getClass(); c != null; c = c.getSuperclass()) {
+            Entry entry = entries.get(c);
+            if (entry != null) {
+                OperationException oe = entry.classify(e);
+                if (oe != null) {
+                    return oe;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -25,6 +25,13 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
+ * Converts exceptions whose messages match a regular expression to
+ * {@link OperationException}s
+ *
+ * <p>
+ * The regular expression is compiled once when the pattern is created. To
+ * classify an exception by several patterns, combine them in an
+ * {@link ExceptionClassifier}.
  *
  * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
  */
@@ -32,14 +39,28 @@ public class ExceptionMessagePattern {
 
     private final ErrorType errorType;
     private final String regex;
+    private final Pattern pattern;
     private final List<String> groupNames;
 
     public ExceptionMessagePattern(ErrorType errorType, String regex, List<String> groupNames) {
         this.errorType = errorType;
         this.regex = regex;
+        this.pattern = Pattern.compile(regex);
         this.groupNames = groupNames;
     }
 
+    ErrorType getErrorType() {
+        return errorType;
+    }
+
+    String getRegex() {
+        return regex;
+    }
+
+    List<String> getGroupNames() {
+        return groupNames;
+    }
+
     /**
      * Tries to convert an exception to an {@link OperationException}.
      *
@@ -49,8 +70,10 @@ public class ExceptionMessagePattern {
      */
     public OperationException getOperationException(Exception e) {
         String message = e.getMessage();
-        Pattern p = Pattern.compile(regex);
-        Matcher m = p.matcher(message);
+        if (message == null) {
+            return null;
+        }
+        Matcher m = pattern.matcher(message);
         if (m.matches()) {
             Map<String, String> arguments = PdfmuUtils.getMatcherGroups(m, groupNames);
             Map<String, Object> argumentsObjects = new LinkedHashMap<>();
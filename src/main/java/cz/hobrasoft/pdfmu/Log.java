@@ -0,0 +1,178 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link Logger} that formats the messages only if they are logged
+ *
+ * <p>
+ * The messages are {@link String#format(String, Object...)} format strings
+ * with their arguments passed separately:
+ * <pre>
+ * {@code
+ * private static final Log logger = Log.getLog(Example.class);
+ * // ...
+ * logger.info("Input file: %s", file);
+ * }
+ * </pre>
+ *
+ * <p>
+ * If the level is disabled (for example after {@code Main} has disabled the
+ * loggers for a JSON output format), a call only checks the level: the
+ * message is not formatted and the arguments are not converted to strings.
+ * The methods with up to three arguments do not allocate an argument array.
+ * Arguments that are expensive to compute should be guarded by
+ * {@link #isLoggable(Level)}.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public final class Log {
+
+    private final Logger logger;
+    private final String sourceClass;
+
+    private Log(Logger logger, String sourceClass) {
+        this.logger = logger;
+        this.sourceClass = sourceClass;
+    }
+
+    /**
+     * @param c the class that logs the messages
+     * @return a log that writes to the {@link Logger} named after {@code c}
+     */
+    public static Log getLog(Class<?> c) {
+        return new Log(Logger.getLogger(c.getName()), c.getName());
+    }
+
+    /**
+     * @param level the level of a message
+     * @return true if messages of the level are logged
+     */
+    public boolean isLoggable(Level level) {
+        return logger.isLoggable(level);
+    }
+
+    /**
+     * Logs a message with an exception
+     *
+     * @param level the level of the message
+     * @param message the message. It is not formatted.
+     * @param thrown the exception
+     */
+    public void log(Level level, String message, Throwable thrown) {
+        if (logger.isLoggable(level)) {
+            logger.logp(level, sourceClass, null, message, thrown);
+        }
+    }
+
+    private void write(Level level, String message) {
+        logger.logp(level, sourceClass, null, message);
+    }
+
+    public void severe(String message) {
+        if (logger.isLoggable(Level.SEVERE)) {
+            write(Level.SEVERE, message);
+        }
+    }
+
+    public void severe(String format, Object arg) {
+        if (logger.isLoggable(Level.SEVERE)) {
+            write(Level.SEVERE, String.format(format, arg));
+        }
+    }
+
+    public void severe(String format, Object arg1, Object arg2) {
+        if (logger.isLoggable(Level.SEVERE)) {
+            write(Level.SEVERE, String.format(format, arg1, arg2));
+        }
+    }
+
+    public void severe(String format, Object arg1, Object arg2, Object arg3) {
+        if (logger.isLoggable(Level.SEVERE)) {
+            write(Level.SEVERE, String.format(format, arg1, arg2, arg3));
+        }
+    }
+
+    public void warning(String message) {
+        if (logger.isLoggable(Level.WARNING)) {
+            write(Level.WARNING, message);
+        }
+    }
+
+    public void warning(String format, Object arg) {
+        if (logger.isLoggable(Level.WARNING)) {
+            write(Level.WARNING, String.format(format, arg));
+        }
+    }
+
+    public void warning(String format, Object arg1, Object arg2) {
+        if (logger.isLoggable(Level.WARNING)) {
+            write(Level.WARNING, String.format(format, arg1, arg2));
+        }
+    }
+
+    public void warning(String format, Object arg1, Object arg2, Object arg3) {
+        if (logger.isLoggable(Level.WARNING)) {
+            write(Level.WARNING, String.format(format, arg1, arg2, arg3));
+        }
+    }
+
+    public void info(String message) {
+        if (logger.isLoggable(Level.INFO)) {
+            write(Level.INFO, message);
+        }
+    }
+
+    public void info(String format, Object arg) {
+        if (logger.isLoggable(Level.INFO)) {
+            write(Level.INFO, String.format(format, arg));
+        }
+    }
+
+    public void info(String format, Object arg1, Object arg2) {
+        if (logger.isLoggable(Level.INFO)) {
+            write(Level.INFO, String.format(format, arg1, arg2));
+        }
+    }
+
+    public void info(String format, Object arg1, Object arg2, Object arg3) {
+        if (logger.isLoggable(Level.INFO)) {
+            write(Level.INFO, String.format(format, arg1, arg2, arg3));
+        }
+    }
+
+    public void fine(String message) {
+        if (logger.isLoggable(Level.FINE)) {
+            write(Level.FINE, message);
+        }
+    }
+
+    public void fine(String format, Object arg) {
+        if (logger.isLoggable(Level.FINE)) {
+            write(Level.FINE, String.format(format, arg));
+        }
+    }
+
+    public void fine(String format, Object arg1, Object arg2) {
+        if (logger.isLoggable(Level.FINE)) {
+            write(Level.FINE, String.format(format, arg1, arg2));
+        }
+    }
+}
@@ -17,29 +17,32 @@
 package cz.hobrasoft.pdfmu;
 
 import static cz.hobrasoft.pdfmu.error.ErrorType.INPUT_NOT_FOUND;
+import static cz.hobrasoft.pdfmu.error.ErrorType.OUTPUT_RESULT_FILE_OPEN;
 import static cz.hobrasoft.pdfmu.error.ErrorType.PARSER_EXPECTED_ONE_ARGUMENT;
 import static cz.hobrasoft.pdfmu.error.ErrorType.PARSER_INVALID_CHOICE;
 import static cz.hobrasoft.pdfmu.error.ErrorType.PARSER_TOO_FEW_ARGUMENTS;
 import static cz.hobrasoft.pdfmu.error.ErrorType.PARSER_UNKNOWN;
 import static cz.hobrasoft.pdfmu.error.ErrorType.PARSER_UNRECOGNIZED_ARGUMENT;
 import static cz.hobrasoft.pdfmu.error.ErrorType.PARSER_UNRECOGNIZED_COMMAND;
+import cz.hobrasoft.pdfmu.jackson.Timings;
+import cz.hobrasoft.pdfmu.jfr.Events;
 import cz.hobrasoft.pdfmu.operation.Operation;
-import cz.hobrasoft.pdfmu.operation.OperationAttach;
 import cz.hobrasoft.pdfmu.operation.OperationException;
-import cz.hobrasoft.pdfmu.operation.OperationInspect;
-import cz.hobrasoft.pdfmu.operation.metadata.OperationMetadataSet;
-import cz.hobrasoft.pdfmu.operation.signature.OperationSignatureAdd;
-import cz.hobrasoft.pdfmu.operation.version.OperationVersionSet;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import static java.nio.charset.StandardCharsets.US_ASCII;
+import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.Properties;
-import java.util.Set;
+import java.util.logging.Handler;
+import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
 import net.sourceforge.argparse4j.ArgumentParsers;
@@ -63,9 +66,44 @@ public class Main {
     private static void disableLoggers() {
         // http://stackoverflow.com/a/3363747
         LogManager.getLogManager().reset(); // Remove the handlers
+        // Disable all the levels so that `Log` does not even format the messages
+        Logger.getLogger("").setLevel(Level.OFF);
     }
 
-    private static final Logger logger = Logger.getLogger(Main.class.getName());
+    /**
+     * Replaces the handlers of the root logger with {@link AsyncHandler}s
+     *
+     * @return the asynchronous handlers
+     */
+    private static List<AsyncHandler> enableAsyncLogging() {
+        Logger root = Logger.getLogger("");
+        List<AsyncHandler> asyncHandlers = new ArrayList<>();
+        for (Handler handler : root.getHandlers()) {
+            AsyncHandler asyncHandler = new AsyncHandler(handler);
+            root.removeHandler(handler);
+            root.addHandler(asyncHandler);
+            asyncHandlers.add(asyncHandler);
+        }
+        return asyncHandlers;
+    }
+
+    /**
+     * Writes the queued messages and restores the original handlers of the
+     * root logger
+     *
+     * @param asyncHandlers the handlers returned by
+     * {@link #enableAsyncLogging()}
+     */
+    private static void disableAsyncLogging(List<AsyncHandler> asyncHandlers) {
+        Logger root = Logger.getLogger("");
+        for (AsyncHandler asyncHandler : asyncHandlers) {
+            root.removeHandler(asyncHandler);
+            asyncHandler.close();
+            root.addHandler(asyncHandler.getTarget());
+        }
+    }
+
+    private static final Log logger = Log.getLog(Main.class);
 
     static {
         // Configure log message format
@@ -91,12 +129,31 @@ public class Main {
                 .help("show legal notice and exit")
                 .action(new PrintAndExitAction(getLegalNotice()));
 
-        // TODO: Use an enum
         parser.addArgument("--output-format")
-                .choices("text", "json")
-                .setDefault("text")
+                .choices((Object[]) OutputFormat.names())
+                .setDefault(OutputFormat.TEXT.toString())
                 .type(String.class)
-                .help("format of stderr output");
+                .help("format of the output (text and json are written to stderr, jsonl, cbor and smile to stdout)");
+
+        parser.addArgument("--result-file")
+                .metavar("FILE")
+                .type(Arguments.fileType())
+                .help("write the output to FILE instead of stderr or stdout");
+
+        parser.addArgument("--timings")
+                .type(boolean.class)
+                .action(Arguments.storeTrue())
+                .help("report the durations of the phases of the request (parsing, opening, the operation, TSA, closing the stamper, writing)");
+
+        parser.addArgument("--timeout")
+                .metavar("SECONDS")
+                .type(Double.class)
+                .help("abort the operation once it has run for SECONDS, leaving the output file untouched (default: no timeout). The server applies the timeout to each request.");
+
+        parser.addArgument("--async-logging")
+                .type(boolean.class)
+                .action(Arguments.storeTrue())
+                .help("write the log messages of the text output format in a background thread");
 
         return parser;
     }
@@ -111,12 +168,12 @@ public class Main {
             try {
                 POM_PROPERTIES.load(in);
             } catch (IOException ex) {
-                logger.severe(String.format("Could not load the POM properties file: %s", ex));
+                logger.severe("Could not load the POM properties file: %s", ex);
             }
             try {
                 in.close();
             } catch (IOException ex) {
-                logger.severe(String.format("Could not close the POM properties file: %s", ex));
+                logger.severe("Could not close the POM properties file: %s", ex);
             }
         } else {
             logger.severe("Could not open the POM properties file.");
@@ -133,12 +190,12 @@ public class Main {
             try {
                 legalNotice = IOUtils.toString(in, US_ASCII);
             } catch (IOException ex) {
-                logger.severe(String.format("Could not load the legal notice file: %s", ex));
+                logger.severe("Could not load the legal notice file: %s", ex);
             }
             try {
                 in.close();
             } catch (IOException ex) {
-                logger.severe(String.format("Could not close the legal notice file: %s", ex));
+                logger.severe("Could not close the legal notice file: %s", ex);
             }
         } else {
             logger.severe("Could not open the legal notice file.");
@@ -164,13 +221,18 @@ public class Main {
     }
 
     /**
-     * Use {@link LinkedHashMap} or {@link java.util.TreeMap} as operations to
-     * specify the order in which the operations are printed.
+     * Creates the parser with the operations attached as sub-commands
+     *
+     * <p>
+     * Only the operation {@code operationName} is loaded and gets its
+     * arguments configured. The other operations are listed with their help.
      *
-     * @param operations a map that assigns the operations to their names
+     * @param registry the available operations
+     * @param operationName the name of the requested operation, or null if no
+     * operation was recognized in the arguments
      * @return an argument parser with the operations attached as sub-commands
      */
-    private static ArgumentParser createFullParser(Map<String, Operation> operations) {
+    private static ArgumentParser createFullParser(OperationRegistry registry, String operationName) {
         // Create a command line argument parser
         ArgumentParser parser = createBasicParser();
 
@@ -182,17 +244,55 @@ public class Main {
                 .dest("operation");
 
         // Configure operation subparsers
-        for (Map.Entry<String, Operation> e : operations.entrySet()) {
-            String name = e.getKey();
-            Operation operation = e.getValue();
-            operation.configureSubparser(subparsers.addParser(name));
-        }
+        registry.addSubparsers(subparsers, operationName);
 
         return parser;
     }
 
-    private static OperationException apeToOe(ArgumentParserException e) {
-        Set<ExceptionMessagePattern> patterns = new HashSet<>();
+    private static final String[] OPTIONS_WITH_VALUE = {"--output-format", "--result-file", "--timeout"};
+
+    /**
+     * Finds the name of the requested operation without parsing the arguments
+     *
+     * <p>
+     * The operation is the first positional argument. The options of the main
+     * parser that take a value are {@link #OPTIONS_WITH_VALUE}, possibly
+     * abbreviated.
+     *
+     * @param args the command line arguments
+     * @param registry the available operations
+     * @return the name of the operation, or null if the arguments do not
+     * request a registered operation
+     */
+    static String findOperationName(String[] args, OperationRegistry registry) {
+        for (int i = 0; i < args.length; ++i) {
+            String arg = args[i];
+            if ("--".equals(arg)) {
+                if (i + 1 < args.length && registry.contains(args[i + 1])) {
+                    return args[i + 1];
+                }
+                return null;
+            }
+            if (arg.startsWith("-")) {
+                if (arg.length() > 2 && !arg.contains("=")) {
+                    for (String option : OPTIONS_WITH_VALUE) {
+                        if (option.startsWith(arg)) {
+                            ++i; // Skip the value
+                            break;
+                        }
+                    }
+                }
+                continue;
+            }
+            return registry.contains(arg) ? arg : null;
+        }
+        return null;
+    }
+
+    private static final ExceptionClassifier PARSER_EXCEPTIONS = new ExceptionClassifier();
+
+    static {
+        List<ExceptionMessagePattern> patterns = new ArrayList<>();
 
         patterns.add(new ExceptionMessagePattern(INPUT_NOT_FOUND,
                 "argument (?<argument>.*): Insufficient permissions to read file: \'(?<file>.*)\'",
@@ -222,19 +322,12 @@ public class Main {
                 "argument (?<argument>.*): expected one argument",
                 Arrays.asList(new String[]{"argument"})));
 
-        OperationException oe = null;
-        for (ExceptionMessagePattern p : patterns) {
-            oe = p.getOperationException(e);
-            if (oe != null) {
-                break;
-            }
-        }
-
-        if (oe == null) {
-            // Unknown parser exception
-            oe = new OperationException(PARSER_UNKNOWN, e);
-        }
+        // Unknown parser exception
+        PARSER_EXCEPTIONS.put(ArgumentParserException.class, patterns, PARSER_UNKNOWN);
+    }
 
+    static OperationException apeToOe(ArgumentParserException e) {
+        OperationException oe = PARSER_EXCEPTIONS.classify(e);
         assert oe != null;
         return oe;
     }
@@ -245,18 +338,50 @@ public class Main {
      * @param args the command line arguments
      */
     public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    private static void appendTiming(StringBuilder sb, String name, Long nanos) {
+        if (nanos != null) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(String.format("%s %.3f ms", name, nanos / 1e6));
+        }
+    }
+
+    /**
+     * @return the durations in milliseconds, for example "parse 1.234 ms,
+     * total 56.789 ms"
+     */
+    static String formatTimings(Timings timings) {
+        StringBuilder sb = new StringBuilder();
+        appendTiming(sb, "parse", timings.parse);
+        appendTiming(sb, "open", timings.open);
+        appendTiming(sb, "operation", timings.operation);
+        appendTiming(sb, "TSA", timings.tsa);
+        appendTiming(sb, "stamper close", timings.stamperClose);
+        appendTiming(sb, "write", timings.write);
+        appendTiming(sb, "total", timings.total);
+        return sb.toString();
+    }
+
+    /**
+     * Runs PDFMU without terminating the JVM
+     *
+     * @param args the command line arguments
+     * @return the exit status
+     */
+    public static int run(String[] args) {
+        long start = RequestContext.now();
         int exitStatus = 0; // Default: 0 (normal termination)
 
-        // Create a map of operations
-        Map<String, Operation> operations = new LinkedHashMap<>();
-        operations.put("inspect", OperationInspect.getInstance());
-        operations.put("update-version", OperationVersionSet.getInstance());
-        operations.put("update-properties", OperationMetadataSet.getInstance());
-        operations.put("attach", OperationAttach.getInstance());
-        operations.put("sign", OperationSignatureAdd.getInstance());
+        // Load only the requested operation
+        OperationRegistry registry = OperationRegistry.createDefault();
+        String requestedName = findOperationName(args, registry);
 
         // Create a command line argument parser
-        ArgumentParser parser = createFullParser(operations);
+        ArgumentParser parser = createFullParser(registry, requestedName);
 
         // Parse command line arguments
         Namespace namespace = null;
@@ -286,11 +411,28 @@ public class Main {
         }
 
         if (namespace == null) {
-            System.exit(exitStatus);
+            return exitStatus;
         }
 
         assert exitStatus == 0;
 
+        boolean timings = namespace.getBoolean("timings");
+        Double timeout = namespace.getDouble("timeout");
+        if (timings || timeout != null) {
+            RequestContext context = RequestContext.begin(start, timings);
+            context.setTimeout(timeout);
+            RequestContext.record(RequestContext.Phase.PARSE, start);
+        }
+        try {
+            return run(namespace, registry, requestedName);
+        } finally {
+            RequestContext.end();
+        }
+    }
+
+    private static int run(Namespace namespace, OperationRegistry registry, String requestedName) {
+        int exitStatus = 0; // Default: 0 (normal termination)
+
         // Handle command line arguments
         WritingMapper wm = null;
 
@@ -298,33 +440,76 @@ public class Main {
         String operationName = namespace.getString("operation");
         assert operationName != null; // The argument "operation" is a sub-command, thus it is required
 
-        // Select the operation from `operations`
-        assert operations.containsKey(operationName); // Only supported operation names are allowed
-        Operation operation = operations.get(operationName);
+        // The parser only accepts registered operations
+        // and `findOperationName` recognizes them the same way.
+        assert operationName.equals(requestedName);
+        Operation operation = registry.get(operationName);
         assert operation != null;
 
+        // Open the result file
+        File resultFile = namespace.get("result_file");
+        OutputStream resultStream = null;
+        if (resultFile != null) {
+            try {
+                resultStream = new FileOutputStream(resultFile);
+            } catch (FileNotFoundException ex) {
+                OperationException oe = new OperationException(OUTPUT_RESULT_FILE_OPEN, ex,
+                        new SimpleEntry<String, Object>("resultFile", resultFile));
+                logger.severe(oe.getLocalizedMessage());
+                return oe.getCode();
+            }
+        }
+
         // Choose the output format
-        String outputFormat = namespace.getString("output_format");
+        OutputFormat outputFormat = OutputFormat.fromName(namespace.getString("output_format"));
+        TextOutput to = null;
         switch (outputFormat) {
-            case "json":
+            case JSON:
+            case JSONL:
+            case CBOR:
+            case SMILE:
                 // Disable loggers
                 disableLoggers();
                 // Initialize the JSON serializer
-                wm = new WritingMapper();
+                if (resultStream != null) {
+                    wm = new WritingMapper(resultStream, outputFormat);
+                } else if (outputFormat.isStream()) {
+                    wm = new WritingMapper(System.out, outputFormat);
+                } else {
+                    wm = new WritingMapper(); // Bind to `System.err`
+                }
                 operation.setWritingMapper(wm); // Configure the operation
                 break;
-            case "text":
+            case TEXT:
                 // Initialize the text output
-                TextOutput to = new TextOutput(System.err); // Bind to `System.err`
+                if (resultStream != null) {
+                    to = new TextOutput(new PrintStream(resultStream, true));
+                } else {
+                    to = new TextOutput(System.err); // Bind to `System.err`
+                }
                 operation.setTextOutput(to); // Configure the operation
                 break;
             default:
                 assert false; // The option has limited choices
         }
 
+        List<AsyncHandler> asyncHandlers = null;
+        if (to != null && namespace.getBoolean("async_logging")) {
+            asyncHandlers = enableAsyncLogging();
+        }
+
         // Execute the operation
+        Events.setOperation(operationName);
         try {
-            operation.execute(namespace);
+            try {
+                operation.execute(namespace);
+            } catch (OperationException | RuntimeException ex) {
+                OperationException timeout = RequestContext.translateTimeout(ex);
+                if (timeout != null) {
+                    throw timeout;
+                }
+                throw ex;
+            }
         } catch (OperationException ex) {
             exitStatus = ex.getCode();
 
@@ -339,7 +524,28 @@ public class Main {
                 // JSON output is enabled
                 ex.writeInWritingMapper(wm);
             }
+        } finally {
+            Events.setOperation(null);
+            if (asyncHandlers != null) {
+                disableAsyncLogging(asyncHandlers);
+            }
+        }
+
+        Timings timings = RequestContext.currentTimings();
+        if (timings != null && to != null) {
+            to.println(String.format("Timings: %s", formatTimings(timings)));
+        }
+
+        if (resultStream != null) {
+            try {
+                if (to != null) {
+                    to.flush();
+                }
+                resultStream.close();
+            } catch (IOException ex) {
+                logger.severe("Could not close the result file: %s", ex);
+            }
         }
-        System.exit(exitStatus);
+        return exitStatus;
     }
 }
@@ -0,0 +1,215 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu;
+
+import cz.hobrasoft.pdfmu.operation.Operation;
+import cz.hobrasoft.pdfmu.operation.OperationAttach;
+import cz.hobrasoft.pdfmu.operation.OperationInspect;
+import cz.hobrasoft.pdfmu.operation.metadata.OperationMetadataSet;
+import cz.hobrasoft.pdfmu.operation.signature.OperationSignatureAdd;
+import cz.hobrasoft.pdfmu.operation.signature.OperationTimestampQueue;
+import cz.hobrasoft.pdfmu.operation.version.OperationVersionSet;
+import cz.hobrasoft.pdfmu.server.OperationBatch;
+import cz.hobrasoft.pdfmu.server.OperationServer;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import net.sourceforge.argparse4j.inf.Subparser;
+import net.sourceforge.argparse4j.inf.Subparsers;
+
+/**
+ * Assigns the operations to their command names without loading their classes
+ *
+ * <p>
+ * An operation class is loaded and initialized only when {@link #get} is
+ * called for its name. This keeps the start of simple operations such as
+ * {@code inspect} free of the signing stack, which registers a security
+ * provider in its static initializer.
+ *
+ * <p>
+ * The operations are referenced by their class names. The help texts are
+ * compile-time constants, so reading them does not load the classes either.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+class OperationRegistry {
+
+    private static class Entry {
+
+        private final String className;
+        private final String help;
+
+        private Entry(String className, String help) {
+            this.className = className;
+            this.help = help;
+        }
+    }
+
+    // Insertion order determines the order in the help
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * Registers an operation under a command name
+     *
+     * @param name the command that invokes the operation
+     * @param className the binary name of a class with a static method
+     * {@code getInstance()} that returns an {@link Operation}
+     * @param help a one-line description of the operation
+     */
+    public void register(String name, String className, String help) {
+        entries.put(name, new Entry(className, help));
+    }
+
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    public boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    public String getHelp(String name) {
+        Entry entry = entries.get(name);
+        return entry == null ? null : entry.help;
+    }
+
+    /**
+     * Loads the operation registered under a command name
+     *
+     * @param name the command that invokes the operation
+     * @return the operation instance, or null if no operation is registered
+     * under {@code name}
+     * @throws IllegalStateException if the registered class cannot be loaded
+     */
+    public Operation get(String name) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            Class<?> c = Class.forName(entry.className);
+            return (Operation) c.getMethod("getInstance").invoke(null);
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException | InvocationTargetException | ClassCastException ex) {
+            throw new IllegalStateException(String.format("Could not load the operation %s.", name), ex);
+        }
+    }
+
+    /**
+     * Creates a new instance of the operation registered under a command name
+     *
+     * <p>
+     * Unlike the shared instance returned by {@link #get}, the new instance
+     * may execute concurrently with the other instances of the operation. It
+     * has to be configured by
+     * {@link Operation#configureSubparser(net.sourceforge.argparse4j.inf.Subparser)}
+     * before it is executed.
+     *
+     * @param name the command that invokes the operation
+     * @return a new operation instance, or null if no operation is registered
+     * under {@code name}
+     * @throws IllegalStateException if the registered class cannot be
+     * instantiated
+     */
+    public Operation create(String name) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            Class<?> c = Class.forName(entry.className);
+            // The operations only expose the shared instance
+            Constructor<?> constructor = c.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return (Operation) constructor.newInstance();
+        } catch (ClassNotFoundException | NoSuchMethodException | InstantiationException | IllegalAccessException | InvocationTargetException | ClassCastException ex) {
+            throw new IllegalStateException(String.format("Could not create the operation %s.", name), ex);
+        }
+    }
+
+    /**
+     * Adds a subparser for every registered operation
+     *
+     * <p>
+     * Only the subparser of {@code selected} is configured by its operation.
+     * The other subparsers only carry the help, which is enough to list them
+     * and to reject them as unknown commands.
+     *
+     * @param subparsers the sub-command container of the main parser
+     * @param selected the name of the operation to configure fully, or null to
+     * configure none
+     * @return the operation registered under {@code selected}, or null if
+     * there is none
+     */
+    public Operation addSubparsers(Subparsers subparsers, String selected) {
+        Operation operation = null;
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            String name = e.getKey();
+            Subparser subparser = subparsers.addParser(name);
+            if (name.equals(selected)) {
+                operation = get(name);
+                operation.configureSubparser(subparser);
+            } else {
+                subparser.help(e.getValue().help);
+            }
+        }
+        return operation;
+    }
+
+    /**
+     * @return a registry of the operations available in PDFMU
+     */
+    public static OperationRegistry createDefault() {
+        OperationRegistry registry = createDocumentOperations();
+        registry.register("server",
+                "cz.hobrasoft.pdfmu.server.OperationServer",
+                OperationServer.HELP);
+        registry.register("batch",
+                "cz.hobrasoft.pdfmu.server.OperationBatch",
+                OperationBatch.HELP);
+        return registry;
+    }
+
+    /**
+     * @return a registry of the operations that process documents, that is
+     * all the operations except {@code server} and {@code batch}
+     */
+    public static OperationRegistry createDocumentOperations() {
+        OperationRegistry registry = new OperationRegistry();
+        registry.register("inspect",
+                "cz.hobrasoft.pdfmu.operation.OperationInspect",
+                OperationInspect.HELP);
+        registry.register("update-version",
+                "cz.hobrasoft.pdfmu.operation.version.OperationVersionSet",
+                OperationVersionSet.HELP);
+        registry.register("update-properties",
+                "cz.hobrasoft.pdfmu.operation.metadata.OperationMetadataSet",
+                OperationMetadataSet.HELP);
+        registry.register("attach",
+                "cz.hobrasoft.pdfmu.operation.OperationAttach",
+                OperationAttach.HELP);
+        registry.register("sign",
+                "cz.hobrasoft.pdfmu.operation.signature.OperationSignatureAdd",
+                OperationSignatureAdd.HELP);
+        registry.register("timestamp-queue",
+                "cz.hobrasoft.pdfmu.operation.signature.OperationTimestampQueue",
+                OperationTimestampQueue.HELP);
+        return registry;
+    }
+}
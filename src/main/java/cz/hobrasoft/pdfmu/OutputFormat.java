@@ -0,0 +1,96 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu;
+
+/**
+ * Format of the messages and results that PDFMU writes
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public enum OutputFormat {
+    /**
+     * Human-readable messages, written to stderr by default
+     */
+    TEXT("text"),
+    /**
+     * One indented JSON-RPC response, written to stderr by default
+     */
+    JSON("json"),
+    /**
+     * JSON Lines: one compact JSON-RPC response per line, written to stdout
+     * by default and flushed after each line
+     */
+    JSONL("jsonl"),
+    /**
+     * A sequence of binary CBOR (RFC 7049) JSON-RPC responses, written to
+     * stdout by default and flushed after each response
+     */
+    CBOR("cbor"),
+    /**
+     * A stream of binary Smile JSON-RPC responses, written to stdout by
+     * default and flushed after each response
+     */
+    SMILE("smile");
+
+    private final String name;
+
+    private OutputFormat(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the name used on the command line
+     */
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * @return true if the responses are written as a stream of records, one
+     * per result, rather than as a single document
+     */
+    public boolean isStream() {
+        return this != TEXT && this != JSON;
+    }
+
+    /**
+     * @return the names of all the formats, in declaration order
+     */
+    public static String[] names() {
+        OutputFormat[] values = values();
+        String[] names = new String[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            names[i] = values[i].name;
+        }
+        return names;
+    }
+
+    /**
+     * @param name the name used on the command line
+     * @return the format with the name
+     * @throws IllegalArgumentException if no format has the name
+     */
+    public static OutputFormat fromName(String name) {
+        for (OutputFormat format : values()) {
+            if (format.name.equals(name)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unknown output format: %s", name));
+    }
+}
@@ -0,0 +1,466 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu;
+
+import com.itextpdf.text.ExceptionConverter;
+import static cz.hobrasoft.pdfmu.error.ErrorType.REQUEST_TIMEOUT;
+import cz.hobrasoft.pdfmu.jackson.Timings;
+import cz.hobrasoft.pdfmu.operation.OperationException;
+import cz.hobrasoft.pdfmu.operation.args.OutputSink;
+import java.io.File;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * State of the request processed by the current thread
+ *
+ * <p>
+ * The context measures the durations of the phases of the request (see
+ * {@link Phase}) and counts the bytes read and written. It exists if the
+ * timings or a timeout have been requested (options {@code --timings} and
+ * {@code --timeout}) and for each request of the server; otherwise
+ * {@link #record(Phase, long)} does nothing.
+ *
+ * <p>
+ * A context with a timeout has a deadline. Long-running steps of the request
+ * check it cooperatively ({@link #checkDeadline(String)}) and abort the
+ * request once the deadline has passed.
+ *
+ * <p>
+ * A pipeline that reads and writes the documents in other threads than the
+ * one that processes them passes the prefetched inputs
+ * ({@link #putInput(File, byte[])}) and collects the outputs
+ * ({@link #setOutputSink(OutputSink)}) through the context.
+ *
+ * <p>
+ * A request executed in a virtual thread holds a processor permit (see
+ * {@link #setProcessorPermits(Semaphore)}) while it computes and gives it up
+ * while it waits for I/O, so that the number of requests using the processors
+ * at once is bounded however many requests are in flight.
+ *
+ * <p>
+ * Usage:
+ * <pre>
+ * {@code
+ * long start = RequestContext.now();
+ * // ...
+ * RequestContext.record(RequestContext.Phase.OPEN, start);
+ * }
+ * </pre>
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public class RequestContext {
+
+    /**
+     * Measured phase of a request
+     *
+     * <p>
+     * The time not covered by any phase is attributed to the operation body.
+     */
+    public enum Phase {
+        PARSE, OPEN, TSA, STAMPER_CLOSE, WRITE
+    }
+
+    private static final ThreadLocal<RequestContext> CURRENT = new ThreadLocal<>();
+
+    private final long start;
+    private final boolean timingsReported;
+    private final long[] durations = new long[Phase.values().length];
+    private final boolean[] recorded = new boolean[Phase.values().length];
+    private Object id = null;
+    private long bytesRead = 0;
+    private long bytesWritten = 0;
+    private Double timeout = null; // Seconds
+    private long deadline = 0; // Valid if `timeout != null`
+    private Map<File, byte[]> inputs = null;
+    private OutputSink outputSink = null;
+    private Semaphore processorPermits = null;
+    private boolean processorHeld = false;
+
+    private RequestContext(long start, boolean timingsReported) {
+        this.start = start;
+        this.timingsReported = timingsReported;
+    }
+
+    /**
+     * Creates a context for the current thread
+     *
+     * @param start the start of the request, as returned by {@link #now()}
+     * @param timingsReported whether the responses carry the timings (see
+     * {@link #currentTimings()})
+     * @return the new context
+     */
+    public static RequestContext begin(long start, boolean timingsReported) {
+        RequestContext context = new RequestContext(start, timingsReported);
+        CURRENT.set(context);
+        return context;
+    }
+
+    /**
+     * Makes a context the context of the current thread
+     *
+     * <p>
+     * A request may be received by one thread and executed by another one.
+     * The receiving thread calls {@link #end()} and passes the context to the
+     * executing thread.
+     *
+     * @param context a context returned by {@link #begin(long, boolean)}
+     */
+    public static void resume(RequestContext context) {
+        CURRENT.set(context);
+    }
+
+    /**
+     * Removes the context of the current thread
+     */
+    public static void end() {
+        CURRENT.remove();
+    }
+
+    /**
+     * @return the context of the current thread, or null if the timings have
+     * not been requested
+     */
+    public static RequestContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @return the current value of the timer in nanoseconds
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Adds the time elapsed since {@code start} to the phase in the context of
+     * the current thread
+     *
+     * @param phase the phase
+     * @param start the start of the phase, as returned by {@link #now()}
+     */
+    public static void record(Phase phase, long start) {
+        RequestContext context = CURRENT.get();
+        if (context != null) {
+            context.add(phase, now() - start);
+        }
+    }
+
+    /**
+     * @return the timings of the current thread, or null if the timings have
+     * not been requested
+     */
+    public static Timings currentTimings() {
+        RequestContext context = CURRENT.get();
+        return context != null && context.timingsReported ? context.getTimings() : null;
+    }
+
+    /**
+     * @return the JSON-RPC id of the request of the current thread, or null
+     */
+    public static Object currentId() {
+        RequestContext context = CURRENT.get();
+        return context != null ? context.id : null;
+    }
+
+    /**
+     * Adds to the number of bytes read by the request of the current thread
+     *
+     * @param bytes the number of bytes
+     */
+    public static void countRead(long bytes) {
+        RequestContext context = CURRENT.get();
+        if (context != null) {
+            context.bytesRead += bytes;
+        }
+    }
+
+    /**
+     * Adds to the number of bytes written by the request of the current thread
+     *
+     * @param bytes the number of bytes
+     */
+    public static void countWritten(long bytes) {
+        RequestContext context = CURRENT.get();
+        if (context != null) {
+            context.bytesWritten += bytes;
+        }
+    }
+
+    /**
+     * Aborts the request of the current thread if its deadline has passed
+     *
+     * @param phase what the request is doing, for example "writing the
+     * output"
+     * @throws OperationException if the deadline has passed
+     */
+    public static void checkDeadline(String phase) throws OperationException {
+        RequestContext context = CURRENT.get();
+        if (context != null && context.isExpired()) {
+            throw context.timeoutException(phase, null);
+        }
+    }
+
+    /**
+     * Aborts the request of the current thread if its deadline has passed
+     *
+     * <p>
+     * Use in the callbacks of iText, which may only throw
+     * {@link java.io.IOException}.
+     *
+     * @param phase what the request is doing
+     * @throws DeadlineExceededException if the deadline has passed
+     */
+    public static void checkDeadlineIO(String phase) throws DeadlineExceededException {
+        RequestContext context = CURRENT.get();
+        if (context != null && context.isExpired()) {
+            throw new DeadlineExceededException(phase);
+        }
+    }
+
+    /**
+     * @return whether the request of the current thread has a deadline
+     */
+    public static boolean hasDeadline() {
+        RequestContext context = CURRENT.get();
+        return context != null && context.timeout != null;
+    }
+
+    /**
+     * @return the milliseconds left until the deadline of the request of the
+     * current thread, at least 1, or {@link Long#MAX_VALUE} if the request has
+     * no deadline
+     */
+    public static long remainingMillis() {
+        RequestContext context = CURRENT.get();
+        if (context == null || context.timeout == null) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(1, (context.deadline - now()) / 1000000);
+    }
+
+    /**
+     * Replaces an exception caused by the deadline of the request of the
+     * current thread by {@link cz.hobrasoft.pdfmu.error.ErrorType#REQUEST_TIMEOUT}
+     *
+     * <p>
+     * An expired deadline interrupts iText by a
+     * {@link DeadlineExceededException}, which reaches the operation wrapped
+     * in another exception.
+     *
+     * @param ex an exception thrown by an operation
+     * @return the timeout exception, or null if {@code ex} has not been caused
+     * by the deadline
+     */
+    public static OperationException translateTimeout(Throwable ex) {
+        RequestContext context = CURRENT.get();
+        if (context == null || context.timeout == null) {
+            return null;
+        }
+        if (ex instanceof OperationException
+                && ((OperationException) ex).getCode() == REQUEST_TIMEOUT.getCode()) {
+            return (OperationException) ex;
+        }
+        for (Throwable cause = ex; cause != null;) {
+            if (cause instanceof DeadlineExceededException) {
+                return context.timeoutException(((DeadlineExceededException) cause).getPhase(), ex);
+            }
+            if (cause instanceof ExceptionConverter) {
+                cause = ((ExceptionConverter) cause).getException();
+            } else {
+                cause = cause.getCause();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Takes the prefetched content of an input file of the request of the
+     * current thread
+     *
+     * @param file the input file
+     * @return the content of the file, or null if it has not been prefetched
+     */
+    public static byte[] takeInput(File file) {
+        RequestContext context = CURRENT.get();
+        if (context == null || context.inputs == null) {
+            return null;
+        }
+        return context.inputs.remove(file);
+    }
+
+    /**
+     * @return the sink of the outputs of the request of the current thread, or
+     * null if the outputs are written directly
+     */
+    public static OutputSink currentOutputSink() {
+        RequestContext context = CURRENT.get();
+        return context != null ? context.outputSink : null;
+    }
+
+    /**
+     * Takes a processor permit for the request of the current thread, waiting
+     * until one is available
+     *
+     * <p>
+     * Does nothing if the request does not use the processor permits or
+     * already holds one.
+     */
+    public static void acquireProcessor() {
+        RequestContext context = CURRENT.get();
+        if (context != null && context.processorPermits != null && !context.processorHeld) {
+            context.processorPermits.acquireUninterruptibly();
+            context.processorHeld = true;
+        }
+    }
+
+    /**
+     * Gives up the processor permit of the request of the current thread
+     *
+     * <p>
+     * Call before blocking on I/O and call {@link #acquireProcessor()} once
+     * the I/O has finished.
+     */
+    public static void releaseProcessor() {
+        RequestContext context = CURRENT.get();
+        if (context != null && context.processorHeld) {
+            context.processorHeld = false;
+            context.processorPermits.release();
+        }
+    }
+
+    /**
+     * @param processorPermits the permits shared by the requests executed in
+     * virtual threads, or null if the request does not use permits
+     */
+    public void setProcessorPermits(Semaphore processorPermits) {
+        assert !processorHeld;
+        this.processorPermits = processorPermits;
+    }
+
+    /**
+     * Provides the content of an input file that has been read in advance
+     *
+     * @param file the input file, as passed to the operation
+     * @param content the content of the file
+     */
+    public void putInput(File file, byte[] content) {
+        if (inputs == null) {
+            inputs = new HashMap<>();
+        }
+        inputs.put(file, content);
+    }
+
+    /**
+     * @param outputSink the sink that takes over the output documents, or
+     * null to write them directly
+     */
+    public void setOutputSink(OutputSink outputSink) {
+        this.outputSink = outputSink;
+    }
+
+    /**
+     * Sets the deadline of the request
+     *
+     * @param seconds the longest duration of the request measured from its
+     * start, or null for no deadline
+     */
+    public void setTimeout(Double seconds) {
+        timeout = seconds;
+        if (seconds != null) {
+            deadline = start + (long) (seconds * 1e9);
+        }
+    }
+
+    public Double getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @return whether the deadline has passed
+     */
+    public boolean isExpired() {
+        return timeout != null && now() - deadline >= 0;
+    }
+
+    private OperationException timeoutException(String phase, Throwable cause) {
+        return new OperationException(REQUEST_TIMEOUT, cause,
+                new SimpleEntry<String, Object>("timeout", timeout),
+                new SimpleEntry<String, Object>("phase", phase));
+    }
+
+    /**
+     * @param id the JSON-RPC id of the request, written in the responses
+     */
+    public void setId(Object id) {
+        this.id = id;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @param phase the phase
+     * @return the total duration of the phase in nanoseconds, or null if the
+     * phase has not occurred
+     */
+    public Long getDuration(Phase phase) {
+        return get(phase);
+    }
+
+    /**
+     * Adds a duration to a phase
+     *
+     * @param phase the phase
+     * @param nanos the duration in nanoseconds
+     */
+    public void add(Phase phase, long nanos) {
+        durations[phase.ordinal()] += nanos;
+        recorded[phase.ordinal()] = true;
+    }
+
+    private Long get(Phase phase) {
+        return recorded[phase.ordinal()] ? durations[phase.ordinal()] : null;
+    }
+
+    /**
+     * @return the durations of the phases up to now
+     */
+    public Timings getTimings() {
+        Timings timings = new Timings();
+        timings.total = now() - start;
+        timings.parse = get(Phase.PARSE);
+        timings.open = get(Phase.OPEN);
+        timings.tsa = get(Phase.TSA);
+        timings.stamperClose = get(Phase.STAMPER_CLOSE);
+        timings.write = get(Phase.WRITE);
+        long operation = timings.total;
+        for (long duration : durations) {
+            operation -= duration;
+        }
+        timings.operation = operation;
+        return timings;
+    }
+}
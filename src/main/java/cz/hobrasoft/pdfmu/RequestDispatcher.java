@@ -0,0 +1,149 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu;
+
+import static cz.hobrasoft.pdfmu.error.ErrorType.PARSER_UNRECOGNIZED_COMMAND;
+import cz.hobrasoft.pdfmu.operation.Operation;
+import cz.hobrasoft.pdfmu.operation.OperationException;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.HashMap;
+import java.util.Map;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+import net.sourceforge.argparse4j.inf.Subparsers;
+
+/**
+ * Executes operations requested by name and arguments in a running process
+ *
+ * <p>
+ * The arguments of an operation are the same as on the command line after the
+ * operation name. The argument parser of each operation is created once and
+ * reused. The parsers do not accept {@code --help}, so that a request never
+ * prints to the standard output.
+ *
+ * <p>
+ * The dispatcher creates its own instances of the operations (see
+ * {@link OperationRegistry#create(String)}), so several dispatchers may
+ * execute operations concurrently. A dispatcher itself is not thread-safe;
+ * each thread uses its own. The arguments parsed by one dispatcher may be
+ * executed by another one.
+ *
+ * <p>
+ * The results and errors of the operations are written in a
+ * {@link WritingMapper}.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public class RequestDispatcher {
+
+    private final OperationRegistry registry;
+    private final Map<String, ArgumentParser> parsers = new HashMap<>();
+    private final Map<String, Operation> operations = new HashMap<>();
+
+    RequestDispatcher(OperationRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * @return a dispatcher of the operations that process documents
+     */
+    public static RequestDispatcher createDefault() {
+        return new RequestDispatcher(OperationRegistry.createDocumentOperations());
+    }
+
+    /**
+     * @param name the name of an operation
+     * @return true if the operation can be dispatched
+     */
+    public boolean contains(String name) {
+        return registry.contains(name);
+    }
+
+    private ArgumentParser getParser(String name) {
+        ArgumentParser parser = parsers.get(name);
+        if (parser == null) {
+            parser = ArgumentParsers.newArgumentParser("pdfmu", false);
+            Subparsers subparsers = parser.addSubparsers().dest("operation");
+            Subparser subparser = subparsers.addParser(name, false);
+            Operation operation = registry.create(name);
+            operation.configureSubparser(subparser);
+            parsers.put(name, parser);
+            operations.put(name, operation);
+        }
+        return parser;
+    }
+
+    /**
+     * Parses the arguments of an operation
+     *
+     * @param name the name of the operation
+     * @param args the arguments of the operation
+     * @return the parsed arguments
+     * @throws OperationException if the operation is not registered or the
+     * arguments are invalid
+     */
+    public Namespace parse(String name, String[] args) throws OperationException {
+        if (!registry.contains(name)) {
+            throw new OperationException(PARSER_UNRECOGNIZED_COMMAND,
+                    new SimpleEntry<String, Object>("command", name),
+                    new SimpleEntry<String, Object>("validCommands", registry.getNames()));
+        }
+        String[] fullArgs = new String[args.length + 1];
+        fullArgs[0] = name;
+        System.arraycopy(args, 0, fullArgs, 1, args.length);
+        try {
+            return getParser(name).parseArgs(fullArgs);
+        } catch (ArgumentParserException ex) {
+            throw Main.apeToOe(ex);
+        }
+    }
+
+    /**
+     * Executes an operation with parsed arguments
+     *
+     * <p>
+     * The result of the operation is written in {@code wm}. If the operation
+     * fails, this method throws the exception and writes nothing.
+     *
+     * @param name the name of the operation
+     * @param namespace the arguments returned by {@link #parse}
+     * @param wm the mapper to write the result in
+     * @throws OperationException if the operation fails
+     */
+    public void execute(String name, Namespace namespace, WritingMapper wm) throws OperationException {
+        getParser(name); // Create the operation
+        Operation operation = operations.get(name);
+        operation.setWritingMapper(wm);
+        operation.execute(namespace);
+    }
+
+    /**
+     * Parses the arguments of an operation and executes it
+     *
+     * @param name the name of the operation
+     * @param args the arguments of the operation
+     * @param wm the mapper to write the result in
+     * @throws OperationException if the arguments are invalid or the operation
+     * fails
+     */
+    public void dispatch(String name, String[] args, WritingMapper wm) throws OperationException {
+        execute(name, parse(name, args), wm);
+    }
+}
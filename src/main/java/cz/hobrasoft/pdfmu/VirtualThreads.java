@@ -0,0 +1,126 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads of Java 21, loaded reflectively
+ *
+ * <p>
+ * PDFMU is compiled for Java 7, so it cannot refer to
+ * {@code Thread.ofVirtual()} directly. In older runtimes the virtual threads
+ * are not available and {@link #newFactory(String)} returns null.
+ *
+ * <p>
+ * A virtual thread that blocks on I/O, for example while waiting for a
+ * timestamp authority, does not hold a platform thread, so many requests may
+ * wait at once.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public final class VirtualThreads {
+
+    private static final Log logger = Log.getLog(VirtualThreads.class);
+
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method FACTORY;
+    private static final Method THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        Method threadPerTaskExecutor = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            threadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            // Java 19 and 20 only support virtual threads as a preview feature
+            ofVirtual.invoke(null);
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException ex) {
+            ofVirtual = null;
+        } catch (InvocationTargetException ex) {
+            logger.fine("Virtual threads are not enabled: %s", ex.getCause());
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+        THREAD_PER_TASK_EXECUTOR = threadPerTaskExecutor;
+    }
+
+    /**
+     * @return true if the runtime supports virtual threads
+     */
+    public static boolean isAvailable() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Creates a factory of virtual threads named {@code prefix-1},
+     * {@code prefix-2} and so on
+     *
+     * @param prefix the prefix of the thread names
+     * @return the factory, or null if the runtime does not support virtual
+     * threads
+     */
+    public static ThreadFactory newFactory(String prefix) {
+        if (OF_VIRTUAL == null) {
+            return null;
+        }
+        try {
+            Object builder = OF_VIRTUAL.invoke(null);
+            builder = NAME.invoke(builder, prefix + "-", 1L);
+            return (ThreadFactory) FACTORY.invoke(builder);
+        } catch (IllegalAccessException | InvocationTargetException ex) {
+            logger.warning("Could not create virtual threads: %s", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Creates an executor that runs every task in a new virtual thread
+     *
+     * @param prefix the prefix of the thread names
+     * @return the executor, or null if the runtime does not support virtual
+     * threads
+     */
+    public static ExecutorService newExecutor(String prefix) {
+        ThreadFactory factory = newFactory(prefix);
+        if (factory == null) {
+            return null;
+        }
+        // Virtual threads are cheap to start and are not pooled.
+        try {
+            return (ExecutorService) THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+        } catch (IllegalAccessException | InvocationTargetException ex) {
+            logger.warning("Could not create an executor of virtual threads: %s", ex);
+            return null;
+        }
+    }
+
+    private VirtualThreads() {
+    }
+}
@@ -16,8 +16,13 @@
  */
 package cz.hobrasoft.pdfmu;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -28,13 +33,25 @@ import java.io.OutputStream;
  * This class is a simple wrapper for {@link ObjectMapper} and
  * {@link OutputStream}.
  *
+ * <p>
+ * In the stream formats (see {@link OutputFormat#isStream()}) every value is
+ * written as one record through a single {@link JsonGenerator} and flushed
+ * immediately, so that a consumer can process the values as they are written.
+ * JSON Lines records are compact lines. CBOR records are concatenated data
+ * items. Smile records follow a single Smile header.
+ *
  * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
  */
-public class WritingMapper {
+public class WritingMapper implements Closeable {
 
     private final ObjectMapper mapper;
     private final OutputStream os;
 
+    // Stream formats
+    private final OutputFormat format;
+    private final ObjectWriter streamWriter;
+    private JsonGenerator streamGenerator = null; // Created by the first `writeValue`
+
     /**
      * Creates a {@link WritingMapper}
      *
@@ -44,24 +61,100 @@ public class WritingMapper {
     public WritingMapper(ObjectMapper mapper, OutputStream os) {
         this.mapper = mapper;
         this.os = os;
+        this.format = OutputFormat.JSON;
+        this.streamWriter = null;
     }
 
     public WritingMapper() {
         this.mapper = new ObjectMapper(); // Create a new mapper
         mapper.enable(SerializationFeature.INDENT_OUTPUT); // Enable nice formatting
         this.os = System.err; // Bind to `System.err`
+        this.format = OutputFormat.JSON;
+        this.streamWriter = null;
+    }
+
+    /**
+     * Creates a {@link WritingMapper} that does not close {@code os} after
+     * each document
+     *
+     * @param os the target {@link OutputStream}. {@link #close()} closes it.
+     * @param format the format of the documents. {@link OutputFormat#JSON}
+     * documents are indented.
+     */
+    public WritingMapper(OutputStream os, OutputFormat format) {
+        switch (format) {
+            case CBOR:
+                this.mapper = new ObjectMapper(new CBORFactory());
+                break;
+            case SMILE:
+                this.mapper = new ObjectMapper(new SmileFactory());
+                break;
+            case JSON:
+            case JSONL:
+                this.mapper = new ObjectMapper();
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Not a JSON output format: %s", format));
+        }
+        mapper.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        this.os = os;
+        this.format = format;
+        if (format.isStream()) {
+            streamWriter = mapper.writer();
+        } else {
+            mapper.enable(SerializationFeature.INDENT_OUTPUT); // Enable nice formatting
+            streamWriter = null;
+        }
+    }
+
+    /**
+     * @return true if the documents are written as a stream of records
+     */
+    public boolean isStream() {
+        return format.isStream();
     }
 
     /**
      * Serializes a Java value as a JSON output, streaming it to the specified
      * {@link OutputStream}
      *
+     * <p>
+     * The values written by several threads do not interleave.
+     *
      * @param value the Java value to be serialized
      * @throws IOException if the underlying
      * {@link ObjectMapper#writeValue(OutputStream, Object)} throws an
      * {@link IOException}
      */
-    public void writeValue(Object value) throws IOException {
-        mapper.writeValue(os, value);
+    public synchronized void writeValue(Object value) throws IOException {
+        if (streamWriter != null) {
+            if (streamGenerator == null) {
+                streamGenerator = mapper.getFactory().createGenerator(os);
+                if (format == OutputFormat.JSONL) {
+                    // Separate the lines by line breaks rather than spaces
+                    streamGenerator.setRootValueSeparator(null);
+                }
+            }
+            streamWriter.writeValue(streamGenerator, value);
+            if (format == OutputFormat.JSONL) {
+                streamGenerator.writeRaw('\n');
+            }
+            streamGenerator.flush();
+        } else {
+            mapper.writeValue(os, value);
+        }
+    }
+
+    /**
+     * Closes the target {@link OutputStream}
+     *
+     * @throws IOException if closing fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (streamGenerator != null) {
+            streamGenerator.close();
+        }
+        os.close();
     }
 }
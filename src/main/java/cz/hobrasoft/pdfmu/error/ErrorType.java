@@ -17,6 +17,7 @@
 package cz.hobrasoft.pdfmu.error;
 
 import cz.hobrasoft.pdfmu.IntProperties;
+import cz.hobrasoft.pdfmu.Log;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
@@ -26,7 +27,6 @@ import java.util.List;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
 import java.util.Set;
-import java.util.logging.Logger;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.collections4.functors.StringValueTransformer;
 
@@ -72,6 +72,7 @@ public enum ErrorType {
     OUTPUT_STAMPER_CLOSE,
     OUTPUT_CLOSE,
     OUTPUT_WRITE,
+    OUTPUT_RESULT_FILE_OPEN,
     SIGNATURE_ADD_KEYSTORE_TYPE_UNSUPPORTED,
     SIGNATURE_ADD_KEYSTORE_FILE_NOT_SPECIFIED,
     SIGNATURE_ADD_KEYSTORE_FILE_OPEN,
@@ -96,13 +97,33 @@ public enum ErrorType {
     SIGNATURE_ADD_TSA_SSL_HANDSHAKE_EXCEPTION,
     SIGNATURE_ADD_TSA_SSL_FATAL_ALERT,
     SIGNATURE_ADD_TSA_INVALID_URL,
+    SIGNATURE_ADD_TSA_CIRCUIT_OPEN,
+    SIGNATURE_ADD_CRYPTO_PROVIDER_UNSUPPORTED,
     SIGNATURE_ADD_SIGNATURE_EXCEPTION,
+    SIGNATURE_ADD_VISIBLE_IMAGE,
+    SIGNATURE_ADD_VISIBLE_PAGE,
+    SIGNATURE_ADD_VISIBLE_RECTANGLE,
+    SIGNATURE_ADD_LTV,
     ATTACH_FAIL,
     ATTACH_ATTACHMENT_EQUALS_OUTPUT,
     SSL_TRUSTSTORE_NOT_FOUND,
     SSL_TRUSTSTORE_INCORRECT_TYPE,
     SSL_TRUSTSTORE_EMPTY,
-    SSL_KEYSTORE_NOT_FOUND;
+    SSL_KEYSTORE_NOT_FOUND,
+    SSL_KEYSTORE_INCORRECT_TYPE,
+    SSL_TRUSTSTORE_PASSWORD_INCORRECT,
+    SSL_KEYSTORE_PASSWORD_INCORRECT,
+    SSL_KEYSTORE_KEY,
+    SSL_CONTEXT,
+    TIMESTAMP_QUEUE_ACCESS,
+    TIMESTAMP_QUEUE_ENQUEUE,
+    TIMESTAMP_QUEUE_TSA_NOT_SET,
+    SERVER_INVALID_REQUEST,
+    SERVER_METRICS_ENDPOINT,
+    SERVER_INPUT,
+    SERVER_OPERATION_FAIL,
+    SERVER_MEMORY_BUDGET,
+    REQUEST_TIMEOUT;
 
     /**
      * The default error code. It is used for error types that have no code
@@ -134,7 +155,7 @@ public enum ErrorType {
      */
     public static final String MESSAGES_RESOURCE_BUNDLE_BASE_NAME = "cz.hobrasoft.pdfmu.error.ErrorMessages";
 
-    private static final Logger LOGGER = Logger.getLogger(ErrorType.class.getName());
+    private static final Log LOGGER = Log.getLog(ErrorType.class);
 
     private static final IntProperties CODES = new IntProperties(DEFAULT_ERROR_CODE);
     private static ResourceBundle messages = null;
@@ -177,12 +198,12 @@ public enum ErrorType {
             try {
                 CODES.load(in);
             } catch (IOException ex) {
-                LOGGER.severe(String.format("Could not load the error codes properties file: %s", ex));
+                LOGGER.severe("Could not load the error codes properties file: %s", ex);
             }
             try {
                 in.close();
             } catch (IOException ex) {
-                LOGGER.severe(String.format("Could not close the error codes properties file: %s", ex));
+                LOGGER.severe("Could not close the error codes properties file: %s", ex);
             }
         } else {
             LOGGER.severe("Could not open the error codes properties file.");
@@ -198,7 +219,7 @@ public enum ErrorType {
         try {
             messages = ResourceBundle.getBundle(MESSAGES_RESOURCE_BUNDLE_BASE_NAME);
         } catch (MissingResourceException ex) {
-            LOGGER.severe(String.format("Could not load the error messages resource bundle: %s", ex));
+            LOGGER.severe("Could not load the error messages resource bundle: %s", ex);
         }
     }
 
@@ -34,7 +34,7 @@ public class RpcResponse {
     @JsonPropertyDescription("It MUST be the same as the value of the id member in the Request Object (String, Number or Null).\n"
             + "If there was an error in detecting the id in the Request object (e.g. Parse error/Invalid Request), it MUST be Null.")
     @JsonProperty(required = true)
-    public final Object id = null;
+    public Object id = null;
 
     // Either `result` or `error` must be non-null and the other one must be null.
     @JsonPropertyDescription("This member is REQUIRED on success.\n"
@@ -48,6 +48,11 @@ public class RpcResponse {
     @JsonInclude(Include.NON_NULL)
     private RpcError error;
 
+    @JsonPropertyDescription("Durations of the phases of the request in nanoseconds.\n"
+            + "This member only exists if the timings have been requested (option --timings).")
+    @JsonInclude(Include.NON_NULL)
+    public Timings timings;
+
     public RpcResponse(Result result) {
         assert result != null;
         this.result = result;
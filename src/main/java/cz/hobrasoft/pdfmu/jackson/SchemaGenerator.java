@@ -44,6 +44,8 @@ public class SchemaGenerator {
         types.put("result/inspect", Inspect.class);
         types.put("result/version set", VersionSet.class);
         types.put("result/signature add", SignatureAdd.class);
+        types.put("result/timestamp queue", TimestampQueue.class);
+        types.put("result/timestamp queue document", TimestampQueueDocument.class);
         types.put("result/empty", EmptyResult.class);
 
         for (Map.Entry<String, Type> e : types.entrySet()) {
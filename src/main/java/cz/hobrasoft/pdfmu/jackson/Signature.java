@@ -34,6 +34,15 @@ public class Signature {
     @JsonPropertyDescription("Document revision associated with this signature")
     public Integer revision;
 
+    @JsonPropertyDescription("Signature format (value of /SubFilter), for example adbe.pkcs7.detached or ETSI.CAdES.detached")
+    public String format;
+
+    @JsonPropertyDescription("Digest (hash) algorithm, for example SHA256")
+    public String digestAlgorithm;
+
+    @JsonPropertyDescription("Encryption algorithm of the signing key, for example RSA or ECDSA")
+    public String encryptionAlgorithm;
+
     @JsonPropertyDescription("Metadata")
     public SignatureMetadata metadata;
 
@@ -16,6 +16,8 @@
  */
 package cz.hobrasoft.pdfmu.jackson;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonPropertyDescription;
 
 /**
@@ -27,6 +29,34 @@ public class SignatureAdd extends Result {
     @JsonPropertyDescription("Keystore entry alias")
     public String alias;
 
+    @JsonPropertyDescription("URL of the timestamp authority that issued the timestamp")
+    @JsonInclude(Include.NON_NULL)
+    public String tsaUrl;
+
+    @JsonPropertyDescription("Duration of the exchange with the timestamp authority in milliseconds, including retries")
+    @JsonInclude(Include.NON_NULL)
+    public Long tsaLatency;
+
+    @JsonPropertyDescription("Name of the timestamp queue job that will add a document timestamp")
+    @JsonInclude(Include.NON_NULL)
+    public String timestampJob;
+
+    @JsonPropertyDescription("Number of bytes of the document whose digest was restored from the digest cache instead of computed")
+    @JsonInclude(Include.NON_NULL)
+    public Long digestResumedLength;
+
+    @JsonPropertyDescription("Number of OCSP responses added to the document security store (DSS) of the document")
+    @JsonInclude(Include.NON_NULL)
+    public Integer ltvOcspResponses;
+
+    @JsonPropertyDescription("Number of CRLs added to the document security store (DSS) of the document")
+    @JsonInclude(Include.NON_NULL)
+    public Integer ltvCrls;
+
+    @JsonPropertyDescription("Number of OCSP responses and CRLs downloaded for the long-term validation data. The others were taken from the revocation cache.")
+    @JsonInclude(Include.NON_NULL)
+    public Integer ltvFetches;
+
     public SignatureAdd(String alias) {
         this.alias = alias;
     }
@@ -0,0 +1,44 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.jackson;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonPropertyDescription;
+
+/**
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public class TimestampQueue extends Result {
+
+    @JsonPropertyDescription("Number of documents timestamped by this invocation")
+    public int processed;
+
+    @JsonPropertyDescription("Number of documents that could not be timestamped by this invocation. They remain in the queue unless they have been given up.")
+    public int failed;
+
+    @JsonPropertyDescription("Number of documents waiting for a timestamp, including the ones being processed")
+    public int depth;
+
+    @JsonPropertyDescription("Number of documents given up after the maximum number of attempts")
+    public int dead;
+
+    @JsonPropertyDescription("Age of the oldest document in the queue in milliseconds")
+    @JsonInclude(Include.NON_NULL)
+    public Long oldestAge;
+}
@@ -0,0 +1,48 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.jackson;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonPropertyDescription;
+
+/**
+ * Result of processing one document of a timestamp queue
+ *
+ * <p>
+ * Written for each document with a stream output format (jsonl, cbor, smile).
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public class TimestampQueueDocument extends Result {
+
+    @JsonPropertyDescription("Path of the document")
+    public String file;
+
+    @JsonPropertyDescription("Whether the document has been timestamped. Documents that have not been timestamped remain in the queue.")
+    public boolean timestamped;
+
+    @JsonPropertyDescription("Description of the failure")
+    @JsonInclude(Include.NON_NULL)
+    public String error;
+
+    public TimestampQueueDocument(String file, boolean timestamped, String error) {
+        this.file = file;
+        this.timestamped = timestamped;
+        this.error = error;
+    }
+}
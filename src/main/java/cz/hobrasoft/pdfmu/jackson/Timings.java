@@ -0,0 +1,59 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.jackson;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonPropertyDescription;
+
+/**
+ * Durations of the phases of a request in nanoseconds
+ *
+ * <p>
+ * The phases do not overlap. A phase that has not occurred is omitted.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public class Timings {
+
+    @JsonPropertyDescription("Parsing the command line arguments")
+    @JsonInclude(Include.NON_NULL)
+    public Long parse;
+
+    @JsonPropertyDescription("Reading and parsing the input documents")
+    @JsonInclude(Include.NON_NULL)
+    public Long open;
+
+    @JsonPropertyDescription("The rest of the operation (for example stamping, signing or verification)")
+    @JsonInclude(Include.NON_NULL)
+    public Long operation;
+
+    @JsonPropertyDescription("Round trips to the timestamp authority, including the retries")
+    @JsonInclude(Include.NON_NULL)
+    public Long tsa;
+
+    @JsonPropertyDescription("Closing the PDF stampers, which serializes the output documents")
+    @JsonInclude(Include.NON_NULL)
+    public Long stamperClose;
+
+    @JsonPropertyDescription("Writing the output documents to the files")
+    @JsonInclude(Include.NON_NULL)
+    public Long write;
+
+    @JsonPropertyDescription("The whole request up to writing this response")
+    public long total;
+}
@@ -0,0 +1,120 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.jfr;
+
+import cz.hobrasoft.pdfmu.Log;
+import java.io.File;
+import java.util.logging.Level;
+
+/**
+ * Emits the custom JDK Flight Recorder events of PDFMU
+ *
+ * <p>
+ * The events are only emitted if the Java runtime includes JDK Flight Recorder
+ * (module {@code jdk.jfr}); otherwise {@link #begin(Phase)} returns an event
+ * that does nothing. The JFR implementation in {@code src/main/jfr} is
+ * compiled by the Maven profile {@code jfr} (JDK 11 or newer) and loaded by
+ * name, so that the classes that extend {@code jdk.jfr.Event} are never loaded
+ * in a runtime without JFR. An event that is not being recorded costs one
+ * allocation and a check of a flag.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public final class Events {
+
+    private static final Log logger = Log.getLog(Events.class);
+
+    private static final EventFactory FACTORY = createFactory();
+
+    private static final ThreadLocal<String> OPERATION = new ThreadLocal<>();
+
+    private static final PhaseEvent NOOP = new PhaseEvent() {
+        @Override
+        public void setFile(File file) {
+        }
+
+        @Override
+        public void setFileSize(long fileSize) {
+        }
+
+        @Override
+        public void setPageCount(int pageCount) {
+        }
+
+        @Override
+        public void succeed() {
+        }
+
+        @Override
+        public void finish() {
+        }
+    };
+
+    private static EventFactory createFactory() {
+        try {
+            Class.forName("jdk.jfr.Event");
+        } catch (ClassNotFoundException ex) {
+            return null; // JFR is not available
+        }
+        try {
+            return (EventFactory) Class.forName("cz.hobrasoft.pdfmu.jfr.JfrEventFactory")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            logger.log(Level.FINE, "JDK Flight Recorder events are disabled.", ex);
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the events are emitted to JDK Flight Recorder
+     */
+    public static boolean isAvailable() {
+        return FACTORY != null;
+    }
+
+    /**
+     * Sets the operation that the current thread executes. The operation is
+     * recorded in the events that begin on the thread.
+     *
+     * @param operation the name of the operation, or null to clear it
+     */
+    public static void setOperation(String operation) {
+        if (operation == null) {
+            OPERATION.remove();
+        } else {
+            OPERATION.set(operation);
+        }
+    }
+
+    /**
+     * Starts an event
+     *
+     * @param phase the phase that the event spans
+     * @return the started event. Call {@link PhaseEvent#finish()} when the
+     * phase ends.
+     */
+    public static PhaseEvent begin(Phase phase) {
+        if (FACTORY == null) {
+            return NOOP;
+        }
+        return FACTORY.begin(phase, OPERATION.get());
+    }
+
+    // Utility class
+    private Events() {
+    }
+}
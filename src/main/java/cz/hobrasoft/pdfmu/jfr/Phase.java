@@ -0,0 +1,52 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.jfr;
+
+/**
+ * Phase of an operation that is recorded as a JDK Flight Recorder event
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public enum Phase {
+    /**
+     * Opening an input file (event {@code pdfmu.Open})
+     */
+    OPEN,
+    /**
+     * Parsing an input document (event {@code pdfmu.Parse})
+     */
+    PARSE,
+    /**
+     * Modifying a document with a PDF stamper, from opening the stamper to
+     * closing it (event {@code pdfmu.Stamp})
+     */
+    STAMP,
+    /**
+     * Computing a signature and embedding it in the document (event
+     * {@code pdfmu.Sign})
+     */
+    SIGN,
+    /**
+     * One exchange with the timestamp authority, including the retries (event
+     * {@code pdfmu.TsaRequest})
+     */
+    TSA_REQUEST,
+    /**
+     * Writing an output document to a file (event {@code pdfmu.Write})
+     */
+    WRITE
+}
@@ -0,0 +1,70 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.jfr;
+
+import java.io.File;
+
+/**
+ * An event that spans a {@link Phase}
+ *
+ * <p>
+ * Usage:
+ * <pre>
+ * {@code
+ * PhaseEvent event = Events.begin(Phase.PARSE);
+ * try {
+ *     // ...
+ *     event.setPageCount(pdfReader.getNumberOfPages());
+ *     event.succeed();
+ * } finally {
+ *     event.finish();
+ * }
+ * }
+ * </pre>
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public interface PhaseEvent {
+
+    /**
+     * Sets the path and the size of the processed file
+     *
+     * @param file the file
+     */
+    public void setFile(File file);
+
+    /**
+     * @param fileSize the size of the processed file or data in bytes
+     */
+    public void setFileSize(long fileSize);
+
+    /**
+     * @param pageCount the number of pages of the processed document
+     */
+    public void setPageCount(int pageCount);
+
+    /**
+     * Marks the phase as successful. The outcome of a phase that is finished
+     * without calling this method is "failure".
+     */
+    public void succeed();
+
+    /**
+     * Ends the phase and commits the event if it is being recorded
+     */
+    public void finish();
+}
@@ -17,6 +17,7 @@
 package cz.hobrasoft.pdfmu.operation;
 
 import com.itextpdf.text.pdf.PdfStamper;
+import cz.hobrasoft.pdfmu.Log;
 import cz.hobrasoft.pdfmu.PdfmuUtils;
 import static cz.hobrasoft.pdfmu.error.ErrorType.ATTACH_ATTACHMENT_EQUALS_OUTPUT;
 import static cz.hobrasoft.pdfmu.error.ErrorType.ATTACH_FAIL;
@@ -25,7 +26,6 @@ import cz.hobrasoft.pdfmu.operation.args.InOutPdfArgs;
 import java.io.File;
 import java.io.IOException;
 import java.util.AbstractMap.SimpleEntry;
-import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import net.sourceforge.argparse4j.impl.Arguments;
@@ -39,14 +39,17 @@ import net.sourceforge.argparse4j.inf.Subparser;
  */
 public class OperationAttach extends OperationCommon {
 
-    private static final Logger logger = Logger.getLogger(OperationAttach.class.getName());
+    // Listed by `OperationRegistry` without loading this class
+    public static final String HELP = "Attach a file to a PDF document";
+
+    private static final Log logger = Log.getLog(OperationAttach.class);
 
     private final String metavarIn = "IN.pdf";
     private final InOutPdfArgs inout = new InOutPdfArgs(metavarIn);
 
     @Override
     public Subparser configureSubparser(Subparser subparser) {
-        String help = "Attach a file to a PDF document";
+        String help = HELP;
 
         subparser.help(help)
                 .description(help)
@@ -113,9 +116,9 @@ public class OperationAttach extends OperationCommon {
             assert file != null;
             assert fileDisplay != null; // We use the attachment file name by default
 
-            logger.info(String.format("Attached file: %s", file));
-            logger.info(String.format("Description: %s", (description != null ? description : "<none>")));
-            logger.info(String.format("Display name: %s", fileDisplay));
+            logger.info("Attached file: %s", file);
+            logger.info("Description: %s", (description != null ? description : "<none>"));
+            logger.info("Display name: %s", fileDisplay);
             {
                 Matcher m = filenameWithExtension.matcher(fileDisplay);
                 if (!m.matches()) {
@@ -129,7 +132,7 @@ public class OperationAttach extends OperationCommon {
             throw new OperationException(ATTACH_FAIL, ex,
                     PdfmuUtils.sortedMap(new String[]{"file"}, new Object[]{file}));
         }
-        logger.info(String.format("The file \"%s\" has been attached.", file));
+        logger.info("The file \"%s\" has been attached.", file);
     }
 
     private static Operation instance = null;
@@ -16,32 +16,43 @@
  */
 package cz.hobrasoft.pdfmu.operation;
 
+import cz.hobrasoft.pdfmu.Log;
+import cz.hobrasoft.pdfmu.RequestContext;
 import cz.hobrasoft.pdfmu.TextOutput;
 import cz.hobrasoft.pdfmu.WritingMapper;
 import cz.hobrasoft.pdfmu.jackson.Result;
 import cz.hobrasoft.pdfmu.jackson.RpcResponse;
 import java.io.IOException;
-import java.util.logging.Logger;
 
 public abstract class OperationCommon implements Operation {
 
     private WritingMapper wm = null;
     protected TextOutput to = new TextOutput(); // Discard messages by default
-    private static final Logger logger = Logger.getLogger(OperationCommon.class.getName());
+    private static final Log logger = Log.getLog(OperationCommon.class);
 
     @Override
     public void setWritingMapper(WritingMapper wm) {
         this.wm = wm;
     }
 
+    /**
+     * @return true if the results are written as a stream of records, so that
+     * the operation may write a result for each document as it is processed
+     */
+    protected boolean writesStream() {
+        return wm != null && wm.isStream();
+    }
+
     protected void writeResult(Result result) {
         // Discard value if mapper was not set
         if (wm != null) {
             RpcResponse response = new RpcResponse(result);
+            response.id = RequestContext.currentId();
+            response.timings = RequestContext.currentTimings();
             try {
                 wm.writeValue(response);
             } catch (IOException ex) {
-                logger.severe(String.format("Cannot write JSON document: %s", ex));
+                logger.severe("Cannot write JSON document: %s", ex);
             }
         }
     }
@@ -16,7 +16,9 @@
  */
 package cz.hobrasoft.pdfmu.operation;
 
+import cz.hobrasoft.pdfmu.Log;
 import cz.hobrasoft.pdfmu.PdfmuUtils;
+import cz.hobrasoft.pdfmu.RequestContext;
 import cz.hobrasoft.pdfmu.WritingMapper;
 import cz.hobrasoft.pdfmu.error.ErrorType;
 import cz.hobrasoft.pdfmu.jackson.RpcError;
@@ -24,7 +26,6 @@ import cz.hobrasoft.pdfmu.jackson.RpcError.Data;
 import cz.hobrasoft.pdfmu.jackson.RpcResponse;
 import java.io.IOException;
 import java.util.Map;
-import java.util.logging.Logger;
 import org.apache.commons.lang3.text.StrSubstitutor;
 
 /**
@@ -36,7 +37,7 @@ import org.apache.commons.lang3.text.StrSubstitutor;
  */
 public class OperationException extends Exception {
 
-    private static final Logger logger = Logger.getLogger(OperationException.class.getName());
+    private static final Log logger = Log.getLog(OperationException.class);
 
     // Configuration
     private static final int defaultErrorCode = -1;
@@ -104,6 +105,13 @@ public class OperationException extends Exception {
         }
     }
 
+    /**
+     * @return the arguments of the message, or null if there are none
+     */
+    public Map<String, Object> getMessageArguments() {
+        return messageArguments;
+    }
+
     @Override
     public String getLocalizedMessage() {
         if (errorType != null) {
@@ -135,6 +143,8 @@ public class OperationException extends Exception {
 
     public void writeInWritingMapper(WritingMapper wm) {
         RpcResponse response = new RpcResponse(getRpcError());
+        response.id = RequestContext.currentId();
+        response.timings = RequestContext.currentTimings();
 
         try {
             wm.writeValue(response);
@@ -17,18 +17,24 @@
 package cz.hobrasoft.pdfmu.operation;
 
 import com.itextpdf.text.pdf.AcroFields;
+import com.itextpdf.text.pdf.PdfName;
 import com.itextpdf.text.pdf.PdfReader;
 import com.itextpdf.text.pdf.security.CertificateInfo;
 import com.itextpdf.text.pdf.security.CertificateInfo.X500Name;
 import com.itextpdf.text.pdf.security.PdfPKCS7;
 import cz.hobrasoft.pdfmu.MapSorter;
 import cz.hobrasoft.pdfmu.PreferenceListComparator;
+import cz.hobrasoft.pdfmu.RequestContext;
 import cz.hobrasoft.pdfmu.jackson.CertificateResult;
 import cz.hobrasoft.pdfmu.jackson.Inspect;
 import cz.hobrasoft.pdfmu.jackson.Signature;
 import cz.hobrasoft.pdfmu.jackson.SignatureDisplay;
 import cz.hobrasoft.pdfmu.jackson.SignatureMetadata;
+import cz.hobrasoft.pdfmu.jfr.Events;
+import cz.hobrasoft.pdfmu.jfr.Phase;
+import cz.hobrasoft.pdfmu.jfr.PhaseEvent;
 import cz.hobrasoft.pdfmu.operation.args.InPdfArgs;
+import cz.hobrasoft.pdfmu.operation.signature.EncryptionAlgorithmNames;
 import cz.hobrasoft.pdfmu.operation.metadata.MetadataParameters;
 import cz.hobrasoft.pdfmu.operation.version.PdfVersion;
 import java.io.File;
@@ -56,11 +62,19 @@ import org.apache.commons.lang3.StringUtils;
  */
 public class OperationInspect extends OperationCommon {
 
+    // Listed by `OperationRegistry` without loading this class
+    public static final String HELP = "Display PDF version, properties and signatures of a PDF document";
+
+    static {
+        // Allow verifying ECDSA signatures
+        EncryptionAlgorithmNames.register();
+    }
+
     private final InPdfArgs in = new InPdfArgs();
 
     @Override
     public Subparser configureSubparser(Subparser subparser) {
-        String help = "Display PDF version, properties and signatures of a PDF document";
+        String help = HELP;
 
         // Configure the subparser
         subparser.help(help)
@@ -89,13 +103,33 @@ public class OperationInspect extends OperationCommon {
     public Inspect execute(File file) throws OperationException, IOException {
         assert file != null;
         Inspect result;
-        try (InputStream is = new FileInputStream(file)) {
-            PdfReader pdfReader = new PdfReader(is);
+        PhaseEvent event = Events.begin(Phase.OPEN);
+        InputStream is;
+        try {
+            event.setFile(file);
+            is = new FileInputStream(file);
+            event.succeed();
+        } finally {
+            event.finish();
+        }
+        try {
+            PdfReader pdfReader;
+            event = Events.begin(Phase.PARSE);
+            try {
+                event.setFile(file);
+                pdfReader = InPdfArgs.createReader(is);
+                event.setPageCount(pdfReader.getNumberOfPages());
+                event.succeed();
+            } finally {
+                event.finish();
+            }
             try {
                 result = execute(pdfReader);
             } finally {
                 pdfReader.close();
             }
+        } finally {
+            is.close();
         }
         return result;
     }
@@ -136,13 +170,13 @@ public class OperationInspect extends OperationCommon {
         return propertiesSorted;
     }
 
-    public SignatureDisplay display(PdfReader pdfReader) {
+    public SignatureDisplay display(PdfReader pdfReader) throws OperationException {
         // digitalsignatures20130304.pdf : Code sample 5.1
         AcroFields fields = pdfReader.getAcroFields();
         return display(fields);
     }
 
-    private SignatureDisplay display(AcroFields fields) {
+    private SignatureDisplay display(AcroFields fields) throws OperationException {
         SignatureDisplay result = new SignatureDisplay();
 
         // digitalsignatures20130304.pdf : Code sample 5.1
@@ -156,6 +190,7 @@ public class OperationInspect extends OperationCommon {
         List<Signature> signatures = new ArrayList<>();
 
         for (String name : names) {
+            RequestContext.checkDeadline("verifying the signatures");
             to.println(String.format("Signature field name: %s", name));
 
             to.indentMore();
@@ -189,6 +224,18 @@ public class OperationInspect extends OperationCommon {
     private Signature display(PdfPKCS7 pkcs7) {
         Signature signature = new Signature();
 
+        { // Algorithms
+            PdfName filterSubtype = pkcs7.getFilterSubtype();
+            if (filterSubtype != null) {
+                signature.format = PdfName.decodeName(filterSubtype.toString());
+                to.println(String.format("Format: %s", signature.format));
+            }
+            signature.digestAlgorithm = pkcs7.getHashAlgorithm();
+            to.println(String.format("Digest algorithm: %s", signature.digestAlgorithm));
+            signature.encryptionAlgorithm = pkcs7.getEncryptionAlgorithm();
+            to.println(String.format("Encryption algorithm: %s", signature.encryptionAlgorithm));
+        }
+
         // digitalsignatures20130304.pdf : Code sample 5.3
         to.println("Signature metadata:");
         {
@@ -16,18 +16,26 @@
  */
 package cz.hobrasoft.pdfmu.operation.args;
 
+import com.itextpdf.text.io.RandomAccessSource;
+import com.itextpdf.text.io.RandomAccessSourceFactory;
 import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.RandomAccessFileOrArray;
+import cz.hobrasoft.pdfmu.Log;
 import cz.hobrasoft.pdfmu.PdfmuUtils;
+import cz.hobrasoft.pdfmu.RequestContext;
 import static cz.hobrasoft.pdfmu.error.ErrorType.INPUT_CLOSE;
 import static cz.hobrasoft.pdfmu.error.ErrorType.INPUT_NOT_FOUND;
 import static cz.hobrasoft.pdfmu.error.ErrorType.INPUT_NOT_VALID_PDF;
+import cz.hobrasoft.pdfmu.jfr.Events;
+import cz.hobrasoft.pdfmu.jfr.Phase;
+import cz.hobrasoft.pdfmu.jfr.PhaseEvent;
 import cz.hobrasoft.pdfmu.operation.OperationException;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.logging.Logger;
 import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.Namespace;
@@ -38,7 +46,7 @@ public class InPdfArgs implements ArgsConfiguration, AutoCloseable {
     private final String help = "input PDF document";
     private final String metavar;
 
-    private static final Logger logger = Logger.getLogger(InPdfArgs.class.getName());
+    private static final Log logger = Log.getLog(InPdfArgs.class);
 
     public InPdfArgs(String metavar) {
         this.metavar = metavar;
@@ -76,27 +84,115 @@ public class InPdfArgs implements ArgsConfiguration, AutoCloseable {
         assert is == null;
         assert pdfReader == null;
 
-        logger.info(String.format("Input file: %s", file));
+        logger.info("Input file: %s", file);
+        long start = RequestContext.now();
 
         // Open the input stream
+        byte[] content = RequestContext.takeInput(file); // Prefetched by a pipeline
+        PhaseEvent event = Events.begin(Phase.OPEN);
         try {
-            is = new FileInputStream(file);
+            event.setFile(file);
+            is = content != null ? new ByteArrayInputStream(content) : new FileInputStream(file);
+            event.succeed();
         } catch (FileNotFoundException ex) {
             throw new OperationException(INPUT_NOT_FOUND, ex,
                     PdfmuUtils.sortedMap(new String[]{"file"}, new Object[]{file}));
+        } finally {
+            event.finish();
         }
 
         // Open the PDF reader
+        event = Events.begin(Phase.PARSE);
         try {
-            pdfReader = new PdfReader(is);
+            event.setFile(file);
+            pdfReader = createReader(is);
+            event.setPageCount(pdfReader.getNumberOfPages());
+            event.succeed();
         } catch (IOException ex) {
             throw new OperationException(INPUT_NOT_VALID_PDF, ex,
                     PdfmuUtils.sortedMap(new String[]{"file"}, new Object[]{file}));
+        } finally {
+            event.finish();
         }
 
+        // The reader holds the whole document. Closing the file allows the
+        // output to replace it (see `OutPdfArgs`), also on Windows.
+        closeStream();
+
+        RequestContext.record(RequestContext.Phase.OPEN, start);
+        RequestContext.countRead(file.length());
         return pdfReader;
     }
 
+    /**
+     * Reads a PDF document
+     *
+     * <p>
+     * If the request being processed has a deadline, the document is read in
+     * the partial mode from a source that checks the deadline (see
+     * {@link RequestContext#checkDeadlineIO(String)}). Parsing the document,
+     * verifying its signatures and copying its objects to the output are then
+     * aborted once the deadline passes.
+     *
+     * @param is the stream of the document. It is read to the end.
+     * @return the reader of the document
+     * @throws IOException if the document is not a valid PDF document or the
+     * deadline has passed
+     */
+    public static PdfReader createReader(InputStream is) throws IOException {
+        if (!RequestContext.hasDeadline()) {
+            return new PdfReader(is);
+        }
+        RandomAccessSource source = new RandomAccessSourceFactory().createSource(is);
+        return new PdfReader(new RandomAccessFileOrArray(new DeadlineSource(source)), null);
+    }
+
+    /**
+     * {@link RandomAccessSource} that checks the deadline of the request
+     * every {@value #CHECK_INTERVAL} reads
+     */
+    private static class DeadlineSource implements RandomAccessSource {
+
+        private static final int CHECK_INTERVAL = 4096;
+        private static final String DEADLINE_PHASE = "reading the input";
+
+        private final RandomAccessSource source;
+        private int reads = 0;
+
+        public DeadlineSource(RandomAccessSource source) {
+            this.source = source;
+        }
+
+        private void check() throws IOException {
+            if (++reads >= CHECK_INTERVAL) {
+                reads = 0;
+                RequestContext.checkDeadlineIO(DEADLINE_PHASE);
+            }
+        }
+
+        @Override
+        public int get(long position) throws IOException {
+            check();
+            return source.get(position);
+        }
+
+        @Override
+        public int get(long position, byte[] bytes, int off, int len) throws IOException {
+            check();
+            return source.get(position, bytes, off, len);
+        }
+
+        @Override
+        public long length() {
+            return source.length();
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+    }
+
     @Override
     public void close() throws OperationException {
         if (pdfReader != null) {
@@ -105,6 +201,10 @@ public class InPdfArgs implements ArgsConfiguration, AutoCloseable {
             pdfReader = null;
         }
 
+        closeStream();
+    }
+
+    private void closeStream() throws OperationException {
         if (is != null) {
             // Close the input stream
             try {
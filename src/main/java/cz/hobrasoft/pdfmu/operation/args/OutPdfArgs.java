@@ -19,23 +19,21 @@ package cz.hobrasoft.pdfmu.operation.args;
 import com.itextpdf.text.DocumentException;
 import com.itextpdf.text.pdf.PdfReader;
 import com.itextpdf.text.pdf.PdfStamper;
+import cz.hobrasoft.pdfmu.Log;
 import cz.hobrasoft.pdfmu.PdfmuUtils;
-import static cz.hobrasoft.pdfmu.error.ErrorType.OUTPUT_CLOSE;
+import cz.hobrasoft.pdfmu.RequestContext;
 import static cz.hobrasoft.pdfmu.error.ErrorType.OUTPUT_EXISTS_FORCE_NOT_SET;
 import static cz.hobrasoft.pdfmu.error.ErrorType.OUTPUT_NOT_SPECIFIED;
-import static cz.hobrasoft.pdfmu.error.ErrorType.OUTPUT_OPEN;
 import static cz.hobrasoft.pdfmu.error.ErrorType.OUTPUT_STAMPER_CLOSE;
 import static cz.hobrasoft.pdfmu.error.ErrorType.OUTPUT_STAMPER_OPEN;
-import static cz.hobrasoft.pdfmu.error.ErrorType.OUTPUT_WRITE;
+import cz.hobrasoft.pdfmu.jfr.Events;
+import cz.hobrasoft.pdfmu.jfr.Phase;
+import cz.hobrasoft.pdfmu.jfr.PhaseEvent;
 import cz.hobrasoft.pdfmu.operation.OperationException;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.util.AbstractMap.SimpleEntry;
-import java.util.logging.Logger;
 import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.Namespace;
@@ -54,7 +52,7 @@ import net.sourceforge.argparse4j.inf.Namespace;
  */
 public class OutPdfArgs implements ArgsConfiguration, AutoCloseable {
 
-    private static final Logger logger = Logger.getLogger(OutPdfArgs.class.getName());
+    private static final Log logger = Log.getLog(OutPdfArgs.class);
 
     private final String metavarIn;
     private final String metavarOut = "OUT.pdf";
@@ -115,15 +113,31 @@ public class OutPdfArgs implements ArgsConfiguration, AutoCloseable {
         }
     }
 
-    private ByteArrayOutputStream os;
+    /**
+     * Exposes the internal array so that the finished document can be
+     * inspected without copying it.
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+
+        public Buffer(int size) {
+            super(size);
+        }
+
+        public byte[] getBuffer() {
+            return buf;
+        }
+    }
+
+    private Buffer os;
     private PdfStamper stp;
+    private PhaseEvent stampEvent; // From opening to closing `stp`
 
     private void openOs() throws OperationException {
         assert os == null;
 
         // Initialize the array length to the file size
         // because the whole file will have to fit in the array anyway.
-        os = new ByteArrayOutputStream((int) file.length());
+        os = new Buffer((int) file.length());
     }
 
     private void openStpSignature(PdfReader pdfReader, char pdfVersion) throws OperationException {
@@ -157,7 +171,10 @@ public class OutPdfArgs implements ArgsConfiguration, AutoCloseable {
      * Returns a {@link PdfStamper} associated with the internal buffer. Using a
      * buffer instead of an actual file means that the operation can be rolled
      * back completely, leaving the output file untouched. Call {@link #close}
-     * to save the content of the buffer to the output file.
+     * to save the content of the buffer to the output file. The content is
+     * written to a temporary file that replaces the output file once it is
+     * complete, so a failed or timed out write does not leave a partial
+     * document behind either.
      *
      * @param pdfReader the input {@link PdfReader} to operate on
      * @param signature shall we be signing the document?
@@ -173,7 +190,7 @@ public class OutPdfArgs implements ArgsConfiguration, AutoCloseable {
         }
         assert file != null;
 
-        logger.info(String.format("Output file: %s", file));
+        logger.info("Output file: %s", file);
         if (file.exists()) {
             logger.info("Output file already exists.");
             if (overwrite) {
@@ -186,6 +203,8 @@ public class OutPdfArgs implements ArgsConfiguration, AutoCloseable {
 
         openOs();
 
+        stampEvent = Events.begin(Phase.STAMP);
+        stampEvent.setPageCount(pdfReader.getNumberOfPages());
         if (signature) {
             openStpSignature(pdfReader, pdfVersion);
         } else {
@@ -207,54 +226,69 @@ public class OutPdfArgs implements ArgsConfiguration, AutoCloseable {
     }
 
     public void close(boolean success) throws OperationException {
-        if (stp != null) {
-            // Only attempt to close the stamper if the operation has succeeded.
-            if (success) {
-                try {
-                    stp.close();
-                } catch (DocumentException | IOException ex) {
-                    throw new OperationException(OUTPUT_STAMPER_CLOSE, ex,
-                            PdfmuUtils.sortedMap(new SimpleEntry<String, Object>("outputFile", file)));
+        try {
+            if (stp != null) {
+                // Only attempt to close the stamper if the operation has succeeded.
+                if (success) {
+                    long start = RequestContext.now();
+                    try {
+                        stp.close();
+                    } catch (DocumentException | IOException ex) {
+                        throw new OperationException(OUTPUT_STAMPER_CLOSE, ex,
+                                PdfmuUtils.sortedMap(new SimpleEntry<String, Object>("outputFile", file)));
+                    }
+                    RequestContext.record(RequestContext.Phase.STAMPER_CLOSE, start);
+                    stampEvent.setFileSize(os.size());
+                    stampEvent.succeed();
                 }
+                stp = null;
+            }
+        } finally {
+            if (stampEvent != null) {
+                stampEvent.finish();
+                stampEvent = null;
             }
-            stp = null;
         }
 
         if (os != null) {
             if (success) {
                 assert file != null;
-                logger.info(String.format("Writing the output of the operation to the output file: %s", file));
-
-                // Save the content of `os` to `file`.
-                { // fileOs
-                    OutputStream fileOs = null;
-                    try {
-                        fileOs = new FileOutputStream(file);
-                    } catch (FileNotFoundException ex) {
-                        throw new OperationException(OUTPUT_OPEN, ex,
-                                PdfmuUtils.sortedMap(new SimpleEntry<String, Object>("outputFile", file)));
-
-                    }
-                    assert fileOs != null;
-                    try {
-                        assert os != null;
-                        os.writeTo(fileOs);
-                    } catch (IOException ex) {
-                        throw new OperationException(OUTPUT_WRITE, ex,
-                                PdfmuUtils.sortedMap(new SimpleEntry<String, Object>("outputFile", file)));
-                    }
-                    try {
-                        fileOs.close();
-                    } catch (IOException ex) {
-                        throw new OperationException(OUTPUT_CLOSE, ex,
-                                PdfmuUtils.sortedMap(new SimpleEntry<String, Object>("outputFile", file)));
-                    }
+                OutputSink sink = RequestContext.currentOutputSink();
+                if (sink != null) {
+                    // The sink writes the output later, possibly in another thread.
+                    sink.accept(file, os.getBuffer(), os.size());
+                } else {
+                    write();
                 }
             }
             os = null;
         }
     }
 
+    /**
+     * Writes the content of the internal buffer to the output file
+     */
+    private void write() throws OperationException {
+        assert os != null;
+        logger.info("Writing the output of the operation to the output file: %s", file);
+
+        // Save the content of `os` to `file`.
+        long start = RequestContext.now();
+        PhaseEvent event = Events.begin(Phase.WRITE);
+        OutputFile output = new OutputFile(file);
+        try {
+            output.write(os.getBuffer(), os.size());
+            output.commit();
+            event.setFile(file);
+            event.succeed();
+        } finally {
+            output.discard();
+            event.finish();
+        }
+        RequestContext.record(RequestContext.Phase.WRITE, start);
+        RequestContext.countWritten(os.size());
+    }
+
     public PdfStamper getPdfStamper() {
         return stp;
     }
@@ -263,4 +297,24 @@ public class OutPdfArgs implements ArgsConfiguration, AutoCloseable {
         return file;
     }
 
+    public boolean isAppend() {
+        return append;
+    }
+
+    /**
+     * Returns the internal buffer that holds the output document. Only the
+     * first {@link #getBufferSize()} bytes are valid. The array must not be
+     * modified.
+     *
+     * @return null if the output has not been opened or has already been
+     * closed
+     */
+    public byte[] getBuffer() {
+        return os != null ? os.getBuffer() : null;
+    }
+
+    public int getBufferSize() {
+        return os != null ? os.size() : 0;
+    }
+
 }
@@ -0,0 +1,194 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.operation.args;
+
+import cz.hobrasoft.pdfmu.Log;
+import cz.hobrasoft.pdfmu.PdfmuUtils;
+import cz.hobrasoft.pdfmu.RequestContext;
+import cz.hobrasoft.pdfmu.error.ErrorType;
+import static cz.hobrasoft.pdfmu.error.ErrorType.OUTPUT_CLOSE;
+import static cz.hobrasoft.pdfmu.error.ErrorType.OUTPUT_OPEN;
+import static cz.hobrasoft.pdfmu.error.ErrorType.OUTPUT_WRITE;
+import cz.hobrasoft.pdfmu.operation.OperationException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.UUID;
+
+/**
+ * Output document written to a temporary file that replaces the output file
+ * once it is complete
+ *
+ * <p>
+ * The output file is left untouched if the writing fails or the deadline of
+ * the request passes. The methods are called in the following order:
+ * <ol>
+ * <li>{@link #write(byte[], int)}
+ * <li>{@link #sync()} (optional)
+ * <li>{@link #commit()}
+ * </ol>
+ * {@link #discard()} deletes the temporary file unless the output has been
+ * committed.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public class OutputFile {
+
+    private static final Log logger = Log.getLog(OutputFile.class);
+
+    /**
+     * Size of the chunks of the output written between the checks of the
+     * deadline of the request
+     */
+    private static final int WRITE_CHUNK_SIZE = 1 << 20;
+
+    private static final String DEADLINE_PHASE = "writing the output";
+
+    private final File file;
+    private final File temp;
+    private boolean committed = false;
+
+    /**
+     * @param file the output file
+     */
+    public OutputFile(File file) {
+        this.file = file;
+        File dir = file.getAbsoluteFile().getParentFile();
+        this.temp = new File(dir, String.format(".%s.%s.tmp", file.getName(), UUID.randomUUID()));
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Writes the document to the temporary file
+     *
+     * @param buffer the document
+     * @param size the number of valid bytes in {@code buffer}
+     * @throws OperationException if the writing fails or the deadline of the
+     * request passes
+     */
+    public void write(byte[] buffer, int size) throws OperationException {
+        RequestContext.checkDeadline(DEADLINE_PHASE);
+        OutputStream fileOs;
+        try {
+            fileOs = new FileOutputStream(temp);
+        } catch (FileNotFoundException ex) {
+            throw exception(OUTPUT_OPEN, ex);
+        }
+        try {
+            for (int off = 0; off < size; off += WRITE_CHUNK_SIZE) {
+                fileOs.write(buffer, off, Math.min(WRITE_CHUNK_SIZE, size - off));
+                RequestContext.checkDeadline(DEADLINE_PHASE);
+            }
+        } catch (IOException ex) {
+            throw exception(OUTPUT_WRITE, ex);
+        } finally {
+            try {
+                fileOs.close();
+            } catch (IOException ex) {
+                throw exception(OUTPUT_CLOSE, ex);
+            }
+        }
+    }
+
+    /**
+     * Forces the content of the temporary file to the storage device
+     *
+     * @throws OperationException if the synchronization fails
+     */
+    public void sync() throws OperationException {
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        } catch (IOException ex) {
+            throw exception(OUTPUT_WRITE, ex);
+        }
+    }
+
+    /**
+     * Replaces the output file by the temporary file, keeping the permissions
+     * of the output file
+     *
+     * @throws OperationException if the output file cannot be replaced
+     */
+    public void commit() throws OperationException {
+        copyPermissions(file, temp);
+        try {
+            try {
+                Files.move(temp.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            throw exception(OUTPUT_WRITE, ex);
+        }
+        committed = true;
+    }
+
+    /**
+     * Deletes the temporary file unless the output has been committed
+     */
+    public void discard() {
+        if (!committed && temp.exists() && !temp.delete()) {
+            logger.warning("Could not delete the temporary file: %s", temp);
+        }
+    }
+
+    /**
+     * Forces the entries of a directory to the storage device, so that the
+     * files committed in it survive a crash
+     *
+     * <p>
+     * Not all the platforms support the synchronization of a directory; it is
+     * skipped on them.
+     *
+     * @param dir the directory
+     */
+    public static void syncDirectory(File dir) {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ex) {
+            logger.fine("Could not synchronize the directory %s: %s", dir, ex);
+        }
+    }
+
+    private static void copyPermissions(File from, File to) {
+        if (!from.exists()) {
+            return;
+        }
+        try {
+            Files.setPosixFilePermissions(to.toPath(), Files.getPosixFilePermissions(from.toPath()));
+        } catch (UnsupportedOperationException | IOException ex) {
+            logger.fine("Could not copy the permissions of %s: %s", from, ex);
+        }
+    }
+
+    private OperationException exception(ErrorType errorType, Exception cause) {
+        return new OperationException(errorType, cause,
+                PdfmuUtils.sortedMap(new SimpleEntry<String, Object>("outputFile", file)));
+    }
+}
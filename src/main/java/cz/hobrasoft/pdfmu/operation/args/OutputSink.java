@@ -0,0 +1,43 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.operation.args;
+
+import cz.hobrasoft.pdfmu.operation.OperationException;
+import java.io.File;
+
+/**
+ * Receives the output documents of a request instead of
+ * {@link OutPdfArgs#close(boolean)} writing them
+ *
+ * <p>
+ * Set by {@link cz.hobrasoft.pdfmu.RequestContext#setOutputSink(OutputSink)}
+ * when the outputs are written by another thread.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public interface OutputSink {
+
+    /**
+     * Takes over an output document
+     *
+     * @param file the output file
+     * @param buffer the document. The sink becomes its owner.
+     * @param size the number of valid bytes in {@code buffer}
+     * @throws OperationException if the document cannot be accepted
+     */
+    void accept(File file, byte[] buffer, int size) throws OperationException;
+}
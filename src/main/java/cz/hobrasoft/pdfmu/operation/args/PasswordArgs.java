@@ -16,7 +16,7 @@
  */
 package cz.hobrasoft.pdfmu.operation.args;
 
-import java.util.logging.Logger;
+import cz.hobrasoft.pdfmu.Log;
 import net.sourceforge.argparse4j.inf.Argument;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.Namespace;
@@ -24,9 +24,10 @@ import org.apache.commons.lang3.StringUtils;
 
 public class PasswordArgs implements ArgsConfiguration {
 
-    private static final Logger logger = Logger.getLogger(PasswordArgs.class.getName());
+    private static final Log logger = Log.getLog(PasswordArgs.class);
 
     private final String title;
+    private final String capitalizedTitle; // Computed once for the log messages
 
     public Argument passwordArgument;
     public Argument environmentVariableArgument;
@@ -36,6 +37,7 @@ public class PasswordArgs implements ArgsConfiguration {
     public PasswordArgs(String title) {
         assert title != null;
         this.title = title;
+        this.capitalizedTitle = StringUtils.capitalize(title);
     }
 
     public String getPassword() {
@@ -73,15 +75,15 @@ public class PasswordArgs implements ArgsConfiguration {
             assert environmentVariableArgument != null;
             String envVar = namespace.getString(environmentVariableArgument.getDest());
             assert envVar != null; // The argument has a default value
-            logger.info(String.format("%s environment variable: %s", StringUtils.capitalize(title), envVar));
+            logger.info("%s environment variable: %s", capitalizedTitle, envVar);
             password = System.getenv(envVar);
             if (password != null) {
-                logger.info(String.format("%s loaded from the environment variable %s.", StringUtils.capitalize(title), envVar));
+                logger.info("%s loaded from the environment variable %s.", capitalizedTitle, envVar);
             } else {
-                logger.info(String.format("%s was not set.", StringUtils.capitalize(title)));
+                logger.info("%s was not set.", capitalizedTitle);
             }
         } else {
-            logger.info(String.format("%s loaded from the command line.", StringUtils.capitalize(title)));
+            logger.info("%s loaded from the command line.", capitalizedTitle);
         }
     }
 
@@ -18,6 +18,7 @@ package cz.hobrasoft.pdfmu.operation.metadata;
 
 import com.itextpdf.text.pdf.PdfReader;
 import com.itextpdf.text.pdf.PdfStamper;
+import cz.hobrasoft.pdfmu.Log;
 import cz.hobrasoft.pdfmu.jackson.EmptyResult;
 import cz.hobrasoft.pdfmu.operation.Operation;
 import cz.hobrasoft.pdfmu.operation.OperationCommon;
@@ -26,13 +27,15 @@ import cz.hobrasoft.pdfmu.operation.args.InOutPdfArgs;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.logging.Logger;
 import net.sourceforge.argparse4j.inf.Namespace;
 import net.sourceforge.argparse4j.inf.Subparser;
 
 public class OperationMetadataSet extends OperationCommon {
 
-    private static final Logger logger = Logger.getLogger(OperationMetadataSet.class.getName());
+    // Listed by `OperationRegistry` without loading this class
+    public static final String HELP = "Update PDF properties of a PDF document";
+
+    private static final Log logger = Log.getLog(OperationMetadataSet.class);
 
     private final MetadataParameters metadataParameters = new MetadataParameters();
 
@@ -40,7 +43,7 @@ public class OperationMetadataSet extends OperationCommon {
 
     @Override
     public Subparser configureSubparser(Subparser subparser) {
-        String help = "Update PDF properties of a PDF document";
+        String help = HELP;
 
         // Configure the subparser
         subparser.help(help)
@@ -88,7 +91,7 @@ public class OperationMetadataSet extends OperationCommon {
         for (String key : ignoredProperties) {
             if (info.containsKey(key)) {
                 String value = info.get(key);
-                logger.warning(String.format("Warning: The property %s is set automatically. The value \"%s\" will be ignored.", key, value));
+                logger.warning("Warning: The property %s is set automatically. The value \"%s\" will be ignored.", key, value);
             }
         }
 
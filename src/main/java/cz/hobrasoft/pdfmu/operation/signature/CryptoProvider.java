@@ -0,0 +1,153 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.operation.signature;
+
+import com.itextpdf.text.pdf.security.DigestAlgorithms;
+import com.itextpdf.text.pdf.security.ExternalDigest;
+import cz.hobrasoft.pdfmu.Log;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.Locale;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+/**
+ * Selects the implementations of the digest and signature algorithms.
+ *
+ * <p>
+ * The JDK providers (SUN, SunRsaSign) use CPU intrinsics for SHA-2 and for
+ * the big integer arithmetic of RSA, so they are considerably faster than the
+ * pure-Java BouncyCastle implementations. The constant-time ECDSA of SunEC is
+ * slower than the BouncyCastle ECDSA, though (see CryptoProviderBenchmark).
+ * BouncyCastle also offers more algorithms, for example RIPEMD160.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public enum CryptoProvider {
+
+    /**
+     * The faster implementation: BouncyCastle for ECDSA signatures, the JDK
+     * for the other algorithms. If the preferred provider does not support
+     * the algorithm, the other one is used.
+     */
+    AUTO,
+    /**
+     * Only the providers other than BouncyCastle.
+     */
+    JDK,
+    /**
+     * Only BouncyCastle.
+     */
+    BC;
+
+    private static final Log logger = Log.getLog(CryptoProvider.class);
+
+    /**
+     * @return the name used on the command line
+     */
+    public String getName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    public static CryptoProvider fromName(String name) {
+        return valueOf(name.toUpperCase(Locale.ROOT));
+    }
+
+    public static String[] getNames() {
+        CryptoProvider[] values = values();
+        String[] names = new String[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            names[i] = values[i].getName();
+        }
+        return names;
+    }
+
+    private static Provider getBouncyCastleProvider() {
+        synchronized (CryptoProvider.class) {
+            Provider provider = Security.getProvider(BouncyCastleProvider.PROVIDER_NAME);
+            if (provider == null) {
+                provider = new BouncyCastleProvider();
+                Security.addProvider(provider);
+            }
+            return provider;
+        }
+    }
+
+    /**
+     * Finds the provider of an algorithm.
+     *
+     * @param type the type of the service, for example "MessageDigest" or
+     * "Signature"
+     * @param algorithm the name of the algorithm, for example "SHA-256" or
+     * "SHA256withECDSA"
+     * @return null if no acceptable provider supports the algorithm
+     */
+    public Provider getProvider(String type, String algorithm) {
+        switch (this) {
+            case JDK:
+                return getJdkProvider(type, algorithm);
+            case BC:
+                return getBouncyCastleProvider(type, algorithm);
+            default:
+                if ("Signature".equals(type) && algorithm.toUpperCase(Locale.ROOT).endsWith("WITHECDSA")) {
+                    Provider provider = getBouncyCastleProvider(type, algorithm);
+                    return provider != null ? provider : getJdkProvider(type, algorithm);
+                }
+                Provider provider = getJdkProvider(type, algorithm);
+                return provider != null ? provider : getBouncyCastleProvider(type, algorithm);
+        }
+    }
+
+    private static Provider getJdkProvider(String type, String algorithm) {
+        for (Provider provider : Security.getProviders()) {
+            if (!BouncyCastleProvider.PROVIDER_NAME.equals(provider.getName())
+                    && provider.getService(type, algorithm) != null) {
+                return provider;
+            }
+        }
+        return null;
+    }
+
+    private static Provider getBouncyCastleProvider(String type, String algorithm) {
+        Provider bc = getBouncyCastleProvider();
+        return bc.getService(type, algorithm) != null ? bc : null;
+    }
+
+    /**
+     * The message digests are taken from the {@link EngineCache}, so a digest
+     * returned by the {@link ExternalDigest} may be used until the next
+     * request of the same algorithm on the same thread.
+     *
+     * @return the digest that uses this kind of providers
+     */
+    public ExternalDigest getExternalDigest() {
+        return new ExternalDigest() {
+            @Override
+            public MessageDigest getMessageDigest(String hashAlgorithm) throws GeneralSecurityException {
+                String algorithm = DigestAlgorithms.normalizeDigestName(hashAlgorithm);
+                Provider provider = getProvider("MessageDigest", algorithm);
+                if (provider == null) {
+                    throw new NoSuchAlgorithmException(String.format("%s MessageDigest not available from the %s providers", algorithm, getName()));
+                }
+                logger.fine("Digest %s provider: %s", algorithm, provider.getName());
+                return EngineCache.getMessageDigest(algorithm, provider);
+            }
+        };
+    }
+}
@@ -0,0 +1,206 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.operation.signature;
+
+import cz.hobrasoft.pdfmu.Log;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Properties;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Directory of digest states of signed documents.
+ *
+ * <p>
+ * Every entry holds the internal state of the hash function after it has
+ * consumed a whole document. When the document is signed again in append
+ * mode, the new revision starts with the unchanged bytes of the document, so
+ * the digest of the new revision can continue from the stored state instead
+ * of hashing the document again.
+ *
+ * <p>
+ * The entries are keyed by the digest algorithm, the document length and the
+ * last {@value #TAIL_LENGTH} bytes of the document. The tail of a document
+ * signed by PDFMU contains the signature value, which in turn depends on the
+ * digest of the whole document, so a different document does not match an
+ * entry by accident.
+ *
+ * <p>
+ * The key does not cover the beginning of the document, so an entry also
+ * records the identity of the document file: its modification time, its
+ * status change time and its file key (inode) where the platform provides
+ * them. A document that has been written since its entry was stored, for
+ * example edited in place without changing its length, does not match the
+ * entry and is hashed whole. Entries are written under a unique temporary
+ * name, forced to the storage device and then renamed, so that concurrent
+ * writers never mix their entries and a crash never leaves a truncated entry
+ * behind.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+class DigestStateCache {
+
+    private static final Log LOGGER = Log.getLog(DigestStateCache.class);
+
+    public static final String EXTENSION = ".state";
+
+    /**
+     * Number of bytes at the end of the document that identify the document.
+     */
+    public static final int TAIL_LENGTH = 64 * 1024;
+
+    private static final String KEY_ALGORITHM = "algorithm";
+    private static final String KEY_LENGTH = "length";
+    private static final String KEY_STATE = "state";
+    private static final String KEY_FILE = "file";
+
+    private final File directory;
+
+    public DigestStateCache(File directory) {
+        assert directory != null;
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Looks up the digest state of a document.
+     *
+     * @param algorithm the digest algorithm
+     * @param document the document file
+     * @return the encoded digest state, or null if the cache contains no
+     * matching entry
+     * @throws IOException if the document or the entry cannot be read
+     */
+    public byte[] load(String algorithm, File document) throws IOException {
+        long length = document.length();
+        File entry = entry(algorithm, document, length);
+        if (!entry.exists()) {
+            LOGGER.info("Digest cache miss: %s", document);
+            return null;
+        }
+
+        Properties properties = new Properties();
+        try (InputStream is = new FileInputStream(entry)) {
+            properties.load(is);
+        }
+        if (!algorithm.equals(properties.getProperty(KEY_ALGORITHM))
+                || !Long.toString(length).equals(properties.getProperty(KEY_LENGTH))) {
+            LOGGER.warning("Ignoring the mismatched digest cache entry %s.", entry);
+            return null;
+        }
+        if (!identity(document).equals(properties.getProperty(KEY_FILE))) {
+            LOGGER.info("Digest cache miss: %s has been modified since its digest state was stored.", document);
+            return null;
+        }
+        String state = properties.getProperty(KEY_STATE);
+        if (state == null) {
+            throw new IOException(String.format("Digest cache entry %s does not contain the digest state.", entry));
+        }
+        try {
+            LOGGER.info("Digest cache hit: %s", document);
+            return Hex.decodeHex(state.toCharArray());
+        } catch (DecoderException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Stores the digest state of a document.
+     *
+     * @param algorithm the digest algorithm
+     * @param document the document file
+     * @param state the encoded digest state after the whole document has been
+     * hashed
+     * @throws IOException if the entry cannot be written
+     */
+    public void store(String algorithm, File document, byte[] state) throws IOException {
+        long length = document.length();
+        File entry = entry(algorithm, document, length);
+
+        Properties properties = new Properties();
+        properties.setProperty(KEY_ALGORITHM, algorithm);
+        properties.setProperty(KEY_LENGTH, Long.toString(length));
+        properties.setProperty(KEY_STATE, Hex.encodeHexString(state));
+        properties.setProperty(KEY_FILE, identity(document));
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException(String.format("Could not create the digest cache directory %s.", directory));
+        }
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        properties.store(os, null);
+        TimestampJournal.replace(os.toByteArray(), entry);
+        LOGGER.info("Stored the digest state in %s.", entry);
+    }
+
+    /**
+     * @return a description of the file that changes whenever the file is
+     * written or replaced
+     */
+    static String identity(File document) throws IOException {
+        Path path = document.toPath();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        StringBuilder sb = new StringBuilder();
+        sb.append(attributes.lastModifiedTime());
+        try {
+            // Cannot be set by the user
+            sb.append(' ').append(Files.getAttribute(path, "unix:ctime"));
+        } catch (UnsupportedOperationException | IllegalArgumentException ex) {
+            // Not a POSIX file system
+        }
+        Object fileKey = attributes.fileKey();
+        if (fileKey != null) {
+            sb.append(' ').append(fileKey);
+        }
+        return sb.toString();
+    }
+
+    private File entry(String algorithm, File document, long length) throws IOException {
+        byte[] tail = new byte[(int) Math.min(length, TAIL_LENGTH)];
+        try (RandomAccessFile raf = new RandomAccessFile(document, "r")) {
+            raf.seek(length - tail.length);
+            raf.readFully(tail);
+        }
+
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException(ex);
+        }
+        md.update(algorithm.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            md.update((byte) (length >>> shift));
+        }
+        md.update(tail);
+        return new File(directory, Hex.encodeHexString(md.digest()) + EXTENSION);
+    }
+}
@@ -0,0 +1,80 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.operation.signature;
+
+import com.itextpdf.text.pdf.security.EncryptionAlgorithms;
+import cz.hobrasoft.pdfmu.Log;
+import java.lang.reflect.Field;
+import java.util.Map;
+
+/**
+ * Teaches iText the names of the ECDSA signature algorithms.
+ *
+ * <p>
+ * {@link EncryptionAlgorithms} of iText 5.5.6 knows no ECDSA identifier:
+ * neither the ecdsa-with-SHA* identifiers that PDFMU and other signing
+ * software write (see {@link SigningIdentity}) nor id-ecPublicKey
+ * (1.2.840.10045.2.1), which iText itself writes.
+ * {@link com.itextpdf.text.pdf.security.PdfPKCS7} then looks for signature
+ * algorithms such as "SHA256with1.2.840.10045.4.3.2", which no security
+ * provider offers, so ECDSA signatures cannot be read for verification or for
+ * the long-term validation data. The missing names are added to the
+ * (package-private) table of {@link EncryptionAlgorithms}.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public class EncryptionAlgorithmNames {
+
+    private static final Log logger = Log.getLog(EncryptionAlgorithmNames.class);
+
+    private static final String[][] NAMES = {
+        {"1.2.840.10045.2.1", "ECDSA"}, // id-ecPublicKey
+        {"1.2.840.10045.4.1", "ECDSA"}, // ecdsa-with-SHA1
+        {"1.2.840.10045.4.3.1", "ECDSA"}, // ecdsa-with-SHA224
+        {"1.2.840.10045.4.3.2", "ECDSA"}, // ecdsa-with-SHA256
+        {"1.2.840.10045.4.3.3", "ECDSA"}, // ecdsa-with-SHA384
+        {"1.2.840.10045.4.3.4", "ECDSA"} // ecdsa-with-SHA512
+    };
+
+    private static boolean registered = false;
+
+    /**
+     * Registers the names. Subsequent calls have no effect.
+     */
+    public static synchronized void register() {
+        if (registered) {
+            return;
+        }
+        registered = true;
+        try {
+            Field field = EncryptionAlgorithms.class.getDeclaredField("algorithmNames");
+            field.setAccessible(true);
+            @SuppressWarnings("unchecked")
+            Map<String, String> algorithmNames = (Map<String, String>) field.get(null);
+            for (String[] name : NAMES) {
+                if (!algorithmNames.containsKey(name[0])) {
+                    algorithmNames.put(name[0], name[1]);
+                }
+            }
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            logger.warning("Could not register the ECDSA algorithm names. ECDSA signatures may fail to verify: %s", ex);
+        }
+    }
+
+    private EncryptionAlgorithmNames() {
+    }
+}
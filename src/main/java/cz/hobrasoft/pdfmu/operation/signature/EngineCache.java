@@ -0,0 +1,99 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.operation.signature;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Signature;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-thread cache of {@link MessageDigest} and {@link Signature} engines.
+ *
+ * <p>
+ * {@link MessageDigest#getInstance} and {@link Signature#getInstance} look up
+ * the provider and the service and instantiate the engine on every call. The
+ * lookups synchronize on the provider tables, so they contend when many
+ * threads sign at once. Each thread keeps its own engines instead; engines
+ * are not thread-safe, so they are never shared.
+ *
+ * <p>
+ * An engine obtained from the cache may be used until the next request of
+ * the same algorithm from the same provider on the same thread, which returns
+ * the same instance.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public class EngineCache {
+
+    private static final ThreadLocal<Map<String, Object>> ENGINES = new ThreadLocal<Map<String, Object>>() {
+        @Override
+        protected Map<String, Object> initialValue() {
+            return new HashMap<>();
+        }
+    };
+
+    private static String key(String type, String algorithm, Provider provider) {
+        return String.format("%s %s %s", type, provider.getName(), algorithm);
+    }
+
+    /**
+     * @param algorithm the digest algorithm, for example "SHA-256"
+     * @param provider the provider
+     * @return a reset message digest owned by the current thread
+     * @throws NoSuchAlgorithmException if the provider does not support the
+     * algorithm
+     */
+    public static MessageDigest getMessageDigest(String algorithm, Provider provider)
+            throws NoSuchAlgorithmException {
+        Map<String, Object> engines = ENGINES.get();
+        String key = key("MessageDigest", algorithm, provider);
+        MessageDigest md = (MessageDigest) engines.get(key);
+        if (md == null) {
+            md = MessageDigest.getInstance(algorithm, provider);
+            engines.put(key, md);
+        } else {
+            md.reset();
+        }
+        return md;
+    }
+
+    /**
+     * @param algorithm the signature algorithm, for example "SHA256withRSA"
+     * @param provider the provider
+     * @return a signature owned by the current thread. Initialize it before
+     * use.
+     * @throws NoSuchAlgorithmException if the provider does not support the
+     * algorithm
+     */
+    public static Signature getSignature(String algorithm, Provider provider)
+            throws NoSuchAlgorithmException {
+        Map<String, Object> engines = ENGINES.get();
+        String key = key("Signature", algorithm, provider);
+        Signature signature = (Signature) engines.get(key);
+        if (signature == null) {
+            signature = Signature.getInstance(algorithm, provider);
+            engines.put(key, signature);
+        }
+        return signature;
+    }
+
+    private EngineCache() {
+    }
+}
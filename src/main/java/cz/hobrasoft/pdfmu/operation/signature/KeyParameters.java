@@ -16,6 +16,7 @@
  */
 package cz.hobrasoft.pdfmu.operation.signature;
 
+import cz.hobrasoft.pdfmu.Log;
 import static cz.hobrasoft.pdfmu.error.ErrorType.SIGNATURE_ADD_KEYSTORE_ALIASES;
 import static cz.hobrasoft.pdfmu.error.ErrorType.SIGNATURE_ADD_KEYSTORE_ALIAS_EXCEPTION;
 import static cz.hobrasoft.pdfmu.error.ErrorType.SIGNATURE_ADD_KEYSTORE_ALIAS_KEY_EXCEPTION;
@@ -36,7 +37,6 @@ import java.security.UnrecoverableKeyException;
 import java.security.cert.Certificate;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.Enumeration;
-import java.util.logging.Logger;
 import net.sourceforge.argparse4j.inf.Argument;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.Namespace;
@@ -51,7 +51,7 @@ class KeyParameters implements ArgsConfiguration {
     public char[] password = null;
 
     // TODO: Replace with Console
-    private static final Logger logger = Logger.getLogger(KeyParameters.class.getName());
+    private static final Log logger = Log.getLog(KeyParameters.class);
 
     public PasswordArgs passwordArgs = new PasswordArgs("key password");
 
@@ -92,7 +92,7 @@ class KeyParameters implements ArgsConfiguration {
     private void fixAliasWcs(KeyStore ks) throws OperationException {
         assert "Windows-MY".equals(ks.getType());
         if (alias != null) {
-            logger.info(String.format("WCS alias correction will be applied. Original alias: %s", alias));
+            logger.info("WCS alias correction will be applied. Original alias: %s", alias);
             alias = new String(alias.getBytes(), StandardCharsets.ISO_8859_1);
 
             Enumeration<String> aliases = null;
@@ -134,7 +134,7 @@ class KeyParameters implements ArgsConfiguration {
         } else if ("Windows-MY".equals(ks.getType())) {
             fixAliasWcs(ks);
         }
-        logger.info(String.format("Keystore entry alias: %s", alias));
+        logger.info("Keystore entry alias: %s", alias);
 
         // Make sure the entry `alias` is present in the keystore
         try {
@@ -219,7 +219,7 @@ class KeyParameters implements ArgsConfiguration {
         PrivateKey pk;
         try {
             if (isAliasDuplicit(ks, alias)) {
-                logger.warning(String.format("The key alias \"%1$s\" occurs multiple times in the keystore.", alias));
+                logger.warning("The key alias \"%1$s\" occurs multiple times in the keystore.", alias);
             }
 
             pk = (PrivateKey) ks.getKey(alias, password);
@@ -0,0 +1,111 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.operation.signature;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.io.File;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keystores loaded from files
+ *
+ * <p>
+ * Loading a PKCS #12 keystore derives the decryption keys from the password,
+ * which takes tens of milliseconds. A process that signs many documents, such
+ * as the server, loads each keystore once. A keystore is identified by its
+ * type, its path, the size and the modification time of its file and a hash
+ * of its password, so a changed file or a different password is loaded
+ * again.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public class KeystoreCache {
+
+    private static final int CAPACITY = 16;
+
+    private static final ConcurrentMap<List<Object>, KeyStore> CACHE = new ConcurrentHashMap<>();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    static List<Object> key(String type, File file, String password) {
+        List<Object> key = new ArrayList<>();
+        key.add(type);
+        key.add(file.getAbsolutePath());
+        key.add(file.length());
+        key.add(file.lastModified());
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            // Wrapped in a list so that the key compares the content
+            key.add(Arrays.asList(toObjects(md.digest(password.getBytes(UTF_8)))));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex); // Every Java platform supports SHA-256
+        }
+        return key;
+    }
+
+    private static Byte[] toObjects(byte[] bytes) {
+        Byte[] objects = new Byte[bytes.length];
+        for (int i = 0; i < bytes.length; ++i) {
+            objects[i] = bytes[i];
+        }
+        return objects;
+    }
+
+    /**
+     * @param key the key returned by {@link #key}
+     * @return the loaded keystore, or null if it has not been loaded
+     */
+    static KeyStore get(List<Object> key) {
+        KeyStore ks = CACHE.get(key);
+        if (ks != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return ks;
+    }
+
+    static void put(List<Object> key, KeyStore ks) {
+        if (CACHE.size() >= CAPACITY) {
+            CACHE.clear();
+        }
+        CACHE.put(key, ks);
+    }
+
+    /**
+     * @return the number of keystores found in the cache
+     */
+    public static long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of keystores that had to be loaded
+     */
+    public static long getMisses() {
+        return misses.get();
+    }
+}
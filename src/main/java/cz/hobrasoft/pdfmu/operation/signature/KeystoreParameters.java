@@ -16,6 +16,7 @@
  */
 package cz.hobrasoft.pdfmu.operation.signature;
 
+import cz.hobrasoft.pdfmu.Log;
 import static cz.hobrasoft.pdfmu.error.ErrorType.SIGNATURE_ADD_KEYSTORE_FILE_CLOSE;
 import static cz.hobrasoft.pdfmu.error.ErrorType.SIGNATURE_ADD_KEYSTORE_FILE_NOT_SPECIFIED;
 import static cz.hobrasoft.pdfmu.error.ErrorType.SIGNATURE_ADD_KEYSTORE_FILE_OPEN;
@@ -33,7 +34,7 @@ import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.util.AbstractMap.SimpleEntry;
-import java.util.logging.Logger;
+import java.util.List;
 import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.Argument;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
@@ -49,7 +50,7 @@ class KeystoreParameters implements ArgsConfiguration {
     public String type = null;
 
     // TODO?: Replace with Console
-    private static final Logger logger = Logger.getLogger(KeystoreParameters.class.getName());
+    private static final Log logger = Log.getLog(KeystoreParameters.class);
 
     public KeystoreParameters(String title) {
         passwordArgs = new PasswordArgs(String.format("%s password", title));
@@ -108,7 +109,16 @@ class KeystoreParameters implements ArgsConfiguration {
 
     public KeyStore loadKeystore() throws OperationException {
         String type = getNonnullType();
-        logger.info(String.format("Keystore type: %s", type));
+        logger.info("Keystore type: %s", type);
+        List<Object> cacheKey = null;
+        if (file != null && !"Windows-MY".equals(type)) {
+            cacheKey = KeystoreCache.key(type, file, getNonnullPassword());
+            KeyStore ks = KeystoreCache.get(cacheKey);
+            if (ks != null) {
+                logger.info("Keystore file: %s (cached)", file);
+                return ks;
+            }
+        }
         // digitalsignatures20130304.pdf : Code sample 2.2
         // Initialize keystore
         KeyStore ks;
@@ -118,13 +128,16 @@ class KeystoreParameters implements ArgsConfiguration {
             throw new OperationException(SIGNATURE_ADD_KEYSTORE_TYPE_UNSUPPORTED, ex,
                     new SimpleEntry<String, Object>("type", type));
         }
-        logger.info(String.format("Keystore security provider: %s", ks.getProvider().getName()));
+        logger.info("Keystore security provider: %s", ks.getProvider().getName());
         switch (type) {
             case "Windows-MY":
                 loadWindowsKeystore(ks);
                 break;
             default:
                 loadFileKeystore(ks, type);
+                if (cacheKey != null) {
+                    KeystoreCache.put(cacheKey, ks);
+                }
         }
         return ks;
     }
@@ -134,7 +147,7 @@ class KeystoreParameters implements ArgsConfiguration {
             throw new OperationException(SIGNATURE_ADD_KEYSTORE_FILE_NOT_SPECIFIED,
                     new SimpleEntry<String, Object>("type", type));
         }
-        logger.info(String.format("Keystore file: %s", file));
+        logger.info("Keystore file: %s", file);
         // ksIs
         FileInputStream ksIs;
         try {
@@ -174,8 +187,4 @@ class KeystoreParameters implements ArgsConfiguration {
                     new SimpleEntry<String, Object>("type", type));
         }
     }
-
-    public void setSystemProperties(SslKeystore sslKeystore) throws OperationException {
-        sslKeystore.setSystemProperties(file, type, getPassword());
-    }
 }
@@ -18,22 +18,27 @@ package cz.hobrasoft.pdfmu.operation.signature;
 
 import com.itextpdf.text.DocumentException;
 import com.itextpdf.text.ExceptionConverter;
+import com.itextpdf.text.pdf.PdfDeveloperExtension;
+import com.itextpdf.text.pdf.PdfReader;
 import com.itextpdf.text.pdf.PdfSignatureAppearance;
 import com.itextpdf.text.pdf.PdfStamper;
-import com.itextpdf.text.pdf.security.BouncyCastleDigest;
-import com.itextpdf.text.pdf.security.CrlClient;
 import com.itextpdf.text.pdf.security.DigestAlgorithms;
 import com.itextpdf.text.pdf.security.ExternalDigest;
 import com.itextpdf.text.pdf.security.ExternalSignature;
+import com.itextpdf.text.pdf.security.LtvVerification;
 import com.itextpdf.text.pdf.security.MakeSignature;
-import com.itextpdf.text.pdf.security.OcspClient;
-import com.itextpdf.text.pdf.security.PrivateKeySignature;
 import com.itextpdf.text.pdf.security.TSAClient;
+import cz.hobrasoft.pdfmu.ExceptionClassifier;
 import cz.hobrasoft.pdfmu.ExceptionMessagePattern;
+import cz.hobrasoft.pdfmu.Log;
 import cz.hobrasoft.pdfmu.PdfmuUtils;
+import cz.hobrasoft.pdfmu.RequestContext;
+import static cz.hobrasoft.pdfmu.error.ErrorType.SIGNATURE_ADD_CRYPTO_PROVIDER_UNSUPPORTED;
 import static cz.hobrasoft.pdfmu.error.ErrorType.SIGNATURE_ADD_FAIL;
+import static cz.hobrasoft.pdfmu.error.ErrorType.SIGNATURE_ADD_LTV;
 import static cz.hobrasoft.pdfmu.error.ErrorType.SIGNATURE_ADD_SIGNATURE_EXCEPTION;
 import static cz.hobrasoft.pdfmu.error.ErrorType.SIGNATURE_ADD_TSA_BAD_CERTIFICATE;
+import static cz.hobrasoft.pdfmu.error.ErrorType.SIGNATURE_ADD_TSA_CIRCUIT_OPEN;
 import static cz.hobrasoft.pdfmu.error.ErrorType.SIGNATURE_ADD_TSA_HANDSHAKE_FAILURE;
 import static cz.hobrasoft.pdfmu.error.ErrorType.SIGNATURE_ADD_TSA_LOGIN_FAIL;
 import static cz.hobrasoft.pdfmu.error.ErrorType.SIGNATURE_ADD_TSA_SSL_FATAL_ALERT;
@@ -44,15 +49,24 @@ import static cz.hobrasoft.pdfmu.error.ErrorType.SIGNATURE_ADD_TSA_UNTRUSTED;
 import static cz.hobrasoft.pdfmu.error.ErrorType.SIGNATURE_ADD_UNSUPPORTED_DIGEST_ALGORITHM;
 import static cz.hobrasoft.pdfmu.error.ErrorType.SSL_TRUSTSTORE_EMPTY;
 import static cz.hobrasoft.pdfmu.error.ErrorType.SSL_TRUSTSTORE_INCORRECT_TYPE;
+import static cz.hobrasoft.pdfmu.error.ErrorType.TIMESTAMP_QUEUE_ENQUEUE;
 import cz.hobrasoft.pdfmu.jackson.SignatureAdd;
+import cz.hobrasoft.pdfmu.jfr.Events;
+import cz.hobrasoft.pdfmu.jfr.Phase;
+import cz.hobrasoft.pdfmu.jfr.PhaseEvent;
 import cz.hobrasoft.pdfmu.operation.Operation;
 import cz.hobrasoft.pdfmu.operation.OperationCommon;
 import cz.hobrasoft.pdfmu.operation.OperationException;
 import cz.hobrasoft.pdfmu.operation.args.InOutPdfArgs;
+import cz.hobrasoft.pdfmu.operation.args.OutPdfArgs;
+import cz.hobrasoft.pdfmu.operation.args.OutputFile;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.file.Files;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.security.PrivateKey;
@@ -63,10 +77,7 @@ import java.security.cert.Certificate;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.logging.Logger;
+import java.util.List;
 import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLHandshakeException;
 import net.sourceforge.argparse4j.inf.Namespace;
@@ -80,13 +91,16 @@ import org.bouncycastle.jce.provider.BouncyCastleProvider;
  */
 public class OperationSignatureAdd extends OperationCommon {
 
-    private static final Logger logger = Logger.getLogger(OperationSignatureAdd.class.getName());
+    // Listed by `OperationRegistry` without loading this class
+    public static final String HELP = "Add a digital signature to a PDF document";
+
+    private static final Log logger = Log.getLog(OperationSignatureAdd.class);
 
     private final InOutPdfArgs inout = new InOutPdfArgs();
 
     @Override
     public Subparser configureSubparser(Subparser subparser) {
-        String help = "Add a digital signature to a PDF document";
+        String help = HELP;
 
         // Configure the subparser
         subparser.help(help)
@@ -105,13 +119,11 @@ public class OperationSignatureAdd extends OperationCommon {
 
     static {
         // We need to register the provider because it needs to be accessible by its name globally.
-        // {@link com.itextpdf.text.pdf.security.PrivateKeySignature#PrivateKeySignature(PrivateKey pk, String hashAlgorithm, String provider)}
-        // uses the provider name.
+        // {@link CryptoProvider#getProvider} looks it up among the registered providers.
         Security.addProvider(provider);
-    }
 
-    // Initialize the digest algorithm
-    private static final ExternalDigest externalDigest = new BouncyCastleDigest();
+        EncryptionAlgorithmNames.register();
+    }
 
     // `signatureParameters` is a member variable
     // so that we can add the arguments to the parser in `configureSubparser`.
@@ -132,30 +144,186 @@ public class OperationSignatureAdd extends OperationCommon {
     private static SignatureAdd sign(InOutPdfArgs inout,
             SignatureParameters signatureParameters) throws OperationException {
         SignatureAdd sa;
+        DigestStateCache digestCache = null;
+        byte[] digestState = null;
         try { // inout
             inout.openSignature();
             PdfStamper stp = inout.getPdfStamper();
-            sa = sign(stp, signatureParameters);
+
+            // Initialize the digest algorithm
+            // A {@link ResumableDigest} wraps the digest if a digest cache is used.
+            ExternalDigest digest = signatureParameters.cryptoProvider.getExternalDigest();
+            ResumableDigest resumableDigest = null;
+            if (signatureParameters.digestCache != null) {
+                if (ResumableDigest.isSupported(signatureParameters.digestAlgorithm)) {
+                    digestCache = new DigestStateCache(signatureParameters.digestCache);
+                    resumableDigest = openResumableDigest(inout, digestCache, digest, signatureParameters.digestAlgorithm);
+                    digest = resumableDigest;
+                } else {
+                    logger.warning("The digest cache does not support the digest algorithm %s. The whole document will be hashed.", signatureParameters.digestAlgorithm);
+                }
+            }
+
+            PhaseEvent event = Events.begin(Phase.SIGN);
+            try {
+                event.setFile(inout.getIn().getFile());
+                event.setPageCount(stp.getReader().getNumberOfPages());
+                sa = sign(stp, signatureParameters, digest);
+                event.succeed();
+            } finally {
+                event.finish();
+            }
+
+            if (resumableDigest != null) {
+                if (resumableDigest.getResumedLength() > 0) {
+                    sa.digestResumedLength = resumableDigest.getResumedLength();
+                }
+                OutPdfArgs out = inout.getOut();
+                try {
+                    digestState = resumableDigest.getFinalState(out.getBuffer(), out.getBufferSize());
+                } catch (IOException ex) {
+                    logger.warning("Could not compute the digest state of the signed document: %s", ex);
+                }
+            }
+
             inout.close(true);
         } finally {
             inout.close(false);
         }
+
+        if (digestState != null && signatureParameters.ltv) {
+            // The state covers the signed revision, not the LTV revision appended below.
+            logger.info("The digest state is not stored because the long-term validation data will be appended.");
+            digestState = null;
+        }
+
+        if (digestState != null) {
+            assert digestCache != null;
+            File outFile = inout.getOut().getFile();
+            try {
+                digestCache.store(signatureParameters.digestAlgorithm, outFile, digestState);
+            } catch (IOException ex) {
+                // The cache only saves time; the document has been signed.
+                logger.warning("Could not store the digest state of %s: %s", outFile, ex);
+            }
+        }
+
+        if (signatureParameters.ltv) {
+            File outFile = inout.getOut().getFile();
+            RevocationCache revocationCache = new RevocationCache(signatureParameters.ltvCache);
+            try {
+                addLtv(outFile, revocationCache);
+            } catch (IOException | DocumentException | GeneralSecurityException | ExceptionConverter ex) {
+                throw new OperationException(SIGNATURE_ADD_LTV, ex,
+                        new SimpleEntry<String, Object>("file", outFile));
+            }
+            sa.ltvOcspResponses = revocationCache.getOcspResponses();
+            sa.ltvCrls = revocationCache.getCrls();
+            sa.ltvFetches = revocationCache.getFetches();
+        }
+
+        if (signatureParameters.timestampQueue != null) {
+            File outFile = inout.getOut().getFile();
+            TimestampJournal journal = new TimestampJournal(signatureParameters.timestampQueue);
+            try {
+                sa.timestampJob = journal.enqueue(outFile);
+            } catch (IOException ex) {
+                throw new OperationException(TIMESTAMP_QUEUE_ENQUEUE, ex,
+                        new SimpleEntry<String, Object>("file", outFile),
+                        new SimpleEntry<String, Object>("directory", signatureParameters.timestampQueue));
+            }
+        }
         return sa;
     }
 
+    /**
+     * Appends a revision with the long-term validation data of the last
+     * signature of the document: the certificates of the signing chain and
+     * their OCSP responses or CRLs in the document security store (DSS),
+     * including the validation-related information (VRI) of the signature.
+     * The document is replaced atomically and forced to the storage device.
+     */
+    private static void addLtv(File file, RevocationCache revocationCache)
+            throws IOException, DocumentException, GeneralSecurityException, OperationException {
+        long start = RequestContext.now();
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        PdfReader reader = new PdfReader(bytes);
+        RequestContext.record(RequestContext.Phase.OPEN, start);
+        ByteArrayOutputStream os = new ByteArrayOutputStream(bytes.length + 16384);
+        try {
+            PdfStamper stp = new PdfStamper(reader, os, '\0', true);
+            List<String> signatureNames = stp.getAcroFields().getSignatureNames();
+            String signatureName = signatureNames.get(signatureNames.size() - 1);
+            LtvVerification ltvVerification = stp.getLtvVerification();
+            boolean added = ltvVerification.addVerification(signatureName,
+                    revocationCache.getOcspClient(), revocationCache.getCrlClient(),
+                    LtvVerification.CertificateOption.WHOLE_CHAIN,
+                    LtvVerification.Level.OCSP_OPTIONAL_CRL,
+                    LtvVerification.CertificateInclusion.YES);
+            if (!added) {
+                logger.warning("No OCSP response or CRL is available for the signature %s. Only the certificates are stored.", signatureName);
+            }
+            // Merges the validation data into the DSS
+            start = RequestContext.now();
+            stp.close();
+            RequestContext.record(RequestContext.Phase.STAMPER_CLOSE, start);
+        } finally {
+            reader.close();
+        }
+
+        start = RequestContext.now();
+        OutputFile output = new OutputFile(file);
+        try {
+            output.write(os.toByteArray(), os.size());
+            output.sync();
+            output.commit();
+        } finally {
+            output.discard();
+        }
+        OutputFile.syncDirectory(file.getAbsoluteFile().getParentFile());
+        RequestContext.record(RequestContext.Phase.WRITE, start);
+        logger.info("Added the long-term validation data of the signature to %s.", file);
+    }
+
+    // Restore the digest state of the input document
+    private static ResumableDigest openResumableDigest(InOutPdfArgs inout,
+            DigestStateCache digestCache,
+            ExternalDigest externalDigest,
+            String digestAlgorithm) {
+        byte[] state = null;
+        long length = 0;
+        // Only the appended revision keeps the input document intact
+        if (inout.getOut().isAppend()) {
+            File inFile = inout.getIn().getFile();
+            try {
+                length = inFile.length();
+                state = digestCache.load(digestAlgorithm, inFile);
+            } catch (IOException ex) {
+                logger.warning("Could not read the digest state of %s: %s", inFile, ex);
+            }
+        }
+        return new ResumableDigest(externalDigest, digestAlgorithm, state, length);
+    }
+
     // Initialize and load the keystore
     private static SignatureAdd sign(PdfStamper stp,
-            SignatureParameters signatureParameters) throws OperationException {
+            SignatureParameters signatureParameters,
+            ExternalDigest externalDigest) throws OperationException {
         // Unwrap the signature parameters
         SignatureAppearanceParameters signatureAppearanceParameters = signatureParameters.appearance;
         KeystoreParameters keystoreParameters = signatureParameters.keystore;
         KeyParameters keyParameters = signatureParameters.key;
         String digestAlgorithm = signatureParameters.digestAlgorithm;
 
-        TSAClient tsaClient = signatureParameters.timestamp.getTSAClient();
+        PooledTSAClient tsaClient = null;
+        if (signatureParameters.timestampQueue != null) {
+            logger.info("The document will be timestamped later from the timestamp queue %s.", signatureParameters.timestampQueue);
+        } else {
+            tsaClient = signatureParameters.timestamp.getTSAClient();
+        }
         if (tsaClient != null) {
             logger.info("Using a timestamp authority to attach a timestamp.");
-        } else {
+        } else if (signatureParameters.timestampQueue == null) {
             logger.info("No timestamp authority was specified.");
         }
 
@@ -169,7 +337,12 @@ public class OperationSignatureAdd extends OperationCommon {
         // Fix the values, especially if they were not set at all
         keyParameters.fix(ks, keystoreParameters.getPassword());
 
-        return sign(stp, signatureAppearanceParameters, ks, keyParameters, digestAlgorithm, tsaClient, sigtype);
+        SignatureAdd sa = sign(stp, signatureAppearanceParameters, ks, keyParameters, externalDigest, signatureParameters.cryptoProvider, digestAlgorithm, tsaClient, sigtype);
+        if (tsaClient != null) {
+            sa.tsaUrl = tsaClient.getLastUrl();
+            sa.tsaLatency = tsaClient.getLastLatency();
+        }
+        return sa;
     }
 
     // Initialize the signature appearance
@@ -177,6 +350,8 @@ public class OperationSignatureAdd extends OperationCommon {
             SignatureAppearanceParameters signatureAppearanceParameters,
             KeyStore ks,
             KeyParameters keyParameters,
+            ExternalDigest externalDigest,
+            CryptoProvider cryptoProvider,
             String digestAlgorithm,
             TSAClient tsaClient,
             MakeSignature.CryptoStandard sigtype) throws OperationException {
@@ -184,13 +359,15 @@ public class OperationSignatureAdd extends OperationCommon {
         PdfSignatureAppearance sap = signatureAppearanceParameters.getSignatureAppearance(stp);
         assert sap != null; // `stp` must have been created using `PdfStamper.createSignature` static method
 
-        return sign(sap, ks, keyParameters, digestAlgorithm, tsaClient, sigtype);
+        return sign(sap, ks, keyParameters, externalDigest, cryptoProvider, digestAlgorithm, tsaClient, sigtype);
     }
 
     // Get the private key and the certificate chain from the keystore
     private static SignatureAdd sign(PdfSignatureAppearance sap,
             KeyStore ks,
             KeyParameters keyParameters,
+            ExternalDigest externalDigest,
+            CryptoProvider cryptoProvider,
             String digestAlgorithm,
             TSAClient tsaClient,
             MakeSignature.CryptoStandard sigtype) throws OperationException {
@@ -201,28 +378,98 @@ public class OperationSignatureAdd extends OperationCommon {
         PrivateKey pk = keyParameters.getPrivateKey(ks);
         Certificate[] chain = keyParameters.getCertificateChain(ks);
 
-        Provider signatureProvider;
+        Provider signatureProvider = null;
         { // ksProvider
             Provider ksProvider = ks.getProvider();
             // "SunMSCAPI" provider must be used for signing if it was used for keystore loading.
             // In case of other keystore providers,
-            // we use the default signature provider.
+            // the signature provider is chosen according to `cryptoProvider`.
             // https://community.oracle.com/thread/1528230
             if ("SunMSCAPI".equals(ksProvider.getName())) {
                 signatureProvider = ksProvider;
-            } else {
-                signatureProvider = provider;
             }
         }
 
-        sign(sap, pk, digestAlgorithm, chain, tsaClient, sigtype, signatureProvider);
+        sign(sap, pk, externalDigest, cryptoProvider, digestAlgorithm, chain, tsaClient, sigtype, signatureProvider);
 
         return sa;
     }
 
+    // Classifies the exceptions thrown while the TSA is contacted
+    private static final ExceptionClassifier TSA_EXCEPTIONS = new ExceptionClassifier();
+
+    static {
+        List<ExceptionMessagePattern> patterns = new ArrayList<>();
+
+        // Untrusted
+        patterns.add(new ExceptionMessagePattern(
+                SIGNATURE_ADD_TSA_UNTRUSTED,
+                "(sun\\.security\\.validator\\.ValidatorException: )?PKIX path building failed: sun\\.security\\.provider\\.certpath\\.SunCertPathBuilderException: unable to find valid certification path to requested target",
+                new ArrayList<String>()));
+
+        // Bad certificate
+        patterns.add(new ExceptionMessagePattern(
+                SIGNATURE_ADD_TSA_BAD_CERTIFICATE,
+                "Received fatal alert: bad_certificate",
+                new ArrayList<String>()));
+
+        // Handshake failure
+        patterns.add(new ExceptionMessagePattern(
+                SIGNATURE_ADD_TSA_HANDSHAKE_FAILURE,
+                "Received fatal alert: handshake_failure",
+                new ArrayList<String>()));
+
+        // Other fatal alerts
+        patterns.add(new ExceptionMessagePattern(
+                SIGNATURE_ADD_TSA_SSL_FATAL_ALERT,
+                "Received fatal alert: (?<alert>.*)",
+                Arrays.asList(new String[]{"alert"})));
+
+        TSA_EXCEPTIONS.put(SSLHandshakeException.class, patterns, SIGNATURE_ADD_TSA_SSL_HANDSHAKE_EXCEPTION);
+
+        TSA_EXCEPTIONS.put(SSLException.class,
+                Arrays.asList(new ExceptionMessagePattern(
+                        SSL_TRUSTSTORE_EMPTY,
+                        "java\\.lang\\.RuntimeException: Unexpected error: java\\.security\\.InvalidAlgorithmParameterException: the trustAnchors parameter must be non-empty",
+                        new ArrayList<String>())),
+                SIGNATURE_ADD_FAIL);
+
+        TSA_EXCEPTIONS.put(SocketException.class,
+                Arrays.asList(new ExceptionMessagePattern(
+                        SSL_TRUSTSTORE_INCORRECT_TYPE,
+                        "java\\.security\\.NoSuchAlgorithmException: Error constructing implementation \\(algorithm: (?<algorithm>.*), provider: (?<provider>.*), class: (?<class>.*)\\)",
+                        Arrays.asList(new String[]{"algorithm", "provider", "class"}))),
+                SIGNATURE_ADD_FAIL);
+
+        patterns = new ArrayList<>();
+
+        // No username
+        // May also be returned if the username and password are incorrect.
+        patterns.add(new ExceptionMessagePattern(
+                SIGNATURE_ADD_TSA_UNAUTHORIZED,
+                "Server returned HTTP response code: 401 for URL: (?<url>.*)",
+                Arrays.asList(new String[]{"url"})));
+
+        // Incorrect username or incorrect password
+        patterns.add(new ExceptionMessagePattern(
+                SIGNATURE_ADD_TSA_LOGIN_FAIL,
+                "Invalid TSA '(?<url>.*)' response, code (?<code>\\d+)",
+                Arrays.asList(new String[]{"url", "code"})));
+
+        patterns.add(new ExceptionMessagePattern(
+                SIGNATURE_ADD_FAIL,
+                "unknown tag (?<tag>\\d+) encountered",
+                Arrays.asList(new String[]{"tag"})));
+
+        // Unknown exception
+        TSA_EXCEPTIONS.put(IOException.class, patterns, SIGNATURE_ADD_FAIL);
+    }
+
     // Initialize the signature algorithm
     private static void sign(PdfSignatureAppearance sap,
             PrivateKey pk,
+            ExternalDigest externalDigest,
+            CryptoProvider cryptoProvider,
             String digestAlgorithm,
             Certificate[] chain,
             TSAClient tsaClient,
@@ -231,25 +478,27 @@ public class OperationSignatureAdd extends OperationCommon {
         assert digestAlgorithm != null;
 
         // Initialize the signature algorithm
-        logger.info(String.format("Digest algorithm: %s", digestAlgorithm));
+        logger.info("Digest algorithm: %s", digestAlgorithm);
         if (DigestAlgorithms.getAllowedDigests(digestAlgorithm) == null) {
             throw new OperationException(SIGNATURE_ADD_UNSUPPORTED_DIGEST_ALGORITHM,
                     PdfmuUtils.sortedMap(new SimpleEntry<String, Object>("digestAlgorithm", digestAlgorithm)));
         }
 
-        logger.info(String.format("Signature security provider: %s", signatureProvider.getName()));
-        ExternalSignature externalSignature = new PrivateKeySignature(pk, digestAlgorithm, signatureProvider.getName());
+        if (signatureProvider == null) {
+            String signatureAlgorithm = String.format("%swith%s",
+                    DigestAlgorithms.getDigest(DigestAlgorithms.getAllowedDigests(digestAlgorithm)),
+                    PooledPrivateKeySignature.getEncryptionAlgorithm(pk));
+            signatureProvider = cryptoProvider.getProvider("Signature", signatureAlgorithm);
+            if (signatureProvider == null) {
+                throw new OperationException(SIGNATURE_ADD_CRYPTO_PROVIDER_UNSUPPORTED,
+                        PdfmuUtils.sortedMap(new SimpleEntry<String, Object>("cryptoProvider", cryptoProvider.getName()),
+                                new SimpleEntry<String, Object>("algorithm", signatureAlgorithm)));
+            }
+        }
 
-        sign(sap, externalSignature, chain, tsaClient, sigtype);
-    }
+        logger.info("Signature security provider: %s", signatureProvider.getName());
+        ExternalSignature externalSignature = new PooledPrivateKeySignature(pk, digestAlgorithm, signatureProvider);
 
-    // Set the "external digest" algorithm
-    private static void sign(PdfSignatureAppearance sap,
-            ExternalSignature externalSignature,
-            Certificate[] chain,
-            TSAClient tsaClient,
-            MakeSignature.CryptoStandard sigtype) throws OperationException {
-        // Use the static BouncyCastleDigest instance
         sign(sap, externalDigest, externalSignature, chain, tsaClient, sigtype);
     }
 
@@ -260,82 +509,37 @@ public class OperationSignatureAdd extends OperationCommon {
             Certificate[] chain,
             TSAClient tsaClient,
             MakeSignature.CryptoStandard sigtype) throws OperationException {
-        // TODO?: Set some of the following parameters more sensibly
-
         // Certificate Revocation List
         // digitalsignatures20130304.pdf : Section 3.2
-        Collection<CrlClient> crlList = null;
-
         // Online Certificate Status Protocol
         // digitalsignatures20130304.pdf : Section 3.2.4
-        OcspClient ocspClient = null;
-
-        // digitalsignatures20130304.pdf : Section 3.5
-        // The value of 0 means "try a generous educated guess".
-        // We need not change this unless we want to optimize the resulting PDF document size.
-        int estimatedSize = 0;
+        // The signature container embeds neither of them.
 
-        logger.info(String.format("Cryptographic standard (signature format): %s", sigtype));
+        logger.info("Cryptographic standard (signature format): %s", sigtype);
 
         try {
-            MakeSignature.signDetached(sap, externalDigest, externalSignature, chain, crlList, ocspClient, tsaClient, estimatedSize, sigtype);
+            // The constant parts of the signature container are encoded once per signer.
+            SigningIdentity identity = SigningIdentity.getInstance(chain,
+                    externalSignature.getHashAlgorithm(), externalSignature.getEncryptionAlgorithm(), sigtype);
+            SignedDataContainer container = new SignedDataContainer(identity, externalDigest, externalSignature, tsaClient);
+
+            // The same preparation as in {@link MakeSignature#signDetached}
+            sap.setCertificate(chain[0]);
+            if (sigtype == MakeSignature.CryptoStandard.CADES) {
+                sap.addDeveloperExtension(PdfDeveloperExtension.ESIC_1_7_EXTENSIONLEVEL2);
+            }
+
+            // digitalsignatures20130304.pdf : Section 3.5
+            MakeSignature.signExternalContainer(sap, container, container.getEstimatedSize());
         } catch (ExceptionConverter ex) {
             Exception exInner = ex.getException();
             if (exInner instanceof IOException) {
-                if (exInner instanceof SSLHandshakeException) {
-                    Set<ExceptionMessagePattern> patterns = new HashSet<>();
-
-                    // Untrusted
-                    patterns.add(new ExceptionMessagePattern(
-                            SIGNATURE_ADD_TSA_UNTRUSTED,
-                            "sun\\.security\\.validator\\.ValidatorException: PKIX path building failed: sun\\.security\\.provider\\.certpath\\.SunCertPathBuilderException: unable to find valid certification path to requested target",
-                            new ArrayList<String>()));
-
-                    // Bad certificate
-                    patterns.add(new ExceptionMessagePattern(
-                            SIGNATURE_ADD_TSA_BAD_CERTIFICATE,
-                            "Received fatal alert: bad_certificate",
-                            new ArrayList<String>()));
-
-                    // Handshake failure
-                    patterns.add(new ExceptionMessagePattern(
-                            SIGNATURE_ADD_TSA_HANDSHAKE_FAILURE,
-                            "Received fatal alert: handshake_failure",
-                            new ArrayList<String>()));
-
-                    OperationException oe = null;
-                    for (ExceptionMessagePattern p : patterns) {
-                        oe = p.getOperationException(exInner);
-                        if (oe != null) {
-                            break;
-                        }
-                    }
-                    if (oe == null) {
-                        ExceptionMessagePattern emp = new ExceptionMessagePattern(
-                                SIGNATURE_ADD_TSA_SSL_FATAL_ALERT,
-                                "Received fatal alert: (?<alert>.*)",
-                                Arrays.asList(new String[]{"alert"}));
-                        oe = emp.getOperationException(exInner);
-
-                        if (oe == null) {
-                            // Unknown exception
-                            oe = new OperationException(SIGNATURE_ADD_TSA_SSL_HANDSHAKE_EXCEPTION, exInner);
-                        }
-                    }
-                    assert oe != null;
-                    throw oe;
-                }
-
-                if (exInner instanceof SSLException) {
-                    ExceptionMessagePattern emp = new ExceptionMessagePattern(
-                            SSL_TRUSTSTORE_EMPTY,
-                            "java\\.lang\\.RuntimeException: Unexpected error: java\\.security\\.InvalidAlgorithmParameterException: the trustAnchors parameter must be non-empty",
-                            new ArrayList<String>());
-                    OperationException oe = emp.getOperationException(exInner);
-                    if (oe != null) {
-                        throw oe;
-                    }
-                    throw new OperationException(SIGNATURE_ADD_FAIL, exInner);
+                if (exInner instanceof TsaCircuitOpenException) {
+                    TsaCircuitOpenException exCircuit = (TsaCircuitOpenException) exInner;
+                    throw new OperationException(SIGNATURE_ADD_TSA_CIRCUIT_OPEN,
+                            exInner,
+                            new SimpleEntry<String, Object>("url", exCircuit.getUrl()),
+                            new SimpleEntry<String, Object>("retryAfter", exCircuit.getRetryAfterMillis()));
                 }
 
                 if (exInner instanceof UnknownHostException
@@ -346,50 +550,8 @@ public class OperationSignatureAdd extends OperationCommon {
                             new SimpleEntry<String, Object>("host", host));
                 }
 
-                if (exInner instanceof SocketException) {
-                    ExceptionMessagePattern emp = new ExceptionMessagePattern(
-                            SSL_TRUSTSTORE_INCORRECT_TYPE,
-                            "java\\.security\\.NoSuchAlgorithmException: Error constructing implementation \\(algorithm: (?<algorithm>.*), provider: (?<provider>.*), class: (?<class>.*)\\)",
-                            Arrays.asList(new String[]{"algorithm", "provider", "class"}));
-                    OperationException oe = emp.getOperationException(exInner);
-                    if (oe != null) {
-                        throw oe;
-                    }
-                    throw new OperationException(SIGNATURE_ADD_FAIL, exInner);
-                }
-
-                Set<ExceptionMessagePattern> patterns = new HashSet<>();
-
-                // No username
-                // May also be returned if the username and password are incorrect.
-                patterns.add(new ExceptionMessagePattern(
-                        SIGNATURE_ADD_TSA_UNAUTHORIZED,
-                        "Server returned HTTP response code: 401 for URL: (?<url>.*)",
-                        Arrays.asList(new String[]{"url"})));
-
-                // Incorrect username or incorrect password
-                patterns.add(new ExceptionMessagePattern(
-                        SIGNATURE_ADD_TSA_LOGIN_FAIL,
-                        "Invalid TSA '(?<url>.*)' response, code (?<code>\\d+)",
-                        Arrays.asList(new String[]{"url", "code"})));
-
-                patterns.add(new ExceptionMessagePattern(
-                        SIGNATURE_ADD_FAIL,
-                        "unknown tag (?<tag>\\d+) encountered",
-                        Arrays.asList(new String[]{"tag"})));
-
-                OperationException oe = null;
-                for (ExceptionMessagePattern p : patterns) {
-                    oe = p.getOperationException(exInner);
-                    if (oe != null) {
-                        break;
-                    }
-                }
-                if (oe == null) {
-                    // Unknown exception
-                    oe = new OperationException(SIGNATURE_ADD_FAIL, exInner);
-                }
-                assert oe != null;
+                OperationException oe = TSA_EXCEPTIONS.classify(exInner);
+                assert oe != null; // `IOException` has a fallback
                 throw oe;
             }
             throw new OperationException(SIGNATURE_ADD_FAIL, exInner);
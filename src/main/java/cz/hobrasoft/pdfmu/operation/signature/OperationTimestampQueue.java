@@ -0,0 +1,273 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.operation.signature;
+
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.ExceptionConverter;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfStamper;
+import com.itextpdf.text.pdf.security.LtvTimestamp;
+import com.itextpdf.text.pdf.security.TSAClient;
+import cz.hobrasoft.pdfmu.Log;
+import cz.hobrasoft.pdfmu.RequestContext;
+import static cz.hobrasoft.pdfmu.error.ErrorType.TIMESTAMP_QUEUE_ACCESS;
+import static cz.hobrasoft.pdfmu.error.ErrorType.TIMESTAMP_QUEUE_TSA_NOT_SET;
+import cz.hobrasoft.pdfmu.jackson.TimestampQueue;
+import cz.hobrasoft.pdfmu.jackson.TimestampQueueDocument;
+import cz.hobrasoft.pdfmu.operation.Operation;
+import cz.hobrasoft.pdfmu.operation.OperationCommon;
+import cz.hobrasoft.pdfmu.operation.OperationException;
+import cz.hobrasoft.pdfmu.operation.args.OutputFile;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+/**
+ * Adds document timestamps to the documents in a timestamp queue
+ *
+ * <p>
+ * Documents are added to the queue by the operation {@code sign} with the
+ * option {@code --timestamp-queue}. Each document receives a new revision with
+ * an RFC 3161 document timestamp. The documents are processed in batches with
+ * a single TSA client so that the TSA connections are reused.
+ *
+ * <p>
+ * A document that cannot be timestamped is retried after a growing delay and
+ * given up after {@code --max-attempts} attempts (see
+ * {@link TimestampJournal}).
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public class OperationTimestampQueue extends OperationCommon {
+
+    // Listed by `OperationRegistry` without loading this class
+    public static final String HELP = "Add document timestamps to the documents in a timestamp queue";
+
+    private static final Log logger = Log.getLog(OperationTimestampQueue.class);
+
+    private final TimestampParameters timestampParameters = new TimestampParameters();
+
+    @Override
+    public Subparser configureSubparser(Subparser subparser) {
+        String help = HELP;
+
+        subparser.help(help)
+                .description(help)
+                .defaultHelp(true);
+
+        subparser.addArgument("queue")
+                .help("timestamp queue directory")
+                .metavar("QUEUE")
+                .type(Arguments.fileType());
+        subparser.addArgument("--batch-size")
+                .help("maximum number of documents claimed from the queue at once")
+                .type(Integer.class)
+                .setDefault(16);
+        subparser.addArgument("--status")
+                .help("only report the depth and the age of the queue")
+                .type(boolean.class)
+                .action(Arguments.storeTrue());
+        subparser.addArgument("--max-attempts")
+                .help("number of failed attempts after which a document is given up. The given up jobs are kept in the queue directory with the extension " + TimestampJournal.DEAD + ".")
+                .metavar("N")
+                .type(Integer.class)
+                .setDefault(10);
+        subparser.addArgument("--interval")
+                .help("keep processing the queue until interrupted, polling it every this many seconds when it is empty (default: process the queue once)")
+                .type(Integer.class);
+
+        timestampParameters.addArguments(subparser);
+
+        return subparser;
+    }
+
+    @Override
+    public void execute(Namespace namespace) throws OperationException {
+        File directory = namespace.get("queue");
+        int batchSize = Math.max(1, namespace.getInt("batch_size"));
+        boolean statusOnly = namespace.getBoolean("status");
+        Integer interval = namespace.getInt("interval");
+        int maxAttempts = Math.max(1, namespace.getInt("max_attempts"));
+
+        TimestampJournal journal = new TimestampJournal(directory);
+        TimestampQueue result = new TimestampQueue();
+
+        if (!statusOnly) {
+            timestampParameters.setFromNamespace(namespace);
+            TSAClient tsaClient = timestampParameters.getTSAClient();
+            if (tsaClient == null) {
+                throw new OperationException(TIMESTAMP_QUEUE_TSA_NOT_SET);
+            }
+            do {
+                int processed = process(journal, tsaClient, batchSize, maxAttempts, result);
+                // Wait unless the queue is being drained
+                if (processed == 0 && interval != null) {
+                    try {
+                        Thread.sleep(TimeUnit.SECONDS.toMillis(Math.max(1, interval)));
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            } while (interval != null);
+        }
+
+        TimestampJournal.Status status;
+        try {
+            status = journal.getStatus();
+        } catch (IOException ex) {
+            throw new OperationException(TIMESTAMP_QUEUE_ACCESS, ex,
+                    new SimpleEntry<String, Object>("directory", directory));
+        }
+        result.depth = status.depth;
+        result.dead = status.dead;
+        if (status.oldestEnqueued != null) {
+            result.oldestAge = System.currentTimeMillis() - status.oldestEnqueued;
+        }
+
+        to.println(String.format("Timestamped documents: %d", result.processed));
+        to.println(String.format("Failed documents: %d", result.failed));
+        to.println(String.format("Queue depth: %d", result.depth));
+        to.println(String.format("Given up documents: %d", result.dead));
+        if (result.oldestAge != null) {
+            to.println(String.format("Age of the oldest document: %d s", TimeUnit.MILLISECONDS.toSeconds(result.oldestAge)));
+        }
+
+        writeResult(result);
+    }
+
+    /**
+     * Processes one batch of jobs.
+     *
+     * <p>
+     * With a stream output format, a {@link TimestampQueueDocument} is written
+     * for each job.
+     *
+     * @return the number of timestamped documents
+     */
+    private int process(TimestampJournal journal, TSAClient tsaClient,
+            int batchSize, int maxAttempts, TimestampQueue result) throws OperationException {
+        List<TimestampJournal.Job> jobs;
+        try {
+            journal.recover();
+            jobs = journal.claim(batchSize);
+        } catch (IOException ex) {
+            throw new OperationException(TIMESTAMP_QUEUE_ACCESS, ex,
+                    new SimpleEntry<String, Object>("directory", journal.getDirectory()));
+        }
+        logger.info("Claimed %d documents from the timestamp queue.", jobs.size());
+
+        int processed = 0;
+        for (TimestampJournal.Job job : jobs) {
+            try {
+                try {
+                    timestamp(job.file, tsaClient);
+                } catch (IOException | DocumentException | GeneralSecurityException | ExceptionConverter | OperationException ex) {
+                    logger.warning("Could not timestamp the document %s (attempt %d): %s",
+                            job.file, job.attempts + 1, ex);
+                    journal.release(job, ex.toString(), maxAttempts);
+                    ++result.failed;
+                    if (writesStream()) {
+                        writeResult(new TimestampQueueDocument(job.file.getPath(), false, ex.toString()));
+                    }
+                    continue;
+                }
+                journal.complete(job);
+                ++processed;
+                ++result.processed;
+                logger.info("Document %s has been timestamped.", job.file);
+                if (writesStream()) {
+                    writeResult(new TimestampQueueDocument(job.file.getPath(), true, null));
+                }
+            } catch (IOException ex) {
+                throw new OperationException(TIMESTAMP_QUEUE_ACCESS, ex,
+                        new SimpleEntry<String, Object>("directory", journal.getDirectory()));
+            }
+        }
+        return processed;
+    }
+
+    /**
+     * Appends a document timestamp revision to the document. The document is
+     * forced to the storage device and replaced atomically so that it is never
+     * left partially written. If the document has been written by someone else
+     * in the meantime, for example signed again, it is left alone and the
+     * attempt fails.
+     */
+    private static void timestamp(File file, TSAClient tsaClient)
+            throws IOException, DocumentException, GeneralSecurityException, OperationException {
+        long start = RequestContext.now();
+        String identity = identity(file);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        PdfReader reader = new PdfReader(bytes);
+        RequestContext.record(RequestContext.Phase.OPEN, start);
+        ByteArrayOutputStream os = new ByteArrayOutputStream(bytes.length + 16384);
+        try {
+            PdfStamper stp = PdfStamper.createSignature(reader, os, '\0', null, true);
+            // Closes the stamper
+            LtvTimestamp.timestamp(stp.getSignatureAppearance(), tsaClient, null);
+        } finally {
+            reader.close();
+        }
+
+        start = RequestContext.now();
+        OutputFile output = new OutputFile(file);
+        try {
+            output.write(os.toByteArray(), os.size());
+            output.sync();
+            if (!identity.equals(identity(file))) {
+                throw new IOException(String.format("The document %s has been modified while it was being timestamped.", file));
+            }
+            output.commit();
+        } finally {
+            output.discard();
+        }
+        OutputFile.syncDirectory(file.getAbsoluteFile().getParentFile());
+        RequestContext.record(RequestContext.Phase.WRITE, start);
+    }
+
+    /**
+     * @return a description of the document that changes whenever the
+     * document is written or replaced
+     */
+    private static String identity(File file) throws IOException {
+        return file.length() + " " + DigestStateCache.identity(file);
+    }
+
+    private static Operation instance = null;
+
+    public static Operation getInstance() {
+        if (instance == null) {
+            instance = new OperationTimestampQueue();
+        }
+        return instance;
+    }
+
+    // Singleton
+    private OperationTimestampQueue() {
+        super();
+    }
+
+}
@@ -0,0 +1,94 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.operation.signature;
+
+import com.itextpdf.text.pdf.security.DigestAlgorithms;
+import com.itextpdf.text.pdf.security.ExternalSignature;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.Signature;
+
+/**
+ * {@link ExternalSignature} that signs with a private key using a
+ * {@link Signature} engine from the {@link EngineCache}.
+ *
+ * <p>
+ * Equivalent to {@link com.itextpdf.text.pdf.security.PrivateKeySignature},
+ * which looks up the provider by name and creates a new engine for every
+ * signature.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public class PooledPrivateKeySignature implements ExternalSignature {
+
+    private final PrivateKey pk;
+    private final String hashAlgorithm;
+    private final String encryptionAlgorithm;
+    private final Provider provider;
+
+    /**
+     * @param pk the private key
+     * @param hashAlgorithm the hash algorithm, for example "SHA256" or
+     * "SHA-256"
+     * @param provider the provider of the signature algorithm
+     */
+    public PooledPrivateKeySignature(PrivateKey pk, String hashAlgorithm, Provider provider) {
+        this.pk = pk;
+        this.hashAlgorithm = DigestAlgorithms.getDigest(DigestAlgorithms.getAllowedDigests(hashAlgorithm));
+        this.encryptionAlgorithm = getEncryptionAlgorithm(pk);
+        this.provider = provider;
+    }
+
+    /**
+     * @param pk a private key
+     * @return the encryption algorithm name used by iText ("RSA", "DSA" or
+     * "ECDSA")
+     */
+    public static String getEncryptionAlgorithm(PrivateKey pk) {
+        String algorithm = pk.getAlgorithm();
+        if (algorithm.startsWith("EC")) {
+            return "ECDSA";
+        }
+        return algorithm;
+    }
+
+    /**
+     * @return the signature algorithm, for example "SHA256withRSA"
+     */
+    public String getSignatureAlgorithm() {
+        return hashAlgorithm + "with" + encryptionAlgorithm;
+    }
+
+    @Override
+    public String getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    @Override
+    public String getEncryptionAlgorithm() {
+        return encryptionAlgorithm;
+    }
+
+    @Override
+    public byte[] sign(byte[] message) throws GeneralSecurityException {
+        Signature signature = EngineCache.getSignature(getSignatureAlgorithm(), provider);
+        signature.initSign(pk);
+        signature.update(message);
+        return signature.sign();
+    }
+}
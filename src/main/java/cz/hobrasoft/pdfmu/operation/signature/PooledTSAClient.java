@@ -0,0 +1,655 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.operation.signature;
+
+import com.itextpdf.text.pdf.codec.Base64;
+import com.itextpdf.text.pdf.security.TSAClientBouncyCastle;
+import cz.hobrasoft.pdfmu.DeadlineExceededException;
+import cz.hobrasoft.pdfmu.Log;
+import cz.hobrasoft.pdfmu.RequestContext;
+import cz.hobrasoft.pdfmu.VirtualThreads;
+import cz.hobrasoft.pdfmu.jfr.Events;
+import cz.hobrasoft.pdfmu.jfr.Phase;
+import cz.hobrasoft.pdfmu.jfr.PhaseEvent;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.NoRouteToHostException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+import org.bouncycastle.tsp.TSPException;
+import org.bouncycastle.tsp.TimeStampRequest;
+import org.bouncycastle.tsp.TimeStampResponse;
+
+/**
+ * {@link TSAClientBouncyCastle} with connection reuse, timeouts, a concurrency
+ * limit, retries, a circuit breaker and hedged requests.
+ *
+ * <p>
+ * The request is sent using {@link HttpURLConnection}. Both the response and
+ * the error streams are always read to the end and closed so that the
+ * underlying connection is returned to the JVM keep-alive cache and reused by
+ * the following requests to the same host.
+ *
+ * <p>
+ * Connection failures, timeouts and HTTP responses 429 and 5xx are retried
+ * with exponential backoff and full jitter. A connection dropped by the TSA
+ * while idle in the keep-alive cache is replaced at once, outside the retries.
+ * Requests that fail even after the retries count towards the circuit breaker
+ * of the {@link TsaEndpoint}; only an HTTP 4xx response other than 429 shows
+ * that the TSA is available.
+ *
+ * <p>
+ * If more than one TSA URL is configured, the request is sent to the first
+ * (primary) TSA. If no valid response arrives within the hedge delay, or the
+ * request fails, the request is also sent to the next TSA, and so on. The
+ * first valid response is used and the other requests are cancelled. The
+ * hedge delay is either fixed or estimated as the 95th percentile of the
+ * recent latencies of the primary TSA.
+ *
+ * <p>
+ * If the request being processed has a deadline (see
+ * {@link RequestContext#remainingMillis()}), the exchange does not outlast
+ * it: the timeouts, the backoff delays and the waiting for the hedged
+ * requests are shortened to the remaining time, and the exchange fails with
+ * {@link DeadlineExceededException} once the deadline has passed.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public class PooledTSAClient extends TSAClientBouncyCastle {
+
+    private static final Log LOGGER = Log.getLog(PooledTSAClient.class);
+
+    /**
+     * Upper bound of the first backoff delay in milliseconds. The bound doubles
+     * with every retry.
+     */
+    private static final long BACKOFF_BASE_MILLIS = 250;
+
+    /**
+     * Maximum backoff delay in milliseconds.
+     */
+    private static final long BACKOFF_CAP_MILLIS = 8000;
+
+    private static final String DEADLINE_PHASE = "waiting for the TSA";
+
+    /**
+     * Hedge delay in milliseconds used until the latency of the primary TSA
+     * has been estimated.
+     */
+    public static final long DEFAULT_HEDGE_DELAY = 2000;
+
+    /**
+     * Runs the hedged requests, in virtual threads if the runtime supports
+     * them.
+     */
+    private static final ExecutorService HEDGE_EXECUTOR = createHedgeExecutor();
+
+    private static ExecutorService createHedgeExecutor() {
+        ExecutorService executor = VirtualThreads.newExecutor("pdfmu-tsa");
+        if (executor != null) {
+            return executor;
+        }
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "pdfmu-tsa");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private final List<TsaEndpoint> endpoints;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final int retries;
+    private final Long hedgeDelay;
+
+    private SSLSocketFactory sslSocketFactory = null;
+
+    private volatile Long lastLatency = null;
+    private volatile int lastAttempts = 0;
+    private volatile String lastUrl = null;
+
+    /**
+     * @param url the TSA URL
+     * @param username the TSA username
+     * @param password the TSA password
+     * @param connectTimeout connect timeout in milliseconds (0: infinite)
+     * @param readTimeout read timeout in milliseconds (0: infinite)
+     * @param maxConcurrent maximum number of concurrent requests to the TSA
+     * @param retries number of retries of a failed request
+     */
+    public PooledTSAClient(String url, String username, String password,
+            int connectTimeout, int readTimeout, int maxConcurrent, int retries) {
+        this(Collections.singletonList(url), username, password,
+                connectTimeout, readTimeout, maxConcurrent, retries, null);
+    }
+
+    /**
+     * @param urls the TSA URLs in the order of preference. The username and
+     * the password are only sent to the first one; the fallback TSAs receive
+     * anonymous requests.
+     * @param username the TSA username
+     * @param password the TSA password
+     * @param connectTimeout connect timeout in milliseconds (0: infinite)
+     * @param readTimeout read timeout in milliseconds (0: infinite)
+     * @param maxConcurrent maximum number of concurrent requests to one TSA
+     * @param retries number of retries of a failed request
+     * @param hedgeDelay the delay after which the request is sent to the next
+     * TSA in milliseconds, or null to estimate it from the latency of the
+     * primary TSA
+     */
+    public PooledTSAClient(List<String> urls, String username, String password,
+            int connectTimeout, int readTimeout, int maxConcurrent, int retries,
+            Long hedgeDelay) {
+        super(urls.get(0), username, password);
+        this.endpoints = new ArrayList<>();
+        for (String url : urls) {
+            endpoints.add(TsaEndpoint.get(url, maxConcurrent));
+        }
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.retries = retries;
+        this.hedgeDelay = hedgeDelay;
+    }
+
+    public String getUrl() {
+        return tsaURL;
+    }
+
+    /**
+     * Sets the socket factory used for HTTPS connections. Connections created
+     * by the same factory share its TLS session cache, so that the TLS
+     * sessions can be resumed.
+     *
+     * @param sslSocketFactory the socket factory, or null to use the JVM
+     * default
+     */
+    public void setSslSocketFactory(SSLSocketFactory sslSocketFactory) {
+        this.sslSocketFactory = sslSocketFactory;
+    }
+
+    public SSLSocketFactory getSslSocketFactory() {
+        return sslSocketFactory;
+    }
+
+    /**
+     * @return the duration of the last exchange with the TSA in milliseconds
+     * including the retries and the hedged requests, or null if no request has
+     * been sent
+     */
+    public Long getLastLatency() {
+        return lastLatency;
+    }
+
+    /**
+     * @return the number of requests sent to the TSA that answered the last
+     * exchange
+     */
+    public int getLastAttempts() {
+        return lastAttempts;
+    }
+
+    /**
+     * @return the URL of the TSA that answered the last exchange
+     */
+    public String getLastUrl() {
+        return lastUrl;
+    }
+
+    @Override
+    protected byte[] getTSAResponse(byte[] requestBytes) throws IOException {
+        long start = System.nanoTime();
+        RequestContext.checkDeadlineIO(DEADLINE_PHASE);
+        // The exchange may run in other threads, which do not see the context.
+        long deadline = RequestContext.hasDeadline()
+                ? start + TimeUnit.MILLISECONDS.toNanos(RequestContext.remainingMillis())
+                : 0;
+        PhaseEvent event = Events.begin(Phase.TSA_REQUEST);
+        event.setFileSize(requestBytes.length);
+        // Let another request use the processor while this one waits.
+        RequestContext.releaseProcessor();
+        try {
+            Response response;
+            if (endpoints.size() == 1) {
+                response = exchange(endpoints.get(0), requestBytes, new Exchange(deadline));
+            } else {
+                response = hedge(requestBytes, deadline);
+            }
+            lastAttempts = response.attempts;
+            lastUrl = response.url;
+            event.succeed();
+            return response.bytes;
+        } finally {
+            RequestContext.acquireProcessor();
+            event.finish();
+            RequestContext.record(RequestContext.Phase.TSA, start);
+            lastLatency = (System.nanoTime() - start) / 1000000;
+            LOGGER.info("TSA latency: %d ms", lastLatency);
+        }
+    }
+
+    private Response hedge(final byte[] requestBytes, long deadline) throws IOException {
+        long delay;
+        if (hedgeDelay != null) {
+            delay = hedgeDelay;
+        } else {
+            Long p95 = endpoints.get(0).getLatencyPercentile(0.95);
+            delay = p95 != null ? p95 : DEFAULT_HEDGE_DELAY;
+        }
+
+        CompletionService<Response> completionService = new ExecutorCompletionService<>(HEDGE_EXECUTOR);
+        List<Future<Response>> futures = new ArrayList<>();
+        List<Exchange> exchanges = new ArrayList<>();
+        IOException failure = null;
+        int finished = 0;
+        try {
+            launch(completionService, futures, exchanges, requestBytes, deadline);
+            while (finished < futures.size()) {
+                Future<Response> future;
+                if (futures.size() < endpoints.size()) {
+                    long wait = Math.min(delay, remainingMillis(deadline));
+                    future = completionService.poll(wait, TimeUnit.MILLISECONDS);
+                    if (future == null) {
+                        checkDeadline(deadline);
+                        LOGGER.info("TSA %s has not answered within %d ms. Sending a hedged request.",
+                                endpoints.get(futures.size() - 1).getUrl(), delay);
+                        launch(completionService, futures, exchanges, requestBytes, deadline);
+                        continue;
+                    }
+                } else if (deadline != 0) {
+                    future = completionService.poll(remainingMillis(deadline), TimeUnit.MILLISECONDS);
+                    if (future == null) {
+                        checkDeadline(deadline);
+                        continue;
+                    }
+                } else {
+                    future = completionService.take();
+                }
+                ++finished;
+                try {
+                    return future.get();
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    IOException ioe = cause instanceof IOException
+                            ? (IOException) cause
+                            : new IOException(cause);
+                    LOGGER.info("TSA request failed: %s", ioe);
+                    if (failure == null) {
+                        failure = ioe;
+                    }
+                    if (futures.size() < endpoints.size()) {
+                        launch(completionService, futures, exchanges, requestBytes, deadline);
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the TSA");
+        } finally {
+            for (Exchange exchange : exchanges) {
+                exchange.cancel();
+            }
+            for (Future<Response> future : futures) {
+                future.cancel(true);
+            }
+        }
+        assert failure != null;
+        throw failure;
+    }
+
+    private void launch(CompletionService<Response> completionService,
+            List<Future<Response>> futures, List<Exchange> exchanges,
+            final byte[] requestBytes, long deadline) {
+        final TsaEndpoint endpoint = endpoints.get(futures.size());
+        final Exchange exchange = new Exchange(deadline);
+        exchanges.add(exchange);
+        futures.add(completionService.submit(new Callable<Response>() {
+            @Override
+            public Response call() throws IOException {
+                Response response = exchange(endpoint, requestBytes, exchange);
+                validate(response, requestBytes);
+                return response;
+            }
+        }));
+    }
+
+    /**
+     * Makes sure a hedged response is a valid answer to the request so that an
+     * invalid response from a fast TSA does not win over a valid response from
+     * a slower one.
+     */
+    private static void validate(Response response, byte[] requestBytes) throws IOException {
+        try {
+            new TimeStampResponse(response.bytes).validate(new TimeStampRequest(requestBytes));
+        } catch (TSPException ex) {
+            throw new IOException(String.format("Invalid TSA '%s' response: %s", response.url, ex.getMessage()), ex);
+        }
+    }
+
+    private Response exchange(TsaEndpoint endpoint, byte[] requestBytes, Exchange exchange) throws IOException {
+        endpoint.checkClosed();
+        // Any exit without a recorded outcome, including a runtime exception,
+        // cancels the exchange so that a half-open circuit admits a new trial.
+        boolean recorded = false;
+        try {
+            try {
+                if (exchange.deadline == 0) {
+                    endpoint.acquire();
+                } else if (!endpoint.tryAcquire(remainingMillis(exchange.deadline))) {
+                    throw new DeadlineExceededException(DEADLINE_PHASE);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(String.format("Interrupted while waiting for TSA %s", endpoint.getUrl()));
+            }
+            try {
+                int attempts = 0;
+                int retried = 0;
+                boolean reconnected = false;
+                for (;;) {
+                    ++attempts;
+                    long start = System.nanoTime();
+                    try {
+                        byte[] respBytes = post(endpoint, requestBytes, exchange);
+                        endpoint.recordSuccess((System.nanoTime() - start) / 1000000);
+                        recorded = true;
+                        return new Response(endpoint.getUrl(), respBytes, attempts);
+                    } catch (IOException ex) {
+                        if (exchange.isCancelled()) {
+                            throw ex;
+                        }
+                        if (isExpired(exchange.deadline)) {
+                            throw deadlineExceeded(ex);
+                        }
+                        if (isClientError(ex)) {
+                            // The TSA is available; the request itself is wrong.
+                            endpoint.recordSuccess();
+                            recorded = true;
+                            throw ex;
+                        }
+                        if (!reconnected && isDroppedConnection(ex)) {
+                            // The TSA may have closed a kept-alive connection.
+                            // The failed connection has been discarded.
+                            reconnected = true;
+                            LOGGER.info("TSA connection lost (%s). Reconnecting.", ex);
+                            continue;
+                        }
+                        if (!isTransient(ex) || retried >= retries) {
+                            endpoint.recordFailure();
+                            recorded = true;
+                            throw ex;
+                        }
+                        long delay = Math.min(backoff(retried), remainingMillis(exchange.deadline));
+                        ++retried;
+                        LOGGER.info("TSA request failed (%s). Retrying in %d ms.", ex, delay);
+                        try {
+                            Thread.sleep(delay);
+                        } catch (InterruptedException ie) {
+                            Thread.currentThread().interrupt();
+                            throw ex;
+                        }
+                    }
+                }
+            } finally {
+                endpoint.release();
+            }
+        } finally {
+            if (!recorded) {
+                endpoint.recordCancelled();
+            }
+        }
+    }
+
+    private byte[] post(TsaEndpoint endpoint, byte[] requestBytes, Exchange exchange) throws IOException {
+        String tsaUrl = endpoint.getUrl();
+        URL url = new URL(tsaUrl);
+        URLConnection connection = url.openConnection();
+        if (sslSocketFactory != null && connection instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory);
+        }
+        connection.setConnectTimeout(limit(connectTimeout, exchange.deadline));
+        connection.setReadTimeout(limit(readTimeout, exchange.deadline));
+        connection.setDoInput(true);
+        connection.setDoOutput(true);
+        connection.setUseCaches(false);
+        connection.setRequestProperty("Content-Type", "application/timestamp-query");
+        connection.setRequestProperty("Content-Transfer-Encoding", "binary");
+        // The credentials belong to the primary TSA.
+        if (tsaUsername != null && !tsaUsername.isEmpty() && endpoint == endpoints.get(0)) {
+            String userPassword = tsaUsername + ":" + tsaPassword;
+            connection.setRequestProperty("Authorization", "Basic "
+                    + Base64.encodeBytes(userPassword.getBytes(), Base64.DONT_BREAK_LINES));
+        }
+        if (connection instanceof HttpURLConnection) {
+            ((HttpURLConnection) connection).setFixedLengthStreamingMode(requestBytes.length);
+        }
+        exchange.setConnection(connection);
+
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(requestBytes);
+        }
+
+        if (connection instanceof HttpURLConnection) {
+            HttpURLConnection httpConnection = (HttpURLConnection) connection;
+            int code = httpConnection.getResponseCode();
+            if (code >= 400) {
+                // Drain the error stream so that the connection can be reused
+                readFully(httpConnection.getErrorStream());
+                throw new HttpStatusException(code, tsaUrl);
+            }
+        }
+
+        byte[] respBytes = readFully(connection.getInputStream());
+        // The connection is back in the keep-alive cache and must not be disconnected.
+        exchange.setConnection(null);
+        String encoding = connection.getContentEncoding();
+        if (encoding != null && encoding.equalsIgnoreCase("base64")) {
+            respBytes = Base64.decode(new String(respBytes));
+        }
+        return respBytes;
+    }
+
+    private static byte[] readFully(InputStream inp) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        if (inp == null) {
+            return baos.toByteArray();
+        }
+        try {
+            byte[] buffer = new byte[4096];
+            int bytesRead;
+            while ((bytesRead = inp.read(buffer, 0, buffer.length)) >= 0) {
+                baos.write(buffer, 0, bytesRead);
+            }
+        } finally {
+            inp.close();
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * @return whether the TSA has rejected the request, which shows that the
+     * TSA is available
+     */
+    private static boolean isClientError(IOException ex) {
+        if (ex instanceof HttpStatusException) {
+            int code = ((HttpStatusException) ex).code;
+            return code >= 400 && code < 500 && code != 429;
+        }
+        return false;
+    }
+
+    /**
+     * @return whether an established connection has been closed or reset,
+     * which is how a TSA drops an idle keep-alive connection
+     */
+    private static boolean isDroppedConnection(IOException ex) {
+        return (ex instanceof SocketException
+                && !(ex instanceof ConnectException)
+                && !(ex instanceof NoRouteToHostException))
+                || ex instanceof EOFException;
+    }
+
+    /**
+     * @return whether the failure may disappear when the request is repeated.
+     * The other failures, such as an unknown host or a TLS error, are not
+     * retried.
+     */
+    private static boolean isTransient(IOException ex) {
+        if (ex instanceof HttpStatusException) {
+            int code = ((HttpStatusException) ex).code;
+            return code == 429 || code >= 500;
+        }
+        return ex instanceof SocketException
+                || ex instanceof SocketTimeoutException
+                || ex instanceof EOFException;
+    }
+
+    /**
+     * @param deadline the deadline as returned by {@link System#nanoTime()},
+     * or 0 if there is none
+     * @return the milliseconds left until the deadline, at least 1, or
+     * {@link Long#MAX_VALUE} if there is no deadline
+     */
+    private static long remainingMillis(long deadline) {
+        if (deadline == 0) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    private static boolean isExpired(long deadline) {
+        return deadline != 0 && System.nanoTime() - deadline >= 0;
+    }
+
+    private static void checkDeadline(long deadline) throws DeadlineExceededException {
+        if (isExpired(deadline)) {
+            throw new DeadlineExceededException(DEADLINE_PHASE);
+        }
+    }
+
+    private static DeadlineExceededException deadlineExceeded(IOException cause) {
+        DeadlineExceededException ex = new DeadlineExceededException(DEADLINE_PHASE);
+        ex.initCause(cause);
+        return ex;
+    }
+
+    /**
+     * Shortens a timeout so that it ends at the deadline
+     *
+     * @param timeout the timeout in milliseconds (0: infinite)
+     * @param deadline the deadline, or 0 if there is none
+     * @return the shortened timeout
+     */
+    private static int limit(int timeout, long deadline) {
+        if (deadline == 0) {
+            return timeout;
+        }
+        int remaining = (int) Math.min(Integer.MAX_VALUE, remainingMillis(deadline));
+        return timeout == 0 ? remaining : Math.min(timeout, remaining);
+    }
+
+    private static long backoff(int attempt) {
+        long bound = Math.min(BACKOFF_CAP_MILLIS, BACKOFF_BASE_MILLIS << Math.min(attempt, 16));
+        return ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    private static class Response {
+
+        public final String url;
+        public final byte[] bytes;
+        public final int attempts;
+
+        public Response(String url, byte[] bytes, int attempts) {
+            this.url = url;
+            this.bytes = bytes;
+            this.attempts = attempts;
+        }
+    }
+
+    /**
+     * Connection of an exchange with a TSA that may be cancelled from another
+     * thread.
+     */
+    private static class Exchange {
+
+        public final long deadline; // As returned by `System.nanoTime()`; 0: none
+        private URLConnection connection = null;
+        private boolean cancelled = false;
+
+        public Exchange(long deadline) {
+            this.deadline = deadline;
+        }
+
+        public synchronized void setConnection(URLConnection connection) throws InterruptedIOException {
+            if (cancelled) {
+                throw new InterruptedIOException("TSA request cancelled");
+            }
+            this.connection = connection;
+        }
+
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        public synchronized void cancel() {
+            cancelled = true;
+            if (connection instanceof HttpURLConnection) {
+                ((HttpURLConnection) connection).disconnect();
+            }
+        }
+    }
+
+    /**
+     * Unsuccessful HTTP response. The message format is the one used by
+     * {@link HttpURLConnection#getInputStream()} so that the existing error
+     * mapping applies.
+     */
+    private static class HttpStatusException extends IOException {
+
+        public final int code;
+
+        public HttpStatusException(int code, String url) {
+            super(String.format("Server returned HTTP response code: %d for URL: %s", code, url));
+            this.code = code;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.operation.signature;
+
+import com.itextpdf.text.pdf.security.DigestAlgorithms;
+import com.itextpdf.text.pdf.security.ExternalDigest;
+import cz.hobrasoft.pdfmu.Log;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.EncodableDigest;
+import org.bouncycastle.crypto.digests.SHA1Digest;
+import org.bouncycastle.crypto.digests.SHA224Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA384Digest;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+import org.bouncycastle.util.Memoable;
+
+/**
+ * {@link ExternalDigest} that hashes the document range stream starting from a
+ * stored digest state and records the state for the next signature.
+ *
+ * <p>
+ * {@link com.itextpdf.text.pdf.security.MakeSignature#signDetached} requests
+ * the first message digest to hash the range stream of the document, that is
+ * the whole document except for the {@code /Contents} hole. In append mode
+ * the range stream starts with the unchanged previous revision. If the digest
+ * state of the previous revision is known, the first {@code resumedLength}
+ * bytes of the range stream are only skipped, not hashed.
+ *
+ * <p>
+ * While hashing, copies of the digest state are kept every
+ * {@value #SNAPSHOT_INTERVAL} bytes. Once the document has been signed,
+ * {@link #getFinalState(byte[], int)} continues from the last copy before the
+ * {@code /Contents} hole and hashes the rest of the finished document, which
+ * yields the state of the whole new revision.
+ *
+ * <p>
+ * Only the BouncyCastle SHA-1 and SHA-2 digests can export their state. Other
+ * algorithms and all the following message digests are delegated.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+class ResumableDigest implements ExternalDigest {
+
+    private static final Log LOGGER = Log.getLog(ResumableDigest.class);
+
+    public static final int SNAPSHOT_INTERVAL = 64 * 1024;
+
+    private static final byte[] BYTE_RANGE = "/ByteRange".getBytes(StandardCharsets.US_ASCII);
+
+    private final ExternalDigest delegate;
+    private final String algorithm;
+    private final byte[] state;
+    private final long resumedLength;
+    private RecordingMessageDigest recorder;
+
+    /**
+     * @param delegate the digest used for unsupported algorithms and for all
+     * the message digests except the first one
+     * @param hashAlgorithm the digest algorithm of the signature
+     * @param state the encoded digest state of the previous revision, or null
+     * to hash the whole document
+     * @param resumedLength the length of the previous revision
+     */
+    public ResumableDigest(ExternalDigest delegate, String hashAlgorithm, byte[] state, long resumedLength) {
+        this.delegate = delegate;
+        this.algorithm = normalize(hashAlgorithm);
+        if (state != null) {
+            try {
+                newDigest(algorithm, state);
+            } catch (RuntimeException ex) {
+                LOGGER.warning("The stored %s digest state is corrupted and will be ignored: %s", algorithm, ex);
+                state = null;
+            }
+        }
+        this.state = state;
+        this.resumedLength = state != null ? resumedLength : 0;
+    }
+
+    /**
+     * @param hashAlgorithm the name of a digest algorithm
+     * @return true if the state of the digest can be stored and restored
+     */
+    public static boolean isSupported(String hashAlgorithm) {
+        return newDigest(normalize(hashAlgorithm), null) != null;
+    }
+
+    private static String normalize(String hashAlgorithm) {
+        String oid = DigestAlgorithms.getAllowedDigests(hashAlgorithm);
+        return oid != null ? DigestAlgorithms.getDigest(oid) : hashAlgorithm;
+    }
+
+    private static Digest newDigest(String algorithm, byte[] state) {
+        switch (algorithm) {
+            case "SHA1":
+                return state != null ? new SHA1Digest(state) : new SHA1Digest();
+            case "SHA224":
+                return state != null ? new SHA224Digest(state) : new SHA224Digest();
+            case "SHA256":
+                return state != null ? new SHA256Digest(state) : new SHA256Digest();
+            case "SHA384":
+                return state != null ? new SHA384Digest(state) : new SHA384Digest();
+            case "SHA512":
+                return state != null ? new SHA512Digest(state) : new SHA512Digest();
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public MessageDigest getMessageDigest(String hashAlgorithm) throws GeneralSecurityException {
+        if (recorder == null && algorithm.equals(normalize(hashAlgorithm))) {
+            Digest digest = newDigest(algorithm, state);
+            if (digest != null) {
+                recorder = new RecordingMessageDigest(hashAlgorithm, digest, resumedLength);
+                return recorder;
+            }
+        }
+        return delegate.getMessageDigest(hashAlgorithm);
+    }
+
+    /**
+     * @return the number of bytes whose digest has been restored instead of
+     * computed
+     */
+    public long getResumedLength() {
+        return recorder != null ? resumedLength : 0;
+    }
+
+    /**
+     * Computes the digest state of the signed document.
+     *
+     * @param document the buffer that holds the signed document
+     * @param length the length of the document in the buffer
+     * @return the encoded digest state, or null if the range stream has not
+     * been hashed by this digest
+     * @throws IOException if the signature dictionary cannot be found in the
+     * document
+     */
+    public byte[] getFinalState(byte[] document, int length) throws IOException {
+        if (recorder == null || recorder.finished == null) {
+            return null;
+        }
+        long holeStart = findHoleStart(document, length);
+        Snapshot start = null;
+        for (Snapshot snapshot : recorder.finished) {
+            if (snapshot.position <= holeStart) {
+                start = snapshot;
+            }
+        }
+        if (start == null) {
+            return null;
+        }
+        // The range stream matches the document up to the hole.
+        Digest digest = (Digest) start.state.copy();
+        digest.update(document, (int) start.position, length - (int) start.position);
+        return ((EncodableDigest) digest).getEncodedState();
+    }
+
+    /**
+     * Finds the offset of the {@code /Contents} hole of the last signature in
+     * the document, that is the second number of its {@code /ByteRange}.
+     */
+    static long findHoleStart(byte[] document, int length) throws IOException {
+        search:
+        for (int i = length - BYTE_RANGE.length; i >= 0; --i) {
+            for (int j = 0; j < BYTE_RANGE.length; ++j) {
+                if (document[i + j] != BYTE_RANGE[j]) {
+                    continue search;
+                }
+            }
+            long[] numbers = new long[2];
+            int p = i + BYTE_RANGE.length;
+            p = skipWhitespace(document, p, length);
+            if (p >= length || document[p] != '[') {
+                continue;
+            }
+            ++p;
+            for (int n = 0; n < numbers.length; ++n) {
+                p = skipWhitespace(document, p, length);
+                int digits = 0;
+                while (p < length && document[p] >= '0' && document[p] <= '9') {
+                    numbers[n] = numbers[n] * 10 + (document[p] - '0');
+                    ++p;
+                    ++digits;
+                }
+                if (digits == 0) {
+                    throw new IOException("Malformed /ByteRange in the signed document.");
+                }
+            }
+            return numbers[1];
+        }
+        throw new IOException("The signed document does not contain a /ByteRange.");
+    }
+
+    private static int skipWhitespace(byte[] document, int p, int length) {
+        while (p < length && (document[p] == ' ' || document[p] == '\n' || document[p] == '\r'
+                || document[p] == '\t' || document[p] == '\f' || document[p] == 0)) {
+            ++p;
+        }
+        return p;
+    }
+
+    private static class Snapshot {
+
+        public final long position;
+        public final Memoable state;
+
+        public Snapshot(long position, Memoable state) {
+            this.position = position;
+            this.state = state;
+        }
+    }
+
+    /**
+     * Skips the bytes covered by the restored state and keeps copies of the
+     * digest state as the data are hashed.
+     */
+    private static class RecordingMessageDigest extends MessageDigest {
+
+        private final Digest digest;
+        private final Memoable initial;
+        private final long skip;
+
+        private long position = 0;
+        private List<Snapshot> snapshots = new ArrayList<>();
+
+        /**
+         * The snapshots of the last completed digest.
+         */
+        public List<Snapshot> finished = null;
+
+        public RecordingMessageDigest(String algorithm, Digest digest, long skip) {
+            super(algorithm);
+            this.digest = digest;
+            this.initial = ((Memoable) digest).copy();
+            this.skip = skip;
+        }
+
+        @Override
+        protected void engineUpdate(byte input) {
+            engineUpdate(new byte[]{input}, 0, 1);
+        }
+
+        @Override
+        protected void engineUpdate(byte[] input, int offset, int len) {
+            if (position + len <= skip) {
+                position += len;
+                return;
+            }
+            if (position < skip) {
+                int skipped = (int) (skip - position);
+                offset += skipped;
+                len -= skipped;
+                position = skip;
+            }
+            if (snapshots.isEmpty()
+                    || position - snapshots.get(snapshots.size() - 1).position >= SNAPSHOT_INTERVAL) {
+                snapshots.add(new Snapshot(position, ((Memoable) digest).copy()));
+            }
+            digest.update(input, offset, len);
+            position += len;
+        }
+
+        @Override
+        protected int engineGetDigestLength() {
+            return digest.getDigestSize();
+        }
+
+        @Override
+        protected byte[] engineDigest() {
+            byte[] result = new byte[digest.getDigestSize()];
+            digest.doFinal(result, 0);
+            finished = snapshots;
+            engineReset();
+            return result;
+        }
+
+        @Override
+        protected void engineReset() {
+            ((Memoable) digest).reset(initial);
+            position = 0;
+            snapshots = new ArrayList<>();
+        }
+    }
+}
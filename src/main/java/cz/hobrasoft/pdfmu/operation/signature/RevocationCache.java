@@ -0,0 +1,322 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.operation.signature;
+
+import com.itextpdf.text.pdf.security.CertificateUtil;
+import com.itextpdf.text.pdf.security.CrlClient;
+import com.itextpdf.text.pdf.security.CrlClientOnline;
+import com.itextpdf.text.pdf.security.OcspClient;
+import com.itextpdf.text.pdf.security.OcspClientBouncyCastle;
+import cz.hobrasoft.pdfmu.Log;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.commons.codec.binary.Hex;
+import org.bouncycastle.asn1.ASN1InputStream;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.SingleResp;
+
+/**
+ * Cache of OCSP responses and CRLs used for long-term validation.
+ *
+ * <p>
+ * An OCSP response or a CRL is reused until its nextUpdate time. Responses
+ * and CRLs without a nextUpdate time are not cached. The entries are kept in
+ * memory and, if a directory is set, in files in the directory, so that
+ * separate runs that sign with one certificate fetch the revocation data
+ * once. The files hold the DER encoded responses and CRLs and are named by a
+ * hash of the OCSP certificate identifier or of the CRL URL. Entries are
+ * written under a unique temporary name, forced to the storage device and then
+ * renamed. A file that does not hold exactly one DER object is ignored.
+ *
+ * <p>
+ * An instance is not thread-safe. The directory may be shared.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+class RevocationCache {
+
+    private static final Log LOGGER = Log.getLog(RevocationCache.class);
+
+    public static final String OCSP_EXTENSION = ".ocsp";
+    public static final String CRL_EXTENSION = ".crl";
+
+    private final File directory;
+    private final Map<String, byte[]> entries = new HashMap<>();
+
+    private int fetches = 0;
+    private int ocspResponses = 0;
+    private int crls = 0;
+
+    private final OcspClient ocspClient = new OcspClient() {
+        private final OcspClient online = new OcspClientBouncyCastle();
+
+        @Override
+        public byte[] getEncoded(X509Certificate checkCert, X509Certificate issuerCert, String url) {
+            if (checkCert == null || issuerCert == null) {
+                return null;
+            }
+            if (url == null) {
+                url = CertificateUtil.getOCSPURL(checkCert);
+                if (url == null) {
+                    // For example a root certificate
+                    return null;
+                }
+            }
+            String name;
+            try {
+                name = entryName(OCSP_EXTENSION, issuerCert.getPublicKey().getEncoded(),
+                        checkCert.getSerialNumber().toByteArray(),
+                        url.getBytes(StandardCharsets.UTF_8));
+            } catch (GeneralSecurityException ex) {
+                throw new IllegalStateException(ex);
+            }
+            byte[] response = load(name);
+            if (response == null) {
+                ++fetches;
+                response = online.getEncoded(checkCert, issuerCert, url);
+                if (response != null) {
+                    store(name, response, getNextUpdate(response));
+                }
+            }
+            if (response != null) {
+                ++ocspResponses;
+            }
+            return response;
+        }
+    };
+
+    private final CrlClient crlClient = new CrlClient() {
+        @Override
+        public Collection<byte[]> getEncoded(X509Certificate checkCert, String url) {
+            if (url == null) {
+                if (checkCert == null) {
+                    return null;
+                }
+                try {
+                    url = CertificateUtil.getCRLURL(checkCert);
+                } catch (GeneralSecurityException ex) {
+                    LOGGER.warning("Could not read the CRL distribution point of %s: %s", checkCert.getSubjectX500Principal(), ex);
+                    return null;
+                }
+                if (url == null) {
+                    return null;
+                }
+            }
+            String name;
+            try {
+                name = entryName(CRL_EXTENSION, url.getBytes(StandardCharsets.UTF_8));
+            } catch (GeneralSecurityException ex) {
+                throw new IllegalStateException(ex);
+            }
+            byte[] crl = load(name);
+            if (crl == null) {
+                ++fetches;
+                Collection<byte[]> fetched = new CrlClientOnline(url).getEncoded(checkCert, null);
+                if (fetched == null || fetched.isEmpty()) {
+                    return null;
+                }
+                crl = fetched.iterator().next();
+                store(name, crl, getCrlNextUpdate(crl));
+            }
+            ++crls;
+            Collection<byte[]> result = new ArrayList<>();
+            result.add(crl);
+            return Collections.unmodifiableCollection(result);
+        }
+    };
+
+    /**
+     * @param directory the directory of the cache files, or null to keep the
+     * entries in memory only
+     */
+    public RevocationCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return OCSP client that fetches the responses through this cache
+     */
+    public OcspClient getOcspClient() {
+        return ocspClient;
+    }
+
+    /**
+     * @return CRL client that fetches the CRLs through this cache
+     */
+    public CrlClient getCrlClient() {
+        return crlClient;
+    }
+
+    /**
+     * @return the number of OCSP responses and CRLs that were not found in the
+     * cache
+     */
+    public int getFetches() {
+        return fetches;
+    }
+
+    /**
+     * @return the number of OCSP responses returned by the OCSP client
+     */
+    public int getOcspResponses() {
+        return ocspResponses;
+    }
+
+    /**
+     * @return the number of CRLs returned by the CRL client
+     */
+    public int getCrls() {
+        return crls;
+    }
+
+    private static String entryName(String extension, byte[]... parts) throws GeneralSecurityException {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        for (byte[] part : parts) {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                md.update((byte) (part.length >>> shift));
+            }
+            md.update(part);
+        }
+        return Hex.encodeHexString(md.digest()) + extension;
+    }
+
+    /**
+     * @param encoded the DER encoded BasicOCSPResponse
+     * @return the earliest nextUpdate time of the single responses, or null if
+     * any of them has none
+     */
+    static Date getNextUpdate(byte[] encoded) {
+        try {
+            BasicOCSPResp response = new BasicOCSPResp(org.bouncycastle.asn1.ocsp.BasicOCSPResponse.getInstance(encoded));
+            Date nextUpdate = null;
+            for (SingleResp single : response.getResponses()) {
+                Date singleNextUpdate = single.getNextUpdate();
+                if (singleNextUpdate == null) {
+                    return null;
+                }
+                if (nextUpdate == null || singleNextUpdate.before(nextUpdate)) {
+                    nextUpdate = singleNextUpdate;
+                }
+            }
+            return nextUpdate;
+        } catch (IllegalArgumentException ex) {
+            LOGGER.warning("Could not parse an OCSP response: %s", ex);
+            return null;
+        }
+    }
+
+    /**
+     * @param encoded the DER encoded CRL
+     * @return the nextUpdate time of the CRL or null
+     */
+    static Date getCrlNextUpdate(byte[] encoded) {
+        try {
+            X509CRL crl = (X509CRL) CertificateFactory.getInstance("X.509").generateCRL(new ByteArrayInputStream(encoded));
+            return crl.getNextUpdate();
+        } catch (GeneralSecurityException ex) {
+            LOGGER.warning("Could not parse a CRL: %s", ex);
+            return null;
+        }
+    }
+
+    /**
+     * @return whether the data is exactly one DER object, without a truncated
+     * end or trailing bytes
+     */
+    static boolean isDerObject(byte[] encoded) {
+        try (ASN1InputStream is = new ASN1InputStream(encoded)) {
+            return is.readObject() != null && is.readObject() == null;
+        } catch (IOException | RuntimeException ex) {
+            return false;
+        }
+    }
+
+    private Date getEntryNextUpdate(String name, byte[] encoded) {
+        return name.endsWith(OCSP_EXTENSION) ? getNextUpdate(encoded) : getCrlNextUpdate(encoded);
+    }
+
+    private boolean isFresh(Date nextUpdate) {
+        return nextUpdate != null && nextUpdate.getTime() > System.currentTimeMillis();
+    }
+
+    private byte[] load(String name) {
+        byte[] encoded = entries.get(name);
+        if (encoded == null && directory != null) {
+            File entry = new File(directory, name);
+            if (entry.isFile()) {
+                try {
+                    encoded = Files.readAllBytes(entry.toPath());
+                } catch (IOException ex) {
+                    LOGGER.warning("Could not read the revocation cache entry %s: %s", entry, ex);
+                }
+                if (encoded != null && !isDerObject(encoded)) {
+                    LOGGER.warning("Ignoring the corrupt revocation cache entry %s.", entry);
+                    encoded = null;
+                }
+            }
+        }
+        if (encoded == null) {
+            LOGGER.info("Revocation cache miss: %s", name);
+            return null;
+        }
+        if (!isFresh(getEntryNextUpdate(name, encoded))) {
+            LOGGER.info("Revocation cache entry %s has expired.", name);
+            entries.remove(name);
+            return null;
+        }
+        LOGGER.info("Revocation cache hit: %s", name);
+        entries.put(name, encoded);
+        return encoded;
+    }
+
+    private void store(String name, byte[] encoded, Date nextUpdate) {
+        if (!isFresh(nextUpdate)) {
+            LOGGER.info("Not caching %s: no future nextUpdate time.", name);
+            return;
+        }
+        entries.put(name, encoded);
+        if (directory == null) {
+            return;
+        }
+        // The cache only saves requests; failing to write it is not fatal.
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            LOGGER.warning("Could not create the revocation cache directory %s.", directory);
+            return;
+        }
+        File entry = new File(directory, name);
+        try {
+            TimestampJournal.replace(encoded, entry);
+            LOGGER.info("Stored the revocation data in %s.", entry);
+        } catch (IOException ex) {
+            LOGGER.warning("Could not write the revocation cache entry %s: %s", entry, ex);
+        }
+    }
+}
@@ -16,11 +16,23 @@
  */
 package cz.hobrasoft.pdfmu.operation.signature;
 
+import com.itextpdf.text.BadElementException;
+import com.itextpdf.text.Image;
+import com.itextpdf.text.Rectangle;
 import com.itextpdf.text.pdf.PdfSignatureAppearance;
 import com.itextpdf.text.pdf.PdfStamper;
+import cz.hobrasoft.pdfmu.Log;
+import cz.hobrasoft.pdfmu.PdfmuUtils;
+import static cz.hobrasoft.pdfmu.error.ErrorType.SIGNATURE_ADD_VISIBLE_IMAGE;
+import static cz.hobrasoft.pdfmu.error.ErrorType.SIGNATURE_ADD_VISIBLE_PAGE;
+import static cz.hobrasoft.pdfmu.error.ErrorType.SIGNATURE_ADD_VISIBLE_RECTANGLE;
+import cz.hobrasoft.pdfmu.operation.OperationException;
 import cz.hobrasoft.pdfmu.operation.args.ArgsConfiguration;
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractMap.SimpleEntry;
 import java.util.Calendar;
-import java.util.logging.Logger;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentGroup;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.Namespace;
@@ -37,7 +49,14 @@ class SignatureAppearanceParameters implements ArgsConfiguration {
     public Calendar signDate = null;
     public int certificationLevel = PdfSignatureAppearance.NOT_CERTIFIED;
 
-    private static final Logger logger = Logger.getLogger(SignatureAppearanceParameters.class.getName());
+    // Visible signature
+    public Rectangle rectangle = null;
+    public int page = DEFAULT_PAGE;
+    public File image = null;
+
+    private static final int DEFAULT_PAGE = 1;
+
+    private static final Log logger = Log.getLog(SignatureAppearanceParameters.class);
 
     @Override
     public void addArguments(ArgumentParser parser) {
@@ -58,48 +77,117 @@ class SignatureAppearanceParameters implements ArgsConfiguration {
                 .help("signer contact information (defualt: <none>)")
                 .type(String.class);
         // TODO: Unify the help strings
+
+        ArgumentGroup visibleGroup = parser.addArgumentGroup("visible signature");
+        visibleGroup.addArgument("--signature-rectangle")
+                .help("make the signature visible in this rectangle. Four numbers separated by commas: the lower left x, the lower left y, the upper right x and the upper right y coordinate in points. (default: <invisible signature>)")
+                .metavar("LLX,LLY,URX,URY")
+                .type(String.class);
+        visibleGroup.addArgument("--signature-page")
+                .help("page of the visible signature")
+                .type(Integer.class)
+                .setDefault(DEFAULT_PAGE);
+        visibleGroup.addArgument("--signature-image")
+                .help("image shown next to the description of the visible signature, for example a logo. The decoded image is reused by all the signatures that use the same file. (default: <description only>)")
+                .type(Arguments.fileType().verifyCanRead());
     }
 
     @Override
-    public void setFromNamespace(Namespace namespace) {
+    public void setFromNamespace(Namespace namespace) throws OperationException {
         reason = namespace.getString("reason");
         location = namespace.getString("location");
         contact = namespace.getString("contact");
+        page = namespace.getInt("signature_page");
+        image = namespace.get("signature_image");
+        String rectangleString = namespace.getString("signature_rectangle");
+        if (rectangleString != null) {
+            rectangle = parseRectangle(rectangleString);
+        } else if (image != null) {
+            throw new OperationException(SIGNATURE_ADD_VISIBLE_RECTANGLE,
+                    PdfmuUtils.sortedMap(new SimpleEntry<String, Object>("rectangle", "")));
+        } else {
+            rectangle = null;
+        }
         // TODO?: Expose `signDate`
         // Note: Argparse4j does not seem to support time
         // (namely {@link Calendar}) natively.
         // TODO?: Expose `certificationLevel`
     }
 
-    public void configureSignatureAppearance(PdfSignatureAppearance sap) {
+    private static Rectangle parseRectangle(String rectangleString) throws OperationException {
+        String[] coordinates = rectangleString.split(",");
+        if (coordinates.length == 4) {
+            try {
+                Rectangle result = new Rectangle(Float.parseFloat(coordinates[0].trim()),
+                        Float.parseFloat(coordinates[1].trim()),
+                        Float.parseFloat(coordinates[2].trim()),
+                        Float.parseFloat(coordinates[3].trim()));
+                if (result.getWidth() > 0 && result.getHeight() > 0) {
+                    return result;
+                }
+            } catch (NumberFormatException ex) {
+                // Handled below
+            }
+        }
+        throw new OperationException(SIGNATURE_ADD_VISIBLE_RECTANGLE,
+                PdfmuUtils.sortedMap(new SimpleEntry<String, Object>("rectangle", rectangleString)));
+    }
+
+    public void configureSignatureAppearance(PdfSignatureAppearance sap) throws OperationException {
         assert sap != null;
         // Configure signature metadata
         if (reason != null) {
-            logger.info(String.format("Reason: %s", reason));
+            logger.info("Reason: %s", reason);
             sap.setReason(reason);
         }
         if (location != null) {
-            logger.info(String.format("Location: %s", location));
+            logger.info("Location: %s", location);
             sap.setLocation(location);
         }
         if (contact != null) {
-            logger.info(String.format("Contact: %s", contact));
+            logger.info("Contact: %s", contact);
             sap.setContact(contact);
         }
         if (signDate != null) {
             // `setSignDate(null)` crashes
-            logger.info(String.format("Date: %s", signDate));
+            logger.info("Date: %s", signDate);
             sap.setSignDate(signDate);
         }
         sap.setCertificationLevel(certificationLevel);
 
         // TODO?: Set signer's name
         // digitalsignatures20130304.pdf : Code sample 2.12
+
+        if (rectangle != null) {
+            if (image != null) {
+                Image signatureGraphic;
+                try {
+                    signatureGraphic = SignatureImageCache.getImage(image);
+                } catch (IOException | BadElementException ex) {
+                    throw new OperationException(SIGNATURE_ADD_VISIBLE_IMAGE, ex,
+                            PdfmuUtils.sortedMap(new SimpleEntry<String, Object>("file", image)));
+                }
+                sap.setSignatureGraphic(signatureGraphic);
+                sap.setRenderingMode(PdfSignatureAppearance.RenderingMode.GRAPHIC_AND_DESCRIPTION);
+            }
+            logger.info("Visible signature: page %d, rectangle %s", page, rectangle);
+            // The field name is generated by iText
+            sap.setVisibleSignature(rectangle, page, null);
+        }
     }
 
-    public PdfSignatureAppearance getSignatureAppearance(PdfStamper stp) {
+    public PdfSignatureAppearance getSignatureAppearance(PdfStamper stp) throws OperationException {
         assert stp != null;
 
+        if (rectangle != null) {
+            int pages = stp.getReader().getNumberOfPages();
+            if (page < 1 || page > pages) {
+                throw new OperationException(SIGNATURE_ADD_VISIBLE_PAGE,
+                        PdfmuUtils.sortedMap(new SimpleEntry<String, Object>("page", page),
+                                new SimpleEntry<String, Object>("pages", pages)));
+            }
+        }
+
         // Initialize the signature appearance
         PdfSignatureAppearance sap = stp.getSignatureAppearance();
         configureSignatureAppearance(sap);
@@ -0,0 +1,150 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.operation.signature;
+
+import com.itextpdf.text.BadElementException;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.Image;
+import com.itextpdf.text.pdf.PdfStream;
+import cz.hobrasoft.pdfmu.Log;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Cache of the images of visible signatures.
+ *
+ * <p>
+ * Decoding an image and compressing its samples is much more expensive than
+ * the rest of the signature appearance. iText embeds the samples of JPEG
+ * images and of simple PNG images as they are, but it decodes PNG images with
+ * transparency and the other formats into raw samples and compresses them
+ * with Flate whenever the image is added to a document. The cached images are
+ * decoded once per file and their raw samples are compressed once, so every
+ * signed document embeds the same precompressed image streams.
+ *
+ * <p>
+ * The entries are keyed by the canonical path of the image file and are
+ * reloaded when the modification time or the size of the file changes. The
+ * cached {@link Image} instances are shared by all the threads and must not be
+ * modified.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+class SignatureImageCache {
+
+    private static final Log logger = Log.getLog(SignatureImageCache.class);
+
+    private static class Entry {
+
+        private final long lastModified;
+        private final long length;
+        private final Image image;
+
+        private Entry(long lastModified, long length, Image image) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.image = image;
+        }
+    }
+
+    private static final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param file the image file. Any format supported by
+     * {@link Image#getInstance(byte[])}.
+     * @return the decoded image with precompressed samples
+     * @throws IOException if the file cannot be read
+     * @throws BadElementException if the file is not a supported image
+     */
+    public static Image getImage(File file) throws IOException, BadElementException {
+        String key = file.getCanonicalPath();
+        long lastModified = file.lastModified();
+        long length = file.length();
+        Entry entry = entries.get(key);
+        if (entry != null && entry.lastModified == lastModified && entry.length == length) {
+            return entry.image;
+        }
+        logger.info("Loading the signature image %s.", key);
+        Image image = compress(Image.getInstance(FileUtils.readFileToByteArray(file)));
+        entries.put(key, new Entry(lastModified, length, image));
+        return image;
+    }
+
+    /**
+     * Compresses the raw samples of an image, including its mask.
+     *
+     * @param image an image
+     * @return an equivalent image with Flate compressed samples, or the same
+     * image if iText would not compress its samples
+     */
+    static Image compress(Image image) throws BadElementException {
+        if (!image.isImgRaw() || image.isDeflated() || image.getRawData() == null
+                || (image.getColorspace() == 1 && image.getBpc() == 1)) {
+            // Monochrome samples would be CCITT encoded by `Image.getInstance`
+            return image;
+        }
+        Image compressed = Image.getInstance((int) image.getWidth(), (int) image.getHeight(),
+                image.getColorspace(), image.getBpc(), deflate(image.getRawData()), image.getTransparency());
+        compressed.setDeflated(true);
+        compressed.setInverted(image.isInverted());
+        compressed.setDpi(image.getDpiX(), image.getDpiY());
+        compressed.setAdditional(image.getAdditional());
+        if (image.hasICCProfile()) {
+            compressed.tagICC(image.getICCProfile());
+        }
+        Image mask = image.getImageMask();
+        if (mask != null) {
+            Image compressedMask = compress(mask);
+            if (compressedMask != mask) {
+                try {
+                    compressedMask.makeMask();
+                } catch (DocumentException ex) {
+                    return image;
+                }
+                compressedMask.setSmask(mask.isSmask());
+            }
+            try {
+                compressed.setImageMask(compressedMask);
+            } catch (DocumentException ex) {
+                return image;
+            }
+        }
+        return compressed;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+        Deflater deflater = new Deflater(PdfStream.DEFAULT_COMPRESSION);
+        try (DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out, deflater)) {
+            deflaterOut.write(data);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    private SignatureImageCache() {
+    }
+}
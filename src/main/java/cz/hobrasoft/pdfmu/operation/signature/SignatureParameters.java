@@ -19,6 +19,8 @@ package cz.hobrasoft.pdfmu.operation.signature;
 import com.itextpdf.text.pdf.security.MakeSignature;
 import cz.hobrasoft.pdfmu.operation.OperationException;
 import cz.hobrasoft.pdfmu.operation.args.ArgsConfiguration;
+import java.io.File;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.Argument;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.Namespace;
@@ -38,8 +40,40 @@ class SignatureParameters implements ArgsConfiguration {
     private final ArgsConfiguration[] configurations = {appearance, keystore, key, timestamp};
 
     // digitalsignatures20130304.pdf : Code sample 2.19; Section 2.1.4; Code sample 2.2
-    public String digestAlgorithm = "SHA256";
-    public MakeSignature.CryptoStandard format = MakeSignature.CryptoStandard.CMS;
+    // The defaults are constants because the instance may be configured repeatedly
+    // (the operations are singletons).
+    private static final String DEFAULT_DIGEST_ALGORITHM = "SHA256";
+    private static final MakeSignature.CryptoStandard DEFAULT_FORMAT = MakeSignature.CryptoStandard.CMS;
+    private static final CryptoProvider DEFAULT_CRYPTO_PROVIDER = CryptoProvider.AUTO;
+
+    public String digestAlgorithm = DEFAULT_DIGEST_ALGORITHM;
+    public MakeSignature.CryptoStandard format = DEFAULT_FORMAT;
+
+    /**
+     * Timestamp queue directory. If set, the signature is created without a
+     * timestamp and the signed document is added to the queue.
+     */
+    public File timestampQueue = null;
+
+    /**
+     * Digest state cache directory. If set, the digest of a previously signed
+     * document is resumed from the cached state.
+     */
+    public File digestCache = null;
+
+    public CryptoProvider cryptoProvider = DEFAULT_CRYPTO_PROVIDER;
+
+    /**
+     * Add the long-term validation data of the signature.
+     */
+    public boolean ltv = false;
+
+    /**
+     * Revocation cache directory. If set, the OCSP responses and CRLs fetched
+     * for the long-term validation data are reused until their nextUpdate
+     * time.
+     */
+    public File ltvCache = null;
 
     private static final String[] digestAlgorithmChoices = {
         // Source: {@link DigestAlgorithms#digestNames}
@@ -61,6 +95,11 @@ class SignatureParameters implements ArgsConfiguration {
 
     private Argument digestAlgorithmArgument;
     private Argument formatArgument;
+    private Argument timestampQueueArgument;
+    private Argument digestCacheArgument;
+    private Argument cryptoProviderArgument;
+    private Argument ltvArgument;
+    private Argument ltvCacheArgument;
 
     @Override
     public void addArguments(ArgumentParser parser) {
@@ -99,13 +138,38 @@ class SignatureParameters implements ArgsConfiguration {
                 .metavar(String.format("{%s}", StringUtils.join(digestAlgorithmChoices, ",")))
                 // TODO?: Limit the choices to `digestAlgorithmChoices`
                 .type(String.class)
-                .setDefault(digestAlgorithm);
+                .setDefault(DEFAULT_DIGEST_ALGORITHM);
 
         formatArgument = parser.addArgument("--format")
                 .help("signature format (CMS: adbe.pkcs7.detached, CADES: ETSI.CAdES.detached)")
                 .type(MakeSignature.CryptoStandard.class)
                 .choices(MakeSignature.CryptoStandard.values())
-                .setDefault(format);
+                .setDefault(DEFAULT_FORMAT);
+
+        timestampQueueArgument = parser.addArgument("--timestamp-queue")
+                .help("do not contact the timestamp authority; add the signed document to this timestamp queue directory instead. The queue is processed by the operation timestamp-queue.")
+                .metavar("QUEUE")
+                .type(Arguments.fileType());
+
+        cryptoProviderArgument = parser.addArgument("--crypto-provider")
+                .help("implementation of the digest and signature algorithms. jdk: the Java runtime providers, which use CPU intrinsics; bc: BouncyCastle; auto: jdk if it supports the algorithm, bc otherwise")
+                .choices(CryptoProvider.getNames())
+                .setDefault(DEFAULT_CRYPTO_PROVIDER.getName());
+
+        digestCacheArgument = parser.addArgument("--digest-cache")
+                .help("directory that keeps the digest states of the signed documents. When a document signed with this cache is signed again in append mode, only the new revision is hashed. Supported with the SHA1 and SHA2 digest algorithms. The document digest is computed by BouncyCastle regardless of --crypto-provider.")
+                .metavar("DIR")
+                .type(Arguments.fileType());
+
+        ltvArgument = parser.addArgument("--ltv")
+                .help("add the long-term validation data: fetch the OCSP responses (or the CRLs if OCSP is not available) of the signing certificate chain and store them with the certificates in the document security store (DSS) in a new revision")
+                .type(boolean.class)
+                .action(Arguments.storeTrue());
+
+        ltvCacheArgument = parser.addArgument("--ltv-cache")
+                .help("directory that keeps the OCSP responses and CRLs fetched by --ltv until their nextUpdate time")
+                .metavar("DIR")
+                .type(Arguments.fileType());
     }
 
     @Override
@@ -118,6 +182,16 @@ class SignatureParameters implements ArgsConfiguration {
         digestAlgorithm = namespace.getString(digestAlgorithmArgument.getDest());
         assert formatArgument != null;
         format = namespace.get(formatArgument.getDest());
+        assert timestampQueueArgument != null;
+        timestampQueue = namespace.get(timestampQueueArgument.getDest());
+        assert digestCacheArgument != null;
+        digestCache = namespace.get(digestCacheArgument.getDest());
+        assert cryptoProviderArgument != null;
+        cryptoProvider = CryptoProvider.fromName(namespace.getString(cryptoProviderArgument.getDest()));
+        assert ltvArgument != null;
+        ltv = namespace.getBoolean(ltvArgument.getDest());
+        assert ltvCacheArgument != null;
+        ltvCache = namespace.get(ltvCacheArgument.getDest());
     }
 
 }
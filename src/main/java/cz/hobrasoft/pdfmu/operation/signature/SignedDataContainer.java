@@ -0,0 +1,110 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.operation.signature;
+
+import com.itextpdf.text.ExceptionConverter;
+import com.itextpdf.text.pdf.PdfDictionary;
+import com.itextpdf.text.pdf.PdfName;
+import com.itextpdf.text.pdf.security.DigestAlgorithms;
+import com.itextpdf.text.pdf.security.ExternalDigest;
+import com.itextpdf.text.pdf.security.ExternalSignature;
+import com.itextpdf.text.pdf.security.ExternalSignatureContainer;
+import com.itextpdf.text.pdf.security.MakeSignature;
+import com.itextpdf.text.pdf.security.TSAClient;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.Calendar;
+
+/**
+ * Signs the document with a detached CMS or CAdES signature assembled from a
+ * {@link SigningIdentity}.
+ *
+ * <p>
+ * Equivalent to the signature container built by
+ * {@link MakeSignature#signDetached} without CRLs and OCSP responses.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+class SignedDataContainer implements ExternalSignatureContainer {
+
+    private final SigningIdentity identity;
+    private final ExternalDigest externalDigest;
+    private final ExternalSignature externalSignature;
+    private final TSAClient tsaClient;
+
+    /**
+     * @param identity the encoded signer
+     * @param externalDigest the digest of the signed byte ranges
+     * @param externalSignature the signature of the signed attributes
+     * @param tsaClient the timestamp authority client or null
+     */
+    public SignedDataContainer(SigningIdentity identity, ExternalDigest externalDigest,
+            ExternalSignature externalSignature, TSAClient tsaClient) {
+        this.identity = identity;
+        this.externalDigest = externalDigest;
+        this.externalSignature = externalSignature;
+        this.tsaClient = tsaClient;
+    }
+
+    /**
+     * @return the value of the estimated size used by
+     * {@link MakeSignature#signDetached}
+     */
+    public int getEstimatedSize() {
+        int estimatedSize = 8192;
+        if (tsaClient != null) {
+            estimatedSize += 4192;
+        }
+        return estimatedSize;
+    }
+
+    @Override
+    public void modifySigningDictionary(PdfDictionary signDic) {
+        signDic.put(PdfName.FILTER, PdfName.ADOBE_PPKLITE);
+        if (identity.getSigtype() == MakeSignature.CryptoStandard.CADES) {
+            signDic.put(PdfName.SUBFILTER, PdfName.ETSI_CADES_DETACHED);
+        } else {
+            signDic.put(PdfName.SUBFILTER, PdfName.ADBE_PKCS7_DETACHED);
+        }
+    }
+
+    @Override
+    public byte[] sign(InputStream data) throws GeneralSecurityException {
+        byte[] documentDigest;
+        try {
+            documentDigest = DigestAlgorithms.digest(data,
+                    externalDigest.getMessageDigest(identity.getHashAlgorithm()));
+        } catch (IOException ex) {
+            throw new ExceptionConverter(ex);
+        }
+        byte[] signedAttributes = identity.getSignedAttributes(documentDigest, Calendar.getInstance());
+        byte[] signature = externalSignature.sign(signedAttributes);
+        try {
+            byte[] timestampToken = null;
+            if (tsaClient != null) {
+                byte[] imprint = tsaClient.getMessageDigest().digest(signature);
+                timestampToken = tsaClient.getTimeStampToken(imprint);
+            }
+            return identity.getEncoded(signedAttributes, signature, timestampToken);
+        } catch (Exception ex) {
+            // {@link com.itextpdf.text.pdf.security.PdfPKCS7#getEncodedPKCS7}
+            // wraps the exceptions of the timestamp authority client the same way.
+            throw new ExceptionConverter(ex);
+        }
+    }
+}
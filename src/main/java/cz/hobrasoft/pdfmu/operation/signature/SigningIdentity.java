@@ -0,0 +1,335 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.operation.signature;
+
+import com.itextpdf.text.pdf.security.BouncyCastleDigest;
+import com.itextpdf.text.pdf.security.DigestAlgorithms;
+import com.itextpdf.text.pdf.security.MakeSignature;
+import com.itextpdf.text.pdf.security.SecurityIDs;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERSet;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.bouncycastle.asn1.DERUTCTime;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x9.X9ObjectIdentifiers;
+
+/**
+ * The parts of a CMS SignedData structure that depend only on the signer,
+ * encoded in advance.
+ *
+ * <p>
+ * {@link com.itextpdf.text.pdf.security.PdfPKCS7} parses and DER-encodes the
+ * certificate chain, the signer identifier and the algorithm identifiers for
+ * every signature. A signing identity encodes them once and assembles the
+ * SignedData of each document from the encoded parts, the signed attributes
+ * and the signature value. Only the message digest, the signing time and the
+ * signature value are encoded per document. The result is the same as the one
+ * produced by {@link com.itextpdf.text.pdf.security.MakeSignature#signDetached}
+ * except for the signature algorithm of ECDSA signatures: iText writes the key
+ * algorithm id-ecPublicKey, whereas RFC 5753 and RFC 5758 require the
+ * identifier ecdsa-with-SHA* of the hash algorithm without parameters.
+ *
+ * <p>
+ * The identities are cached by {@link #getInstance}, so signing a batch with
+ * one key pays the encoding once per process.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public class SigningIdentity {
+
+    // DER tags
+    private static final int SEQUENCE = 0x30;
+    private static final int SET = 0x31;
+    private static final int OCTET_STRING = 0x04;
+    private static final int CONTEXT_0 = 0xA0;
+    private static final int CONTEXT_1 = 0xA1;
+
+    private static final int CACHE_CAPACITY = 64;
+
+    private static final ConcurrentMap<List<Object>, SigningIdentity> cache = new ConcurrentHashMap<>();
+
+    private final String hashAlgorithm;
+    private final MakeSignature.CryptoStandard sigtype;
+
+    // Encoded SignedData up to the signer infos:
+    // version, digest algorithms, encapsulated content info and certificates
+    private final byte[] signedDataHead;
+    // Encoded signer info up to the signed attributes:
+    // version, signer identifier and digest algorithm
+    private final byte[] signerInfoHead;
+    private final byte[] signatureAlgorithm;
+    // Encoded signed attributes that do not depend on the document
+    private final List<byte[]> constantAttributes = new ArrayList<>();
+    private final byte[] contentTypeSignedData;
+
+    private static final Comparator<byte[]> DER_ORDER = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] a, byte[] b) {
+            int length = Math.min(a.length, b.length);
+            for (int i = 0; i < length; ++i) {
+                if (a[i] != b[i]) {
+                    return (a[i] & 0xff) - (b[i] & 0xff);
+                }
+            }
+            return a.length - b.length;
+        }
+    };
+
+    /**
+     * @param chain the certificate chain. The first certificate is the signing
+     * certificate.
+     * @param hashAlgorithm the hash algorithm, for example "SHA256"
+     * @param encryptionAlgorithm the encryption algorithm: "RSA", "DSA" or
+     * "ECDSA"
+     * @param sigtype the signature format
+     * @return the cached signing identity
+     * @throws GeneralSecurityException if a certificate cannot be encoded or
+     * an algorithm is not supported
+     */
+    public static SigningIdentity getInstance(Certificate[] chain, String hashAlgorithm,
+            String encryptionAlgorithm, MakeSignature.CryptoStandard sigtype) throws GeneralSecurityException {
+        List<Object> key = new ArrayList<>();
+        key.add(hashAlgorithm);
+        key.add(encryptionAlgorithm);
+        key.add(sigtype);
+        key.addAll(Arrays.asList(chain));
+        SigningIdentity identity = cache.get(key);
+        if (identity == null) {
+            identity = new SigningIdentity(chain, hashAlgorithm, encryptionAlgorithm, sigtype);
+            if (cache.size() >= CACHE_CAPACITY) {
+                cache.clear();
+            }
+            cache.put(key, identity);
+        }
+        return identity;
+    }
+
+    private SigningIdentity(Certificate[] chain, String hashAlgorithm,
+            String encryptionAlgorithm, MakeSignature.CryptoStandard sigtype) throws GeneralSecurityException {
+        String digestAlgorithmOid = DigestAlgorithms.getAllowedDigests(hashAlgorithm);
+        if (digestAlgorithmOid == null) {
+            throw new NoSuchAlgorithmException(String.format("Unknown hash algorithm: %s", hashAlgorithm));
+        }
+        this.hashAlgorithm = DigestAlgorithms.getDigest(digestAlgorithmOid);
+        this.sigtype = sigtype;
+
+        try {
+            // The same structures as {@link com.itextpdf.text.pdf.security.PdfPKCS7#getEncodedPKCS7}
+            ASN1Encodable digestAlgorithm = algorithm(digestAlgorithmOid);
+
+            ASN1EncodableVector certificates = new ASN1EncodableVector();
+            for (Certificate certificate : chain) {
+                certificates.add(ASN1Primitive.fromByteArray(certificate.getEncoded()));
+            }
+
+            ByteArrayOutputStream head = new ByteArrayOutputStream();
+            head.write(new ASN1Integer(1).getEncoded(ASN1Encoding.DER));
+            head.write(new DERSet(digestAlgorithm).getEncoded(ASN1Encoding.DER));
+            head.write(new DERSequence(PKCSObjectIdentifiers.data).getEncoded(ASN1Encoding.DER));
+            head.write(new DERTaggedObject(false, 0, new DERSet(certificates)).getEncoded(ASN1Encoding.DER));
+            signedDataHead = head.toByteArray();
+
+            org.bouncycastle.asn1.x509.Certificate signingCertificate
+                    = org.bouncycastle.asn1.x509.Certificate.getInstance(certificates.get(0));
+            head = new ByteArrayOutputStream();
+            head.write(new ASN1Integer(1).getEncoded(ASN1Encoding.DER));
+            head.write(new DERSequence(new ASN1Encodable[]{
+                signingCertificate.getIssuer(),
+                signingCertificate.getSerialNumber()}).getEncoded(ASN1Encoding.DER));
+            head.write(digestAlgorithm.toASN1Primitive().getEncoded(ASN1Encoding.DER));
+            signerInfoHead = head.toByteArray();
+
+            signatureAlgorithm = signatureAlgorithm(encryptionAlgorithm, this.hashAlgorithm)
+                    .toASN1Primitive().getEncoded(ASN1Encoding.DER);
+
+            constantAttributes.add(attribute(PKCSObjectIdentifiers.pkcs_9_at_contentType,
+                    PKCSObjectIdentifiers.data));
+            if (sigtype == MakeSignature.CryptoStandard.CADES) {
+                byte[] certificateHash = new BouncyCastleDigest().getMessageDigest(this.hashAlgorithm)
+                        .digest(chain[0].getEncoded());
+                ASN1Encodable essCertIdV2 = new DERSequence(new ASN1Encodable[]{
+                    new AlgorithmIdentifier(new ASN1ObjectIdentifier(digestAlgorithmOid), null),
+                    new DEROctetString(certificateHash)});
+                constantAttributes.add(attribute(PKCSObjectIdentifiers.id_aa_signingCertificateV2,
+                        new DERSequence(new DERSequence(essCertIdV2))));
+            }
+
+            contentTypeSignedData = PKCSObjectIdentifiers.signedData.getEncoded(ASN1Encoding.DER);
+        } catch (IOException ex) {
+            throw new GeneralSecurityException(ex);
+        }
+    }
+
+    private static ASN1Encodable algorithm(String oid) {
+        return new DERSequence(new ASN1Encodable[]{new ASN1ObjectIdentifier(oid), DERNull.INSTANCE});
+    }
+
+    private static byte[] attribute(ASN1ObjectIdentifier type, ASN1Encodable value) throws IOException {
+        return new DERSequence(new ASN1Encodable[]{type, new DERSet(value)}).getEncoded(ASN1Encoding.DER);
+    }
+
+    /**
+     * @param hashAlgorithm the hash algorithm as named by
+     * {@link DigestAlgorithms#getDigest}, for example "SHA256"
+     * @return the signature algorithm identifier of a signer info
+     */
+    private static ASN1Encodable signatureAlgorithm(String encryptionAlgorithm, String hashAlgorithm)
+            throws NoSuchAlgorithmException {
+        switch (encryptionAlgorithm) {
+            case "RSA":
+                return algorithm(SecurityIDs.ID_RSA);
+            case "DSA":
+                return algorithm(SecurityIDs.ID_DSA);
+            case "ECDSA":
+                // The parameters are absent (RFC 5758, section 3.2)
+                return new DERSequence(getEcdsaAlgorithmOid(hashAlgorithm));
+            default:
+                throw new NoSuchAlgorithmException(String.format("Unknown key algorithm: %s", encryptionAlgorithm));
+        }
+    }
+
+    private static ASN1ObjectIdentifier getEcdsaAlgorithmOid(String hashAlgorithm) throws NoSuchAlgorithmException {
+        switch (hashAlgorithm) {
+            case "SHA1":
+                return X9ObjectIdentifiers.ecdsa_with_SHA1;
+            case "SHA224":
+                return X9ObjectIdentifiers.ecdsa_with_SHA224;
+            case "SHA256":
+                return X9ObjectIdentifiers.ecdsa_with_SHA256;
+            case "SHA384":
+                return X9ObjectIdentifiers.ecdsa_with_SHA384;
+            case "SHA512":
+                return X9ObjectIdentifiers.ecdsa_with_SHA512;
+            default:
+                throw new NoSuchAlgorithmException(String.format("ECDSA does not support the hash algorithm %s", hashAlgorithm));
+        }
+    }
+
+    /**
+     * @return the hash algorithm, for example "SHA256"
+     */
+    public String getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    public MakeSignature.CryptoStandard getSigtype() {
+        return sigtype;
+    }
+
+    /**
+     * @param documentDigest the digest of the signed byte ranges
+     * @param signingTime the signing time
+     * @return the DER encoded signed attributes (a SET), which are signed by
+     * the private key
+     */
+    public byte[] getSignedAttributes(byte[] documentDigest, Calendar signingTime) {
+        List<byte[]> attributes = new ArrayList<>(constantAttributes);
+        try {
+            attributes.add(attribute(PKCSObjectIdentifiers.pkcs_9_at_signingTime,
+                    new DERUTCTime(signingTime.getTime())));
+            attributes.add(attribute(PKCSObjectIdentifiers.pkcs_9_at_messageDigest,
+                    new DEROctetString(documentDigest)));
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        // DER orders the elements of a SET by their encodings
+        Collections.sort(attributes, DER_ORDER);
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (byte[] attribute : attributes) {
+            content.write(attribute, 0, attribute.length);
+        }
+        return wrap(SET, content.toByteArray());
+    }
+
+    /**
+     * @param signedAttributes the signed attributes returned by
+     * {@link #getSignedAttributes}
+     * @param signature the signature of the signed attributes
+     * @param timestampToken the encoded timestamp token of the signature or
+     * null
+     * @return the encoded ContentInfo of the SignedData
+     * @throws IOException if the timestamp token cannot be parsed
+     */
+    public byte[] getEncoded(byte[] signedAttributes, byte[] signature, byte[] timestampToken) throws IOException {
+        ByteArrayOutputStream signerInfo = new ByteArrayOutputStream();
+        signerInfo.write(signerInfoHead);
+        // [0] IMPLICIT SET
+        signedAttributes = signedAttributes.clone();
+        signedAttributes[0] = (byte) CONTEXT_0;
+        signerInfo.write(signedAttributes);
+        signerInfo.write(signatureAlgorithm);
+        signerInfo.write(wrap(OCTET_STRING, signature));
+        if (timestampToken != null) {
+            byte[] unsignedAttribute = attribute(PKCSObjectIdentifiers.id_aa_signatureTimeStampToken,
+                    ASN1Primitive.fromByteArray(timestampToken));
+            signerInfo.write(wrap(CONTEXT_1, unsignedAttribute));
+        }
+
+        ByteArrayOutputStream signedData = new ByteArrayOutputStream();
+        signedData.write(signedDataHead);
+        signedData.write(wrap(SET, wrap(SEQUENCE, signerInfo.toByteArray())));
+
+        ByteArrayOutputStream contentInfo = new ByteArrayOutputStream();
+        contentInfo.write(contentTypeSignedData);
+        contentInfo.write(wrap(CONTEXT_0, wrap(SEQUENCE, signedData.toByteArray())));
+        return wrap(SEQUENCE, contentInfo.toByteArray());
+    }
+
+    private static byte[] wrap(int tag, byte[] content) {
+        int length = content.length;
+        int lengthOctets = 0;
+        if (length > 0x7f) {
+            for (int l = length; l > 0; l >>>= 8) {
+                ++lengthOctets;
+            }
+        }
+        byte[] result = new byte[2 + lengthOctets + length];
+        result[0] = (byte) tag;
+        if (lengthOctets == 0) {
+            result[1] = (byte) length;
+        } else {
+            result[1] = (byte) (0x80 | lengthOctets);
+            for (int i = 0; i < lengthOctets; ++i) {
+                result[1 + lengthOctets - i] = (byte) (length >>> (8 * i));
+            }
+        }
+        System.arraycopy(content, 0, result, 2 + lengthOctets, length);
+        return result;
+    }
+}
@@ -0,0 +1,240 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.operation.signature;
+
+import cz.hobrasoft.pdfmu.Log;
+import static cz.hobrasoft.pdfmu.error.ErrorType.SSL_CONTEXT;
+import static cz.hobrasoft.pdfmu.error.ErrorType.SSL_KEYSTORE_KEY;
+import static cz.hobrasoft.pdfmu.error.ErrorType.SSL_TRUSTSTORE_EMPTY;
+import cz.hobrasoft.pdfmu.operation.OperationException;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.UnrecoverableKeyException;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Builds and caches the {@link SSLContext}s used to connect to timestamp
+ * authorities.
+ *
+ * <p>
+ * The JVM-wide default SSL context is configured by the
+ * {@code javax.net.ssl.*} system properties only once, when it is first used,
+ * so it cannot serve requests with different SSL keystores. Instead, a
+ * dedicated context is built for every combination of SSL KeyStore and
+ * TrustStore. The contexts are cached by the fingerprint of the keystore
+ * contents, types and passwords, so that a context (and its TLS session cache)
+ * is reused as long as the keystores do not change. At most
+ * {@value #CAPACITY} contexts are kept; the least recently used one is
+ * dropped first.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+class SslContextCache {
+
+    private static final Log LOGGER = Log.getLog(SslContextCache.class);
+
+    static final int CAPACITY = 16;
+
+    // Guarded by itself
+    private static final Map<String, SSLSocketFactory> CACHE
+            = new LinkedHashMap<String, SSLSocketFactory>(CAPACITY, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SSLSocketFactory> eldest) {
+                    return size() > CAPACITY;
+                }
+            };
+
+    /**
+     * @return the number of cached contexts
+     */
+    static int size() {
+        synchronized (CACHE) {
+            return CACHE.size();
+        }
+    }
+
+    /**
+     * Returns the socket factory that authenticates with the SSL KeyStore and
+     * trusts the certificates in the SSL TrustStore.
+     *
+     * @param keystore the SSL KeyStore (private keys for client
+     * authentication)
+     * @param truststore the SSL TrustStore (trusted certificate authorities)
+     * @return null if neither keystore has been set; the JVM defaults apply in
+     * that case
+     * @throws OperationException if a keystore cannot be loaded
+     */
+    public static SSLSocketFactory getSocketFactory(KeystoreParameters keystore,
+            KeystoreParameters truststore) throws OperationException {
+        if (keystore.file == null && truststore.file == null) {
+            return null;
+        }
+
+        byte[] keystoreBytes = read(keystore, SslKeystore.PRIVATE);
+        byte[] truststoreBytes = read(truststore, SslKeystore.TRUSTSTORE);
+        String fingerprint = fingerprint(keystore, keystoreBytes, truststore, truststoreBytes);
+
+        synchronized (CACHE) {
+            SSLSocketFactory factory = CACHE.get(fingerprint);
+            if (factory == null) {
+                factory = createContext(keystore, keystoreBytes, truststore, truststoreBytes).getSocketFactory();
+                CACHE.put(fingerprint, factory);
+            } else {
+                LOGGER.info("Reusing a cached SSL context.");
+            }
+            return factory;
+        }
+    }
+
+    private static byte[] read(KeystoreParameters parameters, SslKeystore sslKeystore) throws OperationException {
+        File file = parameters.file;
+        if (file == null) {
+            return null;
+        }
+        String location = FilenameUtils.separatorsToUnix(file.getPath());
+        if (!file.exists()) {
+            throw new OperationException(sslKeystore.getErrorTypeNotFound(),
+                    new SimpleEntry<String, Object>("location", location));
+        }
+        LOGGER.info("%s: Using the keystore file %s.", sslKeystore.getName(), location);
+        try {
+            return Files.readAllBytes(file.toPath());
+        } catch (IOException ex) {
+            throw new OperationException(sslKeystore.getErrorTypeNotFound(), ex,
+                    new SimpleEntry<String, Object>("location", location));
+        }
+    }
+
+    private static String fingerprint(KeystoreParameters keystore, byte[] keystoreBytes,
+            KeystoreParameters truststore, byte[] truststoreBytes) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException(ex);
+        }
+        update(md, keystore, keystoreBytes);
+        update(md, truststore, truststoreBytes);
+        return Hex.encodeHexString(md.digest());
+    }
+
+    private static void update(MessageDigest md, KeystoreParameters parameters, byte[] bytes) {
+        String password = parameters.getPassword();
+        // Length prefixes keep the fields from running into each other
+        for (byte[] field : new byte[][]{
+            bytes,
+            parameters.type != null ? parameters.type.getBytes(StandardCharsets.UTF_8) : null,
+            password != null ? password.getBytes(StandardCharsets.UTF_8) : null}) {
+            int length = field != null ? field.length : -1;
+            md.update(new byte[]{(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+            if (field != null) {
+                md.update(field);
+            }
+        }
+    }
+
+    private static SSLContext createContext(KeystoreParameters keystore, byte[] keystoreBytes,
+            KeystoreParameters truststore, byte[] truststoreBytes) throws OperationException {
+        KeyManager[] keyManagers = null;
+        if (keystoreBytes != null) {
+            KeyStore ks = load(keystore, keystoreBytes, SslKeystore.PRIVATE);
+            String password = keystore.getPassword();
+            try {
+                KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+                kmf.init(ks, password != null ? password.toCharArray() : new char[0]);
+                keyManagers = kmf.getKeyManagers();
+            } catch (UnrecoverableKeyException ex) {
+                throw new OperationException(SSL_KEYSTORE_KEY, ex);
+            } catch (GeneralSecurityException ex) {
+                throw new OperationException(SSL_CONTEXT, ex);
+            }
+        }
+
+        try {
+            TrustManager[] trustManagers = null;
+            if (truststoreBytes != null) {
+                KeyStore ts = load(truststore, truststoreBytes, SslKeystore.TRUSTSTORE);
+                if (ts.size() == 0) {
+                    throw new OperationException(SSL_TRUSTSTORE_EMPTY);
+                }
+                TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+                tmf.init(ts);
+                trustManagers = tmf.getTrustManagers();
+            }
+
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keyManagers, trustManagers, null);
+            LOGGER.info("Created a new SSL context (protocol: %s).", context.getProtocol());
+            return context;
+        } catch (GeneralSecurityException ex) {
+            throw new OperationException(SSL_CONTEXT, ex);
+        }
+    }
+
+    private static KeyStore load(KeystoreParameters parameters, byte[] bytes,
+            SslKeystore sslKeystore) throws OperationException {
+        String type = parameters.type;
+        if (type == null) {
+            switch (FilenameUtils.getExtension(parameters.file.getName()).toLowerCase()) {
+                case "p12":
+                case "pfx":
+                    type = "pkcs12";
+                    break;
+                case "jceks":
+                    type = "jceks";
+                    break;
+                default:
+                    type = KeyStore.getDefaultType();
+            }
+        }
+        String password = parameters.getPassword();
+        try {
+            KeyStore ks = KeyStore.getInstance(type);
+            // Without a password, the integrity of the keystore is not checked
+            ks.load(new ByteArrayInputStream(bytes), password != null ? password.toCharArray() : null);
+            return ks;
+        } catch (IOException ex) {
+            if (ex.getCause() instanceof UnrecoverableKeyException) {
+                throw new OperationException(sslKeystore.getErrorTypePasswordIncorrect(), ex);
+            }
+            throw new OperationException(sslKeystore.getErrorTypeIncorrectType(), ex,
+                    new SimpleEntry<String, Object>("type", type));
+        } catch (GeneralSecurityException ex) {
+            throw new OperationException(sslKeystore.getErrorTypeIncorrectType(), ex,
+                    new SimpleEntry<String, Object>("type", type));
+        }
+    }
+
+    private SslContextCache() {
+    }
+}
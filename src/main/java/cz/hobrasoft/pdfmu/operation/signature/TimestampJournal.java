@@ -0,0 +1,458 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.operation.signature;
+
+import cz.hobrasoft.pdfmu.Log;
+import cz.hobrasoft.pdfmu.operation.args.OutputFile;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * Durable queue of documents that wait for a document timestamp.
+ *
+ * <p>
+ * The queue is a directory. Every pending document is represented by a small
+ * properties file with the extension {@value #PENDING}. A worker claims a job
+ * by renaming it to {@value #CLAIMED}; since the rename is atomic, each job is
+ * processed by at most one worker even if several workers share the
+ * directory. Job files are first written under a temporary name, forced to the
+ * storage device and then renamed so that a crash never leaves a truncated job
+ * behind.
+ *
+ * <p>
+ * A job that has failed waits before it may be claimed again, twice as long
+ * after every attempt (see {@link #getBackoff(int)}). After the maximum number
+ * of attempts it is moved aside to a file with the extension {@value #DEAD},
+ * which is not processed any more.
+ *
+ * <p>
+ * The job file names start with the enqueue time so that sorting them by name
+ * yields the oldest jobs first.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public class TimestampJournal {
+
+    private static final Log LOGGER = Log.getLog(TimestampJournal.class);
+
+    public static final String PENDING = ".job";
+    public static final String CLAIMED = ".work";
+    public static final String DEAD = ".dead";
+    private static final String TEMPORARY = ".tmp";
+
+    /**
+     * Claimed jobs that have not been completed for this many milliseconds are
+     * considered abandoned by a crashed worker and are returned to the queue.
+     */
+    public static final long CLAIM_TIMEOUT = 10 * 60 * 1000;
+
+    /**
+     * Delay in milliseconds before the first retry of a failed job.
+     */
+    public static final long BACKOFF_BASE = 60 * 1000;
+
+    /**
+     * Maximum delay in milliseconds between the attempts.
+     */
+    public static final long BACKOFF_CAP = 60 * 60 * 1000;
+
+    private static final String KEY_FILE = "file";
+    private static final String KEY_ENQUEUED = "enqueued";
+    private static final String KEY_ATTEMPTS = "attempts";
+    private static final String KEY_ERROR = "error";
+    private static final String KEY_NOT_BEFORE = "notBefore";
+
+    /**
+     * A document waiting for a timestamp.
+     */
+    public static class Job {
+
+        /**
+         * The document to timestamp.
+         */
+        public final File file;
+
+        /**
+         * Enqueue time in milliseconds since the epoch.
+         */
+        public final long enqueued;
+
+        /**
+         * Number of failed attempts.
+         */
+        public final int attempts;
+
+        /**
+         * Earliest time of the next attempt in milliseconds since the epoch.
+         */
+        public final long notBefore;
+
+        private final String name;
+
+        private Job(String name, File file, long enqueued, int attempts, long notBefore) {
+            this.name = name;
+            this.file = file;
+            this.enqueued = enqueued;
+            this.attempts = attempts;
+            this.notBefore = notBefore;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * Snapshot of the queue for monitoring.
+     */
+    public static class Status {
+
+        /**
+         * Number of pending and claimed jobs.
+         */
+        public int depth;
+
+        /**
+         * Number of claimed jobs.
+         */
+        public int claimed;
+
+        /**
+         * Number of jobs given up after the maximum number of attempts.
+         */
+        public int dead;
+
+        /**
+         * Enqueue time of the oldest job in milliseconds since the epoch, or
+         * null if the queue is empty.
+         */
+        public Long oldestEnqueued;
+    }
+
+    private final File directory;
+
+    public TimestampJournal(File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Adds a document to the queue.
+     *
+     * @param document the document to timestamp
+     * @return the name of the job
+     * @throws IOException if the job cannot be written
+     */
+    public String enqueue(File document) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException(String.format("Cannot create the directory %s", directory));
+        }
+        long now = System.currentTimeMillis();
+        String name = String.format("%013d-%s", now, UUID.randomUUID());
+        Properties properties = new Properties();
+        properties.setProperty(KEY_FILE, document.getAbsolutePath());
+        properties.setProperty(KEY_ENQUEUED, Long.toString(now));
+        properties.setProperty(KEY_ATTEMPTS, "0");
+        write(properties, file(name, PENDING));
+        LOGGER.info("Document %s enqueued for timestamping as %s.", document, name);
+        return name;
+    }
+
+    /**
+     * Claims the oldest pending jobs that are due.
+     *
+     * @param max the maximum number of jobs to claim
+     * @return the claimed jobs, oldest first
+     * @throws IOException if the directory cannot be listed
+     */
+    public List<Job> claim(int max) throws IOException {
+        return claim(max, System.currentTimeMillis());
+    }
+
+    /**
+     * Claims the oldest pending jobs that are due at a given time.
+     *
+     * @param max the maximum number of jobs to claim
+     * @param now the time in milliseconds since the epoch. The jobs waiting
+     * for a retry after this time are skipped.
+     * @return the claimed jobs, oldest first
+     * @throws IOException if the directory cannot be listed
+     */
+    public List<Job> claim(int max, long now) throws IOException {
+        List<Job> jobs = new ArrayList<>();
+        for (String name : list(PENDING)) {
+            if (jobs.size() >= max) {
+                break;
+            }
+            File pending = file(name, PENDING);
+            try {
+                if (notBefore(read(pending)) > now) {
+                    continue;
+                }
+            } catch (IOException ex) {
+                // Claimed by another worker
+                continue;
+            }
+            File claimed = file(name, CLAIMED);
+            try {
+                move(pending, claimed);
+            } catch (IOException ex) {
+                // Claimed by another worker
+                continue;
+            }
+            if (!claimed.setLastModified(System.currentTimeMillis())) {
+                LOGGER.warning("Could not touch the claimed job %s.", name);
+            }
+            Properties properties = read(claimed);
+            jobs.add(new Job(name,
+                    new File(properties.getProperty(KEY_FILE)),
+                    Long.parseLong(properties.getProperty(KEY_ENQUEUED)),
+                    Integer.parseInt(properties.getProperty(KEY_ATTEMPTS, "0")),
+                    notBefore(properties)));
+        }
+        return jobs;
+    }
+
+    /**
+     * Lists the documents of the oldest pending jobs that are due at a given
+     * time without claiming them.
+     *
+     * @param max the maximum number of documents
+     * @param now the time in milliseconds since the epoch
+     * @return the documents, oldest first
+     * @throws IOException if the directory cannot be listed
+     */
+    public List<File> peek(int max, long now) throws IOException {
+        List<File> documents = new ArrayList<>();
+        for (String name : list(PENDING)) {
+            if (documents.size() >= max) {
+                break;
+            }
+            Properties properties;
+            try {
+                properties = read(file(name, PENDING));
+            } catch (IOException ex) {
+                // Claimed by another worker
+                continue;
+            }
+            if (notBefore(properties) <= now) {
+                documents.add(new File(properties.getProperty(KEY_FILE)));
+            }
+        }
+        return documents;
+    }
+
+    private static long notBefore(Properties properties) {
+        return Long.parseLong(properties.getProperty(KEY_NOT_BEFORE, "0"));
+    }
+
+    /**
+     * @param attempts the number of failed attempts
+     * @return the delay in milliseconds before the next attempt
+     */
+    public static long getBackoff(int attempts) {
+        int doublings = Math.min(Math.max(0, attempts - 1), 30);
+        return Math.min(BACKOFF_BASE << doublings, BACKOFF_CAP);
+    }
+
+    /**
+     * Removes a successfully processed job from the queue.
+     *
+     * @param job the job
+     * @throws IOException if the job cannot be removed
+     */
+    public void complete(Job job) throws IOException {
+        Files.delete(file(job.name, CLAIMED).toPath());
+        OutputFile.syncDirectory(directory);
+    }
+
+    /**
+     * Returns a job that failed to the queue, to be retried after a backoff
+     * delay. A job that has failed {@code maxAttempts} times is moved aside
+     * instead.
+     *
+     * @param job the job
+     * @param error description of the failure
+     * @param maxAttempts the maximum number of attempts
+     * @return true if the job has been returned to the queue, false if it has
+     * been given up
+     * @throws IOException if the job cannot be returned
+     */
+    public boolean release(Job job, String error, int maxAttempts) throws IOException {
+        File claimed = file(job.name, CLAIMED);
+        Properties properties = read(claimed);
+        int attempts = job.attempts + 1;
+        properties.setProperty(KEY_ATTEMPTS, Integer.toString(attempts));
+        if (error != null) {
+            properties.setProperty(KEY_ERROR, error);
+        }
+        boolean retry = attempts < maxAttempts;
+        if (retry) {
+            properties.setProperty(KEY_NOT_BEFORE,
+                    Long.toString(System.currentTimeMillis() + getBackoff(attempts)));
+        }
+        write(properties, claimed);
+        move(claimed, file(job.name, retry ? PENDING : DEAD));
+        OutputFile.syncDirectory(directory);
+        if (!retry) {
+            LOGGER.warning("Job %s has failed %d times. Giving up.", job.name, attempts);
+        }
+        return retry;
+    }
+
+    /**
+     * Returns the jobs abandoned by crashed workers to the queue.
+     *
+     * @return the number of recovered jobs
+     * @throws IOException if the directory cannot be listed
+     */
+    public int recover() throws IOException {
+        int recovered = 0;
+        long threshold = System.currentTimeMillis() - CLAIM_TIMEOUT;
+        for (String name : list(CLAIMED)) {
+            File claimed = file(name, CLAIMED);
+            if (claimed.lastModified() < threshold) {
+                try {
+                    move(claimed, file(name, PENDING));
+                    ++recovered;
+                    LOGGER.warning("Job %s has been abandoned. Returning it to the queue.", name);
+                } catch (IOException ex) {
+                    // Recovered by another worker
+                }
+            }
+        }
+        return recovered;
+    }
+
+    /**
+     * @return the current depth and age of the queue
+     * @throws IOException if the directory cannot be listed
+     */
+    public Status getStatus() throws IOException {
+        Status status = new Status();
+        List<String> pending = list(PENDING);
+        List<String> claimed = list(CLAIMED);
+        status.claimed = claimed.size();
+        status.depth = pending.size() + claimed.size();
+        status.dead = list(DEAD).size();
+        // The names start with the enqueue time
+        String oldest = null;
+        if (!pending.isEmpty()) {
+            oldest = pending.get(0);
+        }
+        if (!claimed.isEmpty() && (oldest == null || claimed.get(0).compareTo(oldest) < 0)) {
+            oldest = claimed.get(0);
+        }
+        if (oldest != null) {
+            status.oldestEnqueued = Long.parseLong(oldest.substring(0, oldest.indexOf('-')));
+        }
+        return status;
+    }
+
+    private File file(String name, String extension) {
+        return new File(directory, name + extension);
+    }
+
+    private List<String> list(String extension) throws IOException {
+        String[] names = directory.list();
+        if (names == null) {
+            if (!directory.exists()) {
+                return new ArrayList<>();
+            }
+            throw new IOException(String.format("Cannot list the directory %s", directory));
+        }
+        Arrays.sort(names);
+        List<String> result = new ArrayList<>();
+        for (String name : names) {
+            if (name.endsWith(extension)) {
+                result.add(name.substring(0, name.length() - extension.length()));
+            }
+        }
+        return result;
+    }
+
+    private static Properties read(File file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream is = new FileInputStream(file)) {
+            properties.load(is);
+        }
+        return properties;
+    }
+
+    private static void write(Properties properties, File file) throws IOException {
+        File temporary = new File(file.getPath() + TEMPORARY);
+        try (FileOutputStream os = new FileOutputStream(temporary)) {
+            properties.store(os, null);
+            os.getFD().sync();
+        }
+        move(temporary, file);
+        OutputFile.syncDirectory(file.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * Writes a file under a unique temporary name, forces it to the storage
+     * device and renames it to the target. Concurrent writers of one target
+     * never mix their contents, and a crash never leaves a truncated target.
+     *
+     * @param content the new content of the file
+     * @param target the file to write
+     * @throws IOException if the file cannot be written
+     */
+    static void replace(byte[] content, File target) throws IOException {
+        File temporary = new File(target.getAbsoluteFile().getParentFile(),
+                String.format(".%s.%s%s", target.getName(), UUID.randomUUID(), TEMPORARY));
+        try {
+            try (FileOutputStream os = new FileOutputStream(temporary)) {
+                os.write(content);
+                os.getFD().sync();
+            }
+            move(temporary, target);
+        } finally {
+            if (temporary.exists() && !temporary.delete()) {
+                LOGGER.warning("Could not delete the temporary file %s.", temporary);
+            }
+        }
+    }
+
+    /**
+     * Renames a file atomically if the file system supports it.
+     */
+    static void move(File source, File target) throws IOException {
+        Path sourcePath = source.toPath();
+        Path targetPath = target.toPath();
+        try {
+            Files.move(sourcePath, targetPath, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(sourcePath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -17,12 +17,14 @@
 package cz.hobrasoft.pdfmu.operation.signature;
 
 import com.itextpdf.text.pdf.security.TSAClient;
-import com.itextpdf.text.pdf.security.TSAClientBouncyCastle;
+import cz.hobrasoft.pdfmu.Log;
 import static cz.hobrasoft.pdfmu.error.ErrorType.SIGNATURE_ADD_TSA_INVALID_URL;
 import cz.hobrasoft.pdfmu.operation.OperationException;
 import cz.hobrasoft.pdfmu.operation.args.ArgsConfiguration;
 import cz.hobrasoft.pdfmu.operation.args.PasswordArgs;
-import java.util.logging.Logger;
+import java.util.List;
+import javax.net.ssl.SSLSocketFactory;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentGroup;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.Namespace;
@@ -35,34 +37,72 @@ import org.apache.commons.validator.routines.UrlValidator;
  */
 public class TimestampParameters implements ArgsConfiguration {
 
-    private static final Logger LOGGER = Logger.getLogger(TimestampParameters.class.getName());
+    private static final Log LOGGER = Log.getLog(TimestampParameters.class);
 
     /**
-     * Timestamp authority URL.
+     * Timestamp authority URLs in the order of preference.
      */
-    public String url;
+    public List<String> urls;
+
+    /**
+     * Delay after which a timestamp request is also sent to the next timestamp
+     * authority in milliseconds. If null, the delay is estimated from the
+     * latency of the primary authority.
+     */
+    public Long hedgeDelay;
 
     /**
      * Timestamp authority login username.
      */
     public String username;
 
+    /**
+     * Timestamp authority connect timeout in milliseconds.
+     */
+    public int connectTimeout;
+
+    /**
+     * Timestamp authority read timeout in milliseconds.
+     */
+    public int readTimeout;
+
+    /**
+     * Maximum number of concurrent requests to one timestamp authority.
+     */
+    public int maxConcurrent;
+
+    /**
+     * Number of retries of a failed timestamp request.
+     */
+    public int retries;
+
     private final PasswordArgs passwordArgs = new PasswordArgs("TSA password");
 
     private final KeystoreParameters sslKeystore = new KeystoreParameters(SslKeystore.PRIVATE.getName());
     private final KeystoreParameters sslTruststore = new KeystoreParameters(SslKeystore.TRUSTSTORE.getName());
 
+    /**
+     * Socket factory that uses the SSL KeyStore and TrustStore, or null to use
+     * the JVM defaults.
+     */
+    private SSLSocketFactory sslSocketFactory = null;
+
     @Override
     public void addArguments(ArgumentParser parser) {
         ArgumentGroup group = parser.addArgumentGroup("timestamp");
         // TODO: Add description
 
         group.addArgument("--tsa-url")
-                .help("timestamp authority URL (set to enable timestamp)")
-                .type(String.class);
+                .help("timestamp authority URL (set to enable timestamp). May be repeated to configure fallback authorities that receive hedged requests.")
+                .type(String.class)
+                .action(Arguments.append());
+
+        group.addArgument("--tsa-hedge-delay")
+                .help("send the timestamp request also to the next authority if the previous one has not answered within this many milliseconds (default: 95th percentile of the recent latencies of the first authority)")
+                .type(Long.class);
 
         group.addArgument("--tsa-username")
-                .help("timestamp authority username (set to enable TSA authorization)")
+                .help("timestamp authority username (set to enable TSA authorization). The credentials are only sent to the first --tsa-url.")
                 .type(String.class);
 
         passwordArgs.passwordArgument = group.addArgument("--tsa-password")
@@ -72,6 +112,26 @@ public class TimestampParameters implements ArgsConfiguration {
                 .setDefault("PDFMU_TSA_PASSWORD");
         passwordArgs.finalizeArguments();
 
+        group.addArgument("--tsa-connect-timeout")
+                .help("timestamp authority connect timeout in milliseconds (0: infinite)")
+                .type(Integer.class)
+                .setDefault(10000);
+
+        group.addArgument("--tsa-read-timeout")
+                .help("timestamp authority read timeout in milliseconds (0: infinite)")
+                .type(Integer.class)
+                .setDefault(30000);
+
+        group.addArgument("--tsa-max-concurrent")
+                .help("maximum number of concurrent requests to one timestamp authority")
+                .type(Integer.class)
+                .setDefault(4);
+
+        group.addArgument("--tsa-retries")
+                .help("number of retries of a timestamp request that failed due to a connection failure, a timeout or a server error")
+                .type(Integer.class)
+                .setDefault(2);
+
         sslKeystore.fileArgument = group.addArgument("--ssl-keystore")
                 .help("The keystore file that contains the private keys used for SSL authorization. Must be protected by a non-empty password.");
         sslKeystore.typeArgument = group.addArgument("--ssl-keystore-type")
@@ -100,17 +160,29 @@ public class TimestampParameters implements ArgsConfiguration {
 
     @Override
     public void setFromNamespace(Namespace namespace) throws OperationException {
-        url = namespace.get("tsa_url");
+        urls = namespace.getList("tsa_url");
 
-        if (url != null) {
+        if (urls != null) {
             UrlValidator urlValidator = new UrlValidator();
-            if (!urlValidator.isValid(url)) {
-                throw new OperationException(SIGNATURE_ADD_TSA_INVALID_URL);
+            for (String url : urls) {
+                if (!urlValidator.isValid(url)) {
+                    throw new OperationException(SIGNATURE_ADD_TSA_INVALID_URL);
+                }
             }
         }
 
+        hedgeDelay = namespace.get("tsa_hedge_delay");
+        if (hedgeDelay != null) {
+            hedgeDelay = Math.max(0, hedgeDelay);
+        }
+
         username = namespace.getString("tsa_username");
 
+        connectTimeout = Math.max(0, namespace.getInt("tsa_connect_timeout"));
+        readTimeout = Math.max(0, namespace.getInt("tsa_read_timeout"));
+        maxConcurrent = Math.max(1, namespace.getInt("tsa_max_concurrent"));
+        retries = Math.max(0, namespace.getInt("tsa_retries"));
+
         passwordArgs.setFromNamespace(namespace);
 
         sslKeystore.setFromNamespace(namespace);
@@ -120,10 +192,13 @@ public class TimestampParameters implements ArgsConfiguration {
                 LOGGER.warning("SSL KeyStore: Location has been set but password has not. Only KeyStores protected by a non-empty password are supported.");
             }
         }
-        sslKeystore.setSystemProperties(SslKeystore.PRIVATE);
 
         sslTruststore.setFromNamespace(namespace);
-        sslTruststore.setSystemProperties(SslKeystore.TRUSTSTORE);
+
+        sslSocketFactory = null;
+        if (urls != null && !urls.isEmpty()) {
+            sslSocketFactory = SslContextCache.getSocketFactory(sslKeystore, sslTruststore);
+        }
     }
 
     /**
@@ -131,8 +206,8 @@ public class TimestampParameters implements ArgsConfiguration {
      *
      * @return null if the timestamp authority has not been configured
      */
-    public TSAClient getTSAClient() {
-        if (url == null) {
+    public PooledTSAClient getTSAClient() {
+        if (urls == null || urls.isEmpty()) {
             return null;
         }
         LOGGER.info("TSA URL has been set. Will attempt to attach a timestamp to the signature.");
@@ -143,7 +218,13 @@ public class TimestampParameters implements ArgsConfiguration {
         if (password != null && username == null) {
             LOGGER.warning("TSA password has been set but username has not.");
         }
-        return new TSAClientBouncyCastle(url, username, password);
+        if (urls.size() > 1) {
+            LOGGER.info("Fallback TSA URLs: %s", urls.subList(1, urls.size()));
+        }
+        PooledTSAClient client = new PooledTSAClient(urls, username, password,
+                connectTimeout, readTimeout, maxConcurrent, retries, hedgeDelay);
+        client.setSslSocketFactory(sslSocketFactory);
+        return client;
     }
 
     private String getPassword() {
@@ -0,0 +1,45 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.operation.signature;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request to a timestamp authority is refused without being sent
+ * because the authority has failed repeatedly.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public class TsaCircuitOpenException extends IOException {
+
+    private final String url;
+    private final long retryAfterMillis;
+
+    public TsaCircuitOpenException(String url, long retryAfterMillis) {
+        super(String.format("TSA %s is suspended for %d ms after repeated failures", url, retryAfterMillis));
+        this.url = url;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
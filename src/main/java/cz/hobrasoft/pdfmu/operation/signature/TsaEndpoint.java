@@ -0,0 +1,209 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.operation.signature;
+
+import cz.hobrasoft.pdfmu.Log;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * State shared by all the requests sent to one timestamp authority.
+ *
+ * <p>
+ * One instance exists per TSA URL and concurrency limit for the lifetime of
+ * the JVM. It holds the permits that cap the number of concurrent requests
+ * and a simple circuit breaker: after {@link #FAILURE_THRESHOLD} consecutive
+ * failed requests the endpoint is suspended for {@link #OPEN_MILLIS}
+ * milliseconds, after which a single trial request is let through. It also
+ * keeps the latencies of the recent successful requests so that hedged
+ * requests can be sent once the primary TSA is slower than usual.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+class TsaEndpoint {
+
+    private static final Log LOGGER = Log.getLog(TsaEndpoint.class);
+
+    /**
+     * Number of consecutive failed requests that opens the circuit.
+     */
+    public static final int FAILURE_THRESHOLD = 5;
+
+    /**
+     * Duration of the open state of the circuit in milliseconds.
+     */
+    public static final long OPEN_MILLIS = 30000;
+
+    /**
+     * Number of recent latencies kept for percentile estimation.
+     */
+    private static final int LATENCY_WINDOW = 128;
+
+    /**
+     * Minimum number of latency samples needed to estimate a percentile.
+     */
+    public static final int LATENCY_MIN_SAMPLES = 20;
+
+    private static final Map<String, TsaEndpoint> ENDPOINTS = new HashMap<>();
+
+    /**
+     * Returns the shared state of the timestamp authority.
+     *
+     * @param url the TSA URL
+     * @param maxConcurrent the maximum number of concurrent requests
+     * @return the endpoint associated with the URL and the concurrency limit
+     */
+    public static synchronized TsaEndpoint get(String url, int maxConcurrent) {
+        String key = String.format("%d %s", maxConcurrent, url);
+        TsaEndpoint endpoint = ENDPOINTS.get(key);
+        if (endpoint == null) {
+            endpoint = new TsaEndpoint(url, maxConcurrent);
+            ENDPOINTS.put(key, endpoint);
+        }
+        return endpoint;
+    }
+
+    private final String url;
+    private final Semaphore permits;
+
+    private int consecutiveFailures = 0;
+    private long openUntil = 0;
+    private boolean trialInProgress = false;
+
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private int nLatencies = 0;
+    private int nextLatency = 0;
+
+    private TsaEndpoint(String url, int maxConcurrent) {
+        assert maxConcurrent > 0;
+        this.url = url;
+        this.permits = new Semaphore(maxConcurrent, true);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Blocks until a request slot is available.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        permits.acquire();
+    }
+
+    /**
+     * Blocks until a request slot is available or the timeout elapses.
+     *
+     * @param timeout the longest time to wait in milliseconds
+     * @return whether a slot has been acquired
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public boolean tryAcquire(long timeout) throws InterruptedException {
+        return permits.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    /**
+     * Checks whether a request may be sent. If the check passes, the caller
+     * must record the outcome of the request, or cancel it with
+     * {@link #recordCancelled()}, on every path; otherwise a half-open circuit
+     * never admits another trial.
+     *
+     * @throws TsaCircuitOpenException if the circuit is open
+     */
+    public synchronized void checkClosed() throws TsaCircuitOpenException {
+        if (openUntil == 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now < openUntil || trialInProgress) {
+            throw new TsaCircuitOpenException(url, Math.max(0, openUntil - now));
+        }
+        // Half-open: let a single request through
+        trialInProgress = true;
+    }
+
+    /**
+     * Records a successful request.
+     *
+     * @param latency the duration of the request in milliseconds
+     */
+    public synchronized void recordSuccess(long latency) {
+        latencies[nextLatency] = latency;
+        nextLatency = (nextLatency + 1) % LATENCY_WINDOW;
+        if (nLatencies < LATENCY_WINDOW) {
+            ++nLatencies;
+        }
+        recordSuccess();
+    }
+
+    /**
+     * Records a request that reached the TSA but was not successful for a
+     * reason unrelated to the availability of the TSA.
+     */
+    public synchronized void recordSuccess() {
+        if (openUntil != 0) {
+            LOGGER.info("TSA %s: Circuit closed.", url);
+        }
+        consecutiveFailures = 0;
+        openUntil = 0;
+        trialInProgress = false;
+    }
+
+    /**
+     * Records a request that was abandoned before its outcome was known.
+     */
+    public synchronized void recordCancelled() {
+        trialInProgress = false;
+    }
+
+    public synchronized void recordFailure() {
+        ++consecutiveFailures;
+        if (trialInProgress || consecutiveFailures >= FAILURE_THRESHOLD) {
+            openUntil = System.currentTimeMillis() + OPEN_MILLIS;
+            trialInProgress = false;
+            LOGGER.warning("TSA %s: %d consecutive failures. Suspending requests for %d ms.",
+                    url, consecutiveFailures, OPEN_MILLIS);
+        }
+    }
+
+    /**
+     * Estimates a latency percentile from the recent successful requests.
+     *
+     * @param p the percentile (between 0 and 1)
+     * @return the latency in milliseconds, or null if fewer than
+     * {@link #LATENCY_MIN_SAMPLES} requests have succeeded
+     */
+    public synchronized Long getLatencyPercentile(double p) {
+        int n = nLatencies;
+        if (n < LATENCY_MIN_SAMPLES) {
+            return null;
+        }
+        long[] sorted = Arrays.copyOf(latencies, n);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(p * n) - 1;
+        return sorted[Math.max(0, Math.min(n - 1, index))];
+    }
+}
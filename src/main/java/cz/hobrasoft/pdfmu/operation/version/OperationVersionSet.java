@@ -17,6 +17,7 @@
 package cz.hobrasoft.pdfmu.operation.version;
 
 import com.itextpdf.text.pdf.PdfReader;
+import cz.hobrasoft.pdfmu.Log;
 import cz.hobrasoft.pdfmu.jackson.VersionSet;
 import cz.hobrasoft.pdfmu.operation.Operation;
 import cz.hobrasoft.pdfmu.operation.OperationCommon;
@@ -24,7 +25,6 @@ import cz.hobrasoft.pdfmu.operation.OperationException;
 import cz.hobrasoft.pdfmu.operation.args.InOutPdfArgs;
 import cz.hobrasoft.pdfmu.operation.args.InPdfArgs;
 import cz.hobrasoft.pdfmu.operation.args.OutPdfArgs;
-import java.util.logging.Logger;
 import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.Namespace;
 import net.sourceforge.argparse4j.inf.Subparser;
@@ -36,13 +36,16 @@ import net.sourceforge.argparse4j.inf.Subparser;
  */
 public class OperationVersionSet extends OperationCommon {
 
-    private static final Logger logger = Logger.getLogger(OperationVersionSet.class.getName());
+    // Listed by `OperationRegistry` without loading this class
+    public static final String HELP = "Set PDF version of a PDF document";
+
+    private static final Log logger = Log.getLog(OperationVersionSet.class);
 
     private final InOutPdfArgs inout = new InOutPdfArgs(false);
 
     @Override
     public Subparser configureSubparser(Subparser subparser) {
-        String help = "Set PDF version of a PDF document";
+        String help = HELP;
         String description = help + "\nIf there are signatures in the document, this operation invalidates them.";
 
         // Configure the subparser
@@ -92,12 +95,12 @@ public class OperationVersionSet extends OperationCommon {
 
             // Fetch the PDF version of the input PDF document
             PdfVersion inVersion = new PdfVersion(pdfReader.getPdfVersion());
-            logger.info(String.format("Input PDF document version: %s", inVersion));
+            logger.info("Input PDF document version: %s", inVersion);
 
             // Commence to set the PDF version of the output PDF document
             // Determine the desired PDF version
             assert outVersion != null; // The argument "version" has a default value
-            logger.info(String.format("Desired output PDF version: %s", outVersion));
+            logger.info("Desired output PDF version: %s", outVersion);
 
             boolean set = true;
             if (outVersion.compareTo(inVersion) <= 0) {
@@ -0,0 +1,112 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.server;
+
+import cz.hobrasoft.pdfmu.operation.signature.TimestampJournal;
+import java.io.File;
+import java.io.IOException;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+/**
+ * Estimates the heap footprint of a request from the sizes of its files
+ *
+ * <p>
+ * {@link cz.hobrasoft.pdfmu.operation.args.InPdfArgs} reads the whole input
+ * document, which is held in memory together with the objects parsed from it
+ * ({@value #READ_FACTOR} times the file size). The operations that write a
+ * document buffer the whole output in memory; the buffer starts at the size
+ * of the input and doubles once the document grows ({@value #WRITE_FACTOR}
+ * times the file size). Attachments are read in memory and written in the
+ * output. The timestamp queue processes the documents of a batch one by one,
+ * so it holds the largest of them at once.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+class Footprint {
+
+    /**
+     * Memory taken by any request: the parsed arguments, the state of the
+     * operation and the response
+     */
+    static final long BASE = 1 << 20;
+
+    /**
+     * Additional memory taken by signing: the keys, the certificate chain and
+     * the signature container
+     */
+    static final long SIGNATURE = 256 << 10;
+
+    static final int READ_FACTOR = 2;
+    static final int WRITE_FACTOR = 2;
+
+    private static long length(Object file) {
+        return file instanceof File ? ((File) file).length() : 0;
+    }
+
+    /**
+     * @return the size of the largest document of the next batch of the
+     * timestamp queue, or 0 if the queue cannot be read
+     */
+    private static long largestQueued(Namespace namespace) {
+        Object queue = namespace.get("queue");
+        Integer batchSize = namespace.getInt("batch_size");
+        if (!(queue instanceof File) || batchSize == null) {
+            return 0;
+        }
+        TimestampJournal journal = new TimestampJournal((File) queue);
+        long largest = 0;
+        try {
+            for (File document : journal.peek(Math.max(1, batchSize), System.currentTimeMillis())) {
+                largest = Math.max(largest, document.length());
+            }
+        } catch (IOException ex) {
+            // The operation reports the error.
+        }
+        return largest;
+    }
+
+    /**
+     * @param operation the name of the operation
+     * @param namespace the parsed arguments of the operation
+     * @return the estimated footprint in bytes
+     */
+    public static long estimate(String operation, Namespace namespace) {
+        long in = length(namespace.get("in"));
+        switch (operation) {
+            case "inspect":
+                return BASE + READ_FACTOR * in;
+            case "update-version":
+            case "update-properties":
+                return BASE + (READ_FACTOR + WRITE_FACTOR) * in;
+            case "attach":
+                long attachment = length(namespace.get("attachment"));
+                return BASE + (READ_FACTOR + WRITE_FACTOR) * in + (1 + WRITE_FACTOR) * attachment;
+            case "sign":
+                return BASE + SIGNATURE + (READ_FACTOR + WRITE_FACTOR) * in;
+            case "timestamp-queue":
+                if (Boolean.TRUE.equals(namespace.getBoolean("status"))) {
+                    return BASE;
+                }
+                return BASE + SIGNATURE + (READ_FACTOR + WRITE_FACTOR) * largestQueued(namespace);
+            default:
+                return BASE;
+        }
+    }
+
+    private Footprint() {
+    }
+}
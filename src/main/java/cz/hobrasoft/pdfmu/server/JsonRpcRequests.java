@@ -0,0 +1,109 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.server;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.hobrasoft.pdfmu.RequestContext;
+import static cz.hobrasoft.pdfmu.error.ErrorType.SERVER_INVALID_REQUEST;
+import cz.hobrasoft.pdfmu.operation.OperationException;
+import java.io.IOException;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the JSON-RPC requests read by {@link OperationServer} and
+ * {@link OperationBatch}
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+class JsonRpcRequests {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * Parses a request and sets its id and timeout in its context
+     *
+     * @param line the request
+     * @param context the context of the request
+     * @return the request
+     * @throws OperationException if the request is not valid
+     */
+    public static JsonNode parse(String line, RequestContext context) throws OperationException {
+        JsonNode request;
+        try {
+            request = MAPPER.readTree(line);
+        } catch (IOException ex) {
+            throw invalidRequest(ex, "not a JSON document");
+        }
+        if (request == null || !request.isObject()) {
+            throw invalidRequest(null, "not a JSON object");
+        }
+        JsonNode id = request.get("id");
+        if (id != null && id.isValueNode()) {
+            try {
+                context.setId(MAPPER.treeToValue(id, Object.class));
+            } catch (IOException ex) {
+                throw invalidRequest(ex, "invalid id");
+            }
+        }
+        JsonNode method = request.get("method");
+        if (method == null || !method.isTextual()) {
+            throw invalidRequest(null, "the member \"method\" must be a string");
+        }
+        JsonNode params = request.get("params");
+        if (params != null && !params.isArray()) {
+            throw invalidRequest(null, "the member \"params\" must be an array");
+        }
+        JsonNode timeout = request.get("timeout");
+        if (timeout != null) {
+            if (!timeout.isNumber() || timeout.asDouble() <= 0) {
+                throw invalidRequest(null, "the member \"timeout\" must be a positive number");
+            }
+            context.setTimeout(timeout.asDouble());
+        }
+        return request;
+    }
+
+    /**
+     * @param request a request returned by {@link #parse}
+     * @return the command line arguments of the operation
+     * @throws OperationException if the parameters are not strings
+     */
+    public static String[] getParams(JsonNode request) throws OperationException {
+        List<String> params = new ArrayList<>();
+        JsonNode array = request.get("params");
+        if (array != null) {
+            for (JsonNode param : array) {
+                if (!param.isValueNode() || param.isNull()) {
+                    throw invalidRequest(null, "the parameters must be strings");
+                }
+                params.add(param.asText());
+            }
+        }
+        return params.toArray(new String[params.size()]);
+    }
+
+    private static OperationException invalidRequest(Throwable cause, String reason) {
+        return new OperationException(SERVER_INVALID_REQUEST, cause,
+                new SimpleEntry<String, Object>("reason", reason));
+    }
+
+    private JsonRpcRequests() {
+    }
+}
@@ -0,0 +1,72 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Distribution of durations
+ *
+ * <p>
+ * The durations are recorded in microseconds in an HdrHistogram with three
+ * significant digits, so recording takes constant time and memory regardless
+ * of the number of requests and the counts are exported in any bucket layout
+ * (see {@link #getCounts(double[])}). The histogram grows to accommodate
+ * long durations.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+class LatencyHistogram {
+
+    private final ConcurrentHistogram histogram = new ConcurrentHistogram(3);
+    private final AtomicLong sumNanos = new AtomicLong();
+
+    /**
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos) {
+        nanos = Math.max(nanos, 0);
+        histogram.recordValue(TimeUnit.NANOSECONDS.toMicros(nanos));
+        sumNanos.addAndGet(nanos);
+    }
+
+    /**
+     * @return the sum of the recorded durations in nanoseconds
+     */
+    public long getSumNanos() {
+        return sumNanos.get();
+    }
+
+    /**
+     * @param bounds the upper bounds of the buckets in seconds, ascending
+     * @return the cumulative counts of durations not longer than the
+     * respective bound, followed by the total count
+     */
+    public long[] getCounts(double[] bounds) {
+        Histogram snapshot = histogram.copy();
+        long[] counts = new long[bounds.length + 1];
+        for (int i = 0; i < bounds.length; ++i) {
+            long micros = (long) (bounds[i] * 1e6);
+            counts[i] = snapshot.getCountBetweenValues(0, micros);
+        }
+        counts[bounds.length] = snapshot.getTotalCount();
+        return counts;
+    }
+}
@@ -0,0 +1,117 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.server;
+
+/**
+ * Memory shared by the requests that are being processed
+ *
+ * <p>
+ * A request reserves its estimated footprint (see {@link Footprint}) before it
+ * is executed and releases it when it has finished. If the budget does not
+ * have enough memory left, the request waits until other requests release
+ * theirs. A request that would wait too long, or that needs more than the
+ * whole budget, is rejected.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+class MemoryBudget {
+
+    private final long capacity;
+    private long reserved = 0;
+    private long peak = 0;
+    private long waits = 0;
+    private long rejections = 0;
+
+    /**
+     * @param capacity the size of the budget in bytes
+     */
+    public MemoryBudget(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Reserves memory, waiting until it becomes available
+     *
+     * @param bytes the memory to reserve
+     * @param timeoutMillis the longest time to wait in milliseconds
+     * @return true if the memory has been reserved, false if the request has
+     * been rejected
+     * @throws InterruptedException if the current thread is interrupted while
+     * waiting
+     */
+    public synchronized boolean reserve(long bytes, long timeoutMillis) throws InterruptedException {
+        if (bytes > capacity) {
+            ++rejections;
+            return false;
+        }
+        if (reserved + bytes > capacity) {
+            ++waits;
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            do {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    ++rejections;
+                    return false;
+                }
+                wait(remaining);
+            } while (reserved + bytes > capacity);
+        }
+        reserved += bytes;
+        peak = Math.max(peak, reserved);
+        return true;
+    }
+
+    /**
+     * Returns memory reserved by {@link #reserve(long, long)}
+     *
+     * @param bytes the reserved memory
+     */
+    public synchronized void release(long bytes) {
+        reserved -= bytes;
+        assert reserved >= 0;
+        notifyAll();
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getReserved() {
+        return reserved;
+    }
+
+    /**
+     * @return the largest amount of memory reserved at once
+     */
+    public synchronized long getPeak() {
+        return peak;
+    }
+
+    /**
+     * @return the number of requests that had to wait for memory
+     */
+    public synchronized long getWaits() {
+        return waits;
+    }
+
+    /**
+     * @return the number of rejected requests
+     */
+    public synchronized long getRejections() {
+        return rejections;
+    }
+}
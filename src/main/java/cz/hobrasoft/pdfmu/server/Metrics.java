@@ -0,0 +1,242 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.server;
+
+import cz.hobrasoft.pdfmu.RequestContext;
+import cz.hobrasoft.pdfmu.operation.signature.KeystoreCache;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of the requests processed by the server
+ *
+ * <p>
+ * The metrics are exported in the Prometheus text exposition format (see
+ * {@link #toText()}):
+ * <ul>
+ * <li>{@code pdfmu_requests_total}: requests by operation</li>
+ * <li>{@code pdfmu_errors_total}: failed requests by operation and error
+ * code</li>
+ * <li>{@code pdfmu_request_duration_seconds}: histogram of the request
+ * durations by operation</li>
+ * <li>{@code pdfmu_tsa_duration_seconds}: histogram of the time the requests
+ * spent waiting for a timestamp authority</li>
+ * <li>{@code pdfmu_read_bytes_total}, {@code pdfmu_written_bytes_total}:
+ * sizes of the documents read and written</li>
+ * <li>{@code pdfmu_keystore_cache_hits_total},
+ * {@code pdfmu_keystore_cache_misses_total},
+ * {@code pdfmu_keystore_cache_hit_ratio}: lookups in the
+ * {@link KeystoreCache}</li>
+ * <li>{@code pdfmu_requests_in_flight}: requests received and not answered
+ * yet</li>
+ * <li>{@code pdfmu_memory_budget_bytes}, {@code pdfmu_memory_reserved_bytes},
+ * {@code pdfmu_memory_reserved_peak_bytes}, {@code pdfmu_memory_waits_total},
+ * {@code pdfmu_memory_rejections_total}: the {@link MemoryBudget}</li>
+ * </ul>
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public class Metrics {
+
+    /**
+     * Upper bounds of the histogram buckets in seconds
+     */
+    private static final double[] BUCKETS = {
+        0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+
+    private static class OperationMetrics {
+
+        private final AtomicLong requests = new AtomicLong();
+        private final ConcurrentMap<Integer, AtomicLong> errors = new ConcurrentSkipListMap<>();
+        private final LatencyHistogram duration = new LatencyHistogram();
+
+        private void countError(int code) {
+            AtomicLong count = errors.get(code);
+            if (count == null) {
+                AtomicLong newCount = new AtomicLong();
+                count = errors.putIfAbsent(code, newCount);
+                if (count == null) {
+                    count = newCount;
+                }
+            }
+            count.incrementAndGet();
+        }
+    }
+
+    // Sorted by the operation name so that the output is stable
+    private final ConcurrentMap<String, OperationMetrics> operations = new ConcurrentSkipListMap<>();
+    private final LatencyHistogram tsaDuration = new LatencyHistogram();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile MemoryBudget memoryBudget = null;
+
+    /**
+     * @param memoryBudget the budget to report, or null
+     */
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    private OperationMetrics getOperation(String operation) {
+        OperationMetrics metrics = operations.get(operation);
+        if (metrics == null) {
+            OperationMetrics newMetrics = new OperationMetrics();
+            metrics = operations.putIfAbsent(operation, newMetrics);
+            if (metrics == null) {
+                metrics = newMetrics;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Counts a request as being processed
+     */
+    public void requestStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Records a processed request
+     *
+     * @param operation the name of the operation, or {@code "unknown"} if the
+     * request did not name a valid one
+     * @param code the exit code: 0 on success, the error code on failure
+     * @param nanos the duration of the request in nanoseconds
+     * @param context the context of the request, or null
+     */
+    public void requestFinished(String operation, int code, long nanos, RequestContext context) {
+        inFlight.decrementAndGet();
+        OperationMetrics metrics = getOperation(operation);
+        metrics.requests.incrementAndGet();
+        if (code != 0) {
+            metrics.countError(code);
+        }
+        metrics.duration.record(nanos);
+        if (context != null) {
+            Long tsa = context.getDuration(RequestContext.Phase.TSA);
+            if (tsa != null) {
+                tsaDuration.record(tsa);
+            }
+            bytesRead.addAndGet(context.getBytesRead());
+            bytesWritten.addAndGet(context.getBytesWritten());
+        }
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, String value) {
+        sb.append(name);
+        if (!labels.isEmpty()) {
+            sb.append('{').append(labels).append('}');
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+
+    private static String label(String name, String value) {
+        String escaped = value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        return String.format("%s=\"%s\"", name, escaped);
+    }
+
+    private static String number(double value) {
+        return String.format(Locale.ROOT, "%s", value);
+    }
+
+    private static void histogram(StringBuilder sb, String name, String labels, LatencyHistogram histogram) {
+        long[] counts = histogram.getCounts(BUCKETS);
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        for (int i = 0; i < BUCKETS.length; ++i) {
+            sample(sb, name + "_bucket", prefix + label("le", number(BUCKETS[i])), Long.toString(counts[i]));
+        }
+        sample(sb, name + "_bucket", prefix + label("le", "+Inf"), Long.toString(counts[BUCKETS.length]));
+        sample(sb, name + "_sum", labels, number(histogram.getSumNanos() / 1e9));
+        sample(sb, name + "_count", labels, Long.toString(counts[BUCKETS.length]));
+    }
+
+    /**
+     * @return the metrics in the Prometheus text exposition format, version
+     * 0.0.4
+     */
+    public String toText() {
+        StringBuilder sb = new StringBuilder();
+
+        header(sb, "pdfmu_requests_total", "counter", "Requests by operation.");
+        for (Map.Entry<String, OperationMetrics> e : operations.entrySet()) {
+            sample(sb, "pdfmu_requests_total", label("operation", e.getKey()),
+                    Long.toString(e.getValue().requests.get()));
+        }
+
+        header(sb, "pdfmu_errors_total", "counter", "Failed requests by operation and error code.");
+        for (Map.Entry<String, OperationMetrics> e : operations.entrySet()) {
+            for (Map.Entry<Integer, AtomicLong> error : e.getValue().errors.entrySet()) {
+                sample(sb, "pdfmu_errors_total",
+                        label("operation", e.getKey()) + "," + label("code", error.getKey().toString()),
+                        Long.toString(error.getValue().get()));
+            }
+        }
+
+        header(sb, "pdfmu_request_duration_seconds", "histogram", "Durations of the requests by operation.");
+        for (Map.Entry<String, OperationMetrics> e : operations.entrySet()) {
+            histogram(sb, "pdfmu_request_duration_seconds", label("operation", e.getKey()), e.getValue().duration);
+        }
+
+        header(sb, "pdfmu_tsa_duration_seconds", "histogram", "Time spent by the requests waiting for a timestamp authority.");
+        histogram(sb, "pdfmu_tsa_duration_seconds", "", tsaDuration);
+
+        header(sb, "pdfmu_read_bytes_total", "counter", "Size of the documents read.");
+        sample(sb, "pdfmu_read_bytes_total", "", Long.toString(bytesRead.get()));
+        header(sb, "pdfmu_written_bytes_total", "counter", "Size of the documents written.");
+        sample(sb, "pdfmu_written_bytes_total", "", Long.toString(bytesWritten.get()));
+
+        long hits = KeystoreCache.getHits();
+        long misses = KeystoreCache.getMisses();
+        header(sb, "pdfmu_keystore_cache_hits_total", "counter", "Keystores found in the cache.");
+        sample(sb, "pdfmu_keystore_cache_hits_total", "", Long.toString(hits));
+        header(sb, "pdfmu_keystore_cache_misses_total", "counter", "Keystores loaded from their files.");
+        sample(sb, "pdfmu_keystore_cache_misses_total", "", Long.toString(misses));
+        header(sb, "pdfmu_keystore_cache_hit_ratio", "gauge", "Ratio of the keystore lookups found in the cache.");
+        sample(sb, "pdfmu_keystore_cache_hit_ratio", "",
+                number(hits + misses == 0 ? 0 : (double) hits / (hits + misses)));
+
+        header(sb, "pdfmu_requests_in_flight", "gauge", "Requests received and not answered yet.");
+        sample(sb, "pdfmu_requests_in_flight", "", Integer.toString(inFlight.get()));
+
+        MemoryBudget budget = memoryBudget;
+        if (budget != null) {
+            header(sb, "pdfmu_memory_budget_bytes", "gauge", "Memory shared by the requests being processed.");
+            sample(sb, "pdfmu_memory_budget_bytes", "", Long.toString(budget.getCapacity()));
+            header(sb, "pdfmu_memory_reserved_bytes", "gauge", "Estimated memory reserved by the requests being processed.");
+            sample(sb, "pdfmu_memory_reserved_bytes", "", Long.toString(budget.getReserved()));
+            header(sb, "pdfmu_memory_reserved_peak_bytes", "gauge", "Largest estimated memory reserved at once.");
+            sample(sb, "pdfmu_memory_reserved_peak_bytes", "", Long.toString(budget.getPeak()));
+            header(sb, "pdfmu_memory_waits_total", "counter", "Requests that waited for memory.");
+            sample(sb, "pdfmu_memory_waits_total", "", Long.toString(budget.getWaits()));
+            header(sb, "pdfmu_memory_rejections_total", "counter", "Requests rejected for lack of memory.");
+            sample(sb, "pdfmu_memory_rejections_total", "", Long.toString(budget.getRejections()));
+        }
+
+        return sb.toString();
+    }
+}
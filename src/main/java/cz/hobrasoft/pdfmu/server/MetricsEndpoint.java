@@ -0,0 +1,96 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * HTTP endpoint that serves {@link Metrics} at the path {@value #PATH}
+ *
+ * <p>
+ * The endpoint is served by a single background thread, so a scrape does not
+ * delay the processing of the requests.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+class MetricsEndpoint implements Closeable {
+
+    public static final String PATH = "/metrics";
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer server;
+
+    /**
+     * Starts serving the metrics
+     *
+     * @param address the address to listen on. Port 0 chooses a free port.
+     * @param metrics the metrics to serve
+     * @throws IOException if the address cannot be bound
+     */
+    public MetricsEndpoint(InetSocketAddress address, final Metrics metrics) throws IOException {
+        server = HttpServer.create(address, 0);
+        server.createContext(PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    String method = exchange.getRequestMethod();
+                    if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                        exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                        exchange.sendResponseHeaders(405, -1);
+                        return;
+                    }
+                    byte[] body = metrics.toText().getBytes(UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                    if ("HEAD".equals(method)) {
+                        exchange.sendResponseHeaders(200, -1);
+                        return;
+                    }
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write(body);
+                    }
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * @return the address the endpoint listens on
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Stops serving the metrics
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,761 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.server;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import cz.hobrasoft.pdfmu.Log;
+import cz.hobrasoft.pdfmu.OutputFormat;
+import cz.hobrasoft.pdfmu.RequestContext;
+import cz.hobrasoft.pdfmu.RequestDispatcher;
+import cz.hobrasoft.pdfmu.VirtualThreads;
+import cz.hobrasoft.pdfmu.WritingMapper;
+import static cz.hobrasoft.pdfmu.error.ErrorType.SERVER_INPUT;
+import static cz.hobrasoft.pdfmu.error.ErrorType.SERVER_MEMORY_BUDGET;
+import static cz.hobrasoft.pdfmu.error.ErrorType.SERVER_OPERATION_FAIL;
+import cz.hobrasoft.pdfmu.jfr.Events;
+import cz.hobrasoft.pdfmu.jfr.Phase;
+import cz.hobrasoft.pdfmu.jfr.PhaseEvent;
+import cz.hobrasoft.pdfmu.operation.Operation;
+import cz.hobrasoft.pdfmu.operation.OperationCommon;
+import cz.hobrasoft.pdfmu.operation.OperationException;
+import cz.hobrasoft.pdfmu.operation.args.OutputFile;
+import cz.hobrasoft.pdfmu.operation.args.OutputSink;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.nio.file.Files;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+/**
+ * Processes JSON-RPC requests read from the standard input in a pipeline of
+ * three stages
+ *
+ * <p>
+ * The requests have the same format as the requests of
+ * {@link OperationServer}. Each request passes the following stages, which are
+ * connected by bounded queues:
+ * <ol>
+ * <li>Read: a few I/O threads read the input document in memory.
+ * <li>Process: one thread per processor parses the document and executes the
+ * operation. The output document stays in memory.
+ * <li>Write: one thread writes the output documents to temporary files, forces
+ * a batch of them to the storage device at once, moves them over the output
+ * files and writes the responses.
+ * </ol>
+ * While one document is being processed, the following ones are being read
+ * and the previous ones are being written, so neither the processors nor the
+ * storage wait for each other. The responses are written in the order in which
+ * the requests finish and carry the ids of the requests.
+ *
+ * <p>
+ * The outputs of {@code sign --ltv}, {@code --digest-cache} and
+ * {@code --timestamp-queue} are written in the processing stage, because the
+ * operation reads them back.
+ *
+ * <p>
+ * With the option {@code --virtual-threads}, the process stage executes every
+ * request in its own virtual thread (Java 21 or newer), up to
+ * {@code --max-in-flight} requests at once. Only {@code --cpu-threads} of them
+ * use the processors at once; a request waiting for a timestamp authority
+ * gives up its permit, so a batch signed with {@code --tsa-url} is not limited
+ * by the latency of the TSA.
+ *
+ * <p>
+ * Every request reserves its estimated footprint (see {@link Footprint}) from
+ * a {@link MemoryBudget} before its document is read and releases it once its
+ * response has been written. The requests are received no faster than the
+ * memory is released, so the documents held by all the stages fit in the
+ * budget however many requests are in flight.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public class OperationBatch extends OperationCommon {
+
+    // Listed by `OperationRegistry` without loading this class
+    public static final String HELP = "Process JSON-RPC requests read from the standard input in a pipeline of reading, processing and writing stages";
+
+    private static final Log logger = Log.getLog(OperationBatch.class);
+
+    private WritingMapper wm = null;
+
+    @Override
+    public Subparser configureSubparser(Subparser subparser) {
+        String help = HELP;
+
+        subparser.help(help)
+                .description(help)
+                .defaultHelp(true);
+
+        subparser.addArgument("--io-threads")
+                .help("number of threads that read the input documents")
+                .metavar("N")
+                .type(Integer.class)
+                .setDefault(2);
+        subparser.addArgument("--cpu-threads")
+                .help("number of threads that process the documents (default: number of processors)")
+                .metavar("N")
+                .type(Integer.class);
+        subparser.addArgument("--virtual-threads")
+                .help("execute every request in its own virtual thread (Java 21 or newer). Only --cpu-threads requests use the processors at once; the requests waiting for a TSA do not count.")
+                .type(boolean.class)
+                .action(Arguments.storeTrue());
+        subparser.addArgument("--max-in-flight")
+                .help("largest number of requests being processed at once with --virtual-threads")
+                .metavar("N")
+                .type(Integer.class)
+                .setDefault(256);
+        subparser.addArgument("--queue-size")
+                .help("capacity of the queues between the stages")
+                .metavar("N")
+                .type(Integer.class)
+                .setDefault(16);
+        subparser.addArgument("--sync-batch")
+                .help("largest number of output documents forced to the storage device at once")
+                .metavar("N")
+                .type(Integer.class)
+                .setDefault(16);
+        subparser.addArgument("--memory-budget")
+                .help("memory in MiB shared by the requests in the pipeline (default: half of the maximum heap size)")
+                .metavar("MIB")
+                .type(Long.class);
+        subparser.addArgument("--memory-wait")
+                .help("longest time in seconds a request waits for memory before it is rejected")
+                .metavar("SECONDS")
+                .type(Integer.class)
+                .setDefault(60);
+        subparser.addArgument("--no-sync")
+                .help("do not force the output documents to the storage device")
+                .type(boolean.class)
+                .action(Arguments.storeTrue());
+
+        return subparser;
+    }
+
+    @Override
+    public void setWritingMapper(WritingMapper wm) {
+        super.setWritingMapper(wm);
+        this.wm = wm;
+    }
+
+    @Override
+    public void execute(Namespace namespace) throws OperationException {
+        boolean timings = Boolean.TRUE.equals(namespace.getBoolean("timings"));
+        Double timeout = namespace.getDouble("timeout");
+        int ioThreads = Math.max(1, namespace.getInt("io_threads"));
+        Integer cpuThreads = namespace.getInt("cpu_threads");
+        int queueSize = Math.max(1, namespace.getInt("queue_size"));
+        int syncBatch = Math.max(1, namespace.getInt("sync_batch"));
+        boolean sync = !namespace.getBoolean("no_sync");
+        boolean virtualThreads = Boolean.TRUE.equals(namespace.getBoolean("virtual_threads"));
+        int maxInFlight = Math.max(1, namespace.getInt("max_in_flight"));
+        Long memoryBudget = namespace.getLong("memory_budget");
+        int memoryWait = Math.max(0, namespace.getInt("memory_wait"));
+
+        // The responses are records of a stream
+        WritingMapper responses = wm;
+        if (responses == null || !responses.isStream()) {
+            responses = new WritingMapper(System.out, OutputFormat.JSONL);
+        }
+
+        MemoryBudget budget = new MemoryBudget(memoryBudget != null
+                ? memoryBudget << 20
+                : Runtime.getRuntime().maxMemory() / 2);
+        Pipeline pipeline = new Pipeline(responses, timings, timeout, ioThreads,
+                cpuThreads != null ? Math.max(1, cpuThreads) : Runtime.getRuntime().availableProcessors(),
+                queueSize, sync ? syncBatch : 0, budget, TimeUnit.SECONDS.toMillis(memoryWait));
+        if (virtualThreads) {
+            ExecutorService executor = VirtualThreads.newExecutor("pdfmu-process");
+            if (executor != null) {
+                pipeline.setVirtualThreads(executor, maxInFlight);
+            } else {
+                logger.warning("Virtual threads are not available in this Java runtime (Java 21 or newer is required). Using %d processing threads.", pipeline.cpuThreads);
+            }
+        }
+        pipeline.run();
+        logger.info("Peak reserved memory: %d of %d bytes. Rejected requests: %d.",
+                budget.getPeak(), budget.getCapacity(), budget.getRejections());
+    }
+
+    /**
+     * Output document waiting for the write stage
+     */
+    private static class Output {
+
+        private final File file;
+        private byte[] buffer;
+        private final int size;
+        private OutputFile outputFile = null;
+
+        private Output(File file, byte[] buffer, int size) {
+            this.file = file;
+            this.buffer = buffer;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A request passing the pipeline
+     */
+    private static class Job implements OutputSink {
+
+        private final RequestContext context;
+        private String operation = OperationServer.UNKNOWN_OPERATION;
+        private Namespace namespace = null;
+        private final ResponseBuffer response = new ResponseBuffer();
+        private final List<Output> outputs = new ArrayList<>();
+        private boolean failed = false;
+        private long footprint = 0; // Reserved in the memory budget
+
+        private Job(RequestContext context) {
+            this.context = context;
+        }
+
+        @Override
+        public void accept(File file, byte[] buffer, int size) {
+            outputs.add(new Output(file, buffer, size));
+        }
+
+        /**
+         * @return true if the operation does not read its output back, so
+         * that the output may be written by the write stage
+         */
+        private boolean isOutputDeferrable() {
+            if (!"sign".equals(operation)) {
+                return true;
+            }
+            return !Boolean.TRUE.equals(namespace.getBoolean("ltv"))
+                    && namespace.get("digest_cache") == null
+                    && namespace.get("timestamp_queue") == null;
+        }
+    }
+
+    /**
+     * Marks the end of the requests in a queue
+     */
+    private static final Job END = new Job(null);
+
+    /**
+     * One run of the pipeline
+     */
+    private class Pipeline {
+
+        private final WritingMapper responses;
+        private final boolean timings;
+        private final Double timeout;
+        private final int ioThreads;
+        private final int cpuThreads;
+        private final int syncBatch; // 0: no synchronization
+        private final MemoryBudget budget;
+        private final long memoryWaitMillis;
+        private final BlockingQueue<Job> readQueue;
+        private final BlockingQueue<Job> processQueue;
+        private final BlockingQueue<Job> writeQueue;
+        private final RequestDispatcher dispatcher = RequestDispatcher.createDefault();
+        private ExecutorService virtualThreads = null; // Null if the process stage uses platform threads
+        private Semaphore inFlight = null;
+        private int maxInFlight = 0;
+        private Semaphore processorPermits = null;
+        private final Queue<RequestDispatcher> idleDispatchers = new ConcurrentLinkedQueue<>();
+
+        private Pipeline(WritingMapper responses, boolean timings, Double timeout,
+                int ioThreads, int cpuThreads, int queueSize, int syncBatch,
+                MemoryBudget budget, long memoryWaitMillis) {
+            this.responses = responses;
+            this.timings = timings;
+            this.timeout = timeout;
+            this.ioThreads = ioThreads;
+            this.cpuThreads = cpuThreads;
+            this.syncBatch = syncBatch;
+            this.budget = budget;
+            this.memoryWaitMillis = memoryWaitMillis;
+            readQueue = new ArrayBlockingQueue<>(queueSize);
+            processQueue = new ArrayBlockingQueue<>(queueSize);
+            writeQueue = new ArrayBlockingQueue<>(queueSize);
+        }
+
+        /**
+         * Executes the requests in virtual threads, at most
+         * {@code maxInFlight} at once and {@code cpuThreads} of them on the
+         * processors
+         */
+        private void setVirtualThreads(ExecutorService executor, int maxInFlight) {
+            virtualThreads = executor;
+            this.maxInFlight = maxInFlight;
+            inFlight = new Semaphore(maxInFlight);
+            processorPermits = new Semaphore(cpuThreads);
+        }
+
+        private void run() throws OperationException {
+            List<Thread> readers = start("pdfmu-read", ioThreads, new Runnable() {
+                @Override
+                public void run() {
+                    readStage();
+                }
+            });
+            List<Thread> processors;
+            if (virtualThreads != null) {
+                processors = start("pdfmu-dispatch", 1, new Runnable() {
+                    @Override
+                    public void run() {
+                        dispatchStage();
+                    }
+                });
+            } else {
+                processors = start("pdfmu-process", cpuThreads, new Runnable() {
+                    @Override
+                    public void run() {
+                        processStage();
+                    }
+                });
+            }
+            List<Thread> writers = start("pdfmu-write", 1, new Runnable() {
+                @Override
+                public void run() {
+                    writeStage();
+                }
+            });
+
+            int count = 0;
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.trim().isEmpty()) {
+                        continue;
+                    }
+                    receive(line);
+                    ++count;
+                }
+            } catch (IOException ex) {
+                throw new OperationException(SERVER_INPUT, ex);
+            } finally {
+                // Let the stages finish the received requests
+                finish(readQueue, readers);
+                finish(processQueue, processors);
+                finish(writeQueue, writers);
+            }
+            logger.info("Processed %d requests.", count);
+        }
+
+        private List<Thread> start(String name, int count, Runnable stage) {
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 1; i <= count; ++i) {
+                Thread thread = new Thread(stage, String.format("%s-%d", name, i));
+                thread.setDaemon(true);
+                thread.start();
+                threads.add(thread);
+            }
+            return threads;
+        }
+
+        /**
+         * Stops the threads of a stage once they have taken all the requests
+         * from its queue
+         */
+        private void finish(BlockingQueue<Job> queue, List<Thread> threads) {
+            try {
+                for (Thread thread : threads) {
+                    queue.put(END);
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void put(BlockingQueue<Job> queue, Job job) {
+            try {
+                queue.put(job);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        private Job take(BlockingQueue<Job> queue) {
+            try {
+                return queue.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return END;
+            }
+        }
+
+        /**
+         * Parses a request, reserves its footprint and passes it to the read
+         * stage. A request that cannot be parsed or admitted skips to the
+         * write stage, which reports it.
+         */
+        private void receive(String line) {
+            long start = RequestContext.now();
+            Job job = new Job(RequestContext.begin(start, timings));
+            job.context.setTimeout(timeout);
+            try {
+                JsonNode json = JsonRpcRequests.parse(line, job.context);
+                String method = json.get("method").asText();
+                if (dispatcher.contains(method)) {
+                    job.operation = method;
+                }
+                job.namespace = dispatcher.parse(method, JsonRpcRequests.getParams(json));
+                admit(job);
+            } catch (OperationException ex) {
+                fail(job, ex);
+            } finally {
+                RequestContext.end();
+            }
+            put(job.failed ? writeQueue : readQueue, job);
+        }
+
+        /**
+         * Reserves the estimated footprint of a request, waiting until the
+         * requests in the pipeline release enough memory
+         *
+         * @throws OperationException if the memory does not become available
+         */
+        private void admit(Job job) throws OperationException {
+            long footprint = Footprint.estimate(job.operation, job.namespace);
+            boolean reserved;
+            try {
+                reserved = budget.reserve(footprint, Math.min(memoryWaitMillis, RequestContext.remainingMillis()));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                reserved = false;
+            }
+            if (!reserved) {
+                RequestContext.checkDeadline("waiting for memory");
+                throw new OperationException(SERVER_MEMORY_BUDGET,
+                        new SimpleEntry<String, Object>("required", footprint),
+                        new SimpleEntry<String, Object>("available", budget.getCapacity() - budget.getReserved()),
+                        new SimpleEntry<String, Object>("budget", budget.getCapacity()));
+            }
+            job.footprint = footprint;
+        }
+
+        private void readStage() {
+            for (Job job = take(readQueue); job != END; job = take(readQueue)) {
+                RequestContext.resume(job.context);
+                try {
+                    prefetch(job);
+                } catch (RuntimeException | Error ex) {
+                    fail(job, unexpected(job, ex));
+                } finally {
+                    RequestContext.end();
+                }
+                put(job.failed ? writeQueue : processQueue, job);
+            }
+        }
+
+        /**
+         * Reads the input document of a request in memory. If the document
+         * cannot be read, the operation reads it again and reports the error.
+         */
+        private void prefetch(Job job) {
+            Object in = job.namespace.get("in");
+            if (!(in instanceof File) || !((File) in).isFile()) {
+                return;
+            }
+            File file = (File) in;
+            long start = RequestContext.now();
+            PhaseEvent event = Events.begin(Phase.OPEN);
+            try {
+                event.setFile(file);
+                job.context.putInput(file, Files.readAllBytes(file.toPath()));
+                event.succeed();
+            } catch (IOException ex) {
+                logger.fine("Could not prefetch %s: %s", file, ex);
+            } finally {
+                event.finish();
+            }
+            RequestContext.record(RequestContext.Phase.OPEN, start);
+        }
+
+        private void processStage() {
+            // Every thread has its own instances of the operations
+            RequestDispatcher executor = null;
+            for (Job job = take(processQueue); job != END; job = take(processQueue)) {
+                if (executor == null) {
+                    executor = createDispatcher(job);
+                }
+                process(job, executor);
+            }
+        }
+
+        /**
+         * @return new instances of the operations, or null if they cannot be
+         * created, in which case the request fails
+         */
+        private RequestDispatcher createDispatcher(Job job) {
+            try {
+                return RequestDispatcher.createDefault();
+            } catch (RuntimeException | Error ex) {
+                fail(job, unexpected(job, ex));
+                return null;
+            }
+        }
+
+        /**
+         * Starts a virtual thread for every request. Each thread borrows idle
+         * instances of the operations and holds a processor permit except
+         * while it waits for I/O.
+         */
+        private void dispatchStage() {
+            for (Job job = take(processQueue); job != END; job = take(processQueue)) {
+                inFlight.acquireUninterruptibly();
+                final Job current = job;
+                try {
+                    virtualThreads.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            RequestDispatcher executor = idleDispatchers.poll();
+                            if (executor == null) {
+                                executor = createDispatcher(current);
+                            }
+                            try {
+                                process(current, executor);
+                            } finally {
+                                if (executor != null) {
+                                    idleDispatchers.offer(executor);
+                                }
+                                inFlight.release();
+                            }
+                        }
+                    });
+                } catch (RuntimeException | Error ex) {
+                    // The thread has not started.
+                    inFlight.release();
+                    fail(job, unexpected(job, ex));
+                    put(writeQueue, job);
+                }
+            }
+            // Wait for the requests in flight
+            inFlight.acquireUninterruptibly(maxInFlight);
+            virtualThreads.shutdown();
+        }
+
+        /**
+         * Executes a request and passes it to the write stage. A request that
+         * has already failed is passed on without being executed.
+         */
+        private void process(Job job, RequestDispatcher executor) {
+            if (!job.failed) {
+                RequestContext.resume(job.context);
+                try {
+                    job.context.setProcessorPermits(processorPermits);
+                    RequestContext.acquireProcessor();
+                    if (job.isOutputDeferrable()) {
+                        job.context.setOutputSink(job);
+                    }
+                    try {
+                        execute(job, executor);
+                    } finally {
+                        job.context.setOutputSink(null);
+                        RequestContext.releaseProcessor();
+                    }
+                } catch (RuntimeException | Error ex) {
+                    fail(job, unexpected(job, ex));
+                } finally {
+                    RequestContext.end();
+                }
+            }
+            put(writeQueue, job);
+        }
+
+        private void execute(Job job, RequestDispatcher executor) {
+            Events.setOperation(job.operation);
+            try {
+                RequestContext.checkDeadline("waiting to be executed");
+                executor.execute(job.operation, job.namespace, job.response);
+            } catch (OperationException ex) {
+                OperationException timeout = RequestContext.translateTimeout(ex);
+                fail(job, timeout != null ? timeout : ex);
+            } catch (RuntimeException ex) {
+                OperationException oe = RequestContext.translateTimeout(ex);
+                fail(job, oe != null ? oe : unexpected(job, ex));
+            } finally {
+                Events.setOperation(null);
+            }
+        }
+
+        private void writeStage() {
+            List<Job> batch = new ArrayList<>();
+            boolean end = false;
+            while (!end) {
+                batch.add(take(writeQueue));
+                writeQueue.drainTo(batch, Math.max(1, syncBatch) - 1);
+                end = batch.remove(END);
+                if (!batch.isEmpty()) {
+                    write(batch);
+                    batch.clear();
+                }
+            }
+            // Any other `END` in the queue belongs to the other writer threads.
+        }
+
+        /**
+         * Writes the outputs of a batch of requests and reports the requests
+         *
+         * <p>
+         * The outputs are forced to the storage device together before any of
+         * them replaces its output file, so the batch pays the latency of the
+         * synchronization once.
+         */
+        private void write(List<Job> batch) {
+            for (Job job : batch) {
+                RequestContext.resume(job.context);
+                long start = RequestContext.now();
+                try {
+                    for (Output output : job.outputs) {
+                        logger.info("Writing the output of the operation to the output file: %s", output.file);
+                        output.outputFile = new OutputFile(output.file);
+                        output.outputFile.write(output.buffer, output.size);
+                        RequestContext.countWritten(output.size);
+                        output.buffer = null; // Release the document
+                    }
+                } catch (OperationException ex) {
+                    abort(job, ex);
+                } catch (RuntimeException | Error ex) {
+                    abort(job, unexpected(job, ex));
+                } finally {
+                    RequestContext.record(RequestContext.Phase.WRITE, start);
+                    RequestContext.end();
+                }
+            }
+
+            Set<File> dirs = new LinkedHashSet<>();
+            if (syncBatch > 0) {
+                for (Job job : batch) {
+                    RequestContext.resume(job.context);
+                    long start = RequestContext.now();
+                    try {
+                        for (Output output : job.outputs) {
+                            output.outputFile.sync();
+                            dirs.add(output.file.getAbsoluteFile().getParentFile());
+                        }
+                    } catch (OperationException ex) {
+                        abort(job, ex);
+                    } catch (RuntimeException | Error ex) {
+                        abort(job, unexpected(job, ex));
+                    } finally {
+                        RequestContext.record(RequestContext.Phase.WRITE, start);
+                        RequestContext.end();
+                    }
+                }
+            }
+
+            for (Job job : batch) {
+                RequestContext.resume(job.context);
+                try {
+                    for (Output output : job.outputs) {
+                        output.outputFile.commit();
+                    }
+                } catch (OperationException ex) {
+                    abort(job, ex);
+                } catch (RuntimeException | Error ex) {
+                    abort(job, unexpected(job, ex));
+                } finally {
+                    RequestContext.end();
+                }
+            }
+            for (File dir : dirs) {
+                OutputFile.syncDirectory(dir);
+            }
+
+            for (Job job : batch) {
+                RequestContext.resume(job.context);
+                try {
+                    job.response.writeTo(responses);
+                } catch (RuntimeException | Error ex) {
+                    // The response cannot be reported; the other ones can.
+                    logger.log(Level.SEVERE, "Could not write the response of a request.", ex);
+                } finally {
+                    budget.release(job.footprint);
+                    job.footprint = 0;
+                    RequestContext.end();
+                }
+            }
+        }
+
+        /**
+         * Reports the failure of writing the outputs of a request instead of
+         * its result
+         */
+        private void abort(Job job, OperationException ex) {
+            for (Output output : job.outputs) {
+                if (output.outputFile != null) {
+                    output.outputFile.discard();
+                }
+            }
+            job.outputs.clear();
+            fail(job, ex);
+        }
+
+        /**
+         * Wraps an exception that escaped a stage, so that it is reported as the
+         * failure of the request instead of stopping the thread of the stage
+         */
+        private OperationException unexpected(Job job, Throwable ex) {
+            OperationException oe = new OperationException(SERVER_OPERATION_FAIL, ex,
+                    new SimpleEntry<String, Object>("operation", job.operation));
+            logger.log(Level.SEVERE, oe.getLocalizedMessage(), ex);
+            return oe;
+        }
+
+        /**
+         * Replaces the responses of a request by an error. The outputs of a
+         * failed operation are not written.
+         */
+        private void fail(Job job, OperationException ex) {
+            logger.severe(ex.getLocalizedMessage());
+            job.failed = true;
+            job.outputs.clear();
+            job.response.clear();
+            ex.writeInWritingMapper(job.response);
+        }
+    }
+
+    private static Operation instance = null;
+
+    public static Operation getInstance() {
+        if (instance == null) {
+            instance = new OperationBatch();
+        }
+        return instance;
+    }
+
+    // Singleton
+    private OperationBatch() {
+    }
+}
@@ -0,0 +1,450 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.server;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import cz.hobrasoft.pdfmu.Log;
+import cz.hobrasoft.pdfmu.OutputFormat;
+import cz.hobrasoft.pdfmu.RequestContext;
+import cz.hobrasoft.pdfmu.RequestDispatcher;
+import cz.hobrasoft.pdfmu.VirtualThreads;
+import cz.hobrasoft.pdfmu.WritingMapper;
+import cz.hobrasoft.pdfmu.jfr.Events;
+import static cz.hobrasoft.pdfmu.error.ErrorType.SERVER_INPUT;
+import static cz.hobrasoft.pdfmu.error.ErrorType.SERVER_MEMORY_BUDGET;
+import static cz.hobrasoft.pdfmu.error.ErrorType.SERVER_METRICS_ENDPOINT;
+import static cz.hobrasoft.pdfmu.error.ErrorType.SERVER_OPERATION_FAIL;
+import cz.hobrasoft.pdfmu.operation.Operation;
+import cz.hobrasoft.pdfmu.operation.OperationCommon;
+import cz.hobrasoft.pdfmu.operation.OperationException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+/**
+ * Processes JSON-RPC requests read from the standard input
+ *
+ * <p>
+ * Every line of the standard input is a request such as
+ * {@code {"jsonrpc": "2.0", "id": 1, "method": "sign", "params": ["in.pdf", "--keystore", "ks.p12"]}}.
+ * The method is the name of an operation and the parameters are its command
+ * line arguments. The responses are written to the standard output as JSON
+ * Lines (or in the stream output format, if one has been chosen) and carry the
+ * ids of their requests. The server stops at the end of the input.
+ *
+ * <p>
+ * The main option {@code --timeout} limits the duration of each request,
+ * measured from its receipt. A request may set its own timeout in seconds by
+ * the member {@code "timeout"}.
+ *
+ * <p>
+ * A long-running process does not pay the start of the JVM and the loading
+ * of the operations for every document, and it keeps the keystores (see
+ * {@link cz.hobrasoft.pdfmu.operation.signature.KeystoreCache}). The
+ * {@link Metrics} of the processed requests may be served over HTTP (option
+ * {@code --metrics-port}).
+ *
+ * <p>
+ * With the option {@code --virtual-threads}, every request is executed in its
+ * own virtual thread (Java 21 or newer). A request that waits for a timestamp
+ * authority then holds neither a platform thread nor one of the
+ * {@code --cpu-threads} processor permits, so many signatures may wait for
+ * their timestamps at once while the hashing and signing use the processors.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+public class OperationServer extends OperationCommon {
+
+    // Listed by `OperationRegistry` without loading this class
+    public static final String HELP = "Process JSON-RPC requests read from the standard input, one per line";
+
+    private static final Log logger = Log.getLog(OperationServer.class);
+
+    /**
+     * The operation name recorded in the metrics of requests that do not name
+     * a valid operation
+     */
+    static final String UNKNOWN_OPERATION = "unknown";
+
+    private WritingMapper wm = null;
+
+    @Override
+    public Subparser configureSubparser(Subparser subparser) {
+        String help = HELP;
+
+        subparser.help(help)
+                .description(help)
+                .defaultHelp(true);
+
+        subparser.addArgument("--workers")
+                .help("number of requests processed concurrently. With one worker, the responses are written in the order of the requests.")
+                .metavar("N")
+                .type(Integer.class)
+                .setDefault(1);
+        subparser.addArgument("--virtual-threads")
+                .help("execute every request in its own virtual thread (Java 21 or newer; otherwise --workers applies). The requests waiting for a TSA do not count against --cpu-threads.")
+                .type(boolean.class)
+                .action(Arguments.storeTrue());
+        subparser.addArgument("--cpu-threads")
+                .help("number of requests using the processors at once with --virtual-threads (default: number of processors)")
+                .metavar("N")
+                .type(Integer.class);
+        subparser.addArgument("--memory-budget")
+                .help("memory in MiB shared by the requests being processed (default: half of the maximum heap size)")
+                .metavar("MIB")
+                .type(Long.class);
+        subparser.addArgument("--memory-wait")
+                .help("longest time in seconds a request waits for memory before it is rejected")
+                .metavar("SECONDS")
+                .type(Integer.class)
+                .setDefault(60);
+        subparser.addArgument("--metrics-port")
+                .help("serve the metrics in the Prometheus format at http://ADDRESS:PORT/metrics (default: no metrics endpoint)")
+                .metavar("PORT")
+                .type(Integer.class);
+        subparser.addArgument("--metrics-address")
+                .help("address of the metrics endpoint")
+                .metavar("ADDRESS")
+                .setDefault("127.0.0.1");
+
+        return subparser;
+    }
+
+    @Override
+    public void setWritingMapper(WritingMapper wm) {
+        super.setWritingMapper(wm);
+        this.wm = wm;
+    }
+
+    @Override
+    public void execute(Namespace namespace) throws OperationException {
+        boolean timings = Boolean.TRUE.equals(namespace.getBoolean("timings"));
+        Double timeout = namespace.getDouble("timeout");
+        int workers = Math.max(1, namespace.getInt("workers"));
+        boolean virtualThreads = Boolean.TRUE.equals(namespace.getBoolean("virtual_threads"));
+        Integer cpuThreads = namespace.getInt("cpu_threads");
+        Long memoryBudget = namespace.getLong("memory_budget");
+        int memoryWait = Math.max(0, namespace.getInt("memory_wait"));
+        Integer metricsPort = namespace.getInt("metrics_port");
+        String metricsAddress = namespace.getString("metrics_address");
+
+        // The responses are records of a stream
+        WritingMapper responses = wm;
+        if (responses == null || !responses.isStream()) {
+            responses = new WritingMapper(System.out, OutputFormat.JSONL);
+        }
+
+        MemoryBudget budget = new MemoryBudget(memoryBudget != null
+                ? memoryBudget << 20
+                : Runtime.getRuntime().maxMemory() / 2);
+        Metrics metrics = new Metrics();
+        metrics.setMemoryBudget(budget);
+        MetricsEndpoint endpoint = null;
+        if (metricsPort != null) {
+            InetSocketAddress address = new InetSocketAddress(metricsAddress, metricsPort);
+            try {
+                endpoint = new MetricsEndpoint(address, metrics);
+            } catch (IOException ex) {
+                throw new OperationException(SERVER_METRICS_ENDPOINT, ex,
+                        new SimpleEntry<String, Object>("address", address));
+            }
+            InetSocketAddress bound = endpoint.getAddress();
+            logger.info("Serving the metrics at http://%s:%d%s.",
+                    bound.getHostString(), bound.getPort(), MetricsEndpoint.PATH);
+        }
+
+        Session session = new Session(responses, metrics, budget,
+                TimeUnit.SECONDS.toMillis(memoryWait), timings, timeout);
+        ExecutorService executor = null;
+        if (virtualThreads) {
+            executor = VirtualThreads.newExecutor("pdfmu-request");
+            if (executor != null) {
+                int permits = cpuThreads != null
+                        ? Math.max(1, cpuThreads)
+                        : Runtime.getRuntime().availableProcessors();
+                session.setWorkers(executor, new Semaphore(permits));
+                logger.info("Executing the requests in virtual threads, %d at once on the processors.", permits);
+            } else {
+                logger.warning("Virtual threads are not available in this Java runtime (Java 21 or newer is required). Using %d workers.", workers);
+            }
+        }
+        if (executor == null && workers > 1) {
+            session.setWorkers(newWorkerPool(workers), null);
+        }
+        try {
+            session.serve();
+        } finally {
+            session.shutdown();
+            if (endpoint != null) {
+                endpoint.close();
+            }
+        }
+        logger.info("Peak reserved memory: %d of %d bytes. Rejected requests: %d.",
+                budget.getPeak(), budget.getCapacity(), budget.getRejections());
+    }
+
+    private static ExecutorService newWorkerPool(int workers) {
+        return Executors.newFixedThreadPool(workers, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "pdfmu-worker-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * A request that has been parsed and admitted
+     */
+    private static class Request {
+
+        private final long start;
+        private final RequestContext context;
+        private String operation = UNKNOWN_OPERATION;
+        private Namespace namespace = null;
+        private long footprint = 0;
+
+        private Request(long start, RequestContext context) {
+            this.start = start;
+            this.context = context;
+        }
+    }
+
+    /**
+     * One run of the server
+     *
+     * <p>
+     * The requests are read, parsed and admitted in the reading thread in
+     * their order. An admitted request holds its estimated footprint in the
+     * {@link MemoryBudget} until it has finished, so the documents buffered by
+     * the concurrent requests fit in the budget. With one worker, the
+     * requests are executed in the reading thread; otherwise they are
+     * executed by a pool of workers or in virtual threads. The instances of
+     * the operations are not shared by concurrent requests; the idle
+     * dispatchers are kept for the next requests.
+     */
+    private class Session {
+
+        private final WritingMapper responses;
+        private final Metrics metrics;
+        private final MemoryBudget budget;
+        private final long memoryWaitMillis;
+        private final boolean timings;
+        private final Double timeout; // Seconds; null: no timeout
+        private final RequestDispatcher dispatcher = RequestDispatcher.createDefault();
+        private final Queue<RequestDispatcher> idleDispatchers = new ConcurrentLinkedQueue<>();
+        private ExecutorService workers = null; // Null if the requests are executed in the reading thread
+        private Semaphore processorPermits = null; // Null if the workers are platform threads
+
+        private Session(WritingMapper responses, Metrics metrics, MemoryBudget budget,
+                long memoryWaitMillis, boolean timings, Double timeout) {
+            this.responses = responses;
+            this.metrics = metrics;
+            this.budget = budget;
+            this.memoryWaitMillis = memoryWaitMillis;
+            this.timings = timings;
+            this.timeout = timeout;
+        }
+
+        /**
+         * @param workers the executor of the requests
+         * @param processorPermits the permits of the requests using the
+         * processors, or null if the number of workers is bounded
+         */
+        private void setWorkers(ExecutorService workers, Semaphore processorPermits) {
+            this.workers = workers;
+            this.processorPermits = processorPermits;
+        }
+
+        private void serve() throws OperationException {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, UTF_8));
+            int count = 0;
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.trim().isEmpty()) {
+                        continue;
+                    }
+                    process(line);
+                    ++count;
+                }
+            } catch (IOException ex) {
+                throw new OperationException(SERVER_INPUT, ex);
+            }
+            logger.info("Received %d requests.", count);
+        }
+
+        /**
+         * Waits for the requests being executed
+         */
+        private void shutdown() {
+            if (workers != null) {
+                workers.shutdown();
+                try {
+                    while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                        logger.info("Waiting for the requests being processed.");
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * Processes one request
+         *
+         * <p>
+         * Every request gets a response, including the requests that cannot
+         * be parsed or admitted.
+         */
+        private void process(String line) {
+            long start = RequestContext.now();
+            metrics.requestStarted();
+            final Request request = new Request(start, RequestContext.begin(start, timings));
+            request.context.setTimeout(timeout);
+            try {
+                JsonNode json = JsonRpcRequests.parse(line, request.context);
+                String method = json.get("method").asText();
+                if (dispatcher.contains(method)) {
+                    request.operation = method;
+                }
+                request.namespace = dispatcher.parse(method, JsonRpcRequests.getParams(json));
+                admit(request);
+            } catch (OperationException ex) {
+                finish(request, fail(ex));
+                return;
+            }
+
+            if (workers == null) {
+                execute(request, dispatcher);
+                return;
+            }
+            RequestContext.end(); // Continued by a worker
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    RequestContext.resume(request.context);
+                    request.context.setProcessorPermits(processorPermits);
+                    RequestContext.acquireProcessor();
+                    RequestDispatcher executor = idleDispatchers.poll();
+                    if (executor == null) {
+                        executor = RequestDispatcher.createDefault();
+                    }
+                    try {
+                        execute(request, executor);
+                    } finally {
+                        idleDispatchers.offer(executor);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Reserves the estimated footprint of a request
+         *
+         * @throws OperationException if the memory does not become available
+         */
+        private void admit(Request request) throws OperationException {
+            long footprint = Footprint.estimate(request.operation, request.namespace);
+            boolean reserved;
+            try {
+                reserved = budget.reserve(footprint, Math.min(memoryWaitMillis, RequestContext.remainingMillis()));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                reserved = false;
+            }
+            if (!reserved) {
+                RequestContext.checkDeadline("waiting for memory");
+                throw new OperationException(SERVER_MEMORY_BUDGET,
+                        new SimpleEntry<String, Object>("required", footprint),
+                        new SimpleEntry<String, Object>("available", budget.getCapacity() - budget.getReserved()),
+                        new SimpleEntry<String, Object>("budget", budget.getCapacity()));
+            }
+            request.footprint = footprint;
+        }
+
+        private void execute(Request request, RequestDispatcher executor) {
+            int code = 0;
+            Events.setOperation(request.operation);
+            try {
+                RequestContext.checkDeadline("waiting to be executed");
+                executor.execute(request.operation, request.namespace, responses);
+            } catch (OperationException ex) {
+                OperationException timeout = RequestContext.translateTimeout(ex);
+                code = fail(timeout != null ? timeout : ex);
+            } catch (RuntimeException ex) {
+                OperationException timeout = RequestContext.translateTimeout(ex);
+                if (timeout != null) {
+                    code = fail(timeout);
+                    return;
+                }
+                OperationException oe = new OperationException(SERVER_OPERATION_FAIL, ex,
+                        new SimpleEntry<String, Object>("operation", request.operation));
+                logger.log(Level.SEVERE, oe.getLocalizedMessage(), ex);
+                oe.writeInWritingMapper(responses);
+                code = oe.getCode();
+            } finally {
+                Events.setOperation(null);
+                budget.release(request.footprint);
+                finish(request, code);
+            }
+        }
+
+        private int fail(OperationException ex) {
+            logger.severe(ex.getLocalizedMessage());
+            ex.writeInWritingMapper(responses);
+            return ex.getCode();
+        }
+
+        private void finish(Request request, int code) {
+            metrics.requestFinished(request.operation, code, RequestContext.now() - request.start, request.context);
+            RequestContext.releaseProcessor();
+            RequestContext.end();
+        }
+    }
+
+    private static Operation instance = null;
+
+    public static Operation getInstance() {
+        if (instance == null) {
+            instance = new OperationServer();
+        }
+        return instance;
+    }
+
+    // Singleton
+    private OperationServer() {
+    }
+}
@@ -0,0 +1,91 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.hobrasoft.pdfmu.Log;
+import cz.hobrasoft.pdfmu.RequestContext;
+import cz.hobrasoft.pdfmu.WritingMapper;
+import cz.hobrasoft.pdfmu.jackson.RpcResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds the responses of a request until its outputs have been written
+ *
+ * <p>
+ * {@link OperationBatch} reports a request only once its output documents are
+ * in place, and reports the failure of the writing instead of the result of
+ * the operation.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+class ResponseBuffer extends WritingMapper {
+
+    private static final Log logger = Log.getLog(ResponseBuffer.class);
+
+    private final List<Object> values = new ArrayList<>();
+
+    public ResponseBuffer() {
+        super((ObjectMapper) null, null); // Nothing is written to a stream
+    }
+
+    @Override
+    public boolean isStream() {
+        return true;
+    }
+
+    @Override
+    public synchronized void writeValue(Object value) {
+        values.add(value);
+    }
+
+    /**
+     * Discards the held responses
+     */
+    public synchronized void clear() {
+        values.clear();
+    }
+
+    /**
+     * Writes the held responses
+     *
+     * <p>
+     * The timings of the responses are updated from the context of the current
+     * thread, so that they cover the writing of the outputs.
+     *
+     * @param target the mapper to write the responses in
+     */
+    public synchronized void writeTo(WritingMapper target) {
+        for (Object value : values) {
+            if (value instanceof RpcResponse && ((RpcResponse) value).timings != null) {
+                ((RpcResponse) value).timings = RequestContext.currentTimings();
+            }
+            try {
+                target.writeValue(value);
+            } catch (IOException ex) {
+                logger.severe("Cannot write JSON document: %s", ex);
+            }
+        }
+        values.clear();
+    }
+
+    @Override
+    public void close() {
+    }
+}
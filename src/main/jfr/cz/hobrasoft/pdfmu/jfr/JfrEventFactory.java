@@ -0,0 +1,98 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Creates the JDK Flight Recorder events
+ *
+ * <p>
+ * Loaded by {@link Events} only if JFR is available.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+class JfrEventFactory implements EventFactory {
+
+    @Name("pdfmu.Open")
+    @Label("Open")
+    @Description("Opening an input file")
+    static class OpenEvent extends JfrPhaseEvent {
+    }
+
+    @Name("pdfmu.Parse")
+    @Label("Parse")
+    @Description("Parsing an input document")
+    static class ParseEvent extends JfrPhaseEvent {
+    }
+
+    @Name("pdfmu.Stamp")
+    @Label("Stamp")
+    @Description("Modifying a document with a PDF stamper")
+    static class StampEvent extends JfrPhaseEvent {
+    }
+
+    @Name("pdfmu.Sign")
+    @Label("Sign")
+    @Description("Computing a signature and embedding it in the document")
+    static class SignEvent extends JfrPhaseEvent {
+    }
+
+    @Name("pdfmu.TsaRequest")
+    @Label("TSA Request")
+    @Description("Exchange with the timestamp authority, including the retries")
+    static class TsaRequestEvent extends JfrPhaseEvent {
+    }
+
+    @Name("pdfmu.Write")
+    @Label("Write")
+    @Description("Writing an output document to a file")
+    static class WriteEvent extends JfrPhaseEvent {
+    }
+
+    @Override
+    public PhaseEvent begin(Phase phase, String operation) {
+        JfrPhaseEvent event;
+        switch (phase) {
+            case OPEN:
+                event = new OpenEvent();
+                break;
+            case PARSE:
+                event = new ParseEvent();
+                break;
+            case STAMP:
+                event = new StampEvent();
+                break;
+            case SIGN:
+                event = new SignEvent();
+                break;
+            case TSA_REQUEST:
+                event = new TsaRequestEvent();
+                break;
+            case WRITE:
+                event = new WriteEvent();
+                break;
+            default:
+                throw new IllegalArgumentException(phase.toString());
+        }
+        event.operation = operation;
+        event.begin();
+        return event;
+    }
+}
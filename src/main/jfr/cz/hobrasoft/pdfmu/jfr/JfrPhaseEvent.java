@@ -0,0 +1,82 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.jfr;
+
+import java.io.File;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+/**
+ * A {@link PhaseEvent} recorded by JDK Flight Recorder
+ *
+ * <p>
+ * Each {@link Phase} has a subclass because JFR identifies the event types by
+ * their classes.
+ *
+ * @author <a href="mailto:filip.bartek@hobrasoft.cz">Filip Bartek</a>
+ */
+@Category("PDFMU")
+abstract class JfrPhaseEvent extends Event implements PhaseEvent {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("File")
+    String file;
+
+    @Label("File Size")
+    @DataAmount
+    long fileSize;
+
+    @Label("Page Count")
+    int pageCount;
+
+    @Label("Outcome")
+    String outcome = "failure";
+
+    @Override
+    public void setFile(File file) {
+        if (isEnabled()) {
+            this.file = file.getPath();
+            this.fileSize = file.length();
+        }
+    }
+
+    @Override
+    public void setFileSize(long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    @Override
+    public void setPageCount(int pageCount) {
+        this.pageCount = pageCount;
+    }
+
+    @Override
+    public void succeed() {
+        outcome = "success";
+    }
+
+    @Override
+    public void finish() {
+        if (shouldCommit()) {
+            commit();
+        }
+    }
+}
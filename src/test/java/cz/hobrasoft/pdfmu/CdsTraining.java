@@ -0,0 +1,113 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+
+/**
+ * Runs every operation on the test documents to record the classes that
+ * PDFMU loads
+ *
+ * <p>
+ * The profile "cds" runs this class with
+ * {@code -XX:DumpLoadedClassList} and builds a class data sharing archive
+ * from the list. All the runs share one JVM, so the list covers the classes
+ * of all the operations and both output formats.
+ *
+ * <p>
+ * Usage: {@code CdsTraining RESOURCES_DIR}, where {@code RESOURCES_DIR}
+ * contains {@code blank-12.pdf} and the other test files.
+ *
+ * @author Filip Bártek
+ */
+public class CdsTraining {
+
+    private static final String[] DOCUMENTS = {
+        "blank-12.pdf", "blank-14.pdf", "blank-17.pdf"
+    };
+
+    private static final String[] OUTPUT_FORMATS = {"text", "json"};
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: CdsTraining RESOURCES_DIR");
+            System.exit(2);
+        }
+        File resources = new File(args[0]);
+        File work = Files.createTempDirectory("pdfmu-cds").toFile();
+
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        System.setOut(new PrintStream((OutputStream) new NullOutputStream()));
+        System.setErr(new PrintStream((OutputStream) new NullOutputStream()));
+        List<String> failures = new ArrayList<>();
+        int runs = 0;
+        try {
+            for (String outputFormat : OUTPUT_FORMATS) {
+                for (String document : DOCUMENTS) {
+                    File in = new File(work, document);
+                    FileUtils.copyFile(new File(resources, document), in);
+                    for (String[] operationArgs : getOperations(resources, work, in)) {
+                        List<String> argsList = new ArrayList<>();
+                        argsList.add("--output-format");
+                        argsList.add(outputFormat);
+                        argsList.addAll(Arrays.asList(operationArgs));
+                        int exitStatus = Main.run(argsList.toArray(new String[]{}));
+                        ++runs;
+                        if (exitStatus != 0) {
+                            failures.add(String.format("%s: %d", argsList, exitStatus));
+                        }
+                    }
+                }
+            }
+        } finally {
+            System.setOut(out);
+            System.setErr(err);
+            FileUtils.deleteQuietly(work);
+        }
+
+        for (String failure : failures) {
+            System.err.println(String.format("Training run failed: %s", failure));
+        }
+        System.out.println(String.format("Training runs: %d, failed: %d", runs, failures.size()));
+        System.exit(failures.isEmpty() ? 0 : 1);
+    }
+
+    private static String[][] getOperations(File resources, File work, File in) {
+        String inPath = in.getAbsolutePath();
+        String outPath = new File(work, "out.pdf").getAbsolutePath();
+        return new String[][]{
+            {"inspect", inPath},
+            {"update-version", inPath, "--version", "1.7", "--out", outPath, "--force"},
+            {"update-properties", inPath, "--Title", "Training", "--out", outPath, "--force"},
+            {"attach", inPath, new File(resources, "blank.txt").getAbsolutePath(), "--out", outPath, "--force"},
+            {"sign", inPath, "--keystore", new File(resources, "1.p12").getAbsolutePath(), "--out", outPath, "--force"},
+            {"inspect", outPath},
+            {"--help"},
+            {"sign", "--help"}
+        };
+    }
+}
@@ -0,0 +1,121 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu;
+
+import cz.hobrasoft.pdfmu.error.ErrorType;
+import cz.hobrasoft.pdfmu.operation.OperationException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Filip Bártek
+ */
+public class ExceptionClassifierTest {
+
+    private final ExceptionClassifier classifier = new ExceptionClassifier();
+
+    public ExceptionClassifierTest() {
+        List<ExceptionMessagePattern> patterns = new ArrayList<>();
+        patterns.add(new ExceptionMessagePattern(ErrorType.SIGNATURE_ADD_TSA_UNAUTHORIZED,
+                "Server returned HTTP response code: 401 for URL: (?<url>.*)",
+                Arrays.asList(new String[]{"url"})));
+        patterns.add(new ExceptionMessagePattern(ErrorType.SIGNATURE_ADD_TSA_LOGIN_FAIL,
+                "Invalid TSA '(?<url>.*)' response, code (?<code>\\d+)",
+                Arrays.asList(new String[]{"url", "code"})));
+        patterns.add(new ExceptionMessagePattern(ErrorType.SIGNATURE_ADD_TSA_BAD_CERTIFICATE,
+                "(?<!x)Received fatal alert: bad_certificate",
+                new ArrayList<String>()));
+        patterns.add(new ExceptionMessagePattern(ErrorType.SIGNATURE_ADD_TSA_SSL_FATAL_ALERT,
+                "Received fatal alert: (?<alert>.*)",
+                Arrays.asList(new String[]{"alert"})));
+        classifier.put(IOException.class, patterns, ErrorType.SIGNATURE_ADD_FAIL);
+
+        classifier.put(SocketException.class,
+                Arrays.asList(new ExceptionMessagePattern(ErrorType.SSL_TRUSTSTORE_INCORRECT_TYPE,
+                        "algorithm: (?<algorithm>.*)",
+                        Arrays.asList(new String[]{"algorithm"}))),
+                null);
+    }
+
+    private OperationException classify(Exception e) {
+        OperationException oe = classifier.classify(e);
+        Assert.assertNotNull(oe);
+        Assert.assertSame(e, oe.getCause());
+        return oe;
+    }
+
+    @Test
+    public void testGroups() {
+        OperationException oe = classify(new IOException("Invalid TSA 'http://tsa' response, code 403"));
+        Assert.assertEquals(ErrorType.SIGNATURE_ADD_TSA_LOGIN_FAIL.getCode(), oe.getCode());
+        Map<String, Object> arguments = oe.getMessageArguments();
+        Assert.assertEquals("http://tsa", arguments.get("url"));
+        Assert.assertEquals("403", arguments.get("code"));
+        Assert.assertEquals(2, arguments.size());
+
+        oe = classify(new IOException("Server returned HTTP response code: 401 for URL: http://tsa"));
+        Assert.assertEquals(ErrorType.SIGNATURE_ADD_TSA_UNAUTHORIZED.getCode(), oe.getCode());
+        Assert.assertEquals("http://tsa", oe.getMessageArguments().get("url"));
+    }
+
+    /**
+     * The first matching pattern wins.
+     */
+    @Test
+    public void testOrder() {
+        OperationException oe = classify(new IOException("Received fatal alert: bad_certificate"));
+        Assert.assertEquals(ErrorType.SIGNATURE_ADD_TSA_BAD_CERTIFICATE.getCode(), oe.getCode());
+
+        oe = classify(new IOException("Received fatal alert: unknown_ca"));
+        Assert.assertEquals(ErrorType.SIGNATURE_ADD_TSA_SSL_FATAL_ALERT.getCode(), oe.getCode());
+        Assert.assertEquals("unknown_ca", oe.getMessageArguments().get("alert"));
+    }
+
+    @Test
+    public void testFallback() {
+        Assert.assertEquals(ErrorType.SIGNATURE_ADD_FAIL.getCode(), classify(new IOException("Connection reset")).getCode());
+        Assert.assertEquals(ErrorType.SIGNATURE_ADD_FAIL.getCode(), classify(new IOException()).getCode());
+    }
+
+    /**
+     * Subclasses use the entry of their nearest registered superclass.
+     */
+    @Test
+    public void testSuperclass() {
+        OperationException oe = classify(new FileNotFoundException("Invalid TSA 'http://tsa' response, code 403"));
+        Assert.assertEquals(ErrorType.SIGNATURE_ADD_TSA_LOGIN_FAIL.getCode(), oe.getCode());
+
+        oe = classify(new SocketException("algorithm: PKCS12"));
+        Assert.assertEquals(ErrorType.SSL_TRUSTSTORE_INCORRECT_TYPE.getCode(), oe.getCode());
+
+        // No fallback for `SocketException`
+        oe = classify(new SocketException("Received fatal alert: unknown_ca"));
+        Assert.assertEquals(ErrorType.SIGNATURE_ADD_TSA_SSL_FATAL_ALERT.getCode(), oe.getCode());
+    }
+
+    @Test
+    public void testUnregistered() {
+        Assert.assertNull(classifier.classify(new IllegalStateException("Connection reset")));
+    }
+}
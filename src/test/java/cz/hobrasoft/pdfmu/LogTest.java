@@ -0,0 +1,143 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Filip Bártek
+ */
+public class LogTest {
+
+    private static class RecordingHandler extends Handler {
+
+        private final List<LogRecord> records = new ArrayList<>();
+
+        @Override
+        public synchronized void publish(LogRecord record) {
+            records.add(record);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        public synchronized List<LogRecord> getRecords() {
+            return new ArrayList<>(records);
+        }
+    }
+
+    /**
+     * Counts the conversions to a string
+     */
+    private static class Argument {
+
+        private int formatted = 0;
+
+        @Override
+        public String toString() {
+            ++formatted;
+            return "argument";
+        }
+    }
+
+    private final Logger logger = Logger.getLogger(LogTest.class.getName());
+    private final Log log = Log.getLog(LogTest.class);
+    private final RecordingHandler handler = new RecordingHandler();
+
+    @Before
+    public void setUp() {
+        logger.setUseParentHandlers(false);
+        logger.addHandler(handler);
+    }
+
+    @After
+    public void tearDown() {
+        logger.removeHandler(handler);
+        logger.setUseParentHandlers(true);
+        logger.setLevel(null);
+    }
+
+    @Test
+    public void testFormat() {
+        logger.setLevel(Level.INFO);
+        log.info("Input file: %s, %d pages", "a.pdf", 12);
+        List<LogRecord> records = handler.getRecords();
+        Assert.assertEquals(1, records.size());
+        Assert.assertEquals("Input file: a.pdf, 12 pages", records.get(0).getMessage());
+        Assert.assertEquals(Level.INFO, records.get(0).getLevel());
+        Assert.assertEquals(LogTest.class.getName(), records.get(0).getSourceClassName());
+    }
+
+    @Test
+    public void testDisabled() {
+        logger.setLevel(Level.WARNING);
+        Argument argument = new Argument();
+        log.info("Argument: %s", argument);
+        log.fine("Argument: %s", argument);
+        Assert.assertEquals(0, argument.formatted);
+        Assert.assertTrue(handler.getRecords().isEmpty());
+
+        log.warning("Argument: %s", argument);
+        Assert.assertEquals(1, argument.formatted);
+        Assert.assertEquals(1, handler.getRecords().size());
+    }
+
+    @Test
+    public void testMessageNotFormatted() {
+        logger.setLevel(Level.INFO);
+        log.info("100%");
+        Assert.assertEquals("100%", handler.getRecords().get(0).getMessage());
+    }
+
+    @Test
+    public void testAsyncHandler() {
+        logger.setLevel(Level.INFO);
+        logger.removeHandler(handler);
+        AsyncHandler asyncHandler = new AsyncHandler(handler, 4);
+        logger.addHandler(asyncHandler);
+        try {
+            for (int i = 0; i < 100; ++i) {
+                log.info("Message %d", i);
+            }
+            asyncHandler.flush();
+            List<LogRecord> records = handler.getRecords();
+            Assert.assertEquals(100, records.size());
+            for (int i = 0; i < 100; ++i) {
+                Assert.assertEquals("Message " + i, records.get(i).getMessage());
+            }
+            log.info("Last");
+        } finally {
+            logger.removeHandler(asyncHandler);
+            asyncHandler.close();
+        }
+        Assert.assertEquals(101, handler.getRecords().size());
+    }
+}
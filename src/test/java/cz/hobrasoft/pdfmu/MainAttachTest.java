@@ -54,7 +54,7 @@ public class MainAttachTest extends MainTest {
                 Assert.assertTrue(outFile.length() > inputFile.length());
             }
         });
-        Main.main(argsList.toArray(new String[]{}));
+        runMain(argsList.toArray(new String[]{}));
         assert false;
     }
 }
@@ -52,7 +52,7 @@ public class MainBasicTest extends MainTest {
     @UseDataProvider
     public void testParserError(String[] args, int exitStatus) {
         exit.expectSystemExitWithStatus(exitStatus);
-        Main.main(args);
+        runMain(args);
         assert false;
     }
 
@@ -67,14 +67,14 @@ public class MainBasicTest extends MainTest {
                         systemOutRule.getLogWithNormalizedLineSeparator());
             }
         });
-        Main.main(new String[]{"--version"});
+        runMain(new String[]{"--version"});
         assert false;
     }
 
     @Test
     public void testHelp() {
         exit.expectSystemExitWithStatus(0);
-        Main.main(new String[]{"--help"});
+        runMain(new String[]{"--help"});
         assert false;
     }
 
@@ -88,7 +88,7 @@ public class MainBasicTest extends MainTest {
                         systemOutRule.getLogWithNormalizedLineSeparator());
             }
         });
-        Main.main(new String[]{"--legal-notice"});
+        runMain(new String[]{"--legal-notice"});
         assert false;
     }
 
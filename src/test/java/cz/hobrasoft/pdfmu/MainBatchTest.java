@@ -0,0 +1,215 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import cz.hobrasoft.pdfmu.error.ErrorType;
+import cz.hobrasoft.pdfmu.jackson.Inspect;
+import cz.hobrasoft.pdfmu.operation.OperationException;
+import cz.hobrasoft.pdfmu.operation.OperationInspect;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.Assertion;
+import org.junit.contrib.java.lang.system.SystemOutRule;
+import org.junit.contrib.java.lang.system.TextFromStandardInputStream;
+import static org.junit.contrib.java.lang.system.TextFromStandardInputStream.emptyStandardInputStream;
+
+/**
+ * @author Filip Bártek
+ */
+public class MainBatchTest extends MainTest {
+
+    @Rule
+    public final SystemOutRule systemOutRule
+            = new SystemOutRule().mute().enableLog();
+
+    @Rule
+    public final TextFromStandardInputStream systemInMock = emptyStandardInputStream();
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static ObjectNode request(Object id, String method, String... params) {
+        ObjectNode request = MAPPER.createObjectNode();
+        request.put("jsonrpc", "2.0");
+        request.set("id", MAPPER.valueToTree(id));
+        request.put("method", method);
+        ArrayNode array = request.putArray("params");
+        for (String param : params) {
+            array.add(param);
+        }
+        return request;
+    }
+
+    /**
+     * @return the responses by their ids
+     */
+    private Map<Integer, JsonNode> responses() throws IOException {
+        Map<Integer, JsonNode> responses = new HashMap<>();
+        for (String line : systemOutRule.getLog().replace("\r\n", "\n").split("\n")) {
+            JsonNode response = MAPPER.readTree(line);
+            responses.put(response.get("id").asInt(), response);
+        }
+        return responses;
+    }
+
+    private static void assertError(ErrorType expected, JsonNode response) {
+        Assert.assertNotNull(response.toString(), response.get("error"));
+        Assert.assertEquals(expected.getCode(), response.get("error").get("code").asInt());
+    }
+
+    @Test
+    public void testPipeline() throws IOException {
+        testPipeline("batch", "--cpu-threads", "2", "--sync-batch", "4");
+    }
+
+    /**
+     * Without Java 21, the process stage falls back to platform threads.
+     */
+    @Test
+    public void testVirtualThreads() throws IOException {
+        testPipeline("batch", "--virtual-threads", "--cpu-threads", "2", "--max-in-flight", "4");
+    }
+
+    /**
+     * A budget that admits one request at a time
+     */
+    @Test
+    public void testMemoryBudget() throws IOException {
+        testPipeline("batch", "--virtual-threads", "--max-in-flight", "8", "--memory-budget", "2");
+    }
+
+    @Test
+    public void testMemoryBudgetExceeded() throws IOException {
+        File inFile = BLANK_12_PDF.getFile(folder);
+        final File outFile = newFile("out.pdf", false);
+
+        systemInMock.provideLines(
+                request(1, "update-version", inFile.getAbsolutePath(), "--out", outFile.getAbsolutePath()).toString());
+
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() throws IOException {
+                assertError(ErrorType.SERVER_MEMORY_BUDGET, responses().get(1));
+                Assert.assertFalse(outFile.exists());
+            }
+        });
+        runMain(new String[]{"batch", "--memory-budget", "1"});
+        assert false;
+    }
+
+    private void testPipeline(String... args) throws IOException {
+        File inFile = BLANK_12_PDF.getFile(folder);
+        File keystoreFile = new FileResource("1.p12").getFile(folder);
+        final int n = 8;
+        String[] requests = new String[n + 1];
+        final File[] outFiles = new File[n];
+        for (int i = 0; i < n; ++i) {
+            outFiles[i] = newFile(String.format("out%d.pdf", i), false);
+            if (i % 2 == 0) {
+                requests[i] = request(i, "sign", inFile.getAbsolutePath(), "--out", outFiles[i].getAbsolutePath(),
+                        "--keystore", keystoreFile.getAbsolutePath()).toString();
+            } else {
+                requests[i] = request(i, "update-version", inFile.getAbsolutePath(), "--out", outFiles[i].getAbsolutePath(),
+                        "--version", "1.6").toString();
+            }
+        }
+        requests[n] = request(n, "inspect", new File(folder.getRoot(), "missing.pdf").getAbsolutePath()).toString();
+        systemInMock.provideLines(requests);
+
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() throws IOException, OperationException {
+                Map<Integer, JsonNode> responses = responses();
+                Assert.assertEquals(n + 1, responses.size());
+                for (int i = 0; i < n; ++i) {
+                    Assert.assertNotNull(responses.get(i).toString(), responses.get(i).get("result"));
+                    Inspect inspect = OperationInspect.getInstance().execute(outFiles[i]);
+                    if (i % 2 == 0) {
+                        Assert.assertEquals(1, inspect.signatures.signatures.size());
+                    } else {
+                        Assert.assertEquals("1.6", inspect.version);
+                    }
+                }
+                assertError(ErrorType.INPUT_NOT_FOUND, responses.get(n));
+            }
+        });
+        runMain(args);
+        assert false;
+    }
+
+    @Test
+    public void testWriteFailure() throws IOException {
+        File inFile = BLANK_12_PDF.getFile(folder);
+        final File outFile = new File(new File(folder.getRoot(), "missing"), "out.pdf");
+        final File okFile = newFile("ok.pdf", false);
+
+        systemInMock.provideLines(
+                request(1, "update-version", inFile.getAbsolutePath(), "--out", outFile.getAbsolutePath()).toString(),
+                request(2, "update-version", inFile.getAbsolutePath(), "--out", okFile.getAbsolutePath()).toString(),
+                "not json");
+
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() throws IOException {
+                String[] lines = systemOutRule.getLog().replace("\r\n", "\n").split("\n");
+                Assert.assertEquals(3, lines.length);
+                Map<Integer, JsonNode> responses = responses();
+                assertError(ErrorType.OUTPUT_OPEN, responses.get(1));
+                Assert.assertFalse(outFile.exists());
+                Assert.assertNotNull(responses.get(2).get("result"));
+                Assert.assertTrue(okFile.exists());
+            }
+        });
+        runMain(new String[]{"batch", "--no-sync"});
+        assert false;
+    }
+
+    @Test
+    public void testTimeout() throws IOException {
+        File inFile = BLANK_12_PDF.getFile(folder);
+        final File outFile = newFile("out.pdf", false);
+        final File dir = outFile.getParentFile();
+        final int fileCount = dir.list().length;
+
+        ObjectNode request = request(1, "update-version", inFile.getAbsolutePath(), "--out", outFile.getAbsolutePath());
+        request.put("timeout", 0.000001);
+        systemInMock.provideLines(request.toString());
+
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() throws IOException {
+                assertError(ErrorType.REQUEST_TIMEOUT, responses().get(1));
+                Assert.assertFalse(outFile.exists());
+                Assert.assertEquals(fileCount, dir.list().length);
+            }
+        });
+        runMain(new String[]{"batch"});
+        assert false;
+    }
+}
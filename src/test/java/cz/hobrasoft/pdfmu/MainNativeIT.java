@@ -0,0 +1,59 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu;
+
+import java.security.Security;
+import java.util.logging.LogManager;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+
+/**
+ * Runs the command line tests against a PDFMU executable
+ *
+ * <p>
+ * Set the system property {@value MainTest#EXECUTABLE_PROPERTY} to the path of
+ * the executable, for example the native image built by the profile
+ * "native". The suite is skipped if the property is not set.
+ *
+ * @author Filip Bártek
+ */
+@RunWith(Suite.class)
+@Suite.SuiteClasses({
+    MainBasicTest.class,
+    MainUpdateVersionTest.class,
+    MainAttachTest.class,
+    MainSignTest.class,
+    MainSignEcdsaTest.class,
+    MainSignTsaTest.class,
+    MainTimestampQueueTest.class,
+    MainOutputFormatTest.class
+})
+public class MainNativeIT {
+
+    @BeforeClass
+    public static void assumeExecutable() {
+        Assume.assumeNotNull(System.getProperty(MainTest.EXECUTABLE_PROPERTY));
+
+        // The assertions expect the state that running PDFMU in this JVM leaves behind:
+        // the provider that verifies the signatures is registered and the loggers are disabled.
+        Security.addProvider(new BouncyCastleProvider());
+        LogManager.getLogManager().reset();
+    }
+}
@@ -0,0 +1,201 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import cz.hobrasoft.pdfmu.error.ErrorType;
+import java.io.File;
+import java.io.IOException;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.Assertion;
+import org.junit.contrib.java.lang.system.SystemOutRule;
+
+/**
+ * @author Filip Bártek
+ */
+public class MainOutputFormatTest extends MainTest {
+
+    @Rule
+    public final SystemOutRule systemOutRule
+            = new SystemOutRule().mute().enableLog();
+
+    private static String[] lines(String log) {
+        return log.replace("\r\n", "\n").split("\n");
+    }
+
+    @Test
+    public void testJsonLines() throws IOException {
+        File file = BLANK_12_PDF.getFile(folder);
+        String[] args = new String[]{"--output-format", "jsonl", "inspect", file.getAbsolutePath()};
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() throws IOException {
+                String[] lines = lines(systemOutRule.getLog());
+                Assert.assertEquals(1, lines.length);
+                JsonNode result = new ObjectMapper().readTree(lines[0]).get("result");
+                Assert.assertEquals("1.2", result.get("version").asText());
+                Assert.assertEquals("", systemErrRule.getLog());
+            }
+        });
+        runMain(args);
+        assert false;
+    }
+
+    @Test
+    public void testJsonLinesError() throws IOException {
+        File file = BLANK_12_PDF.getFile(folder);
+        String[] args = new String[]{"--output-format", "jsonl", "update-version", file.getAbsolutePath(),
+            "--out", file.getAbsolutePath()};
+        final int code = ErrorType.OUTPUT_EXISTS_FORCE_NOT_SET.getCode();
+        exit.expectSystemExitWithStatus(code);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() throws IOException {
+                String[] lines = lines(systemOutRule.getLog());
+                Assert.assertEquals(1, lines.length);
+                JsonNode error = new ObjectMapper().readTree(lines[0]).get("error");
+                Assert.assertEquals(code, error.get("code").asInt());
+            }
+        });
+        runMain(args);
+        assert false;
+    }
+
+    @Test
+    public void testResultFile() throws IOException {
+        File file = BLANK_12_PDF.getFile(folder);
+        final File resultFile = newFile("result.json", false);
+        String[] args = new String[]{"--output-format", "json", "--result-file", resultFile.getAbsolutePath(),
+            "inspect", file.getAbsolutePath()};
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() throws IOException {
+                JsonNode result = new ObjectMapper().readTree(resultFile).get("result");
+                Assert.assertEquals("1.2", result.get("version").asText());
+                Assert.assertEquals("", systemErrRule.getLog());
+                Assert.assertEquals("", systemOutRule.getLog());
+            }
+        });
+        runMain(args);
+        assert false;
+    }
+
+    @Test
+    public void testResultFileText() throws IOException {
+        File file = BLANK_12_PDF.getFile(folder);
+        final File resultFile = newFile("result.txt", false);
+        String[] args = new String[]{"--result-file", resultFile.getAbsolutePath(),
+            "inspect", file.getAbsolutePath()};
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() {
+                Assert.assertTrue(resultFile.length() > 0);
+            }
+        });
+        runMain(args);
+        assert false;
+    }
+
+    @Test
+    public void testTimings() throws IOException {
+        File file = BLANK_12_PDF.getFile(folder);
+        File outFile = newFile("out.pdf", false);
+        String[] args = new String[]{"--output-format", "jsonl", "--timings", "update-version", file.getAbsolutePath(),
+            "--out", outFile.getAbsolutePath(), "--version", "1.6"};
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() throws IOException {
+                JsonNode timings = new ObjectMapper().readTree(systemOutRule.getLog()).get("timings");
+                long sum = 0;
+                for (String phase : new String[]{"parse", "open", "operation", "stamperClose", "write"}) {
+                    Assert.assertTrue(phase, timings.has(phase));
+                    sum += timings.get(phase).asLong();
+                }
+                Assert.assertFalse(timings.has("tsa"));
+                Assert.assertEquals(timings.get("total").asLong(), sum);
+            }
+        });
+        runMain(args);
+        assert false;
+    }
+
+    @Test
+    public void testNoTimings() throws IOException {
+        File file = BLANK_12_PDF.getFile(folder);
+        String[] args = new String[]{"--output-format", "jsonl", "inspect", file.getAbsolutePath()};
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() throws IOException {
+                Assert.assertFalse(new ObjectMapper().readTree(systemOutRule.getLog()).has("timings"));
+            }
+        });
+        runMain(args);
+        assert false;
+    }
+
+    private void testBinary(String format, final ObjectMapper mapper) throws IOException {
+        File file = BLANK_12_PDF.getFile(folder);
+        final File resultFile = newFile("result.bin", false);
+        String[] args = new String[]{"--output-format", format, "--result-file", resultFile.getAbsolutePath(),
+            "inspect", file.getAbsolutePath()};
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() throws IOException {
+                MappingIterator<JsonNode> it = mapper.readerFor(JsonNode.class).readValues(resultFile);
+                JsonNode result = it.next().get("result");
+                Assert.assertEquals("1.2", result.get("version").asText());
+                Assert.assertFalse(it.hasNext());
+            }
+        });
+        runMain(args);
+        assert false;
+    }
+
+    @Test
+    public void testCbor() throws IOException {
+        testBinary("cbor", new ObjectMapper(new CBORFactory()));
+    }
+
+    @Test
+    public void testSmile() throws IOException {
+        testBinary("smile", new ObjectMapper(new SmileFactory()));
+    }
+
+    @Test
+    public void testResultFileOpen() throws IOException {
+        File file = BLANK_12_PDF.getFile(folder);
+        File resultFile = new File(new File(folder.getRoot(), "missing"), "result.json");
+        String[] args = new String[]{"--output-format", "json", "--result-file", resultFile.getAbsolutePath(),
+            "inspect", file.getAbsolutePath()};
+        exit.expectSystemExitWithStatus(ErrorType.OUTPUT_RESULT_FILE_OPEN.getCode());
+        runMain(args);
+        assert false;
+    }
+
+}
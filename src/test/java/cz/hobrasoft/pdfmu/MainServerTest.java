@@ -0,0 +1,252 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import cz.hobrasoft.pdfmu.error.ErrorType;
+import cz.hobrasoft.pdfmu.operation.signature.KeystoreCache;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.Assertion;
+import org.junit.contrib.java.lang.system.SystemOutRule;
+import org.junit.contrib.java.lang.system.TextFromStandardInputStream;
+import static org.junit.contrib.java.lang.system.TextFromStandardInputStream.emptyStandardInputStream;
+
+/**
+ * @author Filip Bártek
+ */
+public class MainServerTest extends MainTest {
+
+    @Rule
+    public final SystemOutRule systemOutRule
+            = new SystemOutRule().mute().enableLog();
+
+    @Rule
+    public final TextFromStandardInputStream systemInMock = emptyStandardInputStream();
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static String request(Object id, String method, String... params) {
+        ObjectNode request = MAPPER.createObjectNode();
+        request.put("jsonrpc", "2.0");
+        request.set("id", MAPPER.valueToTree(id));
+        request.put("method", method);
+        ArrayNode array = request.putArray("params");
+        for (String param : params) {
+            array.add(param);
+        }
+        return request.toString();
+    }
+
+    private String[] responses() {
+        return systemOutRule.getLog().replace("\r\n", "\n").split("\n");
+    }
+
+    @Test
+    public void testRequests() throws IOException {
+        File inFile = BLANK_12_PDF.getFile(folder);
+        File keystoreFile = new FileResource("1.p12").getFile(folder);
+        File outFile1 = newFile("out1.pdf", false);
+        File outFile2 = newFile("out2.pdf", false);
+        final long hits = KeystoreCache.getHits();
+
+        systemInMock.provideLines(
+                request(1, "inspect", inFile.getAbsolutePath()),
+                request("two", "sign", inFile.getAbsolutePath(), "--out", outFile1.getAbsolutePath(),
+                        "--keystore", keystoreFile.getAbsolutePath()),
+                "",
+                request(3, "sign", inFile.getAbsolutePath(), "--out", outFile2.getAbsolutePath(),
+                        "--keystore", keystoreFile.getAbsolutePath()),
+                "not json",
+                request(5, "server"),
+                request(6, "inspect", "--help"));
+
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() throws IOException {
+                String[] lines = responses();
+                Assert.assertEquals(6, lines.length);
+
+                JsonNode inspect = MAPPER.readTree(lines[0]);
+                Assert.assertEquals(1, inspect.get("id").asInt());
+                Assert.assertEquals("1.2", inspect.get("result").get("version").asText());
+                Assert.assertNotNull(inspect.get("timings"));
+
+                JsonNode sign1 = MAPPER.readTree(lines[1]);
+                Assert.assertEquals("two", sign1.get("id").asText());
+                Assert.assertNotNull(sign1.get("result"));
+                JsonNode sign2 = MAPPER.readTree(lines[2]);
+                Assert.assertEquals(3, sign2.get("id").asInt());
+                Assert.assertNotNull(sign2.get("result"));
+                // The second request reuses the keystore
+                Assert.assertTrue(KeystoreCache.getHits() > hits);
+
+                JsonNode invalid = MAPPER.readTree(lines[3]);
+                Assert.assertTrue(invalid.get("id").isNull());
+                Assert.assertEquals(ErrorType.SERVER_INVALID_REQUEST.getCode(),
+                        invalid.get("error").get("code").asInt());
+
+                JsonNode server = MAPPER.readTree(lines[4]);
+                Assert.assertEquals(5, server.get("id").asInt());
+                Assert.assertEquals(ErrorType.PARSER_UNRECOGNIZED_COMMAND.getCode(),
+                        server.get("error").get("code").asInt());
+
+                JsonNode help = MAPPER.readTree(lines[5]);
+                Assert.assertEquals(6, help.get("id").asInt());
+                Assert.assertEquals(ErrorType.PARSER_UNRECOGNIZED_ARGUMENT.getCode(),
+                        help.get("error").get("code").asInt());
+            }
+        });
+        runMain(new String[]{"--timings", "server"});
+        assert false;
+    }
+
+    @Test
+    public void testWorkers() throws IOException {
+        testConcurrent("server", "--workers", "4");
+    }
+
+    /**
+     * Without Java 21, the server falls back to the workers.
+     */
+    @Test
+    public void testVirtualThreads() throws IOException {
+        testConcurrent("server", "--virtual-threads", "--cpu-threads", "2", "--workers", "2");
+    }
+
+    private void testConcurrent(String... args) throws IOException {
+        File inFile = BLANK_12_PDF.getFile(folder);
+        File keystoreFile = new FileResource("1.p12").getFile(folder);
+        final int n = 8;
+        String[] requests = new String[n];
+        final File[] outFiles = new File[n];
+        for (int i = 0; i < n; ++i) {
+            outFiles[i] = newFile(String.format("out%d.pdf", i), false);
+            if (i % 2 == 0) {
+                requests[i] = request(i, "sign", inFile.getAbsolutePath(), "--out", outFiles[i].getAbsolutePath(),
+                        "--keystore", keystoreFile.getAbsolutePath());
+            } else {
+                requests[i] = request(i, "update-version", inFile.getAbsolutePath(), "--out", outFiles[i].getAbsolutePath(),
+                        "--version", "1.6");
+            }
+        }
+        systemInMock.provideLines(requests);
+
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() throws IOException {
+                String[] lines = responses();
+                Assert.assertEquals(n, lines.length);
+                Set<Integer> ids = new HashSet<>();
+                for (String line : lines) {
+                    JsonNode response = MAPPER.readTree(line);
+                    Assert.assertNotNull(line, response.get("result"));
+                    ids.add(response.get("id").asInt());
+                }
+                Assert.assertEquals(n, ids.size());
+                for (File outFile : outFiles) {
+                    Assert.assertTrue(outFile.exists());
+                }
+            }
+        });
+        runMain(args);
+        assert false;
+    }
+
+    @Test
+    public void testMemoryBudget() throws IOException {
+        File inFile = BLANK_12_PDF.getFile(folder);
+        // Too large to be admitted: its estimated footprint exceeds the budget
+        File largeFile = newFile("large.pdf", false);
+        Files.write(largeFile.toPath(), new byte[1 << 20]);
+
+        systemInMock.provideLines(
+                request(1, "inspect", inFile.getAbsolutePath()),
+                request(2, "inspect", largeFile.getAbsolutePath()));
+
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() throws IOException {
+                String[] lines = responses();
+                Assert.assertEquals(2, lines.length);
+                Assert.assertNotNull(MAPPER.readTree(lines[0]).get("result"));
+                JsonNode rejected = MAPPER.readTree(lines[1]);
+                Assert.assertEquals(2, rejected.get("id").asInt());
+                Assert.assertEquals(ErrorType.SERVER_MEMORY_BUDGET.getCode(),
+                        rejected.get("error").get("code").asInt());
+            }
+        });
+        runMain(new String[]{"server", "--memory-budget", "2"});
+        assert false;
+    }
+
+    private static String withTimeout(String request, double timeout) throws IOException {
+        ObjectNode node = (ObjectNode) MAPPER.readTree(request);
+        node.put("timeout", timeout);
+        return node.toString();
+    }
+
+    @Test
+    public void testTimeout() throws IOException {
+        File inFile = BLANK_12_PDF.getFile(folder);
+        final File outFile = newFile("out.pdf", false);
+
+        systemInMock.provideLines(
+                withTimeout(request(1, "update-version", inFile.getAbsolutePath(), "--out", outFile.getAbsolutePath(),
+                        "--version", "1.6"), 0.000001),
+                request(2, "inspect", inFile.getAbsolutePath()),
+                withTimeout(request(3, "inspect", inFile.getAbsolutePath()), -1));
+
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() throws IOException {
+                String[] lines = responses();
+                Assert.assertEquals(3, lines.length);
+                JsonNode timedOut = MAPPER.readTree(lines[0]);
+                Assert.assertEquals(1, timedOut.get("id").asInt());
+                Assert.assertEquals(ErrorType.REQUEST_TIMEOUT.getCode(),
+                        timedOut.get("error").get("code").asInt());
+                Assert.assertFalse(outFile.exists());
+                Assert.assertNotNull(MAPPER.readTree(lines[1]).get("result"));
+                Assert.assertEquals(ErrorType.SERVER_INVALID_REQUEST.getCode(),
+                        MAPPER.readTree(lines[2]).get("error").get("code").asInt());
+            }
+        });
+        runMain(new String[]{"--timeout", "60", "server"});
+        assert false;
+    }
+
+    @Test
+    public void testMetricsPortInvalid() throws IOException {
+        exit.expectSystemExitWithStatus(ErrorType.SERVER_METRICS_ENDPOINT.getCode());
+        runMain(new String[]{"server", "--metrics-address", "192.0.2.1", "--metrics-port", "0"});
+        assert false;
+    }
+}
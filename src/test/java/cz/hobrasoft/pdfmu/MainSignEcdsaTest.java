@@ -0,0 +1,104 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu;
+
+import com.itextpdf.text.pdf.AcroFields;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.security.PdfPKCS7;
+import com.tngtech.java.junit.dataprovider.DataProvider;
+import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+import com.tngtech.java.junit.dataprovider.UseDataProvider;
+import cz.hobrasoft.pdfmu.jackson.Inspect;
+import cz.hobrasoft.pdfmu.jackson.Signature;
+import cz.hobrasoft.pdfmu.operation.OperationException;
+import cz.hobrasoft.pdfmu.operation.OperationInspect;
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.Assertion;
+import org.junit.runner.RunWith;
+
+/**
+ * @author Filip Bártek
+ */
+@RunWith(DataProviderRunner.class)
+public class MainSignEcdsaTest extends MainTest {
+
+    @DataProvider
+    public static Object[][] dataProviderSign() {
+        return new Object[][]{
+            new Object[]{"ecdsa-p256-changeit.p12", "SHA256", "CMS", "adbe.pkcs7.detached", "1.2.840.10045.4.3.2"},
+            new Object[]{"ecdsa-p256-changeit.p12", "SHA256", "CADES", "ETSI.CAdES.detached", "1.2.840.10045.4.3.2"},
+            new Object[]{"ecdsa-p384-changeit.p12", "SHA384", "CMS", "adbe.pkcs7.detached", "1.2.840.10045.4.3.3"},
+            new Object[]{"ecdsa-p384-changeit.p12", "SHA384", "CADES", "ETSI.CAdES.detached", "1.2.840.10045.4.3.3"}
+        };
+    }
+
+    @Test
+    @UseDataProvider
+    public void testSign(String keystoreFileName, final String digestAlgorithm,
+            String format, final String subFilter, final String signatureAlgorithm) throws IOException {
+        File inFile = BLANK_12_PDF.getFile(folder);
+        File keystoreFile = new FileResource(keystoreFileName).getFile(folder);
+        final File outFile = newFile("out.pdf", false);
+
+        List<String> argsList = new ArrayList<>();
+        argsList.add("sign");
+        argsList.add(inFile.getAbsolutePath());
+        argsList.add("--out");
+        argsList.add(outFile.getAbsolutePath());
+        argsList.add("--keystore");
+        argsList.add(keystoreFile.getAbsolutePath());
+        argsList.add("--keystore-type");
+        argsList.add("pkcs12");
+        argsList.add("--keystore-password");
+        argsList.add("changeit");
+        argsList.add("--digest-algorithm");
+        argsList.add(digestAlgorithm);
+        argsList.add("--format");
+        argsList.add(format);
+
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() throws IOException, OperationException, GeneralSecurityException {
+                Inspect inspect = OperationInspect.getInstance().execute(outFile);
+                Assert.assertEquals(1, inspect.signatures.signatures.size());
+                Signature signature = inspect.signatures.signatures.get(0);
+                Assert.assertEquals(subFilter, signature.format);
+                Assert.assertEquals(digestAlgorithm, signature.digestAlgorithm);
+                Assert.assertEquals("ECDSA", signature.encryptionAlgorithm);
+
+                PdfReader reader = new PdfReader(outFile.getAbsolutePath());
+                try {
+                    AcroFields fields = reader.getAcroFields();
+                    PdfPKCS7 pkcs7 = fields.verifySignature(signature.id);
+                    Assert.assertEquals(signatureAlgorithm, pkcs7.getDigestEncryptionAlgorithmOid());
+                    Assert.assertTrue(pkcs7.verify());
+                } finally {
+                    reader.close();
+                }
+            }
+        });
+        runMain(argsList.toArray(new String[]{}));
+        assert false;
+    }
+}
@@ -16,6 +16,8 @@
  */
 package cz.hobrasoft.pdfmu;
 
+import com.itextpdf.text.pdf.AcroFields;
+import com.itextpdf.text.pdf.PdfReader;
 import com.tngtech.java.junit.dataprovider.DataProvider;
 import com.tngtech.java.junit.dataprovider.DataProviderRunner;
 import com.tngtech.java.junit.dataprovider.UseDataProvider;
@@ -25,8 +27,12 @@ import cz.hobrasoft.pdfmu.jackson.Signature;
 import cz.hobrasoft.pdfmu.jackson.SignatureMetadata;
 import cz.hobrasoft.pdfmu.operation.OperationException;
 import cz.hobrasoft.pdfmu.operation.OperationInspect;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.security.GeneralSecurityException;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -38,6 +44,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
@@ -61,7 +68,7 @@ public class MainSignTest extends MainTest {
             "sign"
         };
         exit.expectSystemExitWithStatus(14);
-        Main.main(args);
+        runMain(args);
         assert false;
     }
 
@@ -84,7 +91,7 @@ public class MainSignTest extends MainTest {
                 Assert.assertFalse(outFile.exists());
             }
         });
-        Main.main(args);
+        runMain(args);
         assert false;
     }
 
@@ -125,7 +132,7 @@ public class MainSignTest extends MainTest {
                 Assert.assertFalse(outFile.exists());
             }
         });
-        Main.main(argsList.toArray(new String[]{}));
+        runMain(argsList.toArray(new String[]{}));
         assert false;
     }
 
@@ -234,7 +241,7 @@ public class MainSignTest extends MainTest {
                 }
             }
         });
-        Main.main(argsList.toArray(new String[]{}));
+        runMain(argsList.toArray(new String[]{}));
         assert false;
     }
 
@@ -262,7 +269,7 @@ public class MainSignTest extends MainTest {
                 Assert.assertFalse(outFile.exists());
             }
         });
-        Main.main(argsList.toArray(new String[]{}));
+        runMain(argsList.toArray(new String[]{}));
         assert false;
     }
 
@@ -290,7 +297,7 @@ public class MainSignTest extends MainTest {
                 Assert.assertTrue(outFile.exists());
             }
         });
-        Main.main(argsList.toArray(new String[]{}));
+        runMain(argsList.toArray(new String[]{}));
         assert false;
     }
 
@@ -318,7 +325,7 @@ public class MainSignTest extends MainTest {
                 Assert.assertFalse(outFile.exists());
             }
         });
-        Main.main(argsList.toArray(new String[]{}));
+        runMain(argsList.toArray(new String[]{}));
         assert false;
     }
 
@@ -348,7 +355,7 @@ public class MainSignTest extends MainTest {
                 Assert.assertFalse(outFile.exists());
             }
         });
-        Main.main(argsList.toArray(new String[]{}));
+        runMain(argsList.toArray(new String[]{}));
         assert false;
     }
 
@@ -378,7 +385,7 @@ public class MainSignTest extends MainTest {
                 Assert.assertTrue(outFile.exists());
             }
         });
-        Main.main(argsList.toArray(new String[]{}));
+        runMain(argsList.toArray(new String[]{}));
         assert false;
     }
 
@@ -408,7 +415,7 @@ public class MainSignTest extends MainTest {
                 Assert.assertTrue(outFile.exists());
             }
         });
-        Main.main(argsList.toArray(new String[]{}));
+        runMain(argsList.toArray(new String[]{}));
         assert false;
     }
 
@@ -440,7 +447,198 @@ public class MainSignTest extends MainTest {
                 Assert.assertTrue(outFile.exists());
             }
         });
-        Main.main(argsList.toArray(new String[]{}));
+        runMain(argsList.toArray(new String[]{}));
+        assert false;
+    }
+
+    @DataProvider
+    public static Object[][] dataProviderCryptoProvider() {
+        return new Object[][]{
+            new Object[]{"auto", "SHA256"},
+            new Object[]{"jdk", "SHA256"},
+            new Object[]{"bc", "SHA256"},
+            new Object[]{"auto", "RIPEMD160"}
+        };
+    }
+
+    @Test
+    @UseDataProvider
+    public void testCryptoProvider(String cryptoProvider, String digestAlgorithm)
+            throws IOException {
+        File inFile = BLANK_12_PDF.getFile(folder);
+        File keystoreFile = new FileResource("1.p12").getFile(folder);
+        final File outFile = newFile("out.pdf", false);
+
+        List<String> argsList = new ArrayList<>();
+        argsList.add("sign");
+        argsList.add(inFile.getAbsolutePath());
+        argsList.add("--out");
+        argsList.add(outFile.getAbsolutePath());
+        argsList.add("--keystore");
+        argsList.add(keystoreFile.getAbsolutePath());
+        argsList.add("--crypto-provider");
+        argsList.add(cryptoProvider);
+        argsList.add("--digest-algorithm");
+        argsList.add(digestAlgorithm);
+
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() throws IOException, GeneralSecurityException {
+                PdfReader reader = new PdfReader(outFile.getAbsolutePath());
+                try {
+                    AcroFields fields = reader.getAcroFields();
+                    Assert.assertTrue(fields.verifySignature("Signature1").verify());
+                } finally {
+                    reader.close();
+                }
+            }
+        });
+        runMain(argsList.toArray(new String[]{}));
+        assert false;
+    }
+
+    @Test
+    public void testCryptoProviderUnsupported() throws IOException {
+        File inFile = BLANK_12_PDF.getFile(folder);
+        File keystoreFile = new FileResource("1.p12").getFile(folder);
+        final File outFile = newFile("out.pdf", false);
+
+        String[] args = new String[]{
+            "sign",
+            inFile.getAbsolutePath(),
+            "--out",
+            outFile.getAbsolutePath(),
+            "--keystore",
+            keystoreFile.getAbsolutePath(),
+            "--crypto-provider",
+            "jdk",
+            "--digest-algorithm",
+            "RIPEMD160"
+        };
+
+        exit.expectSystemExitWithStatus(93);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() {
+                Assert.assertFalse(outFile.exists());
+            }
+        });
+        runMain(args);
+        assert false;
+    }
+
+    private File newSignatureImage() throws IOException {
+        File imageFile = newFile("logo.png", false);
+        BufferedImage image = new BufferedImage(64, 32, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setColor(new Color(0, 0, 255, 128));
+            graphics.fillOval(0, 0, 64, 32);
+        } finally {
+            graphics.dispose();
+        }
+        ImageIO.write(image, "png", imageFile);
+        return imageFile;
+    }
+
+    @Test
+    public void testVisible() throws IOException {
+        File inFile = BLANK_12_PDF.getFile(folder);
+        File keystoreFile = new FileResource("1.p12").getFile(folder);
+        File imageFile = newSignatureImage();
+        final File outFile = newFile("out.pdf", false);
+
+        String[] args = new String[]{
+            "sign",
+            inFile.getAbsolutePath(),
+            "--out",
+            outFile.getAbsolutePath(),
+            "--keystore",
+            keystoreFile.getAbsolutePath(),
+            "--signature-rectangle",
+            "36,36,236,136",
+            "--signature-image",
+            imageFile.getAbsolutePath()
+        };
+
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() throws IOException, GeneralSecurityException {
+                PdfReader reader = new PdfReader(outFile.getAbsolutePath());
+                try {
+                    AcroFields fields = reader.getAcroFields();
+                    Assert.assertTrue(fields.verifySignature("Signature1").verify());
+                    List<AcroFields.FieldPosition> positions = fields.getFieldPositions("Signature1");
+                    Assert.assertEquals(1, positions.size());
+                    Assert.assertEquals(1, positions.get(0).page);
+                    Assert.assertEquals(236, positions.get(0).position.getRight(), 0.01);
+                    Assert.assertEquals(136, positions.get(0).position.getTop(), 0.01);
+                } finally {
+                    reader.close();
+                }
+            }
+        });
+        runMain(args);
+        assert false;
+    }
+
+    @Test
+    public void testVisibleRectangleInvalid() throws IOException {
+        File inFile = BLANK_12_PDF.getFile(folder);
+        File keystoreFile = new FileResource("1.p12").getFile(folder);
+        final File outFile = newFile("out.pdf", false);
+
+        String[] args = new String[]{
+            "sign",
+            inFile.getAbsolutePath(),
+            "--out",
+            outFile.getAbsolutePath(),
+            "--keystore",
+            keystoreFile.getAbsolutePath(),
+            "--signature-rectangle",
+            "236,36,36"
+        };
+
+        exit.expectSystemExitWithStatus(96);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() {
+                Assert.assertFalse(outFile.exists());
+            }
+        });
+        runMain(args);
+        assert false;
+    }
+
+    @Test
+    public void testVisiblePageOutOfRange() throws IOException {
+        File inFile = BLANK_12_PDF.getFile(folder);
+        File keystoreFile = new FileResource("1.p12").getFile(folder);
+        final File outFile = newFile("out.pdf", false);
+
+        String[] args = new String[]{
+            "sign",
+            inFile.getAbsolutePath(),
+            "--out",
+            outFile.getAbsolutePath(),
+            "--keystore",
+            keystoreFile.getAbsolutePath(),
+            "--signature-rectangle",
+            "36,36,236,136",
+            "--signature-page",
+            "2"
+        };
+
+        exit.expectSystemExitWithStatus(95);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() {
+                Assert.assertFalse(outFile.exists());
+            }
+        });
+        runMain(args);
         assert false;
     }
 }
@@ -39,11 +39,8 @@ public class MainSignTsaIT extends MainTest {
         /* category marker */ }
 
     /**
-     * The SSL configuration must be shared among the tests, because it cannot
-     * be re-configured once it is used for the first time. The first test that
-     * sets and uses SSL determines the SSL configuration for the remainder of
-     * the tests. The truststore is stored internally in the JVM so the
-     * truststore file need only be present during the first use.
+     * SSL configuration shared among the tests. Each configuration gets its own
+     * SSL context, so the tests may also use different configurations.
      */
     private List<String> sslArgs() throws IOException {
         List<String> argsList = new ArrayList<>();
@@ -90,7 +87,7 @@ public class MainSignTsaIT extends MainTest {
                 Assert.assertFalse(outFile.exists());
             }
         });
-        Main.main(argsList.toArray(new String[]{}));
+        runMain(argsList.toArray(new String[]{}));
         assert false;
     }
 
@@ -118,7 +115,7 @@ public class MainSignTsaIT extends MainTest {
                 Assert.assertFalse(outFile.exists());
             }
         });
-        Main.main(argsList.toArray(new String[]{}));
+        runMain(argsList.toArray(new String[]{}));
         assert false;
     }
 
@@ -150,7 +147,7 @@ public class MainSignTsaIT extends MainTest {
                 // TODO?: Check the JSON output
             }
         });
-        Main.main(argsList.toArray(new String[]{}));
+        runMain(argsList.toArray(new String[]{}));
         assert false;
     }
 
@@ -180,7 +177,7 @@ public class MainSignTsaIT extends MainTest {
                 Assert.assertFalse(outFile.exists());
             }
         });
-        Main.main(argsList.toArray(new String[]{}));
+        runMain(argsList.toArray(new String[]{}));
         assert false;
     }
 
@@ -212,7 +209,7 @@ public class MainSignTsaIT extends MainTest {
                 Assert.assertFalse(outFile.exists());
             }
         });
-        Main.main(argsList.toArray(new String[]{}));
+        runMain(argsList.toArray(new String[]{}));
         assert false;
     }
 
@@ -246,7 +243,7 @@ public class MainSignTsaIT extends MainTest {
                 Assert.assertFalse(outFile.exists());
             }
         });
-        Main.main(argsList.toArray(new String[]{}));
+        runMain(argsList.toArray(new String[]{}));
         assert false;
     }
 
@@ -294,7 +291,7 @@ public class MainSignTsaIT extends MainTest {
                 // TODO?: Inspect output PDF file
             }
         });
-        Main.main(argsList.toArray(new String[]{}));
+        runMain(argsList.toArray(new String[]{}));
         assert false;
     }
 
@@ -324,7 +321,7 @@ public class MainSignTsaIT extends MainTest {
                 Assert.assertTrue(outFile.exists());
             }
         });
-        Main.main(argsList.toArray(new String[]{}));
+        runMain(argsList.toArray(new String[]{}));
         assert false;
     }
 }
@@ -0,0 +1,243 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.hobrasoft.pdfmu.jackson.Inspect;
+import cz.hobrasoft.pdfmu.operation.OperationException;
+import cz.hobrasoft.pdfmu.operation.OperationInspect;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.Assertion;
+
+/**
+ * Signing with a local timestamp authority.
+ *
+ * @author Filip Bártek
+ */
+public class MainSignTsaTest extends MainTest {
+
+    private TsaStub tsa;
+
+    @Before
+    public void setUp() throws Exception {
+        tsa = new TsaStub();
+    }
+
+    @After
+    public void tearDown() {
+        tsa.close();
+    }
+
+    private List<String> signArgs(File inFile, File outFile) throws IOException {
+        File keystoreFile = new FileResource("1.p12").getFile(folder);
+
+        List<String> argsList = new ArrayList<>();
+        argsList.add("--output-format");
+        argsList.add("json");
+        argsList.add("sign");
+        argsList.add(inFile.getAbsolutePath());
+        argsList.add("--out");
+        argsList.add(outFile.getAbsolutePath());
+        argsList.add("--keystore");
+        argsList.add(keystoreFile.getAbsolutePath());
+        argsList.add("--tsa-url");
+        argsList.add(tsa.getUrl());
+        return argsList;
+    }
+
+    private JsonNode result() throws IOException {
+        return new ObjectMapper().readTree(systemErrRule.getLog()).get("result");
+    }
+
+    @Test
+    public void testLatency() throws IOException {
+        File inFile = BLANK_12_PDF.getFile(folder);
+        final File outFile = newFile("out.pdf", false);
+        tsa.setDelay(50);
+
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() throws IOException, OperationException {
+                Assert.assertTrue(outFile.exists());
+                JsonNode result = result();
+                Assert.assertTrue(result.has("tsaLatency"));
+                Assert.assertTrue(result.get("tsaLatency").asLong() >= 50);
+                Assert.assertEquals(1, tsa.getRequestCount());
+                Inspect inspect = OperationInspect.getInstance().execute(outFile);
+                Assert.assertEquals(1, inspect.signatures.signatures.size());
+            }
+        });
+        runMain(signArgs(inFile, outFile).toArray(new String[]{}));
+        assert false;
+    }
+
+    @Test
+    public void testRetry() throws IOException {
+        File inFile = BLANK_12_PDF.getFile(folder);
+        final File outFile = newFile("out.pdf", false);
+        tsa.failNext(1, 503);
+
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() {
+                Assert.assertTrue(outFile.exists());
+                Assert.assertEquals(2, tsa.getRequestCount());
+            }
+        });
+        runMain(signArgs(inFile, outFile).toArray(new String[]{}));
+        assert false;
+    }
+
+    @Test
+    public void testUnauthorized() throws IOException {
+        File inFile = BLANK_12_PDF.getFile(folder);
+        final File outFile = newFile("out.pdf", false);
+        tsa.failNext(1, 401);
+
+        exit.expectSystemExitWithStatus(63);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() {
+                Assert.assertFalse(outFile.exists());
+                Assert.assertEquals(1, tsa.getRequestCount());
+            }
+        });
+        runMain(signArgs(inFile, outFile).toArray(new String[]{}));
+        assert false;
+    }
+
+    @Test
+    public void testTimeout() throws IOException {
+        File inFile = BLANK_12_PDF.getFile(folder);
+        final File outFile = newFile("out.pdf", false);
+        tsa.setDelay(10000);
+
+        List<String> argsList = signArgs(inFile, outFile);
+        argsList.add(0, "--timeout");
+        argsList.add(1, "1");
+
+        final long start = System.nanoTime();
+        exit.expectSystemExitWithStatus(120);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() throws IOException {
+                Assert.assertTrue(System.nanoTime() - start < 8000000000L);
+                Assert.assertFalse(outFile.exists());
+                Assert.assertEquals("waiting for the TSA",
+                        new ObjectMapper().readTree(systemErrRule.getLog())
+                        .get("error").get("data").get("arguments").get("phase").asText());
+            }
+        });
+        runMain(argsList.toArray(new String[]{}));
+        assert false;
+    }
+
+    @Test
+    public void testHedge() throws Exception {
+        File inFile = BLANK_12_PDF.getFile(folder);
+        final File outFile = newFile("out.pdf", false);
+        final TsaStub fallbackTsa = new TsaStub();
+        tsa.setDelay(3000);
+
+        List<String> argsList = signArgs(inFile, outFile);
+        argsList.add("--tsa-url");
+        argsList.add(fallbackTsa.getUrl());
+        argsList.add("--tsa-hedge-delay");
+        argsList.add("100");
+
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() throws IOException {
+                try {
+                    Assert.assertTrue(outFile.exists());
+                    Assert.assertEquals(fallbackTsa.getUrl(), result().get("tsaUrl").asText());
+                    Assert.assertEquals(1, fallbackTsa.getRequestCount());
+                } finally {
+                    fallbackTsa.close();
+                }
+            }
+        });
+        runMain(argsList.toArray(new String[]{}));
+        assert false;
+    }
+
+    @Test
+    public void testHttps() throws Exception {
+        File inFile = BLANK_12_PDF.getFile(folder);
+        final File outFile = newFile("out.pdf", false);
+        final TsaStub httpsTsa = new TsaStub(true);
+        File truststoreFile = newFile("truststore.jks", false);
+        httpsTsa.writeTruststore(truststoreFile);
+
+        List<String> argsList = signArgs(inFile, outFile);
+        argsList.set(argsList.indexOf(tsa.getUrl()), httpsTsa.getUrl());
+        argsList.add("--ssl-truststore");
+        argsList.add(truststoreFile.getAbsolutePath());
+        argsList.add("--ssl-truststore-password");
+        argsList.add("changeit");
+
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() {
+                try {
+                    Assert.assertTrue(outFile.exists());
+                    Assert.assertEquals(1, httpsTsa.getRequestCount());
+                    // The JVM-wide SSL configuration must stay untouched
+                    Assert.assertNull(System.getProperty("javax.net.ssl.trustStore"));
+                    Assert.assertNull(System.getProperty("javax.net.ssl.trustStorePassword"));
+                } finally {
+                    httpsTsa.close();
+                }
+            }
+        });
+        runMain(argsList.toArray(new String[]{}));
+        assert false;
+    }
+
+    @Test
+    public void testHttpsUntrusted() throws Exception {
+        File inFile = BLANK_12_PDF.getFile(folder);
+        final File outFile = newFile("out.pdf", false);
+        final TsaStub httpsTsa = new TsaStub(true);
+
+        List<String> argsList = signArgs(inFile, outFile);
+        argsList.set(argsList.indexOf(tsa.getUrl()), httpsTsa.getUrl());
+
+        exit.expectSystemExitWithStatus(62);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() {
+                httpsTsa.close();
+                Assert.assertFalse(outFile.exists());
+            }
+        });
+        runMain(argsList.toArray(new String[]{}));
+        assert false;
+    }
+}
@@ -20,6 +20,7 @@ import cz.hobrasoft.pdfmu.jackson.Inspect;
 import cz.hobrasoft.pdfmu.jackson.SignatureDisplay;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -77,6 +78,60 @@ abstract public class MainTest {
         return file;
     }
 
+    /**
+     * The system property with the path of a PDFMU executable. If it is set,
+     * {@link #runMain(String[])} runs the executable instead of
+     * {@link Main#main(String[])}.
+     */
+    public static final String EXECUTABLE_PROPERTY = "pdfmu.executable";
+
+    /**
+     * Runs PDFMU with the arguments and exits with its exit status
+     *
+     * <p>
+     * An external executable inherits the environment of this JVM. Its
+     * standard output and standard error are copied to {@link System#out} and
+     * {@link System#err} so that the rules capture them.
+     *
+     * @param args the command line arguments
+     */
+    protected static void runMain(String[] args) {
+        String executable = System.getProperty(EXECUTABLE_PROPERTY);
+        if (executable == null) {
+            Main.main(args);
+            return;
+        }
+
+        List<String> command = new ArrayList<>();
+        command.add(executable);
+        command.addAll(Arrays.asList(args));
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.environment().clear();
+        pb.environment().putAll(System.getenv());
+        int exitStatus;
+        File out = null;
+        File err = null;
+        try {
+            out = File.createTempFile("pdfmu", ".out");
+            err = File.createTempFile("pdfmu", ".err");
+            pb.redirectOutput(out);
+            pb.redirectError(err);
+            exitStatus = pb.start().waitFor();
+            Files.copy(out.toPath(), System.out);
+            Files.copy(err.toPath(), System.err);
+        } catch (IOException | InterruptedException ex) {
+            throw new AssertionError(String.format("Could not run %s: %s", executable, ex), ex);
+        } finally {
+            if (out != null) {
+                out.delete();
+            }
+            if (err != null) {
+                err.delete();
+            }
+        }
+        System.exit(exitStatus);
+    }
+
     private static final List<String> IGNORED_PROPERTIES
             = Arrays.asList(new String[]{"Producer", "ModDate", "CreationDate"});
 
@@ -0,0 +1,299 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.hobrasoft.pdfmu.jackson.Inspect;
+import cz.hobrasoft.pdfmu.operation.OperationException;
+import cz.hobrasoft.pdfmu.operation.OperationInspect;
+import cz.hobrasoft.pdfmu.operation.signature.TimestampJournal;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.Assertion;
+import org.junit.contrib.java.lang.system.SystemOutRule;
+
+/**
+ * @author Filip Bártek
+ */
+public class MainTimestampQueueTest extends MainTest {
+
+    @Rule
+    public final SystemOutRule systemOutRule
+            = new SystemOutRule().mute().enableLog();
+
+    private TsaStub tsa;
+
+    @Before
+    public void setUp() throws Exception {
+        tsa = new TsaStub();
+    }
+
+    @After
+    public void tearDown() {
+        tsa.close();
+    }
+
+    private JsonNode result() throws IOException {
+        return new ObjectMapper().readTree(systemErrRule.getLog()).get("result");
+    }
+
+    private List<String> queueArgs(File queue) {
+        List<String> argsList = new ArrayList<>();
+        argsList.add("--output-format");
+        argsList.add("json");
+        argsList.add("timestamp-queue");
+        argsList.add(queue.getAbsolutePath());
+        argsList.add("--tsa-url");
+        argsList.add(tsa.getUrl());
+        return argsList;
+    }
+
+    @Test
+    public void testSignEnqueue() throws IOException {
+        File inFile = BLANK_12_PDF.getFile(folder);
+        File keystoreFile = new FileResource("1.p12").getFile(folder);
+        final File outFile = newFile("out.pdf", false);
+        final File queue = new File(folder.getRoot(), "queue");
+
+        List<String> argsList = new ArrayList<>();
+        argsList.add("--output-format");
+        argsList.add("json");
+        argsList.add("sign");
+        argsList.add(inFile.getAbsolutePath());
+        argsList.add("--out");
+        argsList.add(outFile.getAbsolutePath());
+        argsList.add("--keystore");
+        argsList.add(keystoreFile.getAbsolutePath());
+        argsList.add("--tsa-url");
+        argsList.add(tsa.getUrl());
+        argsList.add("--timestamp-queue");
+        argsList.add(queue.getAbsolutePath());
+
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() throws IOException {
+                Assert.assertTrue(outFile.exists());
+                Assert.assertEquals(0, tsa.getRequestCount());
+                Assert.assertTrue(result().has("timestampJob"));
+                Assert.assertEquals(1, new TimestampJournal(queue).getStatus().depth);
+            }
+        });
+        runMain(argsList.toArray(new String[]{}));
+        assert false;
+    }
+
+    @Test
+    public void testProcess() throws IOException {
+        final File file = BLANK_12_PDF.getFile(folder);
+        final File queue = new File(folder.getRoot(), "queue");
+        new TimestampJournal(queue).enqueue(file);
+        new TimestampJournal(queue).enqueue(file);
+
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() throws IOException, OperationException {
+                JsonNode result = result();
+                Assert.assertEquals(2, result.get("processed").asInt());
+                Assert.assertEquals(0, result.get("failed").asInt());
+                Assert.assertEquals(0, result.get("depth").asInt());
+                Assert.assertFalse(result.has("oldestAge"));
+                Assert.assertEquals(2, tsa.getRequestCount());
+                Inspect inspect = OperationInspect.getInstance().execute(file);
+                Assert.assertEquals(2, inspect.signatures.signatures.size());
+            }
+        });
+        runMain(queueArgs(queue).toArray(new String[]{}));
+        assert false;
+    }
+
+    @Test
+    public void testProcessJsonLines() throws IOException {
+        final File file = BLANK_12_PDF.getFile(folder);
+        final File queue = new File(folder.getRoot(), "queue");
+        new TimestampJournal(queue).enqueue(file);
+        new TimestampJournal(queue).enqueue(file);
+
+        List<String> argsList = queueArgs(queue);
+        argsList.set(1, "jsonl");
+
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() throws IOException {
+                String[] lines = systemOutRule.getLogWithNormalizedLineSeparator().split("\n");
+                Assert.assertEquals(3, lines.length);
+                ObjectMapper mapper = new ObjectMapper();
+                for (int i = 0; i < 2; ++i) {
+                    JsonNode document = mapper.readTree(lines[i]).get("result");
+                    Assert.assertEquals(file.getPath(), document.get("file").asText());
+                    Assert.assertTrue(document.get("timestamped").asBoolean());
+                    Assert.assertFalse(document.has("error"));
+                }
+                JsonNode result = mapper.readTree(lines[2]).get("result");
+                Assert.assertEquals(2, result.get("processed").asInt());
+            }
+        });
+        runMain(argsList.toArray(new String[]{}));
+        assert false;
+    }
+
+    @Test
+    public void testProcessFailure() throws IOException {
+        File file = BLANK_12_PDF.getFile(folder);
+        final File queue = new File(folder.getRoot(), "queue");
+        new TimestampJournal(queue).enqueue(file);
+        tsa.failNext(1, 401);
+
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() throws IOException {
+                JsonNode result = result();
+                Assert.assertEquals(0, result.get("processed").asInt());
+                Assert.assertEquals(1, result.get("failed").asInt());
+                Assert.assertEquals(1, result.get("depth").asInt());
+                Assert.assertTrue(result.has("oldestAge"));
+                TimestampJournal journal = new TimestampJournal(queue);
+                // The job waits for a retry
+                Assert.assertTrue(journal.claim(1).isEmpty());
+                List<TimestampJournal.Job> jobs = journal.claim(1, Long.MAX_VALUE);
+                Assert.assertEquals(1, jobs.size());
+                Assert.assertEquals(1, jobs.get(0).attempts);
+                Assert.assertTrue(jobs.get(0).notBefore > System.currentTimeMillis());
+            }
+        });
+        runMain(queueArgs(queue).toArray(new String[]{}));
+        assert false;
+    }
+
+    /**
+     * The document is signed again while the timestamp is being requested.
+     */
+    @Test
+    public void testModifiedMeanwhile() throws IOException {
+        final File file = BLANK_12_PDF.getFile(folder);
+        final File queue = new File(folder.getRoot(), "queue");
+        new TimestampJournal(queue).enqueue(file);
+        final byte[] modified = Arrays.copyOf(Files.readAllBytes(file.toPath()), (int) file.length() + 16);
+        tsa.setRequestListener(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Files.write(file.toPath(), modified);
+                } catch (IOException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+        });
+
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() throws IOException {
+                JsonNode result = result();
+                Assert.assertEquals(0, result.get("processed").asInt());
+                Assert.assertEquals(1, result.get("failed").asInt());
+                Assert.assertEquals(1, result.get("depth").asInt());
+                Assert.assertArrayEquals(modified, Files.readAllBytes(file.toPath()));
+            }
+        });
+        runMain(queueArgs(queue).toArray(new String[]{}));
+        assert false;
+    }
+
+    @Test
+    public void testGiveUp() throws IOException {
+        File file = BLANK_12_PDF.getFile(folder);
+        final File queue = new File(folder.getRoot(), "queue");
+        new TimestampJournal(queue).enqueue(file);
+        tsa.failNext(1, 401);
+
+        List<String> argsList = queueArgs(queue);
+        argsList.add("--max-attempts");
+        argsList.add("1");
+
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() throws IOException {
+                JsonNode result = result();
+                Assert.assertEquals(1, result.get("failed").asInt());
+                Assert.assertEquals(0, result.get("depth").asInt());
+                Assert.assertEquals(1, result.get("dead").asInt());
+                Assert.assertTrue(new TimestampJournal(queue).claim(1, Long.MAX_VALUE).isEmpty());
+            }
+        });
+        runMain(argsList.toArray(new String[]{}));
+        assert false;
+    }
+
+    @Test
+    public void testBackoff() {
+        Assert.assertEquals(TimestampJournal.BACKOFF_BASE, TimestampJournal.getBackoff(1));
+        Assert.assertEquals(2 * TimestampJournal.BACKOFF_BASE, TimestampJournal.getBackoff(2));
+        Assert.assertEquals(TimestampJournal.BACKOFF_CAP, TimestampJournal.getBackoff(100));
+    }
+
+    @Test
+    public void testStatus() throws IOException {
+        File file = BLANK_12_PDF.getFile(folder);
+        File queue = new File(folder.getRoot(), "queue");
+        new TimestampJournal(queue).enqueue(file);
+
+        List<String> argsList = new ArrayList<>();
+        argsList.add("--output-format");
+        argsList.add("json");
+        argsList.add("timestamp-queue");
+        argsList.add(queue.getAbsolutePath());
+        argsList.add("--status");
+
+        exit.expectSystemExitWithStatus(0);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() throws IOException {
+                JsonNode result = result();
+                Assert.assertEquals(0, result.get("processed").asInt());
+                Assert.assertEquals(1, result.get("depth").asInt());
+                Assert.assertTrue(result.get("oldestAge").asLong() >= 0);
+                Assert.assertEquals(0, tsa.getRequestCount());
+            }
+        });
+        runMain(argsList.toArray(new String[]{}));
+        assert false;
+    }
+
+    @Test
+    public void testNoTsa() throws IOException {
+        File queue = new File(folder.getRoot(), "queue");
+        String[] args = new String[]{"timestamp-queue", queue.getAbsolutePath()};
+        exit.expectSystemExitWithStatus(102);
+        runMain(args);
+        assert false;
+    }
+}
@@ -24,8 +24,10 @@ import cz.hobrasoft.pdfmu.operation.OperationException;
 import cz.hobrasoft.pdfmu.operation.OperationInspect;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
+import org.junit.Assert;
 import org.junit.Test;
 import org.junit.contrib.java.lang.system.Assertion;
 import org.junit.rules.TemporaryFolder;
@@ -216,7 +218,25 @@ public class MainUpdateVersionTest extends MainTest {
                 assertEquals(expectedInspect, actualInspect);
             }
         });
-        Main.main(argsList.toArray(new String[]{}));
+        runMain(argsList.toArray(new String[]{}));
+        assert false;
+    }
+
+    @Test
+    public void testTimeoutInPlace() throws IOException {
+        final File document = PdfVersion.V12.getBlankFile(folder);
+        final byte[] original = Files.readAllBytes(document.toPath());
+        final File dir = document.getParentFile();
+        final int fileCount = dir.list().length;
+        exit.expectSystemExitWithStatus(120);
+        exit.checkAssertionAfterwards(new Assertion() {
+            @Override
+            public void checkAssertion() throws IOException {
+                Assert.assertArrayEquals(original, Files.readAllBytes(document.toPath()));
+                Assert.assertEquals(fileCount, dir.list().length);
+            }
+        });
+        runMain(new String[]{"--timeout", "0.000001", "update-version", document.getAbsolutePath(), "--force"});
         assert false;
     }
 
@@ -0,0 +1,81 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu;
+
+import cz.hobrasoft.pdfmu.operation.Operation;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.Subparsers;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Filip Bártek
+ */
+public class OperationRegistryTest {
+
+    private final OperationRegistry registry = OperationRegistry.createDefault();
+
+    @Test
+    public void testLoadAll() {
+        for (String name : registry.getNames()) {
+            Operation operation = registry.get(name);
+            Assert.assertNotNull(name, operation);
+            Assert.assertSame(operation, registry.get(name));
+        }
+    }
+
+    @Test
+    public void testUnknown() {
+        Assert.assertNull(registry.get("unknown"));
+        Assert.assertNull(registry.getHelp("unknown"));
+    }
+
+    /**
+     * Only the selected operation is loaded.
+     */
+    @Test
+    public void testAddSubparsersLazy() {
+        OperationRegistry r = new OperationRegistry();
+        r.register("inspect", "cz.hobrasoft.pdfmu.operation.OperationInspect", "inspect");
+        r.register("missing", "cz.hobrasoft.pdfmu.operation.Missing", "missing");
+
+        ArgumentParser parser = ArgumentParsers.newArgumentParser("pdfmu");
+        Subparsers subparsers = parser.addSubparsers().dest("operation");
+        Operation operation = r.addSubparsers(subparsers, "inspect");
+        Assert.assertSame(r.get("inspect"), operation);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMissingClass() {
+        OperationRegistry r = new OperationRegistry();
+        r.register("missing", "cz.hobrasoft.pdfmu.operation.Missing", "missing");
+        r.get("missing");
+    }
+
+    @Test
+    public void testFindOperationName() {
+        Assert.assertEquals("inspect", Main.findOperationName(new String[]{"inspect", "a.pdf"}, registry));
+        Assert.assertEquals("sign", Main.findOperationName(new String[]{"--output-format", "json", "sign", "--help"}, registry));
+        Assert.assertEquals("attach", Main.findOperationName(new String[]{"--output-format=json", "attach"}, registry));
+        Assert.assertEquals("attach", Main.findOperationName(new String[]{"--output", "json", "attach"}, registry));
+        Assert.assertEquals("inspect", Main.findOperationName(new String[]{"--", "inspect"}, registry));
+        Assert.assertNull(Main.findOperationName(new String[]{"--output-format", "inspect"}, registry));
+        Assert.assertNull(Main.findOperationName(new String[]{"unknown", "inspect"}, registry));
+        Assert.assertNull(Main.findOperationName(new String[]{"--help"}, registry));
+    }
+}
@@ -0,0 +1,161 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu;
+
+import com.itextpdf.text.ExceptionConverter;
+import cz.hobrasoft.pdfmu.error.ErrorType;
+import cz.hobrasoft.pdfmu.jackson.Timings;
+import cz.hobrasoft.pdfmu.operation.OperationException;
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Filip Bártek
+ */
+public class RequestContextTest {
+
+    @After
+    public void tearDown() {
+        RequestContext.end();
+    }
+
+    @Test
+    public void testDisabled() {
+        RequestContext.record(RequestContext.Phase.OPEN, RequestContext.now());
+        Assert.assertNull(RequestContext.current());
+        Assert.assertNull(RequestContext.currentTimings());
+    }
+
+    @Test
+    public void testPhases() {
+        RequestContext context = RequestContext.begin(RequestContext.now() - 1000000, true);
+        context.add(RequestContext.Phase.OPEN, 100);
+        context.add(RequestContext.Phase.OPEN, 200);
+        context.add(RequestContext.Phase.WRITE, 400);
+        Timings timings = RequestContext.currentTimings();
+        Assert.assertEquals(Long.valueOf(300), timings.open);
+        Assert.assertEquals(Long.valueOf(400), timings.write);
+        Assert.assertNull(timings.parse);
+        Assert.assertNull(timings.tsa);
+        Assert.assertNull(timings.stamperClose);
+        Assert.assertTrue(timings.total >= 1000000);
+        Assert.assertEquals(timings.total - 700, timings.operation.longValue());
+    }
+
+    @Test
+    public void testEnd() {
+        RequestContext.begin(RequestContext.now(), true);
+        RequestContext.end();
+        Assert.assertNull(RequestContext.current());
+    }
+
+    @Test
+    public void testNotReported() {
+        RequestContext context = RequestContext.begin(RequestContext.now(), false);
+        context.setId(7);
+        RequestContext.record(RequestContext.Phase.TSA, RequestContext.now());
+        RequestContext.countRead(100);
+        RequestContext.countWritten(200);
+        Assert.assertNull(RequestContext.currentTimings());
+        Assert.assertEquals(7, RequestContext.currentId());
+        Assert.assertNotNull(context.getDuration(RequestContext.Phase.TSA));
+        Assert.assertNull(context.getDuration(RequestContext.Phase.OPEN));
+        Assert.assertEquals(100, context.getBytesRead());
+        Assert.assertEquals(200, context.getBytesWritten());
+    }
+
+    @Test
+    public void testNoDeadline() throws OperationException {
+        RequestContext.begin(RequestContext.now(), false);
+        RequestContext.checkDeadline("testing");
+        Assert.assertFalse(RequestContext.hasDeadline());
+        Assert.assertEquals(Long.MAX_VALUE, RequestContext.remainingMillis());
+        Assert.assertNull(RequestContext.translateTimeout(new DeadlineExceededException("testing")));
+    }
+
+    @Test
+    public void testDeadline() throws OperationException {
+        RequestContext context = RequestContext.begin(RequestContext.now(), false);
+        context.setTimeout(60.0);
+        RequestContext.checkDeadline("testing");
+        Assert.assertTrue(RequestContext.hasDeadline());
+        Assert.assertFalse(context.isExpired());
+        long remaining = RequestContext.remainingMillis();
+        Assert.assertTrue(remaining > 59000 && remaining <= 60000);
+    }
+
+    @Test
+    public void testExpired() {
+        RequestContext context = RequestContext.begin(RequestContext.now() - 2000000000L, false);
+        context.setTimeout(1.0);
+        Assert.assertTrue(context.isExpired());
+        Assert.assertEquals(1, RequestContext.remainingMillis());
+        try {
+            RequestContext.checkDeadline("testing");
+            Assert.fail();
+        } catch (OperationException ex) {
+            Assert.assertEquals(ErrorType.REQUEST_TIMEOUT.getCode(), ex.getCode());
+            Assert.assertEquals("testing", ex.getMessageArguments().get("phase"));
+        }
+        try {
+            RequestContext.checkDeadlineIO("testing");
+            Assert.fail();
+        } catch (DeadlineExceededException ex) {
+            Assert.assertEquals("testing", ex.getPhase());
+        }
+    }
+
+    @Test
+    public void testTranslateTimeout() {
+        RequestContext context = RequestContext.begin(RequestContext.now(), false);
+        context.setTimeout(1.0);
+        Exception wrapped = new ExceptionConverter(new IOException(new DeadlineExceededException("reading the input")));
+        OperationException timeout = RequestContext.translateTimeout(
+                new OperationException(ErrorType.INPUT_NOT_VALID_PDF, wrapped));
+        Assert.assertNotNull(timeout);
+        Assert.assertEquals(ErrorType.REQUEST_TIMEOUT.getCode(), timeout.getCode());
+        Assert.assertEquals("reading the input", timeout.getMessageArguments().get("phase"));
+        Assert.assertNotNull(RequestContext.translateTimeout(wrapped));
+        Assert.assertNull(RequestContext.translateTimeout(new OperationException(ErrorType.INPUT_NOT_VALID_PDF)));
+    }
+
+    @Test
+    public void testProcessorPermits() {
+        Semaphore permits = new Semaphore(1);
+        RequestContext.acquireProcessor(); // No request
+        RequestContext context = RequestContext.begin(RequestContext.now(), false);
+        RequestContext.acquireProcessor(); // No permits
+        context.setProcessorPermits(permits);
+        RequestContext.acquireProcessor();
+        RequestContext.acquireProcessor();
+        Assert.assertEquals(0, permits.availablePermits());
+        RequestContext.releaseProcessor();
+        RequestContext.releaseProcessor();
+        Assert.assertEquals(1, permits.availablePermits());
+    }
+
+    @Test
+    public void testFormatTimings() {
+        Timings timings = new Timings();
+        timings.parse = 1500000L;
+        timings.total = 2000000L;
+        Assert.assertEquals(String.format("parse %.3f ms, total %.3f ms", 1.5, 2.0), Main.formatTimings(timings));
+    }
+}
@@ -0,0 +1,276 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AccessDescription;
+import org.bouncycastle.asn1.x509.AuthorityInformationAccess;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.CRLDistPoint;
+import org.bouncycastle.asn1.x509.DistributionPoint;
+import org.bouncycastle.asn1.x509.DistributionPointName;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.BasicOCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPException;
+import org.bouncycastle.cert.ocsp.OCSPReq;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.Req;
+import org.bouncycastle.cert.ocsp.RespID;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+/**
+ * Local OCSP responder and CRL distribution point for tests.
+ *
+ * <p>
+ * The stub generates a certification authority and a signing certificate
+ * issued by it. The signing certificate points to the OCSP responder and to
+ * the CRL of the stub, which listen on the loopback interface on a random
+ * port. The responses report every certificate as good and the CRL is empty.
+ *
+ * @author Filip Bártek
+ */
+public class RevocationStub implements AutoCloseable {
+
+    public static final String PASSWORD = "changeit";
+    public static final String ALIAS = "signer";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final KeyPair caKeyPair;
+    private final X509Certificate caCertificate;
+    private final KeyPair signerKeyPair;
+    private final X509Certificate signerCertificate;
+
+    private volatile long nextUpdateDelay = TimeUnit.HOURS.toMillis(1);
+    private volatile boolean ocspAvailable = true;
+    private int ocspRequestCount = 0;
+    private int crlRequestCount = 0;
+
+    public RevocationStub() throws IOException, GeneralSecurityException, OperatorCreationException {
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        server = HttpServer.create(address, 0);
+        server.createContext("/ocsp", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleOcsp(exchange);
+            }
+        });
+        server.createContext("/crl", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleCrl(exchange);
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+
+        caKeyPair = generateKeyPair();
+        X500Name caName = new X500Name("CN=PDFMU Test CA");
+        X509v3CertificateBuilder caBuilder = new JcaX509v3CertificateBuilder(
+                caName, BigInteger.ONE, notBefore(), notAfter(), caName, caKeyPair.getPublic());
+        caBuilder.addExtension(Extension.basicConstraints, true, new BasicConstraints(true));
+        caCertificate = new JcaX509CertificateConverter().getCertificate(caBuilder.build(signer()));
+
+        signerKeyPair = generateKeyPair();
+        X509v3CertificateBuilder signerBuilder = new JcaX509v3CertificateBuilder(
+                caName, BigInteger.valueOf(2), notBefore(), notAfter(),
+                new X500Name("CN=PDFMU Test Signer"), signerKeyPair.getPublic());
+        signerBuilder.addExtension(Extension.authorityInfoAccess, false, new AuthorityInformationAccess(
+                AccessDescription.id_ad_ocsp, new GeneralName(GeneralName.uniformResourceIdentifier, getUrl("/ocsp"))));
+        signerBuilder.addExtension(Extension.cRLDistributionPoints, false, new CRLDistPoint(new DistributionPoint[]{
+            new DistributionPoint(new DistributionPointName(new GeneralNames(
+                new GeneralName(GeneralName.uniformResourceIdentifier, getUrl("/crl")))), null, null)}));
+        signerCertificate = new JcaX509CertificateConverter().getCertificate(signerBuilder.build(signer()));
+    }
+
+    private static KeyPair generateKeyPair() throws GeneralSecurityException {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        return keyPairGenerator.generateKeyPair();
+    }
+
+    private static Date notBefore() {
+        return new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1));
+    }
+
+    private static Date notAfter() {
+        return new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1));
+    }
+
+    private ContentSigner signer() throws OperatorCreationException {
+        return new JcaContentSignerBuilder("SHA256withRSA").build(caKeyPair.getPrivate());
+    }
+
+    private String getUrl(String path) {
+        return String.format("http://127.0.0.1:%d%s", server.getAddress().getPort(), path);
+    }
+
+    /**
+     * Saves the signing key with the certificate chain in a PKCS12 keystore
+     * protected by the password {@value #PASSWORD}. The alias of the key is
+     * {@value #ALIAS}.
+     *
+     * @param file the keystore file
+     */
+    public void writeKeystore(File file) throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance("pkcs12");
+        keyStore.load(null, null);
+        keyStore.setKeyEntry(ALIAS, signerKeyPair.getPrivate(), PASSWORD.toCharArray(),
+                new Certificate[]{signerCertificate, caCertificate});
+        try (FileOutputStream os = new FileOutputStream(file)) {
+            keyStore.store(os, PASSWORD.toCharArray());
+        }
+    }
+
+    /**
+     * @param nextUpdateDelay the difference between the nextUpdate time of the
+     * following responses and CRLs and the current time in milliseconds. A
+     * negative value makes them expired.
+     */
+    public void setNextUpdateDelay(long nextUpdateDelay) {
+        this.nextUpdateDelay = nextUpdateDelay;
+    }
+
+    /**
+     * @param ocspAvailable false makes the OCSP responder fail with HTTP 503
+     */
+    public void setOcspAvailable(boolean ocspAvailable) {
+        this.ocspAvailable = ocspAvailable;
+    }
+
+    public synchronized int getOcspRequestCount() {
+        return ocspRequestCount;
+    }
+
+    public synchronized int getCrlRequestCount() {
+        return crlRequestCount;
+    }
+
+    private void handleOcsp(HttpExchange exchange) throws IOException {
+        byte[] requestBytes = readFully(exchange.getRequestBody());
+        synchronized (this) {
+            ++ocspRequestCount;
+        }
+        byte[] responseBytes = null;
+        if (ocspAvailable) {
+            try {
+                OCSPReq request = new OCSPReq(requestBytes);
+                Date now = new Date();
+                BasicOCSPRespBuilder builder = new BasicOCSPRespBuilder(
+                        new RespID(new JcaX509CertificateHolder(caCertificate).getSubject()));
+                for (Req req : request.getRequestList()) {
+                    builder.addResponse(req.getCertID(), CertificateStatus.GOOD, now,
+                            new Date(now.getTime() + nextUpdateDelay), null);
+                }
+                BasicOCSPResp basicResponse = builder.build(signer(),
+                        new X509CertificateHolder[]{new JcaX509CertificateHolder(caCertificate)}, now);
+                OCSPResp response = new OCSPRespBuilder().build(OCSPRespBuilder.SUCCESSFUL, basicResponse);
+                responseBytes = response.getEncoded();
+            } catch (OCSPException | OperatorCreationException | GeneralSecurityException ex) {
+                responseBytes = null;
+            }
+        }
+        send(exchange, responseBytes, "application/ocsp-response");
+    }
+
+    private void handleCrl(HttpExchange exchange) throws IOException {
+        readFully(exchange.getRequestBody());
+        synchronized (this) {
+            ++crlRequestCount;
+        }
+        byte[] responseBytes;
+        try {
+            Date now = new Date();
+            X509v2CRLBuilder builder = new X509v2CRLBuilder(
+                    new JcaX509CertificateHolder(caCertificate).getSubject(), now);
+            builder.setNextUpdate(new Date(now.getTime() + nextUpdateDelay));
+            responseBytes = builder.build(signer()).getEncoded();
+        } catch (OperatorCreationException | GeneralSecurityException ex) {
+            responseBytes = null;
+        }
+        send(exchange, responseBytes, "application/pkix-crl");
+    }
+
+    private static void send(HttpExchange exchange, byte[] responseBytes, String contentType) throws IOException {
+        if (responseBytes == null) {
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, responseBytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(responseBytes);
+        }
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[4096];
+            int bytesRead;
+            while ((bytesRead = is.read(buffer)) >= 0) {
+                baos.write(buffer, 0, bytesRead);
+            }
+        } finally {
+            is.close();
+        }
+        return baos.toByteArray();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,331 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.oiw.OIWObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaCertStore;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoGeneratorBuilder;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.bouncycastle.tsp.TSPAlgorithms;
+import org.bouncycastle.tsp.TSPException;
+import org.bouncycastle.tsp.TimeStampRequest;
+import org.bouncycastle.tsp.TimeStampResponse;
+import org.bouncycastle.tsp.TimeStampResponseGenerator;
+import org.bouncycastle.tsp.TimeStampTokenGenerator;
+
+/**
+ * Local RFC 3161 timestamp authority for tests.
+ *
+ * <p>
+ * The authority listens on the loopback interface on a random port and signs
+ * the tokens with a freshly generated self-signed certificate. Delays,
+ * failures and dropped connections can be injected. The authority can also be served over HTTPS with
+ * another self-signed certificate, which can be saved in a TrustStore.
+ *
+ * @author Filip Bártek
+ */
+public class TsaStub implements AutoCloseable {
+
+    private static final String PASSWORD = "changeit";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final TimeStampResponseGenerator responseGenerator;
+
+    private volatile long delay = 0;
+    private volatile Runnable requestListener = null;
+    private int failuresLeft = 0;
+    private int failureCode = 0;
+    private int dropsLeft = 0;
+    private int requestCount = 0;
+    private long serialNumber = 0;
+    private final Set<Integer> clientPorts = new HashSet<>();
+    private String lastAuthorization = null;
+    private final boolean https;
+    private X509Certificate sslCertificate = null;
+
+    public TsaStub() throws IOException, GeneralSecurityException,
+            OperatorCreationException, TSPException {
+        this(false);
+    }
+
+    /**
+     * @param https serve the authority over HTTPS
+     */
+    public TsaStub(boolean https) throws IOException, GeneralSecurityException,
+            OperatorCreationException, TSPException {
+        this.https = https;
+        KeyPair keyPair = generateKeyPair();
+        X509Certificate certificate = generateCertificate(keyPair, "CN=PDFMU Test TSA",
+                Extension.extendedKeyUsage, new ExtendedKeyUsage(KeyPurposeId.id_kp_timeStamping));
+
+        TimeStampTokenGenerator tokenGenerator = new TimeStampTokenGenerator(
+                new JcaSimpleSignerInfoGeneratorBuilder().build("SHA256withRSA", keyPair.getPrivate(), certificate),
+                new JcaDigestCalculatorProviderBuilder().build().get(new AlgorithmIdentifier(OIWObjectIdentifiers.idSHA1)),
+                new ASN1ObjectIdentifier("1.2.3.4.1"));
+        tokenGenerator.addCertificates(new JcaCertStore(Collections.singletonList(certificate)));
+        responseGenerator = new TimeStampResponseGenerator(tokenGenerator, TSPAlgorithms.ALLOWED);
+
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        if (https) {
+            KeyPair sslKeyPair = generateKeyPair();
+            sslCertificate = generateCertificate(sslKeyPair, "CN=127.0.0.1",
+                    Extension.subjectAlternativeName, new GeneralNames(new GeneralName(GeneralName.iPAddress, "127.0.0.1")));
+            KeyStore keyStore = KeyStore.getInstance("JKS");
+            keyStore.load(null, null);
+            keyStore.setKeyEntry("ssl", sslKeyPair.getPrivate(), PASSWORD.toCharArray(), new Certificate[]{sslCertificate});
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            kmf.init(keyStore, PASSWORD.toCharArray());
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(kmf.getKeyManagers(), null, null);
+            HttpsServer httpsServer = HttpsServer.create(address, 0);
+            httpsServer.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+            server = httpsServer;
+        } else {
+            server = HttpServer.create(address, 0);
+        }
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                TsaStub.this.handle(exchange);
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    private static KeyPair generateKeyPair() throws GeneralSecurityException {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        return keyPairGenerator.generateKeyPair();
+    }
+
+    private static X509Certificate generateCertificate(KeyPair keyPair, String subject,
+            ASN1ObjectIdentifier extension, ASN1Encodable extensionValue)
+            throws IOException, GeneralSecurityException, OperatorCreationException {
+        X500Name name = new X500Name(subject);
+        Date notBefore = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1));
+        Date notAfter = new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1));
+        X509v3CertificateBuilder certificateBuilder = new JcaX509v3CertificateBuilder(
+                name, BigInteger.valueOf(System.nanoTime()), notBefore, notAfter, name, keyPair.getPublic());
+        certificateBuilder.addExtension(extension, true, extensionValue);
+        return new JcaX509CertificateConverter().getCertificate(
+                certificateBuilder.build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate())));
+    }
+
+    public String getUrl() {
+        return String.format("%s://127.0.0.1:%d/tsa", https ? "https" : "http", server.getAddress().getPort());
+    }
+
+    /**
+     * Saves the HTTPS certificate of the authority in a JKS TrustStore
+     * protected by the password {@value #PASSWORD}.
+     *
+     * @param file the TrustStore file
+     */
+    public void writeTruststore(File file) throws IOException, GeneralSecurityException {
+        assert sslCertificate != null;
+        KeyStore trustStore = KeyStore.getInstance("JKS");
+        trustStore.load(null, null);
+        trustStore.setCertificateEntry("tsa", sslCertificate);
+        try (FileOutputStream os = new FileOutputStream(file)) {
+            trustStore.store(os, PASSWORD.toCharArray());
+        }
+    }
+
+    /**
+     * @param delay the delay of every response in milliseconds
+     */
+    public void setDelay(long delay) {
+        this.delay = delay;
+    }
+
+    /**
+     * @param requestListener runs whenever a request arrives, before the
+     * response is sent, or null
+     */
+    public void setRequestListener(Runnable requestListener) {
+        this.requestListener = requestListener;
+    }
+
+    /**
+     * Makes the following requests fail.
+     *
+     * @param count the number of requests to fail
+     * @param code the HTTP status code of the failed responses
+     */
+    public synchronized void failNext(int count, int code) {
+        failuresLeft = count;
+        failureCode = code;
+    }
+
+    /**
+     * Makes the following requests close the connection without a response.
+     *
+     * @param count the number of requests to drop
+     */
+    public synchronized void dropNext(int count) {
+        dropsLeft = count;
+    }
+
+    /**
+     * @return the number of requests received
+     */
+    public synchronized int getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * @return the Authorization header of the last request, or null if it had
+     * none
+     */
+    public synchronized String getLastAuthorization() {
+        return lastAuthorization;
+    }
+
+    /**
+     * @return the number of distinct client connections that sent a request
+     */
+    public synchronized int getConnectionCount() {
+        return clientPorts.size();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] requestBytes = readFully(exchange.getRequestBody());
+        int code;
+        long serial;
+        synchronized (this) {
+            ++requestCount;
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            lastAuthorization = exchange.getRequestHeaders().getFirst("Authorization");
+            if (dropsLeft > 0) {
+                --dropsLeft;
+                // Closes the connection since no response has been sent
+                exchange.close();
+                return;
+            }
+            if (failuresLeft > 0) {
+                --failuresLeft;
+                code = failureCode;
+            } else {
+                code = 200;
+            }
+            serial = ++serialNumber;
+        }
+
+        Runnable listener = requestListener;
+        if (listener != null) {
+            listener.run();
+        }
+
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        byte[] responseBytes;
+        if (code == 200) {
+            try {
+                TimeStampResponse response;
+                synchronized (responseGenerator) {
+                    response = responseGenerator.generate(new TimeStampRequest(requestBytes),
+                            BigInteger.valueOf(serial), new Date());
+                }
+                responseBytes = response.getEncoded();
+            } catch (TSPException | IOException ex) {
+                code = 400;
+                responseBytes = new byte[0];
+            }
+        } else {
+            responseBytes = new byte[0];
+        }
+
+        if (code == 200) {
+            exchange.getResponseHeaders().set("Content-Type", "application/timestamp-reply");
+        }
+        exchange.sendResponseHeaders(code, responseBytes.length == 0 ? -1 : responseBytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(responseBytes);
+        }
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[4096];
+            int bytesRead;
+            while ((bytesRead = is.read(buffer)) >= 0) {
+                baos.write(buffer, 0, bytesRead);
+            }
+        } finally {
+            is.close();
+        }
+        return baos.toByteArray();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
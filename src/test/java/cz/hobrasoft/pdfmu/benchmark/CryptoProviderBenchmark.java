@@ -0,0 +1,126 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.benchmark;
+
+import com.itextpdf.text.pdf.security.ExternalDigest;
+import cz.hobrasoft.pdfmu.operation.signature.CryptoProvider;
+import cz.hobrasoft.pdfmu.operation.signature.PooledPrivateKeySignature;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the JDK and BouncyCastle implementations selected by the option
+ * --crypto-provider.
+ *
+ * <p>
+ * {@link #digest} hashes a multi-megabyte byte range in 8 KiB chunks, the way
+ * {@link com.itextpdf.text.pdf.security.MakeSignature} reads the range
+ * stream. {@link #sign} signs the authenticated attributes.
+ *
+ * @author Filip Bártek
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CryptoProviderBenchmark {
+
+    @State(Scope.Thread)
+    public static class DigestState {
+
+        @Param({"jdk", "bc"})
+        public String cryptoProvider;
+
+        @Param({"SHA256", "SHA512"})
+        public String digestAlgorithm;
+
+        @Param({"4", "32"})
+        public int megabytes;
+
+        private ExternalDigest externalDigest;
+        private byte[] data;
+
+        @Setup
+        public void setUp() {
+            externalDigest = CryptoProvider.fromName(cryptoProvider).getExternalDigest();
+            data = new byte[megabytes * 1024 * 1024];
+            new Random(42).nextBytes(data);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class SignatureState {
+
+        @Param({"jdk", "bc"})
+        public String cryptoProvider;
+
+        @Param({"RSA", "EC"})
+        public String keyAlgorithm;
+
+        private PooledPrivateKeySignature signature;
+        private final byte[] message = new byte[160];
+
+        @Setup
+        public void setUp() throws GeneralSecurityException {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance(keyAlgorithm);
+            if ("EC".equals(keyAlgorithm)) {
+                generator.initialize(new ECGenParameterSpec("secp256r1"));
+            } else {
+                generator.initialize(2048);
+            }
+            PrivateKey pk = generator.generateKeyPair().getPrivate();
+            String encryptionAlgorithm = "EC".equals(keyAlgorithm) ? "ECDSA" : keyAlgorithm;
+            Provider provider = CryptoProvider.fromName(cryptoProvider)
+                    .getProvider("Signature", "SHA256with" + encryptionAlgorithm);
+            signature = new PooledPrivateKeySignature(pk, "SHA256", provider);
+            new Random(42).nextBytes(message);
+        }
+    }
+
+    @Benchmark
+    public byte[] digest(DigestState state) throws GeneralSecurityException {
+        MessageDigest md = state.externalDigest.getMessageDigest(state.digestAlgorithm);
+        byte[] data = state.data;
+        for (int offset = 0; offset < data.length; offset += 8192) {
+            md.update(data, offset, Math.min(8192, data.length - offset));
+        }
+        return md.digest();
+    }
+
+    @Benchmark
+    public byte[] sign(SignatureState state) throws GeneralSecurityException {
+        return state.signature.sign(state.message);
+    }
+}
@@ -0,0 +1,138 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.benchmark;
+
+import cz.hobrasoft.pdfmu.operation.signature.EngineCache;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.Security;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares obtaining the digest and signature engines by provider name, the
+ * way {@link com.itextpdf.text.pdf.security.PrivateKeySignature} does, with
+ * taking them from the {@link EngineCache}, at 1, 8 and 32 threads.
+ *
+ * <p>
+ * Each operation prepares the engines of one signature: it hashes the
+ * authenticated attributes and initializes the signature with the private
+ * key. Signing itself is left out because it costs the same either way.
+ *
+ * @author Filip Bártek
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineCacheBenchmark {
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final String SIGNATURE_ALGORITHM = "SHA256withECDSA";
+
+    @State(Scope.Benchmark)
+    public static class Key {
+
+        private PrivateKey pk;
+        private Provider provider;
+        private final byte[] message = new byte[160];
+
+        @Setup
+        public void setUp() throws GeneralSecurityException {
+            provider = Security.getProvider(BouncyCastleProvider.PROVIDER_NAME);
+            if (provider == null) {
+                provider = new BouncyCastleProvider();
+                Security.addProvider(provider);
+            }
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("EC", provider);
+            generator.initialize(new ECGenParameterSpec("secp256r1"));
+            pk = generator.generateKeyPair().getPrivate();
+            new Random(42).nextBytes(message);
+        }
+    }
+
+    private static void lookup(Key key, Blackhole blackhole) throws GeneralSecurityException {
+        MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM, key.provider.getName());
+        blackhole.consume(md.digest(key.message));
+        Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM, key.provider.getName());
+        signature.initSign(key.pk);
+        blackhole.consume(signature);
+    }
+
+    private static void cached(Key key, Blackhole blackhole) throws GeneralSecurityException {
+        MessageDigest md = EngineCache.getMessageDigest(DIGEST_ALGORITHM, key.provider);
+        blackhole.consume(md.digest(key.message));
+        Signature signature = EngineCache.getSignature(SIGNATURE_ALGORITHM, key.provider);
+        signature.initSign(key.pk);
+        blackhole.consume(signature);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void lookup1(Key key, Blackhole blackhole) throws GeneralSecurityException {
+        lookup(key, blackhole);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void lookup8(Key key, Blackhole blackhole) throws GeneralSecurityException {
+        lookup(key, blackhole);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void lookup32(Key key, Blackhole blackhole) throws GeneralSecurityException {
+        lookup(key, blackhole);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void cached1(Key key, Blackhole blackhole) throws GeneralSecurityException {
+        cached(key, blackhole);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void cached8(Key key, Blackhole blackhole) throws GeneralSecurityException {
+        cached(key, blackhole);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void cached32(Key key, Blackhole blackhole) throws GeneralSecurityException {
+        cached(key, blackhole);
+    }
+}
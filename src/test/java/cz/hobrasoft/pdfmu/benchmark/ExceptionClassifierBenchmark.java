@@ -0,0 +1,147 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.benchmark;
+
+import cz.hobrasoft.pdfmu.ExceptionClassifier;
+import cz.hobrasoft.pdfmu.ExceptionMessagePattern;
+import cz.hobrasoft.pdfmu.error.ErrorType;
+import cz.hobrasoft.pdfmu.operation.OperationException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLHandshakeException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares classifying TSA errors by patterns compiled for each error, as the
+ * signing operation used to do, with a static {@link ExceptionClassifier}.
+ *
+ * <p>
+ * Each operation classifies one error, so the throughput is the error rate
+ * that one thread can sustain. The messages cover a specific pattern, a
+ * general pattern and the fallback.
+ *
+ * @author Filip Bártek
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExceptionClassifierBenchmark {
+
+    @Param({"unauthorized", "alert", "unknown"})
+    public String error;
+
+    private Exception exception;
+
+    private static final ExceptionClassifier CLASSIFIER = new ExceptionClassifier();
+
+    static {
+        CLASSIFIER.put(SSLHandshakeException.class, sslPatterns(), ErrorType.SIGNATURE_ADD_TSA_SSL_HANDSHAKE_EXCEPTION);
+        CLASSIFIER.put(IOException.class, ioPatterns(), ErrorType.SIGNATURE_ADD_FAIL);
+    }
+
+    private static List<ExceptionMessagePattern> sslPatterns() {
+        List<ExceptionMessagePattern> patterns = new ArrayList<>();
+        patterns.add(new ExceptionMessagePattern(ErrorType.SIGNATURE_ADD_TSA_UNTRUSTED,
+                "(sun\\.security\\.validator\\.ValidatorException: )?PKIX path building failed: sun\\.security\\.provider\\.certpath\\.SunCertPathBuilderException: unable to find valid certification path to requested target",
+                new ArrayList<String>()));
+        patterns.add(new ExceptionMessagePattern(ErrorType.SIGNATURE_ADD_TSA_BAD_CERTIFICATE,
+                "Received fatal alert: bad_certificate",
+                new ArrayList<String>()));
+        patterns.add(new ExceptionMessagePattern(ErrorType.SIGNATURE_ADD_TSA_HANDSHAKE_FAILURE,
+                "Received fatal alert: handshake_failure",
+                new ArrayList<String>()));
+        patterns.add(new ExceptionMessagePattern(ErrorType.SIGNATURE_ADD_TSA_SSL_FATAL_ALERT,
+                "Received fatal alert: (?<alert>.*)",
+                Arrays.asList(new String[]{"alert"})));
+        return patterns;
+    }
+
+    private static List<ExceptionMessagePattern> ioPatterns() {
+        List<ExceptionMessagePattern> patterns = new ArrayList<>();
+        patterns.add(new ExceptionMessagePattern(ErrorType.SIGNATURE_ADD_TSA_UNAUTHORIZED,
+                "Server returned HTTP response code: 401 for URL: (?<url>.*)",
+                Arrays.asList(new String[]{"url"})));
+        patterns.add(new ExceptionMessagePattern(ErrorType.SIGNATURE_ADD_TSA_LOGIN_FAIL,
+                "Invalid TSA '(?<url>.*)' response, code (?<code>\\d+)",
+                Arrays.asList(new String[]{"url", "code"})));
+        patterns.add(new ExceptionMessagePattern(ErrorType.SIGNATURE_ADD_FAIL,
+                "unknown tag (?<tag>\\d+) encountered",
+                Arrays.asList(new String[]{"tag"})));
+        return patterns;
+    }
+
+    @Setup
+    public void setUp() {
+        switch (error) {
+            case "unauthorized":
+                exception = new IOException("Server returned HTTP response code: 401 for URL: http://tsa.example.com/tsr");
+                break;
+            case "alert":
+                exception = new SSLHandshakeException("Received fatal alert: unknown_ca");
+                break;
+            case "unknown":
+                exception = new IOException("Connection reset");
+                break;
+            default:
+                throw new IllegalArgumentException(error);
+        }
+    }
+
+    private static OperationException classify(Set<ExceptionMessagePattern> patterns, Exception e, ErrorType fallback) {
+        for (ExceptionMessagePattern p : patterns) {
+            OperationException oe = p.getOperationException(e);
+            if (oe != null) {
+                return oe;
+            }
+        }
+        return new OperationException(fallback, e);
+    }
+
+    /**
+     * Builds the patterns for each error
+     */
+    @Benchmark
+    public OperationException perError() {
+        if (exception instanceof SSLHandshakeException) {
+            return classify(new HashSet<>(sslPatterns()), exception, ErrorType.SIGNATURE_ADD_TSA_SSL_HANDSHAKE_EXCEPTION);
+        }
+        return classify(new HashSet<>(ioPatterns()), exception, ErrorType.SIGNATURE_ADD_FAIL);
+    }
+
+    @Benchmark
+    public OperationException table() {
+        return CLASSIFIER.classify(exception);
+    }
+}
@@ -0,0 +1,113 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.benchmark;
+
+import cz.hobrasoft.pdfmu.Log;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the log messages of a signing request formatted eagerly, as the
+ * operations used to do, with {@link Log}, while the loggers are disabled as
+ * with a JSON output format.
+ *
+ * <p>
+ * Each operation logs the informational messages of one {@code sign}
+ * request. Run with {@code -prof gc} to see the allocation per operation
+ * ({@code gc.alloc.rate.norm}).
+ *
+ * @author Filip Bártek
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LoggingBenchmark {
+
+    private static final Logger LOGGER = Logger.getLogger(LoggingBenchmark.class.getName());
+    private static final Log LOG = Log.getLog(LoggingBenchmark.class);
+
+    private final File inFile = new File("/tmp/in.pdf");
+    private final File outFile = new File("/tmp/out.pdf");
+    private final File keystoreFile = new File("/tmp/keystore.p12");
+    private final String type = "pkcs12";
+    private final String alias = "cn1";
+    private final String digestAlgorithm = "SHA256";
+    private final String provider = "SunRsaSign";
+    private final String sigtype = "CMS";
+    private final int page = 1;
+
+    @Setup
+    public void setUp() {
+        // As `Main` does for the JSON output formats
+        LogManager.getLogManager().reset();
+        Logger.getLogger("").setLevel(Level.OFF);
+    }
+
+    @Benchmark
+    public void eager() {
+        LOGGER.info(String.format("Input file: %s", inFile));
+        LOGGER.info(String.format("Output file: %s", outFile));
+        LOGGER.info(String.format("%s environment variable: %s", "Signing keystore password", "PDFMU_STOREPASS"));
+        LOGGER.info(String.format("%s was not set.", "Signing keystore password"));
+        LOGGER.info(String.format("%s environment variable: %s", "Key password", "PDFMU_KEYPASS"));
+        LOGGER.info(String.format("%s was not set.", "Key password"));
+        LOGGER.info(String.format("Keystore type: %s", type));
+        LOGGER.info(String.format("Keystore file: %s", keystoreFile));
+        LOGGER.info(String.format("Keystore security provider: %s", "SUN"));
+        LOGGER.info(String.format("Keystore entry alias: %s", alias));
+        LOGGER.info(String.format("Digest algorithm: %s", digestAlgorithm));
+        LOGGER.info(String.format("Signature security provider: %s", provider));
+        LOGGER.info(String.format("Cryptographic standard (signature format): %s", sigtype));
+        LOGGER.info(String.format("Visible signature: page %d, rectangle %s", page, "[0, 0, 100, 50]"));
+        LOGGER.info(String.format("Writing the output of the operation to the output file: %s", outFile));
+    }
+
+    @Benchmark
+    public void lazy() {
+        LOG.info("Input file: %s", inFile);
+        LOG.info("Output file: %s", outFile);
+        LOG.info("%s environment variable: %s", "Signing keystore password", "PDFMU_STOREPASS");
+        LOG.info("%s was not set.", "Signing keystore password");
+        LOG.info("%s environment variable: %s", "Key password", "PDFMU_KEYPASS");
+        LOG.info("%s was not set.", "Key password");
+        LOG.info("Keystore type: %s", type);
+        LOG.info("Keystore file: %s", keystoreFile);
+        LOG.info("Keystore security provider: %s", "SUN");
+        LOG.info("Keystore entry alias: %s", alias);
+        LOG.info("Digest algorithm: %s", digestAlgorithm);
+        LOG.info("Signature security provider: %s", provider);
+        LOG.info("Cryptographic standard (signature format): %s", sigtype);
+        LOG.info("Visible signature: page %d, rectangle %s", page, "[0, 0, 100, 50]");
+        LOG.info("Writing the output of the operation to the output file: %s", outFile);
+    }
+}
@@ -0,0 +1,159 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import cz.hobrasoft.pdfmu.jackson.CertificateResult;
+import cz.hobrasoft.pdfmu.jackson.Inspect;
+import cz.hobrasoft.pdfmu.jackson.RpcResponse;
+import cz.hobrasoft.pdfmu.jackson.Signature;
+import cz.hobrasoft.pdfmu.jackson.SignatureDisplay;
+import cz.hobrasoft.pdfmu.jackson.SignatureMetadata;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares encoding and decoding an {@code inspect} response of a document
+ * with two signatures in the output formats json (compact, as in jsonl), cbor
+ * and smile.
+ *
+ * <p>
+ * The responses are decoded to a tree, as a consumer that does not share the
+ * model classes would do. The encoded size of each format is printed by the
+ * setup.
+ *
+ * @author Filip Bártek
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResultEncodingBenchmark {
+
+    @Param({"json", "cbor", "smile"})
+    public String format;
+
+    private ObjectMapper mapper;
+    private ObjectWriter writer;
+    private RpcResponse response;
+    private byte[] encoded;
+
+    private static Map<String, List<String>> name(String cn, String o) {
+        Map<String, List<String>> name = new LinkedHashMap<>();
+        name.put("CN", Arrays.asList(cn));
+        name.put("O", Arrays.asList(o));
+        name.put("C", Arrays.asList("CZ"));
+        return name;
+    }
+
+    private static CertificateResult certificate(String subject, String issuer) {
+        CertificateResult certificate = new CertificateResult();
+        certificate.type = "X.509";
+        certificate.selfSigned = subject.equals(issuer);
+        certificate.subject = name(subject, "Hobrasoft s.r.o.");
+        certificate.issuer = name(issuer, "Hobrasoft s.r.o.");
+        return certificate;
+    }
+
+    private static Signature signature(int revision) {
+        Signature signature = new Signature();
+        signature.id = String.format("Signature%d", revision);
+        signature.coversWholeDocument = revision == 2;
+        signature.revision = revision;
+        signature.format = "adbe.pkcs7.detached";
+        signature.digestAlgorithm = "SHA256";
+        signature.encryptionAlgorithm = "RSA";
+        signature.metadata = new SignatureMetadata();
+        signature.metadata.name = "Filip Bartek";
+        signature.metadata.reason = "Approval";
+        signature.metadata.location = "Prague";
+        signature.metadata.date = "2016-03-01T12:00:00+01:00";
+        signature.certificates = new ArrayList<>();
+        signature.certificates.add(certificate("Signer", "Intermediate CA"));
+        signature.certificates.add(certificate("Intermediate CA", "Root CA"));
+        signature.certificates.add(certificate("Root CA", "Root CA"));
+        return signature;
+    }
+
+    private static Inspect inspect() {
+        Inspect inspect = new Inspect();
+        inspect.version = "1.7";
+        inspect.properties = new LinkedHashMap<>();
+        inspect.properties.put("Producer", "iText 5.5.7");
+        inspect.properties.put("Title", "Contract");
+        inspect.properties.put("Author", "Hobrasoft s.r.o.");
+        inspect.properties.put("CreationDate", "D:20160301120000+01'00'");
+        inspect.properties.put("ModDate", "D:20160301120500+01'00'");
+        inspect.signatures = new SignatureDisplay();
+        inspect.signatures.nRevisions = 2;
+        inspect.signatures.signatures = Arrays.asList(signature(1), signature(2));
+        return inspect;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        switch (format) {
+            case "json":
+                mapper = new ObjectMapper();
+                break;
+            case "cbor":
+                mapper = new ObjectMapper(new CBORFactory());
+                break;
+            case "smile":
+                mapper = new ObjectMapper(new SmileFactory());
+                break;
+            default:
+                throw new IllegalArgumentException(format);
+        }
+        writer = mapper.writer();
+        response = new RpcResponse(inspect());
+        encoded = writer.writeValueAsBytes(response);
+        System.out.println(String.format("%s: %d bytes", format, encoded.length));
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return writer.writeValueAsBytes(response);
+    }
+
+    @Benchmark
+    public JsonNode decode() throws IOException {
+        return mapper.readTree(encoded);
+    }
+}
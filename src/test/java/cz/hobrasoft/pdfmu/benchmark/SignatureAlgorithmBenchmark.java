@@ -0,0 +1,98 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.benchmark;
+
+import com.itextpdf.text.pdf.security.ExternalSignature;
+import com.itextpdf.text.pdf.security.PrivateKeySignature;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Signing throughput of the key types supported by the operation sign.
+ *
+ * <p>
+ * Each invocation signs the DER-encoded authenticated attributes of a CMS
+ * signature the way {@link com.itextpdf.text.pdf.security.MakeSignature} does,
+ * using {@link PrivateKeySignature} with the BouncyCastle provider.
+ *
+ * @author Filip Bártek
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignatureAlgorithmBenchmark {
+
+    @Param({"RSA-2048", "RSA-3072", "EC-P256", "EC-P384"})
+    public String key;
+
+    @Param({"SHA256"})
+    public String digestAlgorithm;
+
+    private ExternalSignature signature;
+
+    // Typical size of the authenticated attributes
+    private final byte[] message = new byte[160];
+
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        BouncyCastleProvider provider = new BouncyCastleProvider();
+        Security.addProvider(provider);
+
+        KeyPairGenerator generator;
+        String[] parts = key.split("-");
+        switch (parts[0]) {
+            case "RSA":
+                generator = KeyPairGenerator.getInstance("RSA");
+                generator.initialize(Integer.parseInt(parts[1]), new SecureRandom());
+                break;
+            case "EC":
+                generator = KeyPairGenerator.getInstance("EC");
+                generator.initialize(new ECGenParameterSpec("secp" + parts[1].substring(1) + "r1"), new SecureRandom());
+                break;
+            default:
+                throw new IllegalArgumentException(key);
+        }
+        signature = new PrivateKeySignature(generator.generateKeyPair().getPrivate(),
+                digestAlgorithm, provider.getName());
+        new Random(42).nextBytes(message);
+    }
+
+    @Benchmark
+    public byte[] sign() throws GeneralSecurityException {
+        return signature.sign(message);
+    }
+}
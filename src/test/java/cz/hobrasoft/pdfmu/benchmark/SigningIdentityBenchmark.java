@@ -0,0 +1,99 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.benchmark;
+
+import com.itextpdf.text.pdf.security.BouncyCastleDigest;
+import com.itextpdf.text.pdf.security.MakeSignature;
+import com.itextpdf.text.pdf.security.PdfPKCS7;
+import cz.hobrasoft.pdfmu.operation.signature.SigningIdentity;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.cert.Certificate;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares encoding the signature containers of a batch of 10000 signatures
+ * with {@link PdfPKCS7}, as {@link MakeSignature#signDetached} does, and with
+ * a cached {@link SigningIdentity}.
+ *
+ * <p>
+ * The signature value is a constant, so the measured time consists of the
+ * encoding only. Each measurement iteration encodes 10000 containers.
+ *
+ * @author Filip Bártek
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, batchSize = 10000)
+@Measurement(iterations = 5, batchSize = 10000)
+@Fork(1)
+@State(Scope.Thread)
+public class SigningIdentityBenchmark {
+
+    private static final String HASH_ALGORITHM = "SHA256";
+
+    @Param({"CMS", "CADES"})
+    public MakeSignature.CryptoStandard sigtype;
+
+    private Certificate[] chain;
+    private final BouncyCastleDigest digest = new BouncyCastleDigest();
+    private final byte[] signature = new byte[256];
+    private byte[] documentDigest;
+
+    @Setup
+    public void setUp() throws IOException, GeneralSecurityException {
+        KeyStore ks = KeyStore.getInstance("pkcs12");
+        try (InputStream in = SigningIdentityBenchmark.class.getResourceAsStream("/1-changeit.p12")) {
+            ks.load(in, "changeit".toCharArray());
+        }
+        chain = ks.getCertificateChain(ks.aliases().nextElement());
+        Arrays.fill(signature, (byte) 0x5a);
+        documentDigest = MessageDigest.getInstance("SHA-256").digest(signature);
+    }
+
+    @Benchmark
+    public byte[] pdfPKCS7() throws GeneralSecurityException {
+        Calendar signingTime = Calendar.getInstance();
+        PdfPKCS7 sgn = new PdfPKCS7(null, chain, HASH_ALGORITHM, null, digest, false);
+        sgn.getAuthenticatedAttributeBytes(documentDigest, signingTime, null, null, sigtype);
+        sgn.setExternalDigest(signature, null, "RSA");
+        return sgn.getEncodedPKCS7(documentDigest, signingTime, null, null, null, sigtype);
+    }
+
+    @Benchmark
+    public byte[] signingIdentity() throws GeneralSecurityException, IOException {
+        SigningIdentity identity = SigningIdentity.getInstance(chain, HASH_ALGORITHM, "RSA", sigtype);
+        byte[] signedAttributes = identity.getSignedAttributes(documentDigest, Calendar.getInstance());
+        return identity.getEncoded(signedAttributes, signature, null);
+    }
+}
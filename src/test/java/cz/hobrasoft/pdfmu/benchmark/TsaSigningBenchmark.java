@@ -0,0 +1,188 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.benchmark;
+
+import cz.hobrasoft.pdfmu.OutputFormat;
+import cz.hobrasoft.pdfmu.RequestContext;
+import cz.hobrasoft.pdfmu.RequestDispatcher;
+import cz.hobrasoft.pdfmu.TsaStub;
+import cz.hobrasoft.pdfmu.VirtualThreads;
+import cz.hobrasoft.pdfmu.WritingMapper;
+import cz.hobrasoft.pdfmu.operation.OperationException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares signing a batch of 64 documents with timestamps from a local TSA
+ * stub that answers after a configurable latency, executed by a pool of one
+ * thread per processor and by one thread per document.
+ *
+ * <p>
+ * In the mode {@code pool}, a document holds its thread while it waits for
+ * the TSA, so the batch takes about {@code 64 / processors} latencies. In the
+ * mode {@code thread-per-document}, every document runs in its own virtual
+ * thread (platform thread in Java older than 21) and holds one of the
+ * processor permits only while it computes, as in {@code server} and
+ * {@code batch} with {@code --virtual-threads}.
+ *
+ * @author Filip Bártek
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TsaSigningBenchmark {
+
+    private static final int DOCUMENTS = 64;
+
+    @Param({"50", "200"})
+    public long latency;
+
+    @Param({"pool", "thread-per-document"})
+    public String mode;
+
+    private TsaStub tsa;
+    private File dir;
+    private File keystore;
+    private File blank;
+    private final List<File> documents = new ArrayList<>();
+    private final int processors = Runtime.getRuntime().availableProcessors();
+
+    @Setup
+    public void setUp() throws Exception {
+        tsa = new TsaStub();
+        tsa.setDelay(latency);
+        dir = Files.createTempDirectory("pdfmu-benchmark").toFile();
+        keystore = copyResource("1.p12");
+        blank = copyResource("blank-12.pdf");
+        for (int i = 0; i < DOCUMENTS; ++i) {
+            documents.add(new File(dir, String.format("document-%d.pdf", i)));
+        }
+    }
+
+    /**
+     * Replaces the documents signed by the previous iteration by unsigned
+     * ones
+     */
+    @Setup(Level.Iteration)
+    public void copyDocuments() throws IOException {
+        for (File document : documents) {
+            Files.copy(blank.toPath(), document.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private File copyResource(String name) throws IOException {
+        File file = new File(dir, name);
+        try (InputStream in = TsaSigningBenchmark.class.getResourceAsStream("/" + name)) {
+            Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return file;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        tsa.close();
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Benchmark
+    public int sign() throws InterruptedException, ExecutionException {
+        ExecutorService executor;
+        Semaphore processorPermits = null;
+        if ("pool".equals(mode)) {
+            executor = Executors.newFixedThreadPool(processors);
+        } else {
+            executor = VirtualThreads.newExecutor("pdfmu-benchmark");
+            if (executor == null) {
+                executor = Executors.newCachedThreadPool();
+            }
+            processorPermits = new Semaphore(processors);
+        }
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (File document : documents) {
+                futures.add(executor.submit(new SignTask(document, processorPermits)));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            return futures.size();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private class SignTask implements Callable<Void> {
+
+        private final File document;
+        private final Semaphore processorPermits;
+
+        private SignTask(File document, Semaphore processorPermits) {
+            this.document = document;
+            this.processorPermits = processorPermits;
+        }
+
+        @Override
+        public Void call() throws OperationException {
+            RequestContext context = RequestContext.begin(RequestContext.now(), false);
+            context.setProcessorPermits(processorPermits);
+            RequestContext.acquireProcessor();
+            try {
+                String[] args = new String[]{document.getAbsolutePath(), "--force",
+                    "--keystore", keystore.getAbsolutePath(),
+                    "--tsa-url", tsa.getUrl(),
+                    "--tsa-max-concurrent", Integer.toString(DOCUMENTS)};
+                WritingMapper wm = new WritingMapper((OutputStream) new NullOutputStream(), OutputFormat.JSONL);
+                RequestDispatcher.createDefault().dispatch("sign", args, wm);
+            } finally {
+                RequestContext.releaseProcessor();
+                RequestContext.end();
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.operation.signature;
+
+import java.security.MessageDigest;
+import java.security.Provider;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Filip Bártek
+ */
+public class CryptoProviderTest {
+
+    @Test
+    public void testGetProvider() {
+        Provider jdk = CryptoProvider.JDK.getProvider("MessageDigest", "SHA-256");
+        Assert.assertNotNull(jdk);
+        Assert.assertNotEquals("BC", jdk.getName());
+        Assert.assertEquals(jdk, CryptoProvider.AUTO.getProvider("MessageDigest", "SHA-256"));
+        Assert.assertEquals("BC", CryptoProvider.BC.getProvider("MessageDigest", "SHA-256").getName());
+        Assert.assertNotEquals("BC", CryptoProvider.AUTO.getProvider("Signature", "SHA256withRSA").getName());
+        Assert.assertEquals("BC", CryptoProvider.AUTO.getProvider("Signature", "SHA256withECDSA").getName());
+    }
+
+    @Test
+    public void testFallback() {
+        Assert.assertNull(CryptoProvider.JDK.getProvider("MessageDigest", "RIPEMD160"));
+        Assert.assertEquals("BC", CryptoProvider.AUTO.getProvider("MessageDigest", "RIPEMD160").getName());
+    }
+
+    @Test
+    public void testExternalDigest() throws Exception {
+        byte[] data = {1, 2, 3};
+        byte[] expected = MessageDigest.getInstance("SHA-256").digest(data);
+        for (CryptoProvider cryptoProvider : CryptoProvider.values()) {
+            MessageDigest md = cryptoProvider.getExternalDigest().getMessageDigest("SHA256");
+            Assert.assertArrayEquals(cryptoProvider.getName(), expected, md.digest(data));
+        }
+        Assert.assertNotNull(CryptoProvider.AUTO.getExternalDigest().getMessageDigest("RIPEMD160"));
+    }
+
+    @Test(expected = java.security.NoSuchAlgorithmException.class)
+    public void testExternalDigestUnsupported() throws Exception {
+        CryptoProvider.JDK.getExternalDigest().getMessageDigest("RIPEMD160");
+    }
+}
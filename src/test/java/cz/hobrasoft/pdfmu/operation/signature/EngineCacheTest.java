@@ -0,0 +1,84 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.operation.signature;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.security.Signature;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Filip Bártek
+ */
+public class EngineCacheTest {
+
+    private static final Provider jdk = CryptoProvider.JDK.getProvider("MessageDigest", "SHA-256");
+
+    @Test
+    public void testMessageDigestReused() throws Exception {
+        MessageDigest md = EngineCache.getMessageDigest("SHA-256", jdk);
+        md.update(new byte[]{4, 5, 6});
+        MessageDigest again = EngineCache.getMessageDigest("SHA-256", jdk);
+        Assert.assertSame(md, again);
+        // The cached digest is reset
+        Assert.assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(new byte[]{1}), again.digest(new byte[]{1}));
+        Assert.assertNotSame(md, EngineCache.getMessageDigest("SHA-512", jdk));
+    }
+
+    @Test
+    public void testPerThread() throws Exception {
+        final MessageDigest md = EngineCache.getMessageDigest("SHA-256", jdk);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            MessageDigest other = executor.submit(new Callable<MessageDigest>() {
+                @Override
+                public MessageDigest call() throws Exception {
+                    return EngineCache.getMessageDigest("SHA-256", jdk);
+                }
+            }).get();
+            Assert.assertNotSame(md, other);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPooledPrivateKeySignature() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        KeyPair keyPair = generator.generateKeyPair();
+        Provider provider = CryptoProvider.JDK.getProvider("Signature", "SHA256withRSA");
+        PooledPrivateKeySignature externalSignature = new PooledPrivateKeySignature(keyPair.getPrivate(), "SHA-256", provider);
+        Assert.assertEquals("SHA256withRSA", externalSignature.getSignatureAlgorithm());
+
+        byte[] message = {1, 2, 3};
+        for (int i = 0; i < 2; ++i) {
+            Signature verifier = Signature.getInstance("SHA256withRSA");
+            verifier.initVerify(keyPair.getPublic());
+            verifier.update(message);
+            Assert.assertTrue(verifier.verify(externalSignature.sign(message)));
+        }
+        Assert.assertSame(EngineCache.getSignature("SHA256withRSA", provider),
+                EngineCache.getSignature("SHA256withRSA", provider));
+    }
+}
@@ -0,0 +1,221 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.operation.signature;
+
+import cz.hobrasoft.pdfmu.TsaStub;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Filip Bártek
+ */
+public class PooledTSAClientTest {
+
+    private TsaStub tsa;
+    private TsaStub fallbackTsa;
+
+    @Before
+    public void setUp() throws Exception {
+        tsa = new TsaStub();
+        fallbackTsa = new TsaStub();
+    }
+
+    @After
+    public void tearDown() {
+        tsa.close();
+        fallbackTsa.close();
+    }
+
+    private static byte[] imprint() throws Exception {
+        return MessageDigest.getInstance("SHA-256").digest(new byte[]{1, 2, 3});
+    }
+
+    private PooledTSAClient newClient(int readTimeout, int retries) {
+        return new PooledTSAClient(tsa.getUrl(), null, null, 1000, readTimeout, 2, retries);
+    }
+
+    private PooledTSAClient newHedgedClient(Long hedgeDelay) {
+        return new PooledTSAClient(Arrays.asList(new String[]{tsa.getUrl(), fallbackTsa.getUrl()}),
+                null, null, 1000, 5000, 2, 0, hedgeDelay);
+    }
+
+    @Test
+    public void testKeepAlive() throws Exception {
+        PooledTSAClient client = newClient(5000, 0);
+        Assert.assertNotNull(client.getTimeStampToken(imprint()));
+        Assert.assertNotNull(client.getTimeStampToken(imprint()));
+        Assert.assertNotNull(newClient(5000, 0).getTimeStampToken(imprint()));
+        Assert.assertEquals(3, tsa.getRequestCount());
+        Assert.assertEquals(1, tsa.getConnectionCount());
+        Assert.assertNotNull(client.getLastLatency());
+    }
+
+    @Test
+    public void testRetryServerError() throws Exception {
+        tsa.failNext(2, 503);
+        PooledTSAClient client = newClient(5000, 2);
+        Assert.assertNotNull(client.getTimeStampToken(imprint()));
+        Assert.assertEquals(3, client.getLastAttempts());
+        Assert.assertEquals(3, tsa.getRequestCount());
+    }
+
+    @Test
+    public void testNoRetryClientError() throws Exception {
+        tsa.failNext(1, 401);
+        PooledTSAClient client = newClient(5000, 2);
+        try {
+            client.getTimeStampToken(imprint());
+            Assert.fail();
+        } catch (IOException ex) {
+            Assert.assertEquals(String.format("Server returned HTTP response code: 401 for URL: %s", tsa.getUrl()),
+                    ex.getMessage());
+        }
+        Assert.assertEquals(1, tsa.getRequestCount());
+    }
+
+    @Test(expected = SocketTimeoutException.class)
+    public void testReadTimeout() throws Exception {
+        tsa.setDelay(2000);
+        newClient(200, 0).getTimeStampToken(imprint());
+    }
+
+    @Test
+    public void testCircuitBreaker() throws Exception {
+        tsa.failNext(Integer.MAX_VALUE, 500);
+        PooledTSAClient client = newClient(5000, 0);
+        for (int i = 0; i < TsaEndpoint.FAILURE_THRESHOLD; ++i) {
+            try {
+                client.getTimeStampToken(imprint());
+                Assert.fail();
+            } catch (TsaCircuitOpenException ex) {
+                Assert.fail();
+            } catch (IOException ex) {
+                // Expected
+            }
+        }
+        try {
+            client.getTimeStampToken(imprint());
+            Assert.fail();
+        } catch (TsaCircuitOpenException ex) {
+            Assert.assertEquals(tsa.getUrl(), ex.getUrl());
+        }
+        Assert.assertEquals(TsaEndpoint.FAILURE_THRESHOLD, tsa.getRequestCount());
+    }
+
+    @Test
+    public void testReconnect() throws Exception {
+        PooledTSAClient client = newClient(5000, 0);
+        Assert.assertNotNull(client.getTimeStampToken(imprint()));
+        tsa.dropNext(1);
+        Assert.assertNotNull(client.getTimeStampToken(imprint()));
+        Assert.assertEquals(2, client.getLastAttempts());
+        Assert.assertEquals(3, tsa.getRequestCount());
+    }
+
+    @Test
+    public void testCircuitBreakerDroppedConnections() throws Exception {
+        tsa.dropNext(Integer.MAX_VALUE);
+        PooledTSAClient client = newClient(5000, 1);
+        for (int i = 0; i < TsaEndpoint.FAILURE_THRESHOLD; ++i) {
+            try {
+                client.getTimeStampToken(imprint());
+                Assert.fail();
+            } catch (TsaCircuitOpenException ex) {
+                Assert.fail();
+            } catch (IOException ex) {
+                // Expected
+            }
+        }
+        try {
+            client.getTimeStampToken(imprint());
+            Assert.fail();
+        } catch (TsaCircuitOpenException ex) {
+            Assert.assertEquals(tsa.getUrl(), ex.getUrl());
+        }
+        // The reconnection and the retry
+        Assert.assertEquals(3 * TsaEndpoint.FAILURE_THRESHOLD, tsa.getRequestCount());
+    }
+
+    @Test
+    public void testHedgeCredentials() throws Exception {
+        tsa.failNext(1, 503);
+        PooledTSAClient client = new PooledTSAClient(Arrays.asList(new String[]{tsa.getUrl(), fallbackTsa.getUrl()}),
+                "user", "secret", 1000, 5000, 2, 0, 1000L);
+        Assert.assertNotNull(client.getTimeStampToken(imprint()));
+        Assert.assertEquals(fallbackTsa.getUrl(), client.getLastUrl());
+        Assert.assertEquals("Basic dXNlcjpzZWNyZXQ=", tsa.getLastAuthorization());
+        Assert.assertEquals(1, fallbackTsa.getRequestCount());
+        Assert.assertNull(fallbackTsa.getLastAuthorization());
+    }
+
+    @Test
+    public void testHedgeNotNeeded() throws Exception {
+        PooledTSAClient client = newHedgedClient(1000L);
+        Assert.assertNotNull(client.getTimeStampToken(imprint()));
+        Assert.assertEquals(tsa.getUrl(), client.getLastUrl());
+        Assert.assertEquals(0, fallbackTsa.getRequestCount());
+    }
+
+    @Test
+    public void testHedgeSlowPrimary() throws Exception {
+        tsa.setDelay(3000);
+        PooledTSAClient client = newHedgedClient(100L);
+        Assert.assertNotNull(client.getTimeStampToken(imprint()));
+        Assert.assertEquals(fallbackTsa.getUrl(), client.getLastUrl());
+        Assert.assertTrue(client.getLastLatency() < 2000);
+        Assert.assertEquals(1, tsa.getRequestCount());
+    }
+
+    @Test
+    public void testHedgeFailedPrimary() throws Exception {
+        tsa.failNext(1, 401);
+        PooledTSAClient client = newHedgedClient(10000L);
+        Assert.assertNotNull(client.getTimeStampToken(imprint()));
+        Assert.assertEquals(fallbackTsa.getUrl(), client.getLastUrl());
+        Assert.assertTrue(client.getLastLatency() < 5000);
+    }
+
+    @Test
+    public void testHedgeAllFailed() throws Exception {
+        tsa.failNext(1, 401);
+        fallbackTsa.failNext(1, 401);
+        try {
+            newHedgedClient(10000L).getTimeStampToken(imprint());
+            Assert.fail();
+        } catch (IOException ex) {
+            Assert.assertEquals(String.format("Server returned HTTP response code: 401 for URL: %s", tsa.getUrl()),
+                    ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testLatencyPercentile() throws Exception {
+        PooledTSAClient client = newClient(5000, 0);
+        TsaEndpoint endpoint = TsaEndpoint.get(tsa.getUrl(), 2);
+        for (int i = 0; i < TsaEndpoint.LATENCY_MIN_SAMPLES; ++i) {
+            Assert.assertNull(endpoint.getLatencyPercentile(0.95));
+            client.getTimeStampToken(imprint());
+        }
+        Assert.assertNotNull(endpoint.getLatencyPercentile(0.95));
+    }
+}
@@ -0,0 +1,221 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.operation.signature;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itextpdf.text.Document;
+import com.itextpdf.text.Paragraph;
+import com.itextpdf.text.pdf.AcroFields;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfStream;
+import com.itextpdf.text.pdf.PdfWriter;
+import com.itextpdf.text.pdf.security.BouncyCastleDigest;
+import cz.hobrasoft.pdfmu.WritingMapper;
+import cz.hobrasoft.pdfmu.operation.Operation;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.Subparser;
+import org.apache.commons.io.IOUtils;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Filip Bártek
+ */
+public class ResumableDigestTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final Operation operation = OperationSignatureAdd.getInstance();
+
+    @After
+    public void tearDown() {
+        operation.setWritingMapper(null);
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        byte[] data = new byte[300000];
+        new Random(42).nextBytes(data);
+        int resumedLength = 123457;
+
+        SHA256Digest prefix = new SHA256Digest();
+        prefix.update(data, 0, resumedLength);
+
+        ResumableDigest digest = new ResumableDigest(new BouncyCastleDigest(), "SHA-256",
+                prefix.getEncodedState(), resumedLength);
+        MessageDigest md = digest.getMessageDigest("SHA256");
+        for (int offset = 0; offset < data.length; offset += 8192) {
+            md.update(data, offset, Math.min(8192, data.length - offset));
+        }
+        Assert.assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(data), md.digest());
+        Assert.assertEquals(resumedLength, digest.getResumedLength());
+    }
+
+    @Test
+    public void testCorruptedState() throws Exception {
+        ResumableDigest digest = new ResumableDigest(new BouncyCastleDigest(), "SHA256", new byte[]{1, 2, 3}, 100);
+        byte[] data = "data".getBytes(StandardCharsets.US_ASCII);
+        MessageDigest md = digest.getMessageDigest("SHA256");
+        Assert.assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(data), md.digest(data));
+        Assert.assertEquals(0, digest.getResumedLength());
+    }
+
+    @Test
+    public void testUnsupported() {
+        Assert.assertTrue(ResumableDigest.isSupported("SHA-512"));
+        Assert.assertFalse(ResumableDigest.isSupported("RIPEMD160"));
+    }
+
+    @Test
+    public void testFindHoleStart() throws Exception {
+        byte[] document = "<</ByteRange[0 10 20 5 ]/Contents <00>>> /ByteRange [0 1234 5678 90 ]"
+                .getBytes(StandardCharsets.US_ASCII);
+        Assert.assertEquals(1234, ResumableDigest.findHoleStart(document, document.length));
+    }
+
+    private File copyResource(String name) throws Exception {
+        File file = folder.newFile(name);
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(name);
+                OutputStream out = new FileOutputStream(file)) {
+            IOUtils.copy(in, out);
+        }
+        return file;
+    }
+
+    private JsonNode sign(File file, File keystoreFile, File cache) throws Exception {
+        ArgumentParser parser = ArgumentParsers.newArgumentParser("test");
+        Subparser subparser = parser.addSubparsers().addParser("sign");
+        operation.configureSubparser(subparser);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        operation.setWritingMapper(new WritingMapper(new ObjectMapper(), os));
+        operation.execute(parser.parseArgs(new String[]{"sign",
+            file.getAbsolutePath(), "--force",
+            "--keystore", keystoreFile.getAbsolutePath(),
+            "--digest-cache", cache.getAbsolutePath()}));
+        return new ObjectMapper().readTree(os.toByteArray()).get("result");
+    }
+
+    @Test
+    public void testSignRepeatedly() throws Exception {
+        File file = copyResource("blank-12.pdf");
+        File keystoreFile = copyResource("1.p12");
+        File cache = new File(folder.getRoot(), "cache");
+
+        JsonNode result = sign(file, keystoreFile, cache);
+        Assert.assertFalse(result.has("digestResumedLength"));
+        for (int i = 0; i < 2; ++i) {
+            long length = file.length();
+            result = sign(file, keystoreFile, cache);
+            Assert.assertEquals(length, result.get("digestResumedLength").asLong());
+        }
+        Assert.assertEquals(3, cache.listFiles().length);
+
+        PdfReader reader = new PdfReader(file.getAbsolutePath());
+        try {
+            AcroFields fields = reader.getAcroFields();
+            List<String> names = fields.getSignatureNames();
+            Assert.assertEquals(3, names.size());
+            for (String name : names) {
+                Assert.assertTrue(name, fields.verifySignature(name).verify());
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Creates a document whose beginning is far from its end
+     *
+     * @return the offset of a byte of an unused stream in the document
+     */
+    private static long createLargeDocument(File file) throws Exception {
+        byte[] marker = "PDFMU-MARKER".getBytes(StandardCharsets.US_ASCII);
+        byte[] data = new byte[4 * DigestStateCache.TAIL_LENGTH];
+        new Random(42).nextBytes(data);
+        System.arraycopy(marker, 0, data, 0, marker.length);
+        Document document = new Document();
+        try (OutputStream os = new FileOutputStream(file)) {
+            PdfWriter writer = PdfWriter.getInstance(document, os);
+            document.open();
+            writer.addToBody(new PdfStream(data));
+            document.add(new Paragraph("PDFMU"));
+            document.close();
+        }
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        for (int i = 0; i + marker.length <= bytes.length; ++i) {
+            if (Arrays.equals(marker, Arrays.copyOfRange(bytes, i, i + marker.length))) {
+                return i + marker.length;
+            }
+        }
+        throw new AssertionError("Marker not found");
+    }
+
+    /**
+     * A document edited in place without changing its length or modification
+     * time is hashed whole.
+     */
+    @Test
+    public void testModifiedInPlace() throws Exception {
+        File file = folder.newFile("large.pdf");
+        long offset = createLargeDocument(file);
+        File keystoreFile = copyResource("1.p12");
+        File cache = new File(folder.getRoot(), "cache");
+
+        sign(file, keystoreFile, cache);
+        Assert.assertTrue(file.length() - offset > DigestStateCache.TAIL_LENGTH);
+        long modified = file.lastModified();
+        // Let the status change time advance
+        Thread.sleep(10);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(offset);
+            int b = raf.read();
+            raf.seek(offset);
+            raf.write(b ^ 1);
+        }
+        Assert.assertTrue(file.setLastModified(modified));
+
+        JsonNode result = sign(file, keystoreFile, cache);
+        Assert.assertFalse(result.has("digestResumedLength"));
+        PdfReader reader = new PdfReader(file.getAbsolutePath());
+        try {
+            AcroFields fields = reader.getAcroFields();
+            List<String> names = fields.getSignatureNames();
+            Assert.assertTrue(fields.verifySignature(names.get(names.size() - 1)).verify());
+        } finally {
+            reader.close();
+        }
+    }
+}
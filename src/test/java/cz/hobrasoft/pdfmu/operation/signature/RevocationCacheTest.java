@@ -0,0 +1,215 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.operation.signature;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itextpdf.text.pdf.AcroFields;
+import com.itextpdf.text.pdf.PdfArray;
+import com.itextpdf.text.pdf.PdfDictionary;
+import com.itextpdf.text.pdf.PdfName;
+import com.itextpdf.text.pdf.PdfReader;
+import cz.hobrasoft.pdfmu.RevocationStub;
+import cz.hobrasoft.pdfmu.WritingMapper;
+import cz.hobrasoft.pdfmu.operation.Operation;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.Subparser;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Signs documents with the option --ltv against a {@link RevocationStub}.
+ *
+ * @author Filip Bártek
+ */
+public class RevocationCacheTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final Operation operation = OperationSignatureAdd.getInstance();
+
+    private RevocationStub stub;
+    private File keystoreFile;
+
+    @Before
+    public void setUp() throws Exception {
+        stub = new RevocationStub();
+        keystoreFile = folder.newFile("signer.p12");
+        stub.writeKeystore(keystoreFile);
+    }
+
+    @After
+    public void tearDown() {
+        operation.setWritingMapper(null);
+        stub.close();
+    }
+
+    private File copyResource(String name, String fileName) throws Exception {
+        File file = folder.newFile(fileName);
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(name);
+                OutputStream out = new FileOutputStream(file)) {
+            IOUtils.copy(in, out);
+        }
+        return file;
+    }
+
+    private JsonNode sign(File file, File cache) throws Exception {
+        ArgumentParser parser = ArgumentParsers.newArgumentParser("test");
+        Subparser subparser = parser.addSubparsers().addParser("sign");
+        operation.configureSubparser(subparser);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        operation.setWritingMapper(new WritingMapper(new ObjectMapper(), os));
+        List<String> args = new ArrayList<>(Arrays.asList(new String[]{"sign",
+            file.getAbsolutePath(), "--force",
+            "--keystore", keystoreFile.getAbsolutePath(),
+            "--keystore-type", "pkcs12",
+            "--keystore-password", RevocationStub.PASSWORD,
+            "--ltv"}));
+        if (cache != null) {
+            args.add("--ltv-cache");
+            args.add(cache.getAbsolutePath());
+        }
+        operation.execute(parser.parseArgs(args.toArray(new String[]{})));
+        return new ObjectMapper().readTree(os.toByteArray()).get("result");
+    }
+
+    /**
+     * Checks that the signature is valid and returns the DSS.
+     */
+    private static PdfDictionary getDss(File file) throws Exception {
+        PdfReader reader = new PdfReader(file.getAbsolutePath());
+        try {
+            AcroFields fields = reader.getAcroFields();
+            List<String> names = fields.getSignatureNames();
+            Assert.assertEquals(1, names.size());
+            Assert.assertTrue(fields.verifySignature(names.get(0)).verify());
+            // The LTV revision follows the signed revision
+            Assert.assertFalse(fields.signatureCoversWholeDocument(names.get(0)));
+            PdfDictionary dss = reader.getCatalog().getAsDict(PdfName.DSS);
+            Assert.assertNotNull(dss);
+            Assert.assertEquals(1, dss.getAsDict(PdfName.VRI).size());
+            Assert.assertTrue(dss.getAsArray(PdfName.CERTS).size() >= 2);
+            return dss;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static int size(PdfArray array) {
+        return array == null ? 0 : array.size();
+    }
+
+    @Test
+    public void testOcspCached() throws Exception {
+        File cache = new File(folder.getRoot(), "cache");
+        File first = copyResource("blank-12.pdf", "first.pdf");
+        File second = copyResource("blank-12.pdf", "second.pdf");
+
+        JsonNode result = sign(first, cache);
+        Assert.assertEquals(1, result.get("ltvOcspResponses").asInt());
+        Assert.assertEquals(0, result.get("ltvCrls").asInt());
+        Assert.assertEquals(1, result.get("ltvFetches").asInt());
+        PdfDictionary dss = getDss(first);
+        Assert.assertEquals(1, size(dss.getAsArray(PdfName.OCSPS)));
+        Assert.assertEquals(0, size(dss.getAsArray(PdfName.CRLS)));
+
+        // The second document uses the response stored by the first run
+        result = sign(second, cache);
+        Assert.assertEquals(1, result.get("ltvOcspResponses").asInt());
+        Assert.assertEquals(0, result.get("ltvFetches").asInt());
+        Assert.assertEquals(1, size(getDss(second).getAsArray(PdfName.OCSPS)));
+
+        Assert.assertEquals(1, stub.getOcspRequestCount());
+        Assert.assertEquals(0, stub.getCrlRequestCount());
+        Assert.assertEquals(1, cache.list().length);
+    }
+
+    @Test
+    public void testCorruptEntry() throws Exception {
+        File cache = new File(folder.getRoot(), "cache");
+        sign(copyResource("blank-12.pdf", "first.pdf"), cache);
+        File entry = cache.listFiles()[0];
+        byte[] encoded = Files.readAllBytes(entry.toPath());
+        Assert.assertTrue(RevocationCache.isDerObject(encoded));
+
+        // A longer response of a concurrent writer mixed into the entry
+        try (OutputStream os = new FileOutputStream(entry, true)) {
+            os.write(new byte[]{0x30, 0x03, 0x02, 0x01});
+        }
+        Assert.assertFalse(RevocationCache.isDerObject(Files.readAllBytes(entry.toPath())));
+        Assert.assertFalse(RevocationCache.isDerObject(Arrays.copyOf(encoded, encoded.length - 1)));
+
+        JsonNode result = sign(copyResource("blank-12.pdf", "second.pdf"), cache);
+        Assert.assertEquals(1, result.get("ltvFetches").asInt());
+        Assert.assertEquals(2, stub.getOcspRequestCount());
+        Assert.assertTrue(RevocationCache.isDerObject(Files.readAllBytes(entry.toPath())));
+        Assert.assertEquals(1, cache.list().length);
+    }
+
+    @Test
+    public void testExpired() throws Exception {
+        File cache = new File(folder.getRoot(), "cache");
+        stub.setNextUpdateDelay(-TimeUnit.MINUTES.toMillis(1));
+
+        sign(copyResource("blank-12.pdf", "first.pdf"), cache);
+        sign(copyResource("blank-12.pdf", "second.pdf"), cache);
+
+        Assert.assertEquals(2, stub.getOcspRequestCount());
+        Assert.assertFalse(cache.exists() && cache.list().length > 0);
+    }
+
+    @Test
+    public void testCrlFallback() throws Exception {
+        stub.setOcspAvailable(false);
+        File cache = new File(folder.getRoot(), "cache");
+        File first = copyResource("blank-12.pdf", "first.pdf");
+
+        JsonNode result = sign(first, cache);
+        Assert.assertEquals(0, result.get("ltvOcspResponses").asInt());
+        Assert.assertEquals(1, result.get("ltvCrls").asInt());
+        PdfDictionary dss = getDss(first);
+        Assert.assertEquals(0, size(dss.getAsArray(PdfName.OCSPS)));
+        Assert.assertEquals(1, size(dss.getAsArray(PdfName.CRLS)));
+
+        sign(copyResource("blank-12.pdf", "second.pdf"), cache);
+        Assert.assertEquals(1, stub.getCrlRequestCount());
+    }
+
+    @Test
+    public void testMemoryOnly() throws Exception {
+        JsonNode result = sign(copyResource("blank-12.pdf", "first.pdf"), null);
+        Assert.assertEquals(1, result.get("ltvFetches").asInt());
+        Assert.assertEquals(1, stub.getOcspRequestCount());
+    }
+}
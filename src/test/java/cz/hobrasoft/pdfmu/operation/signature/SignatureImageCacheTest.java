@@ -0,0 +1,97 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.operation.signature;
+
+import com.itextpdf.text.Image;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.zip.InflaterOutputStream;
+import javax.imageio.ImageIO;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Filip Bártek
+ */
+public class SignatureImageCacheTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File newImage(String name, int alpha) throws IOException {
+        File file = folder.newFile(name);
+        BufferedImage image = new BufferedImage(16, 8, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setColor(new Color(255, 0, 0, alpha));
+            graphics.fillRect(0, 0, 8, 8);
+        } finally {
+            graphics.dispose();
+        }
+        ImageIO.write(image, "png", file);
+        return file;
+    }
+
+    private static byte[] inflate(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InflaterOutputStream inflaterOut = new InflaterOutputStream(out)) {
+            inflaterOut.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testCached() throws Exception {
+        File file = newImage("logo.png", 128);
+        Image image = SignatureImageCache.getImage(file);
+        Assert.assertSame(image, SignatureImageCache.getImage(file));
+
+        // A modified file is reloaded
+        newImage("other.png", 64).renameTo(file);
+        Assert.assertTrue(file.setLastModified(file.lastModified() + 2000));
+        Assert.assertNotSame(image, SignatureImageCache.getImage(file));
+    }
+
+    @Test
+    public void testCompress() throws Exception {
+        File file = newImage("logo.png", 128);
+        Image decoded = Image.getInstance(file.getAbsolutePath());
+        // iText decodes a PNG with transparency into raw samples and a soft mask
+        Assert.assertTrue(decoded.isImgRaw());
+        Assert.assertFalse(decoded.isDeflated());
+        Assert.assertNotNull(decoded.getImageMask());
+
+        Image compressed = SignatureImageCache.getImage(file);
+        Assert.assertTrue(compressed.isDeflated());
+        Assert.assertArrayEquals(decoded.getRawData(), inflate(compressed.getRawData()));
+        Assert.assertEquals(decoded.getWidth(), compressed.getWidth(), 0);
+        Assert.assertEquals(decoded.getColorspace(), compressed.getColorspace());
+
+        Image mask = compressed.getImageMask();
+        Assert.assertNotNull(mask);
+        Assert.assertTrue(mask.isDeflated());
+        Assert.assertTrue(mask.isMask());
+        Assert.assertEquals(decoded.getImageMask().isSmask(), mask.isSmask());
+        Assert.assertArrayEquals(decoded.getImageMask().getRawData(), inflate(mask.getRawData()));
+    }
+}
@@ -0,0 +1,164 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.operation.signature;
+
+import com.itextpdf.text.pdf.security.BouncyCastleDigest;
+import com.itextpdf.text.pdf.security.MakeSignature;
+import com.itextpdf.text.pdf.security.PdfPKCS7;
+import com.itextpdf.text.pdf.security.TSAClient;
+import com.tngtech.java.junit.dataprovider.DataProvider;
+import com.tngtech.java.junit.dataprovider.DataProviderRunner;
+import com.tngtech.java.junit.dataprovider.UseDataProvider;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.cert.Certificate;
+import java.util.Arrays;
+import java.util.Calendar;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.ASN1Set;
+import org.bouncycastle.asn1.ASN1TaggedObject;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERSet;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x9.X9ObjectIdentifiers;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares the signature containers assembled by {@link SigningIdentity} with
+ * the ones encoded by {@link PdfPKCS7}. The signature algorithm of ECDSA
+ * signatures differs on purpose.
+ *
+ * @author Filip Bártek
+ */
+@RunWith(DataProviderRunner.class)
+public class SigningIdentityTest {
+
+    private static Certificate[] loadChain(String keystore) throws IOException, GeneralSecurityException {
+        KeyStore ks = KeyStore.getInstance("pkcs12");
+        try (InputStream in = SigningIdentityTest.class.getResourceAsStream("/" + keystore)) {
+            ks.load(in, "changeit".toCharArray());
+        }
+        return ks.getCertificateChain(ks.aliases().nextElement());
+    }
+
+    /**
+     * Returns a token that contains the imprint.
+     */
+    private static class FakeTSAClient implements TSAClient {
+
+        @Override
+        public int getTokenSizeEstimate() {
+            return 64;
+        }
+
+        @Override
+        public MessageDigest getMessageDigest() throws GeneralSecurityException {
+            return MessageDigest.getInstance("SHA-256");
+        }
+
+        @Override
+        public byte[] getTimeStampToken(byte[] imprint) throws Exception {
+            return new DERSequence(new ASN1Encodable[]{
+                PKCSObjectIdentifiers.data,
+                new DEROctetString(imprint)}).getEncoded(ASN1Encoding.DER);
+        }
+    }
+
+    /**
+     * Replaces the signature algorithm of the only signer info of a signature
+     * container.
+     */
+    private static byte[] withSignatureAlgorithm(byte[] encoded, ASN1ObjectIdentifier algorithm) throws IOException {
+        ASN1Sequence contentInfo = ASN1Sequence.getInstance(encoded);
+        ASN1Sequence signedData = ASN1Sequence.getInstance(
+                ((ASN1TaggedObject) contentInfo.getObjectAt(1)).getObject());
+        ASN1Encodable[] signedDataElements = signedData.toArray();
+        ASN1Set signerInfos = (ASN1Set) signedDataElements[signedDataElements.length - 1];
+        ASN1Encodable[] signerInfo = ASN1Sequence.getInstance(signerInfos.getObjectAt(0)).toArray();
+        // version, sid, digestAlgorithm, signedAttrs, signatureAlgorithm, ...
+        signerInfo[4] = new DERSequence(algorithm);
+        signedDataElements[signedDataElements.length - 1] = new DERSet(new DERSequence(signerInfo));
+        return new DERSequence(new ASN1Encodable[]{
+            contentInfo.getObjectAt(0),
+            new DERTaggedObject(0, new DERSequence(signedDataElements))}).getEncoded(ASN1Encoding.DER);
+    }
+
+    /**
+     * The last column is the signature algorithm that replaces the one written
+     * by iText, or null if they match.
+     */
+    @DataProvider
+    public static Object[][] dataProviderEncoded() {
+        return new Object[][]{
+            {"1-changeit.p12", "SHA256", "RSA", MakeSignature.CryptoStandard.CMS, false, null},
+            {"1-changeit.p12", "SHA512", "RSA", MakeSignature.CryptoStandard.CADES, false, null},
+            {"1-changeit.p12", "SHA256", "RSA", MakeSignature.CryptoStandard.CMS, true, null},
+            {"ecdsa-p256-changeit.p12", "SHA256", "ECDSA", MakeSignature.CryptoStandard.CADES, true,
+                X9ObjectIdentifiers.ecdsa_with_SHA256},
+            {"ecdsa-p256-changeit.p12", "SHA384", "ECDSA", MakeSignature.CryptoStandard.CMS, false,
+                X9ObjectIdentifiers.ecdsa_with_SHA384}
+        };
+    }
+
+    @Test
+    @UseDataProvider
+    public void testEncoded(String keystore, String hashAlgorithm, String encryptionAlgorithm,
+            MakeSignature.CryptoStandard sigtype, boolean timestamp,
+            ASN1ObjectIdentifier signatureAlgorithm) throws Exception {
+        Certificate[] chain = loadChain(keystore);
+        byte[] documentDigest = MessageDigest.getInstance(hashAlgorithm).digest(new byte[]{1, 2, 3});
+        byte[] signature = new byte[256];
+        Arrays.fill(signature, (byte) 0x5a);
+        TSAClient tsaClient = timestamp ? new FakeTSAClient() : null;
+        Calendar signingTime = Calendar.getInstance();
+
+        PdfPKCS7 sgn = new PdfPKCS7(null, chain, hashAlgorithm, null, new BouncyCastleDigest(), false);
+        byte[] expectedAttributes = sgn.getAuthenticatedAttributeBytes(documentDigest, signingTime, null, null, sigtype);
+        sgn.setExternalDigest(signature, null, encryptionAlgorithm);
+        byte[] expected = sgn.getEncodedPKCS7(documentDigest, signingTime, tsaClient, null, null, sigtype);
+        if (signatureAlgorithm != null) {
+            expected = withSignatureAlgorithm(expected, signatureAlgorithm);
+        }
+
+        SigningIdentity identity = SigningIdentity.getInstance(chain, hashAlgorithm, encryptionAlgorithm, sigtype);
+        byte[] signedAttributes = identity.getSignedAttributes(documentDigest, signingTime);
+        Assert.assertArrayEquals(expectedAttributes, signedAttributes);
+        byte[] timestampToken = null;
+        if (tsaClient != null) {
+            timestampToken = tsaClient.getTimeStampToken(tsaClient.getMessageDigest().digest(signature));
+        }
+        Assert.assertArrayEquals(expected, identity.getEncoded(signedAttributes, signature, timestampToken));
+    }
+
+    @Test
+    public void testCached() throws Exception {
+        Certificate[] chain = loadChain("1-changeit.p12");
+        SigningIdentity identity = SigningIdentity.getInstance(chain, "SHA256", "RSA", MakeSignature.CryptoStandard.CMS);
+        Assert.assertSame(identity, SigningIdentity.getInstance(chain.clone(), "SHA256", "RSA", MakeSignature.CryptoStandard.CMS));
+        Assert.assertNotSame(identity, SigningIdentity.getInstance(chain, "SHA256", "RSA", MakeSignature.CryptoStandard.CADES));
+    }
+}
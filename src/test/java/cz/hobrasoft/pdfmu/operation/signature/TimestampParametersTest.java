@@ -0,0 +1,167 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.operation.signature;
+
+import cz.hobrasoft.pdfmu.TsaStub;
+import cz.hobrasoft.pdfmu.error.ErrorType;
+import cz.hobrasoft.pdfmu.operation.OperationException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.net.ssl.SSLSocketFactory;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Filip Bártek
+ */
+public class TimestampParametersTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private TsaStub tsa;
+    private File truststoreFile;
+
+    @Before
+    public void setUp() throws Exception {
+        tsa = new TsaStub(true);
+        truststoreFile = folder.newFile("truststore.jks");
+        tsa.writeTruststore(truststoreFile);
+    }
+
+    @After
+    public void tearDown() {
+        tsa.close();
+    }
+
+    private PooledTSAClient newClient(File truststoreFile) throws Exception {
+        return newClient(truststoreFile, "changeit");
+    }
+
+    /**
+     * @param password the password of the TrustStore, or null to omit it
+     */
+    private PooledTSAClient newClient(File truststoreFile, String password) throws Exception {
+        ArgumentParser parser = ArgumentParsers.newArgumentParser("test");
+        TimestampParameters parameters = new TimestampParameters();
+        parameters.addArguments(parser);
+        List<String> args = new ArrayList<>(Arrays.asList(
+                "--tsa-url", tsa.getUrl(),
+                "--ssl-truststore", truststoreFile.getAbsolutePath()));
+        if (password != null) {
+            args.add("--ssl-truststore-password");
+            args.add(password);
+        }
+        parameters.setFromNamespace(parser.parseArgs(args.toArray(new String[]{})));
+        return parameters.getTSAClient();
+    }
+
+    @Test
+    public void testSslContextCached() throws Exception {
+        byte[] imprint = MessageDigest.getInstance("SHA-256").digest(new byte[]{1});
+        PooledTSAClient client1 = newClient(truststoreFile);
+        PooledTSAClient client2 = newClient(truststoreFile);
+        Assert.assertNotNull(client1.getSslSocketFactory());
+        Assert.assertSame(client1.getSslSocketFactory(), client2.getSslSocketFactory());
+        Assert.assertNotNull(client1.getTimeStampToken(imprint));
+        Assert.assertNotNull(client2.getTimeStampToken(imprint));
+        Assert.assertEquals(1, tsa.getConnectionCount());
+        Assert.assertNull(System.getProperty("javax.net.ssl.trustStore"));
+    }
+
+    @Test
+    public void testSslContextPerTruststore() throws Exception {
+        File otherTruststoreFile = folder.newFile("other.jks");
+        try (TsaStub otherTsa = new TsaStub(true)) {
+            otherTsa.writeTruststore(otherTruststoreFile);
+        }
+        PooledTSAClient client1 = newClient(truststoreFile);
+        PooledTSAClient client2 = newClient(otherTruststoreFile);
+        Assert.assertNotSame(client1.getSslSocketFactory(), client2.getSslSocketFactory());
+    }
+
+    @Test
+    public void testSslContextEvicted() throws Exception {
+        KeyStore trustStore = KeyStore.getInstance("JKS");
+        try (InputStream is = new FileInputStream(truststoreFile)) {
+            trustStore.load(is, "changeit".toCharArray());
+        }
+        Certificate certificate = trustStore.getCertificate("tsa");
+        SSLSocketFactory first = null;
+        File firstFile = null;
+        for (int i = 0; i <= SslContextCache.CAPACITY; ++i) {
+            // Distinct contents
+            trustStore.setCertificateEntry(String.format("tsa-%d", i), certificate);
+            File file = folder.newFile(String.format("truststore-%d.jks", i));
+            try (OutputStream os = new FileOutputStream(file)) {
+                trustStore.store(os, "changeit".toCharArray());
+            }
+            SSLSocketFactory factory = newClient(file).getSslSocketFactory();
+            if (first == null) {
+                first = factory;
+                firstFile = file;
+            }
+            Assert.assertTrue(SslContextCache.size() <= SslContextCache.CAPACITY);
+        }
+        // The least recently used context has been dropped.
+        Assert.assertNotSame(first, newClient(firstFile).getSslSocketFactory());
+    }
+
+    /**
+     * A TrustStore may be loaded without its password. Its integrity is not
+     * checked then.
+     */
+    @Test
+    public void testTruststoreWithoutPassword() throws Exception {
+        byte[] imprint = MessageDigest.getInstance("SHA-256").digest(new byte[]{2});
+        PooledTSAClient client = newClient(truststoreFile, null);
+        Assert.assertNotNull(client.getTimeStampToken(imprint));
+
+        File cacerts = folder.newFile("cacerts.jks");
+        try (InputStream in = TimestampParametersTest.class.getResourceAsStream("/cacerts.jks")) {
+            Files.copy(in, cacerts.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Assert.assertNotNull(newClient(cacerts, null).getSslSocketFactory());
+    }
+
+    @Test
+    public void testTruststorePasswordIncorrect() throws Exception {
+        try {
+            newClient(truststoreFile, "incorrect");
+            Assert.fail();
+        } catch (OperationException ex) {
+            Assert.assertEquals(ErrorType.SSL_TRUSTSTORE_PASSWORD_INCORRECT.getCode(), ex.getCode());
+        }
+    }
+}
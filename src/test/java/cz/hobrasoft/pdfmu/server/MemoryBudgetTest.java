@@ -0,0 +1,128 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.server;
+
+import cz.hobrasoft.pdfmu.operation.signature.TimestampJournal;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import net.sourceforge.argparse4j.inf.Namespace;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Filip Bártek
+ */
+public class MemoryBudgetTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReserve() throws InterruptedException {
+        MemoryBudget budget = new MemoryBudget(100);
+        Assert.assertTrue(budget.reserve(60, 0));
+        Assert.assertTrue(budget.reserve(40, 0));
+        Assert.assertFalse(budget.reserve(1, 0));
+        budget.release(60);
+        Assert.assertTrue(budget.reserve(50, 0));
+        Assert.assertEquals(90, budget.getReserved());
+        Assert.assertEquals(100, budget.getPeak());
+        Assert.assertEquals(1, budget.getWaits());
+        Assert.assertEquals(1, budget.getRejections());
+    }
+
+    @Test
+    public void testTooLarge() throws InterruptedException {
+        MemoryBudget budget = new MemoryBudget(100);
+        Assert.assertFalse(budget.reserve(101, 1000));
+        Assert.assertEquals(0, budget.getWaits());
+        Assert.assertEquals(1, budget.getRejections());
+    }
+
+    /**
+     * A waiting request proceeds when another one releases its memory.
+     */
+    @Test
+    public void testWait() throws InterruptedException {
+        final MemoryBudget budget = new MemoryBudget(100);
+        Assert.assertTrue(budget.reserve(80, 0));
+        final AtomicBoolean reserved = new AtomicBoolean();
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reserved.set(budget.reserve(50, 10000));
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }
+        });
+        thread.start();
+        Thread.sleep(100);
+        Assert.assertEquals(1, done.getCount());
+        budget.release(80);
+        done.await();
+        Assert.assertTrue(reserved.get());
+        Assert.assertEquals(50, budget.getReserved());
+    }
+
+    @Test
+    public void testFootprint() throws IOException {
+        File in = folder.newFile("in.pdf");
+        Files.write(in.toPath(), new byte[1000]);
+        Map<String, Object> attrs = new HashMap<>();
+        attrs.put("in", in);
+        Namespace namespace = new Namespace(attrs);
+        Assert.assertEquals(Footprint.BASE + 2000, Footprint.estimate("inspect", namespace));
+        Assert.assertEquals(Footprint.BASE + 4000, Footprint.estimate("update-version", namespace));
+        Assert.assertEquals(Footprint.BASE + Footprint.SIGNATURE + 4000, Footprint.estimate("sign", namespace));
+        Assert.assertEquals(Footprint.BASE, Footprint.estimate("unknown", namespace));
+    }
+
+    @Test
+    public void testFootprintTimestampQueue() throws IOException, InterruptedException {
+        File queue = folder.newFolder("queue");
+        TimestampJournal journal = new TimestampJournal(queue);
+        for (int size : new int[]{1000, 3000, 2000}) {
+            File document = folder.newFile(String.format("%d.pdf", size));
+            Files.write(document.toPath(), new byte[size]);
+            journal.enqueue(document);
+            Thread.sleep(2); // Keeps the order of the jobs
+        }
+        Map<String, Object> attrs = new HashMap<>();
+        attrs.put("queue", queue);
+        attrs.put("batch_size", 16);
+        attrs.put("status", false);
+        Assert.assertEquals(Footprint.BASE + Footprint.SIGNATURE + 12000,
+                Footprint.estimate("timestamp-queue", new Namespace(attrs)));
+        attrs.put("batch_size", 1);
+        Assert.assertEquals(Footprint.BASE + Footprint.SIGNATURE + 4000,
+                Footprint.estimate("timestamp-queue", new Namespace(attrs)));
+        attrs.put("status", true);
+        Assert.assertEquals(Footprint.BASE,
+                Footprint.estimate("timestamp-queue", new Namespace(attrs)));
+    }
+}
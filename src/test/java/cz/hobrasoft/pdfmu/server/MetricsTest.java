@@ -0,0 +1,99 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.server;
+
+import cz.hobrasoft.pdfmu.RequestContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Filip Bártek
+ */
+public class MetricsTest {
+
+    private static final long MILLISECOND = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testText() {
+        Metrics metrics = new Metrics();
+
+        RequestContext context = RequestContext.begin(RequestContext.now(), false);
+        try {
+            RequestContext.countRead(1000);
+            RequestContext.countWritten(2000);
+            context.add(RequestContext.Phase.TSA, 30 * MILLISECOND);
+        } finally {
+            RequestContext.end();
+        }
+        metrics.requestStarted();
+        metrics.requestFinished("sign", 0, 40 * MILLISECOND, context);
+        metrics.requestStarted();
+        metrics.requestFinished("sign", 30, 3 * MILLISECOND, null);
+        metrics.requestStarted();
+
+        String text = metrics.toText();
+        Assert.assertTrue(text.contains("# TYPE pdfmu_requests_total counter\n"));
+        Assert.assertTrue(text.contains("pdfmu_requests_total{operation=\"sign\"} 2\n"));
+        Assert.assertTrue(text.contains("pdfmu_errors_total{operation=\"sign\",code=\"30\"} 1\n"));
+        Assert.assertTrue(text.contains("# TYPE pdfmu_request_duration_seconds histogram\n"));
+        Assert.assertTrue(text.contains("pdfmu_request_duration_seconds_bucket{operation=\"sign\",le=\"0.005\"} 1\n"));
+        Assert.assertTrue(text.contains("pdfmu_request_duration_seconds_bucket{operation=\"sign\",le=\"0.025\"} 1\n"));
+        Assert.assertTrue(text.contains("pdfmu_request_duration_seconds_bucket{operation=\"sign\",le=\"0.05\"} 2\n"));
+        Assert.assertTrue(text.contains("pdfmu_request_duration_seconds_bucket{operation=\"sign\",le=\"+Inf\"} 2\n"));
+        Assert.assertTrue(text.contains("pdfmu_request_duration_seconds_sum{operation=\"sign\"} 0.043\n"));
+        Assert.assertTrue(text.contains("pdfmu_request_duration_seconds_count{operation=\"sign\"} 2\n"));
+        Assert.assertTrue(text.contains("pdfmu_tsa_duration_seconds_bucket{le=\"0.025\"} 0\n"));
+        Assert.assertTrue(text.contains("pdfmu_tsa_duration_seconds_bucket{le=\"0.05\"} 1\n"));
+        Assert.assertTrue(text.contains("pdfmu_read_bytes_total 1000\n"));
+        Assert.assertTrue(text.contains("pdfmu_written_bytes_total 2000\n"));
+        Assert.assertTrue(text.contains("pdfmu_requests_in_flight 1\n"));
+    }
+
+    @Test
+    public void testLongDuration() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(TimeUnit.HOURS.toNanos(2));
+        long[] counts = histogram.getCounts(new double[]{1, 60});
+        Assert.assertArrayEquals(new long[]{0, 0, 1}, counts);
+    }
+
+    @Test
+    public void testEndpoint() throws IOException {
+        Metrics metrics = new Metrics();
+        metrics.requestFinished("inspect", 0, MILLISECOND, null);
+        try (MetricsEndpoint endpoint = new MetricsEndpoint(new InetSocketAddress("127.0.0.1", 0), metrics)) {
+            URL url = new URL("http", "127.0.0.1", endpoint.getAddress().getPort(), MetricsEndpoint.PATH);
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            Assert.assertEquals(200, connection.getResponseCode());
+            Assert.assertTrue(connection.getContentType().startsWith("text/plain; version=0.0.4"));
+            String body;
+            try (InputStream is = connection.getInputStream()) {
+                body = new Scanner(is, UTF_8.name()).useDelimiter("\\A").next();
+            }
+            Assert.assertEquals(metrics.toText(), body);
+            Assert.assertTrue(body.contains("pdfmu_requests_total{operation=\"inspect\"} 1\n"));
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/* 
+ * Copyright (C) 2016 Hobrasoft s.r.o.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.hobrasoft.pdfmu.jfr;
+
+import cz.hobrasoft.pdfmu.Main;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.SystemErrRule;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Filip Bártek
+ */
+public class EventsTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Rule
+    public final SystemErrRule systemErrRule = new SystemErrRule().mute();
+
+    @Test
+    public void testNotRecording() {
+        PhaseEvent event = Events.begin(Phase.PARSE);
+        event.setFile(new File("missing.pdf"));
+        event.succeed();
+        event.finish();
+    }
+
+    private File blank() throws IOException {
+        File file = new File(folder.getRoot(), "blank-12.pdf");
+        try (InputStream in = EventsTest.class.getResourceAsStream("/blank-12.pdf")) {
+            Files.copy(in, file.toPath());
+        }
+        return file;
+    }
+
+    private Map<String, RecordedEvent> record(String[] args) throws IOException {
+        File dump = new File(folder.getRoot(), "events.jfr");
+        try (Recording recording = new Recording()) {
+            for (String name : new String[]{"pdfmu.Open", "pdfmu.Parse", "pdfmu.Stamp", "pdfmu.Sign", "pdfmu.TsaRequest", "pdfmu.Write"}) {
+                recording.enable(name);
+            }
+            recording.start();
+            Assert.assertEquals(0, Main.run(args));
+            recording.stop();
+            recording.dump(dump.toPath());
+        }
+        Map<String, RecordedEvent> events = new HashMap<>();
+        List<RecordedEvent> recorded = RecordingFile.readAllEvents(dump.toPath());
+        for (RecordedEvent event : recorded) {
+            Assert.assertNull(events.put(event.getEventType().getName(), event));
+        }
+        return events;
+    }
+
+    @Test
+    public void testInspect() throws IOException {
+        Assert.assertTrue(Events.isAvailable());
+        File file = blank();
+        Map<String, RecordedEvent> events = record(new String[]{"inspect", file.getAbsolutePath()});
+        Assert.assertEquals(2, events.size());
+
+        RecordedEvent open = events.get("pdfmu.Open");
+        Assert.assertEquals("inspect", open.getString("operation"));
+        Assert.assertEquals(file.getAbsolutePath(), open.getString("file"));
+        Assert.assertEquals(file.length(), open.getLong("fileSize"));
+        Assert.assertEquals("success", open.getString("outcome"));
+
+        RecordedEvent parse = events.get("pdfmu.Parse");
+        Assert.assertEquals(1, parse.getInt("pageCount"));
+        Assert.assertEquals("success", parse.getString("outcome"));
+    }
+
+    @Test
+    public void testUpdateVersion() throws IOException {
+        File file = blank();
+        File outFile = new File(folder.getRoot(), "out.pdf");
+        Map<String, RecordedEvent> events = record(new String[]{"update-version", file.getAbsolutePath(),
+            "--out", outFile.getAbsolutePath(), "--version", "1.6"});
+
+        RecordedEvent stamp = events.get("pdfmu.Stamp");
+        Assert.assertEquals("update-version", stamp.getString("operation"));
+        Assert.assertEquals("success", stamp.getString("outcome"));
+        Assert.assertEquals(outFile.length(), stamp.getLong("fileSize"));
+
+        RecordedEvent write = events.get("pdfmu.Write");
+        Assert.assertEquals(outFile.getAbsolutePath(), write.getString("file"));
+        Assert.assertEquals(outFile.length(), write.getLong("fileSize"));
+    }
+}